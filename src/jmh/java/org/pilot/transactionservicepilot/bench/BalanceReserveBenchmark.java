@@ -0,0 +1,74 @@
+package org.pilot.transactionservicepilot.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pilot.transactionservicepilot.integration.InMemoryBalanceManager;
+import org.pilot.transactionservicepilot.service.BalanceManager;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reserve/commit sequences of BalanceManager against {@link InMemoryBalanceManager}, without Redis: the fused
+ * cents path of the request (reserveAndCommit, revert on a failed DB write), the two-step reserve then commit of
+ * the batch path, and a transfer. Every debit is paired with a credit so the balances stay constant.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BalanceReserveBenchmark {
+
+    private static final long SOURCE = 1L;
+    private static final long DESTINATION = 2L;
+
+    private final BigDecimal amount = new BigDecimal("1.00");
+    private BalanceManager balances;
+
+    @Setup
+    public void setUp() {
+        balances = new InMemoryBalanceManager();
+        BigDecimal opening = new BigDecimal("1000000.00");
+        balances.populateBalance(SOURCE, opening, opening, "USD");
+        balances.populateBalance(DESTINATION, opening, opening, "USD");
+    }
+
+    @Benchmark
+    public void reserveAndCommitThenCredit(Blackhole bh) {
+        bh.consume(balances.reserveAndCommit(SOURCE, 100L, true, "tx"));
+        bh.consume(balances.reserveAndCommit(SOURCE, 100L, false, "tx"));
+    }
+
+    @Benchmark
+    public BalanceManager.AppliedBalance reserveAndCommitThenRevert() {
+        BalanceManager.AppliedBalance applied = balances.reserveAndCommit(SOURCE, 100L, true, "tx");
+        balances.revert(SOURCE, 100L, true, "tx");
+        return applied;
+    }
+
+    @Benchmark
+    public BalanceManager.ReserveResult reserveThenCommit() {
+        BalanceManager.ReserveResult result = balances.reserve(SOURCE, amount, "tx");
+        balances.commit(SOURCE, amount, "tx");
+        // put the funds back for the next invocation
+        balances.reserveAndCommit(SOURCE, 100L, false, "tx");
+        return result;
+    }
+
+    @Benchmark
+    public void transferThereAndBack(Blackhole bh) {
+        bh.consume(balances.reserveTransfer(SOURCE, DESTINATION, 100L, "tx"));
+        bh.consume(balances.reserveTransfer(DESTINATION, SOURCE, 100L, "tx"));
+    }
+}
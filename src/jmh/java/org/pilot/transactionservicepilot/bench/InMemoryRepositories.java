@@ -0,0 +1,100 @@
+package org.pilot.transactionservicepilot.bench;
+
+import org.pilot.transactionservicepilot.entity.Account;
+import org.pilot.transactionservicepilot.entity.TransactionRecord;
+import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.repository.TransactionRepository;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Map-backed stand-ins for the Spring Data repositories, implementing only the calls of the request path
+ * (account lookup, conditional debit and credit, record lookup and insert); anything else throws. Not thread-safe,
+ * for single-threaded benchmark state.
+ */
+final class InMemoryRepositories {
+
+    // most recent records kept, so long runs stay within the heap
+    private static final int MAX_RECORDS = 100_000;
+
+    private InMemoryRepositories() {
+    }
+
+    static AccountRepository accounts(Map<Long, Account> store) {
+        return proxy(AccountRepository.class, (proxy, method, args) -> switch (method.getName()) {
+            case "findById" -> Optional.ofNullable(store.get((Long) args[0]));
+            case "debitIfAvailable" -> {
+                Account a = store.get((Long) args[0]);
+                BigDecimal amount = (BigDecimal) args[1];
+                if (a == null || a.getAvailableBalance().compareTo(amount) < 0) yield 0;
+                a.setBalance(a.getBalance().subtract(amount));
+                a.setAvailableBalance(a.getAvailableBalance().subtract(amount));
+                yield 1;
+            }
+            case "credit" -> {
+                Account a = store.get((Long) args[0]);
+                if (a == null) yield 0;
+                a.setBalance(a.getBalance().add((BigDecimal) args[1]));
+                yield 1;
+            }
+            case "save" -> {
+                Account a = (Account) args[0];
+                store.put(a.getId(), a);
+                yield a;
+            }
+            default -> unsupported(method.getName());
+        });
+    }
+
+    static TransactionRepository transactions() {
+        Map<String, TransactionRecord> byTxId = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TransactionRecord> eldest) {
+                return size() > MAX_RECORDS;
+            }
+        };
+        AtomicLong ids = new AtomicLong();
+        return proxy(TransactionRepository.class, (proxy, method, args) -> switch (method.getName()) {
+            case "findByTxId" -> Optional.ofNullable(byTxId.get((String) args[0]));
+            case "save", "saveAndFlush" -> {
+                TransactionRecord r = (TransactionRecord) args[0];
+                if (r.getId() == null) r.setId(ids.incrementAndGet());
+                byTxId.put(r.getTxId(), r);
+                yield r;
+            }
+            case "flush" -> null;
+            default -> unsupported(method.getName());
+        });
+    }
+
+    static Map<Long, Account> accountStore(long... ids) {
+        Map<Long, Account> store = new HashMap<>();
+        for (long id : ids) {
+            Account a = new Account();
+            a.setId(id);
+            a.setAccountNumber("bench-" + id);
+            a.setCurrency("USD");
+            a.setBalance(new BigDecimal("1000000.00"));
+            a.setAvailableBalance(new BigDecimal("1000000.00"));
+            store.put(id, a);
+        }
+        return store;
+    }
+
+    private static Object unsupported(String method) {
+        if (method.equals("toString")) return "InMemoryRepository";
+        throw new UnsupportedOperationException(method + " is not part of the benchmarked request path");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
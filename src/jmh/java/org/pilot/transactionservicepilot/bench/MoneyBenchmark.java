@@ -0,0 +1,60 @@
+package org.pilot.transactionservicepilot.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pilot.transactionservicepilot.dto.Money;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cents encoding and decoding done by BalanceManager on every Redis call (its toCents/fromCents delegate to
+ * {@link Money}): request amounts as parsed from JSON, stored DB balances with a larger scale, and the two reply
+ * shapes of Redis (Long script results, String hash fields).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyBenchmark {
+
+    private BigDecimal requestAmount = new BigDecimal("1234.56");
+    private BigDecimal storedBalance = new BigDecimal("1234.5600");
+    private long cents = 123456L;
+    private Object scriptReply = 123456L;
+    private Object hashField = "123456";
+
+    @Benchmark
+    public long exactCents() {
+        return Money.exactCents(requestAmount);
+    }
+
+    @Benchmark
+    public long toCentsStoredScale() {
+        return Money.toCents(storedBalance);
+    }
+
+    @Benchmark
+    public BigDecimal fromCents() {
+        return Money.fromCents(cents);
+    }
+
+    @Benchmark
+    public BigDecimal fromCentsScriptReply() {
+        return Money.fromCents(scriptReply);
+    }
+
+    @Benchmark
+    public BigDecimal fromCentsHashField() {
+        return Money.fromCents(hashField);
+    }
+}
@@ -0,0 +1,63 @@
+package org.pilot.transactionservicepilot.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON binding of the transaction endpoint: reading a request body as TransactionRequest (which also converts the
+ * amount to cents) and writing a TransactionResponse, with the same Jackson the web layer uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionJsonBenchmark {
+
+    private final JsonMapper mapper = JsonMapper.builder().build();
+    private byte[] debitBody;
+    private byte[] transferBody;
+    private TransactionResponse response;
+
+    @Setup
+    public void setUp() {
+        debitBody = """
+                {"txId":"3f2c1a9e-6b1d-4c7a-9a57-0d8e2f4b7c11","accountId":42,"type":"DEBIT","amount":125.50,\
+                "currency":"USD","timestamp":"2025-01-15T10:15:30Z"}""".getBytes(StandardCharsets.UTF_8);
+        transferBody = """
+                {"txId":"8a7d5e3c-2f1b-4e9d-b6c4-1a2b3c4d5e6f","sourceAccountId":42,"destinationAccountId":43,\
+                "type":"TRANSFER","amount":10.00,"currency":"USD","timestamp":"2025-01-15T10:15:30Z"}""".getBytes(StandardCharsets.UTF_8);
+        response = new TransactionResponse("3f2c1a9e-6b1d-4c7a-9a57-0d8e2f4b7c11", "COMMITTED", new BigDecimal("874.50"), null);
+    }
+
+    @Benchmark
+    public TransactionRequest readDebit() {
+        return mapper.readValue(debitBody, TransactionRequest.class);
+    }
+
+    @Benchmark
+    public TransactionRequest readTransfer() {
+        return mapper.readValue(transferBody, TransactionRequest.class);
+    }
+
+    @Benchmark
+    public byte[] writeResponse() {
+        return mapper.writeValueAsBytes(response);
+    }
+}
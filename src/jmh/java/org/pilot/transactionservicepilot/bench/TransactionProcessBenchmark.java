@@ -0,0 +1,84 @@
+package org.pilot.transactionservicepilot.bench;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+import org.pilot.transactionservicepilot.integration.InMemoryBalanceManager;
+import org.pilot.transactionservicepilot.service.TransactionService;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TransactionService#process} end to end on in-memory repositories and {@link InMemoryBalanceManager}:
+ * the CPU and allocation cost of the request path itself (validation, idempotency lookup, metadata cache, Redis
+ * script call, DB writes through the JPA writer, response), without any I/O. Requests alternate debit and credit
+ * (or transfer direction) so balances stay constant; with {@code metrics} the stage timers of PipelineMetrics
+ * record into a SimpleMeterRegistry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionProcessBenchmark {
+
+    private static final long SOURCE = 1L;
+    private static final long DESTINATION = 2L;
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private final BigDecimal amount = new BigDecimal("1.00");
+    private TransactionService service;
+    private long seq;
+
+    @Setup
+    public void setUp() {
+        InMemoryBalanceManager balances = new InMemoryBalanceManager();
+        BigDecimal opening = new BigDecimal("1000000.00");
+        balances.populateBalance(SOURCE, opening, opening, "USD");
+        balances.populateBalance(DESTINATION, opening, opening, "USD");
+        service = new TransactionService(balances, InMemoryRepositories.transactions(),
+                InMemoryRepositories.accounts(InMemoryRepositories.accountStore(SOURCE, DESTINATION)));
+        if (metrics) service.setMeterRegistry(new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public TransactionResponse debitOrCredit() {
+        long n = seq++;
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("bench-" + n);
+        req.setAccountId(SOURCE);
+        req.setType((n & 1) == 0 ? "DEBIT" : "CREDIT");
+        req.setAmount(amount);
+        req.setCurrency("USD");
+        return service.process(req);
+    }
+
+    @Benchmark
+    public TransactionResponse transfer() {
+        long n = seq++;
+        boolean forward = (n & 1) == 0;
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("bench-" + n);
+        req.setSourceAccountId(forward ? SOURCE : DESTINATION);
+        req.setDestinationAccountId(forward ? DESTINATION : SOURCE);
+        req.setType("TRANSFER");
+        req.setAmount(amount);
+        req.setCurrency("USD");
+        return service.process(req);
+    }
+}
@@ -0,0 +1,26 @@
+package org.pilot.transactionservicepilot.config;
+
+import org.pilot.transactionservicepilot.entity.SnowflakeIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Worker id for transaction ids: app.ids.worker-id when set (>= 0), otherwise derived from HOSTNAME, which is the
+// pod name on Kubernetes (StatefulSet ordinals map directly to worker ids).
+@Configuration
+public class IdGeneratorConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(IdGeneratorConfig.class);
+
+    @Bean
+    public SnowflakeIdGenerator snowflakeIdGenerator(@Value("${app.ids.worker-id:-1}") int workerId,
+                                                     @Value("${HOSTNAME:}") String hostname) {
+        int id = workerId >= 0 ? workerId : SnowflakeIdGenerator.deriveWorkerId(hostname);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(id);
+        SnowflakeIdGenerator.install(generator);
+        log.info("Transaction ids use worker id {}", id);
+        return generator;
+    }
+}
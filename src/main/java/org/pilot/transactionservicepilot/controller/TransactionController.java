@@ -2,15 +2,24 @@ package org.pilot.transactionservicepilot.controller;
 
 import org.pilot.transactionservicepilot.dto.TransactionRequest;
 import org.pilot.transactionservicepilot.dto.TransactionResponse;
-import org.pilot.transactionservicepilot.entity.Account;
 import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.service.AccountMetadataCache;
+import org.pilot.transactionservicepilot.service.AccountPartitionEngine;
+import org.pilot.transactionservicepilot.service.BatchTransactionService;
+import org.pilot.transactionservicepilot.service.ConcurrencyLimiter;
+import org.pilot.transactionservicepilot.service.GroupCommitter;
 import org.pilot.transactionservicepilot.service.TransactionService;
 import org.pilot.transactionservicepilot.service.BalanceManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/v1")
@@ -19,41 +28,123 @@ public class TransactionController {
     private final TransactionService transactionService;
     private final AccountRepository accountRepository;
     private final BalanceManager balanceManager;
+    private final BatchTransactionService batchTransactionService;
+    private final AccountPartitionEngine partitionEngine;
+    private final AccountMetadataCache accountCache;
+    private final GroupCommitter groupCommitter;
 
-    public TransactionController(TransactionService transactionService, AccountRepository accountRepository, BalanceManager balanceManager) {
+    // adaptive in-flight limits; without it (unit tests) every request is admitted
+    private ConcurrencyLimiter limiter;
+
+    public TransactionController(TransactionService transactionService, AccountRepository accountRepository, BalanceManager balanceManager,
+                                 BatchTransactionService batchTransactionService, AccountPartitionEngine partitionEngine, AccountMetadataCache accountCache,
+                                 GroupCommitter groupCommitter) {
         this.transactionService = transactionService;
         this.accountRepository = accountRepository;
         this.balanceManager = balanceManager;
+        this.batchTransactionService = batchTransactionService;
+        this.partitionEngine = partitionEngine;
+        this.accountCache = accountCache;
+        this.groupCommitter = groupCommitter;
+    }
+
+    @Autowired(required = false)
+    public void setLimiter(ConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    private ConcurrencyLimiter.Permit acquire(boolean write) {
+        if (limiter == null) return ConcurrencyLimiter.Permit.NONE;
+        return write ? limiter.tryAcquireWrite() : limiter.tryAcquireRead();
+    }
+
+    // above the learned limit: reject at once rather than queue behind the saturated pools
+    private <T> ResponseEntity<T> tooManyRequests(T body) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(limiter.getRetryAfterSeconds()))
+                .body(body);
     }
 
     @PostMapping("/transactions")
     public ResponseEntity<TransactionResponse> postTransaction(@RequestBody TransactionRequest req) {
-        TransactionResponse res = transactionService.process(req);
+        ConcurrencyLimiter.Permit permit = acquire(true);
+        if (permit == null) {
+            return tooManyRequests(new TransactionResponse(req.getTxId(), "FAILED", null, "Too many requests"));
+        }
+        try (permit) {
+            return processTransaction(req);
+        }
+    }
+
+    private ResponseEntity<TransactionResponse> processTransaction(TransactionRequest req) {
+        TransactionResponse res;
+        if (partitionEngine != null && partitionEngine.isEnabled()) {
+            try {
+                res = partitionEngine.submit(req);
+            } catch (RejectedExecutionException e) {
+                // partition queue full: shed load instead of queueing without bound
+                return ResponseEntity.status(503).body(new TransactionResponse(req.getTxId(), "FAILED", null, "Server busy"));
+            }
+        } else if (groupCommitter != null && groupCommitter.isEnabled()) {
+            try {
+                res = groupCommitter.submit(req);
+            } catch (RejectedExecutionException e) {
+                return ResponseEntity.status(503).body(new TransactionResponse(req.getTxId(), "FAILED", null, "Server busy"));
+            }
+        } else {
+            res = transactionService.process(req);
+        }
         if ("COMMITTED".equalsIgnoreCase(res.getStatus())) {
             return ResponseEntity.ok(res);
         } else if ("PENDING".equalsIgnoreCase(res.getStatus())) {
             return ResponseEntity.accepted().body(res);
+        } else if (TransactionService.CACHE_UNAVAILABLE.equals(res.getError())) {
+            return ResponseEntity.status(503).body(res);
         } else {
             return ResponseEntity.status(400).body(res);
         }
     }
 
+    // Per-item results in request order; the batch itself is accepted as long as its size is within limits.
+    @PostMapping("/transactions/batch")
+    public ResponseEntity<List<TransactionResponse>> postTransactionBatch(@RequestBody List<TransactionRequest> reqs) {
+        if (reqs == null || reqs.isEmpty() || reqs.size() > batchTransactionService.getMaxBatchSize()) {
+            return ResponseEntity.badRequest().build();
+        }
+        ConcurrencyLimiter.Permit permit = acquire(true);
+        if (permit == null) return tooManyRequests(null);
+        try (permit) {
+            return ResponseEntity.ok(batchTransactionService.processBatch(reqs));
+        }
+    }
+
     @GetMapping("/accounts/{id}/balance")
     public ResponseEntity<?> getBalance(@PathVariable("id") Long id) {
+        ConcurrencyLimiter.Permit permit = acquire(false);
+        if (permit == null) return tooManyRequests(null);
+        try (permit) {
+            return readBalance(id);
+        }
+    }
+
+    private ResponseEntity<?> readBalance(Long id) {
         // Try cache first for low-latency
+        BigDecimal cached = null;
+        BigDecimal available = null;
         try {
-            BigDecimal cached = balanceManager.getBalance(id);
-            BigDecimal available = balanceManager.getAvailable(id);
-            if (cached != null) {
-                java.util.Map<String, Object> map = new java.util.HashMap<>();
-                map.put("accountId", id);
-                map.put("balance", cached);
-                map.put("available", available);
-                map.put("currency", accountRepository.findById(id).map(Account::getCurrency).orElse(null));
-                return ResponseEntity.ok(map);
-            }
+            cached = balanceManager.getBalance(id);
+            available = balanceManager.getAvailable(id);
         } catch (Exception e) {
             // ignore cache errors and fallback to DB
+            cached = null;
+        }
+        if (cached != null) {
+            java.util.Map<String, Object> map = new java.util.HashMap<>();
+            map.put("accountId", id);
+            map.put("balance", cached);
+            map.put("available", available);
+            map.put("currency", currency(id));
+            return ResponseEntity.ok(map);
         }
 
         return accountRepository.findById(id)
@@ -67,4 +158,13 @@ public class TransactionController {
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
+
+    // the currency is metadata: a failed lookup leaves it out rather than discarding the cached balance
+    private String currency(Long id) {
+        try {
+            return accountCache.get(id).map(AccountMetadataCache.AccountMetadata::currency).orElse(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,60 @@
+package org.pilot.transactionservicepilot.dto;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Money is carried as a {@code long} count of minor units (cents) next to its currency code. This class owns the
+ * one scale used everywhere: Redis stores cents, the DB columns hold the same value with {@link #SCALE} decimals,
+ * and {@link BigDecimal} only appears at the JSON and JDBC boundaries.
+ * <p>
+ * Request amounts with more than {@link #SCALE} significant decimals are rejected rather than rounded, so Redis
+ * and the DB can never drift apart by a rounding difference.
+ */
+public final class Money {
+
+    public static final int SCALE = 2;
+
+    // marks an amount that is missing or not representable in whole cents
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private Money() {
+    }
+
+    /**
+     * Exact cents for an amount, or {@link #INVALID} when it is null, has sub-cent digits or does not fit a long.
+     */
+    public static long exactCents(BigDecimal amount) {
+        if (amount == null) return INVALID;
+        try {
+            // scale <= 2 (the JSON case) needs one shift; larger scales only pass with trailing zeros
+            BigDecimal shifted = amount.scale() <= SCALE ? amount.movePointRight(SCALE)
+                    : amount.setScale(SCALE, RoundingMode.UNNECESSARY).movePointRight(SCALE);
+            return shifted.longValueExact();
+        } catch (ArithmeticException e) {
+            return INVALID;
+        }
+    }
+
+    // cents for stored values (DB balances), rounding half up for legacy rows that carry sub-cent digits
+    public static long toCents(BigDecimal amount) {
+        long exact = exactCents(amount);
+        if (exact != INVALID) return exact;
+        return amount.setScale(SCALE, RoundingMode.HALF_UP).movePointRight(SCALE).longValueExact();
+    }
+
+    public static BigDecimal fromCents(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    // Redis replies: script results arrive as Long, hash fields as String; null for a missing or malformed value
+    public static BigDecimal fromCents(Object cents) {
+        if (cents == null) return null;
+        if (cents instanceof Number n) return fromCents(n.longValue());
+        try {
+            return fromCents(Long.parseLong(cents.toString()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.pilot.transactionservicepilot.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -19,4 +20,20 @@ public class TransactionRequest {
     private BigDecimal amount;
     private String currency;
     private Instant timestamp;
+
+    // amount in cents, converted once when the amount is set (see Money)
+    @JsonIgnore
+    @Setter(lombok.AccessLevel.NONE)
+    private long amountCents = Money.INVALID;
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+        this.amountCents = Money.exactCents(amount);
+    }
+
+    // positive and in whole cents
+    @JsonIgnore
+    public boolean isAmountValid() {
+        return amountCents != Money.INVALID && amountCents > 0;
+    }
 }
@@ -4,12 +4,15 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.pilot.transactionservicepilot.dto.Money;
+import org.pilot.transactionservicepilot.service.AccountMetadataCacheListener;
 
 import java.math.BigDecimal;
 import java.time.Instant;
 
 @Entity
 @Table(name = "accounts")
+@EntityListeners(AccountMetadataCacheListener.class)
 @Getter
 @Setter
 @NoArgsConstructor
@@ -25,10 +28,10 @@ public class Account {
     @Column(nullable = false)
     private String currency;
 
-    @Column(nullable = false, precision = 19, scale = 4)
+    @Column(nullable = false, precision = 19, scale = Money.SCALE)
     private BigDecimal balance = BigDecimal.ZERO;
 
-    @Column(name = "available_balance", nullable = false, precision = 19, scale = 4)
+    @Column(name = "available_balance", nullable = false, precision = 19, scale = Money.SCALE)
     private BigDecimal availableBalance = BigDecimal.ZERO;
 
     @Version
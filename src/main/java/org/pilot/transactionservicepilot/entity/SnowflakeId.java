@@ -0,0 +1,16 @@
+package org.pilot.transactionservicepilot.entity;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Assigns a time-ordered id from SnowflakeIdGenerator before the INSERT, so the row needs no IDENTITY round trip
+// and Hibernate can batch inserts.
+@IdGeneratorType(SnowflakeIdentifierGenerator.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface SnowflakeId {
+}
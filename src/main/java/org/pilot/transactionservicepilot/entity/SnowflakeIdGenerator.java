@@ -0,0 +1,117 @@
+package org.pilot.transactionservicepilot.entity;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Time-ordered 64-bit ids: 41 bits of milliseconds since {@link #EPOCH_MILLIS}, 10 bits of worker id and a 12-bit
+ * per-millisecond sequence. Ids from one worker are strictly increasing; ids from different workers are unique as
+ * long as every running instance has its own worker id (see IdGeneratorConfig).
+ * <p>
+ * Timestamp and sequence are packed in one AtomicLong, so generating an id is a single CAS. When the sequence
+ * overflows, or the clock moves backwards, the generator runs ahead on the last timestamp instead of blocking;
+ * the wall clock catches up again within a few milliseconds.
+ */
+public class SnowflakeIdGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(SnowflakeIdGenerator.class);
+
+    // 2024-01-01T00:00:00Z; 41 bits of milliseconds last until 2093
+    public static final long EPOCH_MILLIS = 1704067200000L;
+
+    static final int WORKER_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    public static final int MAX_WORKER_ID = (1 << WORKER_BITS) - 1;
+
+    private static volatile SnowflakeIdGenerator shared;
+
+    private final long workerId;
+    private final LongSupplier clock;
+    // (millis since epoch << SEQUENCE_BITS) | sequence of the last issued id
+    private final AtomicLong state = new AtomicLong();
+
+    public SnowflakeIdGenerator(int workerId) {
+        this(workerId, System::currentTimeMillis);
+    }
+
+    SnowflakeIdGenerator(int workerId, LongSupplier clock) {
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("workerId must be between 0 and " + MAX_WORKER_ID + ": " + workerId);
+        }
+        this.workerId = workerId;
+        this.clock = clock;
+    }
+
+    public long nextId() {
+        long now = clock.getAsLong() - EPOCH_MILLIS;
+        long next;
+        while (true) {
+            long last = state.get();
+            // a new millisecond restarts the sequence; otherwise bump it, carrying into the timestamp on overflow
+            next = now > (last >>> SEQUENCE_BITS) ? now << SEQUENCE_BITS : last + 1;
+            if (state.compareAndSet(last, next)) break;
+        }
+        long millis = next >>> SEQUENCE_BITS;
+        long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+        return (millis << (WORKER_BITS + SEQUENCE_BITS)) | (workerId << SEQUENCE_BITS) | sequence;
+    }
+
+    public int getWorkerId() {
+        return (int) workerId;
+    }
+
+    public static int workerIdOf(long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_WORKER_ID);
+    }
+
+    public static long timestampOf(long id) {
+        return (id >>> (WORKER_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    /**
+     * The generator used by {@link SnowflakeId} fields and the JDBC batch inserts. IdGeneratorConfig installs the
+     * configured one at startup; before that (or outside Spring) one is derived from the host name.
+     */
+    public static SnowflakeIdGenerator shared() {
+        SnowflakeIdGenerator g = shared;
+        if (g == null) {
+            synchronized (SnowflakeIdGenerator.class) {
+                if (shared == null) {
+                    shared = new SnowflakeIdGenerator(deriveWorkerId(System.getenv("HOSTNAME")));
+                }
+                g = shared;
+            }
+        }
+        return g;
+    }
+
+    public static void install(SnowflakeIdGenerator generator) {
+        shared = generator;
+    }
+
+    /**
+     * Worker id for a host: the ordinal of a StatefulSet pod ({@code name-3} is worker 3), otherwise a hash of the
+     * host name. Hashed ids can collide between pods, so deployments that are not StatefulSets should set
+     * {@code app.ids.worker-id}.
+     */
+    public static int deriveWorkerId(String hostname) {
+        if (hostname == null || hostname.isBlank()) {
+            log.warn("No host name to derive a worker id from; using 0. Set app.ids.worker-id when running more than one instance");
+            return 0;
+        }
+        int dash = hostname.lastIndexOf('-');
+        if (dash >= 0 && dash < hostname.length() - 1) {
+            String ordinal = hostname.substring(dash + 1);
+            if (ordinal.chars().allMatch(Character::isDigit) && ordinal.length() <= 4) {
+                int n = Integer.parseInt(ordinal);
+                if (n <= MAX_WORKER_ID) return n;
+            }
+        }
+        int hashed = (hostname.hashCode() & 0x7fffffff) % (MAX_WORKER_ID + 1);
+        log.warn("Worker id {} derived from host name hash '{}'; ids may collide between instances unless app.ids.worker-id is set", hashed, hostname);
+        return hashed;
+    }
+}
@@ -4,6 +4,7 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.pilot.transactionservicepilot.dto.Money;
 
 import java.math.BigDecimal;
 import java.time.Instant;
@@ -15,8 +16,9 @@ import java.time.Instant;
 @NoArgsConstructor
 public class TransactionRecord {
 
+    // time-ordered and assigned before the INSERT (see SnowflakeIdGenerator)
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @SnowflakeId
     private Long id;
 
     @Column(name = "tx_id", unique = true, nullable = false)
@@ -34,7 +36,7 @@ public class TransactionRecord {
     @Column(nullable = false)
     private String type; // DEBIT or CREDIT or TRANSFER
 
-    @Column(nullable = false, precision = 19, scale = 4)
+    @Column(nullable = false, precision = 19, scale = Money.SCALE)
     private BigDecimal amount;
 
     @Column(nullable = false)
@@ -57,4 +59,10 @@ public class TransactionRecord {
 
     private Instant timestamp;
 
+    // Retry lease: the reprocessing worker that claimed this record, and until when. An expired lease can be
+    // claimed again, so records of a crashed instance are picked up by the others.
+    private String leaseOwner;
+
+    private Instant leaseUntil;
+
 }
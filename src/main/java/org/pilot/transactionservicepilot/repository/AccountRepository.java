@@ -1,19 +1,45 @@
 package org.pilot.transactionservicepilot.repository;
 
 import org.pilot.transactionservicepilot.entity.Account;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface AccountRepository extends JpaRepository<Account, Long> {
     Optional<Account> findByAccountNumber(String accountNumber);
 
+    // keyset page of accounts changed after the (updatedAt, id) position, in that order
+    @Query("select a from Account a where a.updatedAt > :since or (a.updatedAt = :since and a.id > :afterId) order by a.updatedAt asc, a.id asc")
+    List<Account> findChangedAfter(@Param("since") Instant since, @Param("afterId") Long afterId, Pageable page);
+
+    // keyset page of all accounts after the given id
+    @Query("select a from Account a where a.id > :afterId order by a.id asc")
+    List<Account> findPageAfter(@Param("afterId") Long afterId, Pageable page);
+
+    @Query("select min(a.id) from Account a")
+    Long findMinId();
+
+    @Query("select max(a.id) from Account a")
+    Long findMaxId();
+
+    // keyset page of the accounts in the id range (afterId, toId]
+    @Query("select a from Account a where a.id > :afterId and a.id <= :toId order by a.id asc")
+    List<Account> findPageInRange(@Param("afterId") Long afterId, @Param("toId") Long toId, Pageable page);
+
+    // as findPageInRange, limited to accounts created or updated since the given instant
+    @Query("select a from Account a where a.id > :afterId and a.id <= :toId and (a.updatedAt >= :since or a.createdAt >= :since) order by a.id asc")
+    List<Account> findActivePageInRange(@Param("afterId") Long afterId, @Param("toId") Long toId, @Param("since") Instant since, Pageable page);
+
     @Modifying
     @Transactional
     @Query(value = "UPDATE accounts SET balance = balance - ?2, available_balance = available_balance - ?2, updated_at = CURRENT_TIMESTAMP WHERE id = ?1 AND available_balance >= ?2", nativeQuery = true)
@@ -21,6 +47,6 @@ public interface AccountRepository extends JpaRepository<Account, Long> {
 
     @Modifying
     @Transactional
-    @Query(value = "UPDATE accounts SET balance = balance + ?2, updated_at = CURRENT_TIMESTAMP WHERE id = ?1", nativeQuery = true)
+    @Query(value = "UPDATE accounts SET balance = balance + ?2, available_balance = available_balance + ?2, updated_at = CURRENT_TIMESTAMP WHERE id = ?1", nativeQuery = true)
     int credit(Long accountId, BigDecimal amount);
 }
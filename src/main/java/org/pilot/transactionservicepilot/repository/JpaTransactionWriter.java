@@ -0,0 +1,35 @@
+package org.pilot.transactionservicepilot.repository;
+
+import org.pilot.transactionservicepilot.entity.TransactionRecord;
+
+import java.math.BigDecimal;
+
+// TransactionWriter on the Spring Data repositories (native conditional updates, entity save)
+public class JpaTransactionWriter implements TransactionWriter {
+
+    private final AccountRepository accountRepository;
+    private final TransactionRepository transactionRepository;
+
+    public JpaTransactionWriter(AccountRepository accountRepository, TransactionRepository transactionRepository) {
+        this.accountRepository = accountRepository;
+        this.transactionRepository = transactionRepository;
+    }
+
+    @Override
+    public int debitIfAvailable(Long accountId, BigDecimal amount) {
+        return accountRepository.debitIfAvailable(accountId, amount);
+    }
+
+    @Override
+    public int credit(Long accountId, BigDecimal amount) {
+        return accountRepository.credit(accountId, amount);
+    }
+
+    // The id is assigned before the INSERT, so Hibernate defers it to the flush; flushing here makes a duplicate
+    // txId surface now, while the caller can still undo its Redis change.
+    @Override
+    public void insert(TransactionRecord record) {
+        transactionRepository.save(record);
+        transactionRepository.flush();
+    }
+}
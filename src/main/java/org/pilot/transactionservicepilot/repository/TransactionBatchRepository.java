@@ -0,0 +1,140 @@
+package org.pilot.transactionservicepilot.repository;
+
+import org.pilot.transactionservicepilot.entity.SnowflakeIdGenerator;
+import org.pilot.transactionservicepilot.entity.TransactionRecord;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plain JDBC statements: the batch statements of the batch endpoint and the write-behind drain, and the
+ * single-row {@link TransactionWriter} statements of the request path.
+ * Callers are expected to run these inside a single DB transaction.
+ */
+@Repository
+public class TransactionBatchRepository implements TransactionWriter {
+
+    private static final String DEBIT_SQL = "UPDATE accounts SET balance = balance - ?, available_balance = available_balance - ?, updated_at = CURRENT_TIMESTAMP WHERE id = ? AND available_balance >= ?";
+
+    private static final String CREDIT_SQL = "UPDATE accounts SET balance = balance + ?, available_balance = available_balance + ?, updated_at = CURRENT_TIMESTAMP WHERE id = ?";
+
+    private static final String NET_DELTA_SQL = "UPDATE accounts SET balance = balance + ?, available_balance = available_balance + ?, updated_at = CURRENT_TIMESTAMP WHERE id = ?";
+
+    private static final String LOCK_SQL = "SELECT id FROM accounts WHERE id IN (%s) ORDER BY id FOR UPDATE";
+
+    private static final String INSERT_SQL = "INSERT INTO transactions (id, tx_id, account_id, source_account_id, destination_account_id, type, amount, currency, status, created_at, processed_at, error, retry_count, next_attempt_at, timestamp) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // account id + amount for one conditional update
+    public record BalanceDelta(Long accountId, BigDecimal amount) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SnowflakeIdGenerator idGenerator;
+
+    public TransactionBatchRepository(JdbcTemplate jdbcTemplate, SnowflakeIdGenerator idGenerator) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.idGenerator = idGenerator;
+    }
+
+    @Override
+    public int debitIfAvailable(Long accountId, BigDecimal amount) {
+        return jdbcTemplate.update(DEBIT_SQL, amount, amount, accountId, amount);
+    }
+
+    @Override
+    public int credit(Long accountId, BigDecimal amount) {
+        return jdbcTemplate.update(CREDIT_SQL, amount, amount, accountId);
+    }
+
+    // a duplicate txId fails as DuplicateKeyException (a DataIntegrityViolationException)
+    @Override
+    public void insert(TransactionRecord record) {
+        if (record.getId() == null) record.setId(idGenerator.nextId());
+        jdbcTemplate.update(INSERT_SQL, ps -> bindInsert(ps, record));
+    }
+
+    // row locks on the given accounts, taken in ascending id order; a transaction that locks every account it will
+    // update this way first cannot deadlock with another one doing the same, whatever order its updates run in
+    public void lockInIdOrder(Collection<Long> accountIds) {
+        if (accountIds.isEmpty()) return;
+        String sql = String.format(LOCK_SQL, String.join(",", Collections.nCopies(accountIds.size(), "?")));
+        jdbcTemplate.queryForList(sql, Long.class, accountIds.toArray());
+    }
+
+    // same semantics as AccountRepository.debitIfAvailable; element i is the affected row count for delta i
+    public int[] debitIfAvailable(List<BalanceDelta> deltas) {
+        if (deltas.isEmpty()) return new int[0];
+        return jdbcTemplate.batchUpdate(DEBIT_SQL, deltas, deltas.size(), (ps, d) -> {
+            ps.setBigDecimal(1, d.amount());
+            ps.setBigDecimal(2, d.amount());
+            ps.setLong(3, d.accountId());
+            ps.setBigDecimal(4, d.amount());
+        })[0];
+    }
+
+    // same semantics as AccountRepository.credit; element i is the affected row count for delta i
+    public int[] credit(List<BalanceDelta> deltas) {
+        if (deltas.isEmpty()) return new int[0];
+        return jdbcTemplate.batchUpdate(CREDIT_SQL, deltas, deltas.size(), (ps, d) -> {
+            ps.setBigDecimal(1, d.amount());
+            ps.setBigDecimal(2, d.amount());
+            ps.setLong(3, d.accountId());
+        })[0];
+    }
+
+    // unconditional signed delta on balance and available_balance; used by the write-behind drain where
+    // Redis has already enforced the funds check
+    public int[] applyNetDeltas(List<BalanceDelta> deltas) {
+        if (deltas.isEmpty()) return new int[0];
+        return jdbcTemplate.batchUpdate(NET_DELTA_SQL, deltas, deltas.size(), (ps, d) -> {
+            ps.setBigDecimal(1, d.amount());
+            ps.setBigDecimal(2, d.amount());
+            ps.setLong(3, d.accountId());
+        })[0];
+    }
+
+    // records without an id get one here, the same way @SnowflakeId assigns it for JPA inserts
+    public void insertAll(List<TransactionRecord> records) {
+        if (records.isEmpty()) return;
+        for (TransactionRecord r : records) {
+            if (r.getId() == null) r.setId(idGenerator.nextId());
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, records, records.size(), TransactionBatchRepository::bindInsert);
+    }
+
+    private static void bindInsert(PreparedStatement ps, TransactionRecord r) throws SQLException {
+        ps.setLong(1, r.getId());
+        ps.setString(2, r.getTxId());
+        setLong(ps, 3, r.getAccountId());
+        setLong(ps, 4, r.getSourceAccountId());
+        setLong(ps, 5, r.getDestinationAccountId());
+        ps.setString(6, r.getType());
+        ps.setBigDecimal(7, r.getAmount());
+        ps.setString(8, r.getCurrency());
+        ps.setString(9, r.getStatus());
+        ps.setTimestamp(10, toTimestamp(r.getCreatedAt()));
+        ps.setTimestamp(11, toTimestamp(r.getProcessedAt()));
+        ps.setString(12, r.getError());
+        ps.setInt(13, r.getRetryCount() == null ? 0 : r.getRetryCount());
+        ps.setTimestamp(14, toTimestamp(r.getNextAttemptAt()));
+        ps.setTimestamp(15, toTimestamp(r.getTimestamp()));
+    }
+
+    private static void setLong(PreparedStatement ps, int index, Long value) throws SQLException {
+        if (value == null) ps.setNull(index, Types.BIGINT);
+        else ps.setLong(index, value);
+    }
+
+    private static Timestamp toTimestamp(Instant instant) {
+        return instant == null ? null : Timestamp.from(instant);
+    }
+}
@@ -1,20 +1,38 @@
 package org.pilot.transactionservicepilot.repository;
 
 import org.pilot.transactionservicepilot.entity.TransactionRecord;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 public interface TransactionRepository extends JpaRepository<TransactionRecord, Long> {
     Optional<TransactionRecord> findByTxId(String txId);
 
+    // bulk idempotency lookup used by the batch endpoint and the write-behind drainer
+    List<TransactionRecord> findByTxIdIn(Collection<String> txIds);
+
     // find transactions with any of the given statuses (PENDING, FAILED, etc.)
     List<TransactionRecord> findByStatusIn(List<String> statuses);
 
-    @Query("select t from TransactionRecord t where t.status in :statuses and (t.nextAttemptAt is null or t.nextAttemptAt <= :now) order by t.createdAt asc")
-    List<TransactionRecord> findRetryable(@Param("statuses") List<String> statuses, @Param("now") Instant now);
+    // one page of ids that are due for a retry, still below the retry limit and not leased by a live worker, oldest first
+    @Query("select t.id from TransactionRecord t where t.status in :statuses and (t.nextAttemptAt is null or t.nextAttemptAt <= :now)"
+            + " and (t.retryCount is null or t.retryCount < :maxRetries) and (t.leaseUntil is null or t.leaseUntil < :now)"
+            + " order by t.createdAt asc")
+    List<Long> findRetryableIds(@Param("statuses") List<String> statuses, @Param("now") Instant now, @Param("maxRetries") int maxRetries, Pageable page);
+
+    // takes the lease on those of the ids nobody else claimed in the meantime; the row locks last only for this statement
+    @Modifying
+    @Query("update TransactionRecord t set t.leaseOwner = :owner, t.leaseUntil = :until where t.id in :ids and t.status in :statuses"
+            + " and (t.leaseUntil is null or t.leaseUntil < :now)")
+    int lease(@Param("ids") List<Long> ids, @Param("owner") String owner, @Param("until") Instant until, @Param("now") Instant now,
+              @Param("statuses") List<String> statuses);
+
+    List<TransactionRecord> findByLeaseOwner(String leaseOwner);
 }
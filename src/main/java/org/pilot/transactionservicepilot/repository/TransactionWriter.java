@@ -0,0 +1,34 @@
+package org.pilot.transactionservicepilot.repository;
+
+import org.pilot.transactionservicepilot.entity.TransactionRecord;
+
+import java.math.BigDecimal;
+
+/**
+ * Writes of the request path: the conditional balance updates and the final-state record. Callers run them
+ * inside the request's DB transaction.
+ * <p>
+ * {@link TransactionBatchRepository} implements them with plain JDBC statements, so a request pays for no
+ * persistence context or dirty checking; {@link JpaTransactionWriter} goes through the Spring Data repositories
+ * and is used by unit tests and when {@code app.persistence.jdbc-writer.enabled=false}.
+ */
+public interface TransactionWriter {
+
+    /**
+     * Debit balance and available balance if enough is available.
+     *
+     * @return affected rows; 0 when the funds are not available or the account does not exist
+     */
+    int debitIfAvailable(Long accountId, BigDecimal amount);
+
+    /**
+     * @return affected rows; 0 when the account does not exist
+     */
+    int credit(Long accountId, BigDecimal amount);
+
+    /**
+     * Insert a new record, assigning its id when it has none. A duplicate txId fails right here, with a
+     * DataIntegrityViolationException, rather than at commit.
+     */
+    void insert(TransactionRecord record);
+}
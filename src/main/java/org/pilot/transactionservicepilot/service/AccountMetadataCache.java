@@ -0,0 +1,209 @@
+package org.pilot.transactionservicepilot.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.pilot.transactionservicepilot.entity.Account;
+import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded in-JVM read-through cache of the account attributes that do not change with transactions
+ * (existence, account number, currency, status). It saves the existence/currency SELECTs on the hot path.
+ * <p>
+ * Lookups are lock-free (a ConcurrentHashMap read and an access stamp). Beyond {@code max-size} the least recently
+ * used entries are evicted in one pass down to 90% of the limit, so the sort is paid once per many inserts and by one
+ * thread at a time. Account writes through JPA invalidate their entry after commit (see
+ * {@link AccountMetadataCacheListener}); entries are reloaded after {@code ttl-ms} so changes made elsewhere (other
+ * instances, SQL) are picked up too. SyncScheduler.reconcile refreshes every account it loads. Missing accounts are
+ * not cached, so new accounts are visible immediately.
+ */
+@Component
+public class AccountMetadataCache {
+
+    public record AccountMetadata(Long id, String accountNumber, String currency, String status) {
+
+        static AccountMetadata of(Account a) {
+            return new AccountMetadata(a.getId(), a.getAccountNumber(), a.getCurrency(), a.getStatus());
+        }
+    }
+
+    private static final class CachedAccount {
+        final AccountMetadata metadata;
+        final long loadedAtMillis;
+        // clock value of the last lookup, for LRU eviction
+        volatile long lastUsed;
+
+        CachedAccount(AccountMetadata metadata, long loadedAtMillis, long lastUsed) {
+            this.metadata = metadata;
+            this.loadedAtMillis = loadedAtMillis;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private record Stamped(Long id, CachedAccount entry, long lastUsed) {
+    }
+
+    private final AccountRepository accountRepository;
+    private final ConcurrentHashMap<Long, CachedAccount> entries = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final ReentrantLock evicting = new ReentrantLock();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    @Value("${app.accounts.cache.max-size:10000}")
+    private int maxSize = 10000;
+
+    @Value("${app.accounts.cache.ttl-ms:600000}")
+    private long ttlMs = 600000L;
+
+    @Autowired
+    public AccountMetadataCache(AccountRepository accountRepository, @Nullable MeterRegistry meterRegistry) {
+        this.accountRepository = accountRepository;
+        if (meterRegistry != null) {
+            hitCounter = meterRegistry.counter("account_cache.hit.count");
+            missCounter = meterRegistry.counter("account_cache.miss.count");
+            meterRegistry.gauge("account_cache.size", this, AccountMetadataCache::size);
+            meterRegistry.gauge("account_cache.hit.ratio", this, AccountMetadataCache::hitRate);
+        } else {
+            hitCounter = null;
+            missCounter = null;
+        }
+    }
+
+    // cache without metrics, for services constructed outside Spring
+    public AccountMetadataCache(AccountRepository accountRepository) {
+        this(accountRepository, null);
+    }
+
+    public Optional<AccountMetadata> get(Long accountId) {
+        if (accountId == null) return Optional.empty();
+        AccountMetadata cached = lookup(accountId);
+        if (cached != null) {
+            recordHit(1);
+            return Optional.of(cached);
+        }
+        recordMiss(1);
+        Optional<AccountMetadata> loaded = accountRepository.findById(accountId).map(AccountMetadata::of);
+        loaded.ifPresent(m -> put(accountId, m));
+        return loaded;
+    }
+
+    // cached entry or null, without loading; a null is not counted as a miss (the caller loads it through get)
+    public AccountMetadata getIfCached(Long accountId) {
+        if (accountId == null) return null;
+        AccountMetadata cached = lookup(accountId);
+        if (cached != null) recordHit(1);
+        return cached;
+    }
+
+    // one SELECT for all accounts not in the cache; absent ids are missing from the result
+    public Map<Long, AccountMetadata> getAll(Collection<Long> accountIds) {
+        Map<Long, AccountMetadata> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : accountIds) {
+            if (id == null) continue;
+            AccountMetadata cached = lookup(id);
+            if (cached != null) result.put(id, cached);
+            else missing.add(id);
+        }
+        recordHit(result.size());
+        recordMiss(missing.size());
+        if (!missing.isEmpty()) {
+            for (Account a : accountRepository.findAllById(missing)) {
+                AccountMetadata m = AccountMetadata.of(a);
+                put(a.getId(), m);
+                result.put(a.getId(), m);
+            }
+        }
+        return result;
+    }
+
+    public void refresh(Collection<Account> accounts) {
+        for (Account a : accounts) {
+            put(a.getId(), AccountMetadata.of(a));
+        }
+    }
+
+    public void invalidate(Long accountId) {
+        if (accountId != null) entries.remove(accountId);
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public double hitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    private AccountMetadata lookup(Long accountId) {
+        CachedAccount e = entries.get(accountId);
+        if (e == null) return null;
+        if (System.currentTimeMillis() - e.loadedAtMillis > ttlMs) {
+            entries.remove(accountId, e);
+            return null;
+        }
+        e.lastUsed = clock.incrementAndGet();
+        return e.metadata;
+    }
+
+    // keyed by the id the entry was looked up with; a row without an id is not cached
+    private void put(Long accountId, AccountMetadata metadata) {
+        if (accountId == null) return;
+        entries.put(accountId, new CachedAccount(metadata, System.currentTimeMillis(), clock.incrementAndGet()));
+        if (entries.size() > maxSize) evict();
+    }
+
+    // drops the least recently used entries down to 90% of max-size; a thread that finds an eviction running skips it
+    private void evict() {
+        if (!evicting.tryLock()) return;
+        try {
+            int excess = entries.size() - (maxSize - maxSize / 10);
+            if (excess <= 0) return;
+            // stamps are read once: lookups keep updating them while the snapshot is sorted
+            List<Stamped> byAge = new ArrayList<>(entries.size());
+            entries.forEach((id, e) -> byAge.add(new Stamped(id, e, e.lastUsed)));
+            byAge.sort(Comparator.comparingLong(Stamped::lastUsed));
+            for (int i = 0; i < excess && i < byAge.size(); i++) {
+                Stamped e = byAge.get(i);
+                entries.remove(e.id(), e.entry());
+            }
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    private void recordHit(int n) {
+        if (n == 0) return;
+        hits.addAndGet(n);
+        if (hitCounter != null) hitCounter.increment(n);
+    }
+
+    private void recordMiss(int n) {
+        if (n == 0) return;
+        misses.addAndGet(n);
+        if (missCounter != null) missCounter.increment(n);
+    }
+}
@@ -0,0 +1,46 @@
+package org.pilot.transactionservicepilot.service;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.pilot.transactionservicepilot.entity.Account;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * JPA listener of {@link Account}: every insert, update or delete of an account row through JPA drops its
+ * {@link AccountMetadataCache} entry, again after the commit so a reload that raced with the write does not keep the
+ * old values. Native balance updates (debitIfAvailable, credit) do not touch the cached attributes and bypass it.
+ * <p>
+ * Hibernate creates it through Spring's bean container; the cache is looked up lazily because the cache depends on
+ * the repositories, which are built after the listeners. Created without Spring, it does nothing.
+ */
+public class AccountMetadataCacheListener {
+
+    private ObjectProvider<AccountMetadataCache> cache;
+
+    @Autowired(required = false)
+    public void setCache(ObjectProvider<AccountMetadataCache> cache) {
+        this.cache = cache;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void written(Account account) {
+        AccountMetadataCache c = cache == null ? null : cache.getIfAvailable();
+        if (c == null || account.getId() == null) return;
+        Long id = account.getId();
+        c.invalidate(id);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    c.invalidate(id);
+                }
+            });
+        }
+    }
+}
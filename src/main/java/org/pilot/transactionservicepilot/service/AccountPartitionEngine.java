@@ -0,0 +1,211 @@
+package org.pilot.transactionservicepilot.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Per-account partitioned execution engine: queues this instance's requests by account and applies them in batches.
+ * <p>
+ * Accounts are hashed onto a fixed set of partitions. Each partition has one thread and a bounded queue, so this
+ * instance's requests debiting an account are applied one batch at a time, in arrival order, instead of racing
+ * each other for the account's Redis key and MySQL row. Different accounts spread over the partitions and use
+ * all cores.
+ * <p>
+ * A partition does not own its accounts' state. Other instances, the reprocessing job, the batch endpoint and
+ * the credit leg of transfers routed elsewhere update the same accounts concurrently. Correctness still rests on
+ * the Redis scripts and the conditional DB updates, exactly as on the request path; the engine only cuts the
+ * contention between requests of this instance.
+ * <p>
+ * A request is routed by the account it debits (the source for transfers; the account itself for credits).
+ * A transfer's credit leg therefore updates the destination row from the source's partition, concurrently with
+ * the destination's own partition. Credits are commutative and need no funds check, so that is safe for the
+ * balance; the row locks are what can conflict. Partitions do not rely on routing to avoid deadlocks: the batch and
+ * single-request paths both lock account rows in ascending id order, so concurrent partitions sharing accounts
+ * wait for each other instead of deadlocking.
+ * <p>
+ * A partition takes everything queued (up to the batch limit) and applies it as one batch through
+ * {@link BatchTransactionService}; a lone request goes through {@link TransactionService#process}.
+ */
+@Component
+public class AccountPartitionEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(AccountPartitionEngine.class);
+
+    private final TransactionService transactionService;
+    private final BatchTransactionService batchTransactionService;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.engine.enabled:false}")
+    private boolean enabled = false;
+
+    // 0 means one partition per available processor
+    @Value("${app.engine.partitions:0}")
+    private int partitionCount = 0;
+
+    @Value("${app.engine.queue-capacity:10000}")
+    private int queueCapacity = 10000;
+
+    @Value("${app.engine.max-batch-size:200}")
+    private int maxBatchSize = 200;
+
+    // virtual worker threads, see WorkerThreads
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads = false;
+
+    @Value("${app.engine.timeout-ms:5000}")
+    private long timeoutMs = 5000L;
+
+    private Partition[] partitions = new Partition[0];
+
+    public AccountPartitionEngine(TransactionService transactionService, BatchTransactionService batchTransactionService, @Nullable MeterRegistry meterRegistry) {
+        this.transactionService = transactionService;
+        this.batchTransactionService = batchTransactionService;
+        this.meterRegistry = meterRegistry;
+    }
+
+    private record Task(TransactionRequest req, CompletableFuture<TransactionResponse> result) {
+    }
+
+    private final class Partition implements Runnable {
+        final int index;
+        final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(queueCapacity);
+        final Thread thread;
+
+        Partition(int index) {
+            this.index = index;
+            this.thread = WorkerThreads.builder(virtualThreads).name("account-partition-" + index).unstarted(this);
+        }
+
+        @Override
+        public void run() {
+            List<Task> batch = new ArrayList<>(maxBatchSize);
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                queue.drainTo(batch, maxBatchSize - 1);
+                execute(batch);
+                batch.clear();
+            }
+            // fail whatever is still queued so callers do not wait for their timeout
+            Task t;
+            while ((t = queue.poll()) != null) {
+                t.result().completeExceptionally(new RejectedExecutionException("Partition " + index + " stopped"));
+            }
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        int n = partitionCount > 0 ? partitionCount : Runtime.getRuntime().availableProcessors();
+        partitions = new Partition[n];
+        for (int i = 0; i < n; i++) {
+            Partition p = new Partition(i);
+            partitions[i] = p;
+            if (meterRegistry != null) {
+                meterRegistry.gauge("engine.partition.queue.size", List.of(Tag.of("partition", String.valueOf(i))), p.queue, BlockingQueue::size);
+            }
+            p.thread.start();
+        }
+        log.info("Account partition engine started with {} partitions (queue capacity {}, max batch {})", n, queueCapacity, maxBatchSize);
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (Partition p : partitions) {
+            p.thread.interrupt();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled && partitions.length > 0;
+    }
+
+    /**
+     * Queue the request on its account's partition and wait for the result.
+     *
+     * @throws RejectedExecutionException when the partition queue is full or the engine is stopped
+     */
+    public TransactionResponse submit(TransactionRequest req) {
+        Partition p = partitions[partitionOf(routingAccount(req))];
+        CompletableFuture<TransactionResponse> result = new CompletableFuture<>();
+        if (!p.queue.offer(new Task(req, result))) {
+            if (meterRegistry != null) {
+                meterRegistry.counter("engine.partition.rejected.count").increment();
+            }
+            throw new RejectedExecutionException("Partition " + p.index + " queue is full");
+        }
+        try {
+            return result.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for partition " + p.index, e);
+        } catch (TimeoutException e) {
+            // the partition may still apply it; the caller retries with the same txId and gets the stored result
+            return new TransactionResponse(req.getTxId(), "PENDING", null, "Queued for processing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException ree) throw ree;
+            return new TransactionResponse(req.getTxId(), "FAILED", null, e.getCause().getMessage());
+        }
+    }
+
+    // the account whose funds the request consumes; see class comment
+    static Long routingAccount(TransactionRequest req) {
+        if (req.getSourceAccountId() != null && req.getDestinationAccountId() != null) {
+            return req.getSourceAccountId();
+        }
+        return req.getAccountId();
+    }
+
+    int partitionOf(Long accountId) {
+        if (accountId == null) return 0;
+        // spread sequential ids (murmur3 fmix64) before taking the modulus
+        long h = accountId;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) Math.floorMod(h, (long) partitions.length);
+    }
+
+    private void execute(List<Task> batch) {
+        try {
+            if (batch.size() == 1) {
+                Task t = batch.get(0);
+                t.result().complete(transactionService.process(t.req()));
+                return;
+            }
+            List<TransactionRequest> reqs = new ArrayList<>(batch.size());
+            for (Task t : batch) reqs.add(t.req());
+            List<TransactionResponse> results = batchTransactionService.processBatch(reqs);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(results.get(i));
+            }
+        } catch (Exception e) {
+            log.error("Partition batch of {} requests failed: {}", batch.size(), e.getMessage());
+            for (Task t : batch) t.result().completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package org.pilot.transactionservicepilot.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.pilot.transactionservicepilot.dto.Money;
+import org.pilot.transactionservicepilot.entity.TransactionRecord;
+import org.pilot.transactionservicepilot.repository.TransactionBatchRepository;
+import org.pilot.transactionservicepilot.repository.TransactionBatchRepository.BalanceDelta;
+import org.pilot.transactionservicepilot.repository.TransactionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-behind drain: reads delta entries appended by {@link BalanceManager#applyDelta} from the Redis stream
+ * through a consumer group and persists them to MySQL. Each read page becomes one DB transaction that
+ * inserts the COMMITTED transaction records and applies one net update per account. In cluster mode every
+ * slot has its own stream; a drain reads a page from each stream listed in {@link BalanceManager#DELTA_SHARDS_KEY}.
+ * <p>
+ * Entries are acknowledged and deleted only after the DB commit. A pod that dies mid-page leaves its entries
+ * pending; they are re-read by the same consumer or claimed by another pod once idle long enough.
+ * Already persisted txIds are skipped, so replaying a page is safe.
+ */
+@Component
+public class BalanceDeltaDrainer {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceDeltaDrainer.class);
+
+    static final String GROUP = "sync";
+    static final String DEAD_LETTER_KEY = BalanceManager.DELTA_STREAM_KEY + ":dead";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final TransactionRepository transactionRepository;
+    private final TransactionBatchRepository batchRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.write-behind.enabled:false}")
+    private boolean enabled = false;
+
+    @Value("${app.sync.batch-size:100}")
+    private int batchSize = 100;
+
+    @Value("${app.write-behind.consumer-name:${HOSTNAME:sync-local}}")
+    private String consumerName = "sync-local";
+
+    // pending entries of another consumer idle for longer than this are taken over
+    @Value("${app.write-behind.claim-idle-ms:60000}")
+    private long claimIdleMs = 60000L;
+
+    @Value("${app.redis.cluster:false}")
+    private boolean cluster = false;
+
+    // streams whose consumer group was created (or found) by this instance
+    private final Set<String> groupReady = ConcurrentHashMap.newKeySet();
+
+    public BalanceDeltaDrainer(RedisTemplate<String, String> redisTemplate, TransactionRepository transactionRepository, TransactionBatchRepository batchRepository,
+                               PlatformTransactionManager transactionManager, @Nullable MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.transactionRepository = transactionRepository;
+        this.batchRepository = batchRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Drain one page of deltas from each stream.
+     *
+     * @return number of stream entries handled (0 when disabled or nothing is pending)
+     */
+    public int drain() {
+        if (!enabled) return 0;
+        StreamOperations<String, Object, Object> ops = redisTemplate.opsForStream();
+        int handled = 0;
+        for (String stream : streams()) {
+            handled += drain(ops, stream);
+        }
+        return handled;
+    }
+
+    // the delta streams: the single one, or in cluster mode those the writers listed
+    private List<String> streams() {
+        if (!cluster) return List.of(BalanceManager.DELTA_STREAM_KEY);
+        Set<String> shards = redisTemplate.opsForSet().members(BalanceManager.DELTA_SHARDS_KEY);
+        return shards == null ? List.of() : new ArrayList<>(new TreeSet<>(shards));
+    }
+
+    // StreamOperations.read takes generic varargs; a single offset never builds an unsafe array
+    @SuppressWarnings("unchecked")
+    private static List<MapRecord<String, Object, Object>> read(StreamOperations<String, Object, Object> ops, Consumer consumer,
+                                                                StreamReadOptions options, String stream, ReadOffset offset) {
+        return ops.read(consumer, options, StreamOffset.create(stream, offset));
+    }
+
+    private int drain(StreamOperations<String, Object, Object> ops, String stream) {
+        ensureGroup(ops, stream);
+        claimStale(ops, stream);
+
+        Consumer consumer = Consumer.from(GROUP, consumerName);
+        StreamReadOptions options = StreamReadOptions.empty().count(batchSize);
+        // own pending entries first (left over from a failed page or claimed from a dead pod), then new ones
+        List<MapRecord<String, Object, Object>> page = read(ops, consumer, options, stream, ReadOffset.from("0"));
+        if (page == null || page.isEmpty()) {
+            page = read(ops, consumer, options, stream, ReadOffset.lastConsumed());
+        }
+        if (page == null || page.isEmpty()) return 0;
+
+        List<MapRecord<String, Object, Object>> done = new ArrayList<>(page.size());
+        try {
+            persist(page);
+            done.addAll(page);
+        } catch (Exception e) {
+            log.warn("Delta page of {} entries failed, retrying entries one by one: {}", page.size(), e.getMessage());
+            for (MapRecord<String, Object, Object> entry : page) {
+                try {
+                    persist(List.of(entry));
+                    done.add(entry);
+                } catch (NonTransientDataAccessException poison) {
+                    // will never succeed as-is (e.g. referenced account removed): park it and move on
+                    log.error("Permanent failure persisting delta {} ({}), moved to {}: {}", entry.getId(), entry.getValue().get("txId"), DEAD_LETTER_KEY, poison.getMessage());
+                    ops.add(MapRecord.create(DEAD_LETTER_KEY, entry.getValue()));
+                    increment("sync_scheduler.delta.permanentFailure.count");
+                    done.add(entry);
+                } catch (Exception transientFailure) {
+                    // stays pending and is re-read on the next drain
+                    log.error("Failed to persist delta {} ({}), will retry: {}", entry.getId(), entry.getValue().get("txId"), transientFailure.getMessage());
+                    increment("sync_scheduler.delta.failure.count");
+                }
+            }
+        }
+
+        if (!done.isEmpty()) {
+            RecordId[] ids = done.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+            ops.acknowledge(stream, GROUP, ids);
+            ops.delete(stream, ids);
+            if (meterRegistry != null) {
+                meterRegistry.counter("sync_scheduler.delta.applied.count").increment(done.size());
+            }
+        }
+        return page.size();
+    }
+
+    private void persist(List<MapRecord<String, Object, Object>> entries) {
+        Set<String> txIds = new HashSet<>();
+        for (MapRecord<String, Object, Object> e : entries) {
+            txIds.add(field(e, "txId"));
+        }
+        Set<String> persisted = new HashSet<>();
+        for (TransactionRecord r : transactionRepository.findByTxIdIn(txIds)) {
+            persisted.add(r.getTxId());
+        }
+
+        Instant now = Instant.now();
+        List<TransactionRecord> records = new ArrayList<>();
+        // sorted by account id so concurrent drains lock account rows in the same order
+        Map<Long, Long> net = new TreeMap<>();
+        for (MapRecord<String, Object, Object> e : entries) {
+            String txId = field(e, "txId");
+            if (!persisted.add(txId)) continue; // already in the DB, or repeated within this page
+
+            String type = field(e, "type");
+            Long accountId = Long.valueOf(field(e, "accountId"));
+            long cents = Long.parseLong(field(e, "amountCents"));
+
+            TransactionRecord rec = new TransactionRecord();
+            rec.setTxId(txId);
+            rec.setType(type);
+            rec.setAmount(Money.fromCents(cents));
+            rec.setCurrency(field(e, "currency"));
+            rec.setStatus("COMMITTED");
+            rec.setTimestamp(Instant.ofEpochMilli(Long.parseLong(field(e, "ts"))));
+            rec.setCreatedAt(now);
+            rec.setProcessedAt(now);
+            if ("TRANSFER".equals(type)) {
+                Long dst = Long.valueOf(field(e, "destinationAccountId"));
+                rec.setSourceAccountId(accountId);
+                rec.setDestinationAccountId(dst);
+                net.merge(accountId, -cents, Long::sum);
+                net.merge(dst, cents, Long::sum);
+            } else {
+                rec.setAccountId(accountId);
+                net.merge(accountId, "DEBIT".equals(type) ? -cents : cents, Long::sum);
+            }
+            records.add(rec);
+        }
+        if (records.isEmpty()) return;
+
+        List<BalanceDelta> deltas = new ArrayList<>(net.size());
+        net.forEach((id, cents) -> {
+            if (cents != 0) deltas.add(new BalanceDelta(id, Money.fromCents(cents)));
+        });
+        transactionTemplate.executeWithoutResult(status -> {
+            batchRepository.insertAll(records);
+            batchRepository.applyNetDeltas(deltas);
+        });
+    }
+
+    private void ensureGroup(StreamOperations<String, Object, Object> ops, String stream) {
+        if (groupReady.contains(stream)) return;
+        try {
+            ops.createGroup(stream, ReadOffset.from("0"), GROUP);
+        } catch (Exception e) {
+            // BUSYGROUP: created by another pod or an earlier run
+            log.debug("Delta consumer group of {} not created: {}", stream, e.getMessage());
+        }
+        groupReady.add(stream);
+    }
+
+    private void claimStale(StreamOperations<String, Object, Object> ops, String stream) {
+        PendingMessages stale = ops.pending(stream, GROUP, Range.unbounded(), batchSize, Duration.ofMillis(claimIdleMs));
+        if (stale == null || stale.isEmpty()) return;
+        List<RecordId> ids = new ArrayList<>();
+        for (PendingMessage pm : stale) {
+            if (!consumerName.equals(pm.getConsumerName())) ids.add(pm.getId());
+        }
+        if (!ids.isEmpty()) {
+            log.info("Claiming {} idle write-behind deltas for consumer {}", ids.size(), consumerName);
+            ops.claim(stream, GROUP, consumerName, Duration.ofMillis(claimIdleMs), ids.toArray(new RecordId[0]));
+        }
+    }
+
+    private static String field(MapRecord<String, Object, Object> entry, String name) {
+        Object v = entry.getValue().get(name);
+        return v == null ? null : v.toString();
+    }
+
+    private void increment(String name) {
+        if (meterRegistry != null) {
+            meterRegistry.counter(name).increment();
+        }
+    }
+}
@@ -1,8 +1,19 @@
 package org.pilot.transactionservicepilot.service;
 
+import org.pilot.transactionservicepilot.dto.Money;
+import org.pilot.transactionservicepilot.entity.Account;
+import org.pilot.transactionservicepilot.entity.TransactionRecord;
+import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.repository.TransactionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
@@ -10,73 +21,444 @@ import org.springframework.util.FileCopyUtils;
 
 import jakarta.annotation.PostConstruct;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 @Service
 public class BalanceManager {
 
+    private static final Logger log = LoggerFactory.getLogger(BalanceManager.class);
+
+    // stream of balance deltas applied in write-behind mode, drained by BalanceDeltaDrainer; in cluster mode one
+    // stream per cluster slot, see deltaStreamKey
+    public static final String DELTA_STREAM_KEY = "balance:deltas";
+
+    // cluster mode: the delta streams written so far, for the drainer
+    public static final String DELTA_SHARDS_KEY = "balance:deltas:shards";
+
+    // accounts with pending reservations or in-flight txIds, scored by their earliest deadline (epoch ms); in
+    // cluster mode one index per cluster slot, see dueKey
+    public static final String RESERVATION_DUE_KEY = "reservations:due";
+
+    // reaper: due indexes read per pipelined round trip in cluster mode
+    private static final int DUE_SHARD_PAGE = 1024;
+
+    private static final int RESYNC_PAGE_SIZE = 1000;
+
     private final RedisTemplate<String, String> redisTemplate;
 
     @Value("${app.redis.reservation-ttl-seconds:30}")
     private int reservationTtlSeconds;
 
+    // how long a reaped reservation is remembered, so a commit arriving after the reaper can still settle it
+    @Value("${app.redis.reservation-reaper.marker-ttl-seconds:3600}")
+    private long reapedMarkerTtlSeconds = 3600L;
+
+    // how long a write-behind txId is remembered in Redis; must exceed the worst expected drain lag
+    @Value("${app.write-behind.marker-ttl-seconds:86400}")
+    private long deltaMarkerTtlSeconds = 86400L;
+
+    // hot accounts whose balance is split over several Redis slots (comma-separated ids), see StripedBalances
+    @Value("${app.redis.striping.accounts:}")
+    private String stripedAccountIds = "";
+
+    @Value("${app.redis.striping.slots:8}")
+    private int stripeSlots = 8;
+
+    @Value("${app.write-behind.enabled:false}")
+    private boolean writeBehindEnabled = false;
+
+    private Set<Long> stripedAccounts = Set.of();
+
+    private StripedBalances striped;
+
     private RedisScript<String> reserveScript;
 
+    private RedisScript<List> reserveBatchScript;
+
+    private RedisScript<List> applyDeltaScript;
+
+    private RedisScript<List> reserveCommitScript;
+
+    private RedisScript<List> reserveTransferScript;
+
+    private RedisScript<List> transferDebitScript;
+
+    private RedisScript<List> settleReservationScript;
+
+    private RedisScript<List> creditIfPresentScript;
+
+    private RedisScript<List> reapReservationsScript;
+
+    // Balance hashes not touched by a reservation for this long expire, so Redis holds the active accounts only;
+    // an expired account is loaded back from the DB on its next use (read-through). 0 keeps every entry, and
+    // write-behind mode always does since Redis is authoritative there.
+    @Value("${app.redis.balance-idle-ttl-seconds:0}")
+    private long balanceIdleTtlSeconds = 0L;
+
+    // how long a request waits for a read-through load of the same account started by another thread
+    @Value("${app.redis.read-through.wait-ms:2000}")
+    private long readThroughWaitMs = 2000L;
+
+    // source of read-through loads; without it (unit tests) a cache miss stays NO_ACCOUNT
+    private AccountRepository accountRepository;
+
+    // tells the reaper whether an unconfirmed in-flight txId was committed; without it the account is re-synced
+    private TransactionRepository transactionRepository;
+
+    // delta streams this instance has added to DELTA_SHARDS_KEY
+    private final Set<String> registeredDeltaShards = ConcurrentHashMap.newKeySet();
+
+    // single flight: at most one DB load per account at a time in this instance
+    private final ConcurrentHashMap<Long, CompletableFuture<Boolean>> loading = new ConcurrentHashMap<>();
+
+    private RedisScript<Long> populateIfAbsentScript;
+
+    private RedisScript<Long> overwriteIfSettledScript;
+
+    // hot-path calls go through it when present; without it (unit tests) every call reaches Redis
+    private RedisCircuitBreaker circuitBreaker;
+
+    // on Redis Cluster a transfer uses the single script only when both balance keys share a slot, batches are
+    // split per slot and the due index is sharded per slot
+    @Value("${app.redis.cluster:false}")
+    private boolean cluster = false;
+
     public BalanceManager(RedisTemplate<String, String> redisTemplate) {
         this.redisTemplate = redisTemplate;
     }
 
+    @Autowired(required = false)
+    public void setAccountRepository(AccountRepository accountRepository) {
+        this.accountRepository = accountRepository;
+    }
+
+    @Autowired(required = false)
+    public void setTransactionRepository(TransactionRepository transactionRepository) {
+        this.transactionRepository = transactionRepository;
+    }
+
+    @Autowired(required = false)
+    public void setCircuitBreaker(RedisCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        circuitBreaker.setResync(this::resyncFromDb);
+    }
+
     @PostConstruct
     public void loadScripts() throws Exception {
-        ClassPathResource res = new ClassPathResource("redis/scripts/reserve_balance.lua");
-        byte[] bytes = FileCopyUtils.copyToByteArray(res.getInputStream());
-        String script = new String(bytes, StandardCharsets.UTF_8);
-        this.reserveScript = new DefaultRedisScript<>(script, String.class);
+        this.reserveScript = new DefaultRedisScript<>(readScript("redis/scripts/reserve_balance.lua"), String.class);
+        this.reserveBatchScript = new DefaultRedisScript<>(readScript("redis/scripts/reserve_balance_batch.lua"), List.class);
+        this.applyDeltaScript = new DefaultRedisScript<>(readScript("redis/scripts/apply_delta.lua"), List.class);
+        this.reserveCommitScript = new DefaultRedisScript<>(readScript("redis/scripts/reserve_commit.lua"), List.class);
+        this.reserveTransferScript = new DefaultRedisScript<>(readScript("redis/scripts/reserve_transfer.lua"), List.class);
+        this.transferDebitScript = new DefaultRedisScript<>(readScript("redis/scripts/transfer_debit.lua"), List.class);
+        this.populateIfAbsentScript = new DefaultRedisScript<>(readScript("redis/scripts/populate_if_absent.lua"), Long.class);
+        this.overwriteIfSettledScript = new DefaultRedisScript<>(readScript("redis/scripts/overwrite_if_settled.lua"), Long.class);
+        this.settleReservationScript = new DefaultRedisScript<>(readScript("redis/scripts/settle_reservation.lua"), List.class);
+        this.creditIfPresentScript = new DefaultRedisScript<>(readScript("redis/scripts/credit_if_present.lua"), List.class);
+        this.reapReservationsScript = new DefaultRedisScript<>(readScript("redis/scripts/reap_reservations.lua"), List.class);
+        if (writeBehindEnabled && balanceIdleTtlSeconds > 0) {
+            log.warn("Idle eviction of balances is not supported in write-behind mode, ignoring app.redis.balance-idle-ttl-seconds");
+            balanceIdleTtlSeconds = 0L;
+        }
+        this.striped = new StripedBalances(redisTemplate,
+                new DefaultRedisScript<>(readScript("redis/scripts/reserve_slot.lua"), Long.class),
+                new DefaultRedisScript<>(readScript("redis/scripts/settle_slot.lua"), List.class),
+                creditIfPresentScript, stripeSlots, reservationTtlSeconds, reapedMarkerTtlSeconds, this::dueKey);
+        this.stripedAccounts = parseStripedAccounts();
+    }
+
+    private Set<Long> parseStripedAccounts() {
+        if (stripedAccountIds == null || stripedAccountIds.isBlank() || stripeSlots < 2) return Set.of();
+        if (writeBehindEnabled) {
+            // applyDelta works on the single balance hash; both modes cannot be combined
+            log.warn("Balance striping is not supported in write-behind mode, ignoring app.redis.striping.accounts");
+            return Set.of();
+        }
+        Set<Long> ids = new HashSet<>();
+        for (String id : stripedAccountIds.split(",")) {
+            if (!id.isBlank()) ids.add(Long.valueOf(id.trim()));
+        }
+        log.info("Striping balances of accounts {} over {} slots", ids, stripeSlots);
+        return Set.copyOf(ids);
+    }
+
+    public boolean isStriped(Long accountId) {
+        return accountId != null && stripedAccounts.contains(accountId);
+    }
+
+    public boolean isIdleEvictionEnabled() {
+        return balanceIdleTtlSeconds > 0;
+    }
+
+    public boolean isWriteBehindEnabled() {
+        return writeBehindEnabled;
+    }
+
+    // script arguments followed by the idle TTL when eviction is on (the scripts treat it as optional)
+    private Object[] withIdleTtl(Object... args) {
+        if (balanceIdleTtlSeconds <= 0) return args;
+        Object[] withTtl = Arrays.copyOf(args, args.length + 1);
+        withTtl[args.length] = String.valueOf(balanceIdleTtlSeconds);
+        return withTtl;
+    }
+
+    /**
+     * Read-through: load an account missing from Redis from the DB and cache it, unless it was cached meanwhile.
+     * Concurrent misses on the same account share one load; other instances may load it too, but the populate
+     * script never overwrites an existing entry. Striped accounts are not loaded this way (warm-up and reconcile
+     * populate them).
+     *
+     * @return true when the account is cached afterwards, false when it does not exist or could not be loaded
+     */
+    boolean loadIfMissing(Long accountId) {
+        if (accountId == null || accountRepository == null || populateIfAbsentScript == null) return false;
+        if (isStriped(accountId)) return true;
+        CompletableFuture<Boolean> mine = new CompletableFuture<>();
+        CompletableFuture<Boolean> inFlight = loading.putIfAbsent(accountId, mine);
+        if (inFlight != null) {
+            try {
+                return inFlight.get(readThroughWaitMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+        boolean loaded = false;
+        try {
+            Optional<Account> account = accountRepository.findById(accountId);
+            if (account.isPresent()) {
+                Account a = account.get();
+                Long written = redisTemplate.execute(populateIfAbsentScript, List.of(balanceKey(accountId)),
+                        String.valueOf(toCents(a.getBalance())), String.valueOf(toCents(a.getAvailableBalance())),
+                        a.getCurrency() == null ? "" : a.getCurrency(), String.valueOf(balanceIdleTtlSeconds));
+                if (written != null && written == 1L) log.debug("Loaded balance of account {} into Redis", accountId);
+                loaded = written != null;
+            }
+        } catch (Exception e) {
+            log.warn("Read-through load of account {} failed: {}", accountId, e.getMessage());
+        } finally {
+            mine.complete(loaded);
+            loading.remove(accountId, mine);
+        }
+        return loaded;
+    }
+
+    // Run a hot-path Redis call through the circuit breaker: while it is open the call is not made and the caller
+    // gets the rejected value (ERROR) at once, otherwise the outcome and duration of the whole call are recorded.
+    private <T> T guarded(Supplier<T> call, Predicate<T> failed, T rejected) {
+        RedisCircuitBreaker breaker = circuitBreaker;
+        if (breaker == null) return call.get();
+        if (!breaker.tryAcquire()) return rejected;
+        long start = System.nanoTime();
+        T result = call.get();
+        breaker.record(!failed.test(result), System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Note accounts whose DB balance was changed by a DB-only fallback, so their Redis entries no longer match;
+     * they are re-synced from the DB when the circuit breaker closes (or by the next reconcile).
+     */
+    public void markStale(Collection<Long> accountIds) {
+        if (circuitBreaker != null && !accountIds.isEmpty()) circuitBreaker.markStale(accountIds);
+    }
+
+    // re-sync the accounts marked stale while the breaker stayed closed
+    public void resyncStale() {
+        if (circuitBreaker != null) circuitBreaker.resyncStale();
+    }
+
+    // overwrite the cached balances of these accounts with their DB values, those of settled accounts only
+    void resyncFromDb(Set<Long> accountIds) {
+        if (accountRepository == null || accountIds.isEmpty()) return;
+        if (writeBehindEnabled) {
+            // Redis holds deltas the DB has not seen yet; overwriting would lose them
+            log.warn("Not re-syncing {} accounts written by the DB fallback in write-behind mode", accountIds.size());
+            return;
+        }
+        List<Long> ids = new ArrayList<>(accountIds);
+        Set<Long> busy = new HashSet<>();
+        for (int from = 0; from < ids.size(); from += RESYNC_PAGE_SIZE) {
+            List<Long> page = ids.subList(from, Math.min(ids.size(), from + RESYNC_PAGE_SIZE));
+            Map<Long, CachedBalance> cached = getCachedBalances(page);
+            List<CachedBalance> entries = new ArrayList<>();
+            for (Account a : accountRepository.findAllById(page)) {
+                CachedBalance db = new CachedBalance(a.getId(), toCents(a.getBalance()), toCents(a.getAvailableBalance()), a.getCurrency());
+                CachedBalance seen = cached.get(a.getId());
+                if (seen == null) {
+                    // nothing usable cached: load it, as the warm-up does
+                    entries.add(db);
+                } else if (seen.balanceCents() == db.balanceCents() && seen.availableCents() == db.availableCents()) {
+                    continue;
+                } else if (isStriped(a.getId()) && striped.settled(a.getId())) {
+                    // the stripes span several keys, so they are repopulated once no slot holds a reservation part
+                    entries.add(db);
+                } else if (isStriped(a.getId()) || !overwriteIfSettled(seen, db)) {
+                    // a pending reservation or in-flight txId, or a change since the read: the DB row may not
+                    // include it yet, so the entry is left stale for the next pass
+                    busy.add(a.getId());
+                }
+            }
+            if (!entries.isEmpty()) populateBalances(entries);
+        }
+        markStale(busy);
+        log.info("Re-synced {} accounts from the DB into Redis, {} busy ones left stale", accountIds.size() - busy.size(), busy.size());
+    }
+
+    private static String readScript(String path) throws Exception {
+        ClassPathResource res = new ClassPathResource(path);
+        return new String(FileCopyUtils.copyToByteArray(res.getInputStream()), StandardCharsets.UTF_8);
     }
 
     private String balanceKey(Long accountId) {
         return "balance:" + accountId;
     }
 
-    private String reservationKey(String txId) {
-        return "reservation:" + txId;
+    // the hash tag is the balance key, so the record hashes to the same cluster slot as that key
+    private String reservationKey(Long accountId, String txId) {
+        return "reservation:{" + balanceKey(accountId) + "}:" + txId;
+    }
+
+    // the due index holding the account: the single RESERVATION_DUE_KEY, or in cluster mode the one of its slot
+    private String dueKey(Long accountId) {
+        return dueKey(balanceKey(accountId));
+    }
+
+    // same, for the balance key of an account or of one of its stripes
+    private String dueKey(String balanceKey) {
+        return cluster ? dueShardKey(ClusterSlotHashUtil.calculateSlot(balanceKey)) : RESERVATION_DUE_KEY;
+    }
+
+    private String dueShardKey(int slot) {
+        return RESERVATION_DUE_KEY + ":{" + SlotTags.TAGS[slot] + "}";
+    }
+
+    // the delta stream an applyDelta on the account appends to: the single DELTA_STREAM_KEY, or in cluster mode
+    // the one of its slot
+    private String deltaStreamKey(Long accountId) {
+        return cluster ? DELTA_STREAM_KEY + ":{" + SlotTags.TAGS[ClusterSlotHashUtil.calculateSlot(balanceKey(accountId))] + "}" : DELTA_STREAM_KEY;
+    }
+
+    // write-behind marker of a txId applied to the account, in the slot of its balance key
+    private String appliedMarkerKey(Long accountId, String txId) {
+        return "applied:{" + balanceKey(accountId) + "}:" + txId;
+    }
+
+    // cluster mode: for each cluster slot, the first base-36 number hashing to it, used as the hash tag of that
+    // slot's due index and delta stream; computed on first use
+    private static final class SlotTags {
+        static final String[] TAGS = new String[ClusterSlotHashUtil.SLOT_COUNT];
+
+        static {
+            int found = 0;
+            for (int i = 0; found < TAGS.length; i++) {
+                String tag = Integer.toString(i, 36);
+                int slot = ClusterSlotHashUtil.calculateSlot(tag);
+                if (TAGS[slot] == null) {
+                    TAGS[slot] = tag;
+                    found++;
+                }
+            }
+        }
+    }
+
+    // deadlines of the account's pending reservations (member amount_cents:txId), in the slot of its balance key
+    private String reservationIndexKey(Long accountId) {
+        return "reservations:{" + balanceKey(accountId) + "}";
+    }
+
+    // txIds a fused script applied to the account whose DB commit is not confirmed yet, scored by their deadline
+    // (epoch ms), in the slot of its balance key
+    private String inFlightKey(Long accountId) {
+        return "inflight:{" + balanceKey(accountId) + "}";
+    }
+
+    // reservations of the account returned by the reaper, kept for late commits
+    private String reapedReservationsKey(Long accountId) {
+        return "reservations:reaped:{" + balanceKey(accountId) + "}";
+    }
+
+    private long reservationDeadlineMillis() {
+        return System.currentTimeMillis() + reservationTtlSeconds * 1000L;
     }
 
     public enum ReserveResult {
         OK, NO_ACCOUNT, INSUFFICIENT_FUNDS, ERROR
     }
 
-    // helper: convert BigDecimal to integer cents (long)
-    private long toCents(BigDecimal amount) {
-        return amount.setScale(2, RoundingMode.HALF_UP).multiply(new BigDecimal(100)).longValueExact();
+    // one account movement inside a batch call (reserve/commit/rollback/credit); the amount is in cents
+    public record Reservation(Long accountId, long amountCents, String txId) {
     }
 
-    private BigDecimal fromCents(Object centsObj) {
-        if (centsObj == null) return null;
-        long cents;
-        if (centsObj instanceof Number) {
-            cents = ((Number) centsObj).longValue();
-        } else {
+    // outcome of applyDelta/reserveTransfer: result, balance after the change (null unless OK/duplicate) and whether the txId was already applied
+    public record AppliedDelta(ReserveResult result, BigDecimal balance, boolean duplicate) {
+    }
+
+    // outcome of reserveAndCommit: result plus balance and available after the change (null unless OK or not known)
+    public record AppliedBalance(ReserveResult result, BigDecimal balance, BigDecimal available) {
+    }
+
+    // cached balance hash of one account in cents, as read or written by the bulk helpers
+    public record CachedBalance(Long accountId, long balanceCents, long availableCents, String currency) {
+    }
+
+    private static long toCents(BigDecimal amount) {
+        return Money.toCents(amount);
+    }
+
+    private static BigDecimal fromCents(Object cents) {
+        return Money.fromCents(cents);
+    }
+
+    public ReserveResult reserve(Long accountId, BigDecimal amount, String txId) {
+        return guarded(() -> reserveCents(accountId, toCents(amount), txId), r -> r == ReserveResult.ERROR, ReserveResult.ERROR);
+    }
+
+    private ReserveResult reserveCents(Long accountId, long cents, String txId) {
+        if (isStriped(accountId)) {
             try {
-                cents = Long.parseLong(centsObj.toString());
-            } catch (NumberFormatException e) {
-                return null;
+                return striped.reserve(accountId, cents, txId);
+            } catch (Exception e) {
+                return ReserveResult.ERROR;
             }
         }
-        return new BigDecimal(cents).movePointLeft(2).setScale(2, RoundingMode.HALF_UP);
+        ReserveResult rr = reserveOnce(accountId, cents, txId);
+        if (rr == ReserveResult.NO_ACCOUNT && loadIfMissing(accountId)) {
+            rr = reserveOnce(accountId, cents, txId);
+        }
+        return rr;
     }
 
-    public ReserveResult reserve(Long accountId, BigDecimal amount, String txId) {
+    private ReserveResult reserveOnce(Long accountId, long cents, String txId) {
         String bKey = balanceKey(accountId);
-        String rKey = reservationKey(txId);
-        List<String> keys = List.of(bKey, rKey);
-        long cents = toCents(amount);
-        List<String> args = List.of(String.valueOf(cents), txId, String.valueOf(reservationTtlSeconds));
+        String rKey = reservationKey(accountId, txId);
         try {
-            String res = redisTemplate.execute(reserveScript, keys, (Object[]) args.toArray(new String[0]));
+            String res = redisTemplate.execute(reserveScript, List.of(bKey, rKey, reservationIndexKey(accountId), dueKey(accountId)),
+                    withIdleTtl(String.valueOf(cents), txId, String.valueOf(reservationTtlSeconds), String.valueOf(accountId),
+                            String.valueOf(reservationDeadlineMillis())));
             if (res == null) return ReserveResult.ERROR;
             if ("OK".equalsIgnoreCase(res)) return ReserveResult.OK;
             if (res.contains("NO_ACCOUNT")) return ReserveResult.NO_ACCOUNT;
@@ -88,23 +470,628 @@ public class BalanceManager {
     }
 
     public void commit(Long accountId, BigDecimal amount, String txId) {
-        String bKey = balanceKey(accountId);
-        long cents = toCents(amount);
-        // decrement final balance (balance is stored in cents as integer string)
-        redisTemplate.opsForHash().increment(bKey, "balance", -cents);
-        // remove reservation
-        redisTemplate.delete(reservationKey(txId));
+        if (isStriped(accountId)) {
+            if (!striped.commit(accountId, txId)) resyncGone(Set.of(accountId));
+            return;
+        }
+        settle("commit", List.of(new Reservation(accountId, toCents(amount), txId)));
     }
 
     public void rollback(Long accountId, BigDecimal amount, String txId) {
-        String bKey = balanceKey(accountId);
-        long cents = toCents(amount);
-        // return available back (increment available by cents)
-        redisTemplate.opsForHash().increment(bKey, "available", cents);
-        redisTemplate.delete(reservationKey(txId));
+        if (isStriped(accountId)) {
+            striped.rollback(accountId, txId);
+            return;
+        }
+        settle("rollback", List.of(new Reservation(accountId, toCents(amount), txId)));
+    }
+
+    // commit (balance -= amount) or roll back (available += amount) reservations and drop them from the expiry
+    // index in one script call; a commit of a reservation the reaper got to first, or that Redis no longer knows,
+    // leaves the cached balance alone and re-syncs the account
+    @SuppressWarnings("unchecked")
+    private void settle(String mode, List<Reservation> reservations) {
+        if (cluster) {
+            Collection<List<Integer>> bySlot = bySlot(reservations);
+            if (bySlot.size() > 1) {
+                bySlot.forEach(group -> settle(mode, group.stream().map(reservations::get).toList()));
+                return;
+            }
+        }
+        List<String> keys = new ArrayList<>(reservations.size() * 4);
+        List<String> args = new ArrayList<>(reservations.size() * 2 + 1);
+        args.add(mode);
+        for (Reservation r : reservations) {
+            keys.add(balanceKey(r.accountId()));
+            keys.add(reservationKey(r.accountId(), r.txId()));
+            keys.add(reservationIndexKey(r.accountId()));
+            keys.add(reapedReservationsKey(r.accountId()));
+            args.add(String.valueOf(r.amountCents()));
+            args.add(r.txId());
+        }
+        List<Object> gone = redisTemplate.execute(settleReservationScript, keys, (Object[]) args.toArray(new String[0]));
+        if (gone == null || gone.isEmpty()) return;
+        Set<Long> accounts = new HashSet<>();
+        for (Object item : gone) {
+            accounts.add(reservations.get(Integer.parseInt(String.valueOf(item)) - 1).accountId());
+        }
+        resyncGone(accounts);
+    }
+
+    // accounts that committed a reservation the reaper had already returned (or that Redis no longer knew): the
+    // returned amount may have been taken again, so the cached balance is rebuilt from the DB, which has the commit
+    private void resyncGone(Set<Long> accountIds) {
+        if (accountIds.isEmpty()) return;
+        log.warn("Accounts {} committed reservations that were gone from Redis, re-syncing them", accountIds);
+        resyncFromDb(accountIds);
+    }
+
+    /**
+     * Return the amounts of reservations that outlived their deadline (the instance holding them died between
+     * reserve and commit/rollback) to the available balance. Each account is handled atomically by one script
+     * call, so several instances may reap at the same time.
+     * <p>
+     * The same pass collects the in-flight txIds of fused changes ({@link #reserveAndCommit},
+     * {@link #reserveTransfer}) that were neither confirmed nor reverted by their deadline: the instance died
+     * between the Redis change and its DB commit. Accounts with such a txId that the DB does not hold as
+     * COMMITTED are re-synced from the DB, which drops the change Redis kept ahead of it.
+     *
+     * @return the number of reservations reaped
+     */
+    @SuppressWarnings("unchecked")
+    public int reapExpiredReservations(int maxAccounts, int maxPerAccount) {
+        long now = System.currentTimeMillis();
+        Set<String> due = dueAccounts(now, maxAccounts);
+        if (due.isEmpty()) return 0;
+        int reaped = 0;
+        Map<Long, List<String>> unconfirmed = new HashMap<>();
+        for (String id : due) {
+            // a stripe of a striped account is listed as accountId:slot, see StripedBalances
+            int sep = id.indexOf(':');
+            Long accountId = Long.valueOf(sep < 0 ? id : id.substring(0, sep));
+            List<String> keys;
+            if (sep < 0) {
+                keys = List.of(reservationIndexKey(accountId), reapedReservationsKey(accountId), balanceKey(accountId), dueKey(accountId), inFlightKey(accountId));
+            } else {
+                int slot = Integer.parseInt(id.substring(sep + 1));
+                String slotKey = StripedBalances.slotKey(accountId, slot);
+                // stripes have no in-flight txIds; the script still gets an (empty) key in their slot
+                keys = List.of(StripedBalances.slotIndexKey(accountId, slot), StripedBalances.slotReapedKey(accountId, slot), slotKey,
+                        dueKey(slotKey), "inflight:{" + StripedBalances.dueMember(accountId, slot) + "}");
+            }
+            List<Object> res = redisTemplate.execute(reapReservationsScript, keys,
+                    String.valueOf(now), String.valueOf(maxPerAccount), id, String.valueOf(reapedMarkerTtlSeconds * 1000L));
+            if (res == null || res.isEmpty()) continue;
+            long n = Long.parseLong(String.valueOf(res.get(0)));
+            if (n > 0) {
+                log.warn("Returned {} expired reservations of account {} to its available balance", n, accountId);
+                reaped += (int) n;
+            }
+            for (Object txId : res.subList(1, res.size())) {
+                unconfirmed.computeIfAbsent(accountId, k -> new ArrayList<>()).add(String.valueOf(txId));
+            }
+        }
+        if (!unconfirmed.isEmpty()) resyncUncommitted(unconfirmed);
+        return reaped;
+    }
+
+    // up to max accounts due by now; in cluster mode read from the slot indexes, a page of them per round trip
+    @SuppressWarnings("unchecked")
+    private Set<String> dueAccounts(long now, int max) {
+        if (!cluster) {
+            Set<String> due = redisTemplate.opsForZSet().rangeByScore(RESERVATION_DUE_KEY, 0, now, 0, max);
+            return due == null ? Set.of() : due;
+        }
+        Set<String> due = new LinkedHashSet<>();
+        for (int from = 0; from < SlotTags.TAGS.length && due.size() < max; from += DUE_SHARD_PAGE) {
+            int first = from;
+            int limit = max - due.size();
+            List<Object> pages = executePipelined(ops -> {
+                for (int slot = first; slot < Math.min(SlotTags.TAGS.length, first + DUE_SHARD_PAGE); slot++) {
+                    ops.opsForZSet().rangeByScore(dueShardKey(slot), 0, now, 0, limit);
+                }
+            });
+            for (Object page : pages) {
+                if (page == null) continue;
+                for (Object id : (Collection<Object>) page) {
+                    if (due.size() >= max) break;
+                    due.add(String.valueOf(id));
+                }
+            }
+        }
+        return due;
+    }
+
+    // re-sync the accounts whose expired in-flight txIds (account -> txIds) include one the DB has not committed
+    private void resyncUncommitted(Map<Long, List<String>> unconfirmed) {
+        Set<String> committed = new HashSet<>();
+        if (transactionRepository != null) {
+            Set<String> txIds = new HashSet<>();
+            unconfirmed.values().forEach(txIds::addAll);
+            for (TransactionRecord r : transactionRepository.findByTxIdIn(txIds)) {
+                if ("COMMITTED".equalsIgnoreCase(r.getStatus())) committed.add(r.getTxId());
+            }
+        }
+        Set<Long> stale = new HashSet<>();
+        unconfirmed.forEach((accountId, txIds) -> {
+            if (!committed.containsAll(txIds)) stale.add(accountId);
+        });
+        if (stale.isEmpty()) return;
+        log.warn("Accounts {} hold changes applied in Redis whose DB commit never happened, re-syncing them", stale);
+        resyncFromDb(stale);
+    }
+
+    /**
+     * Check funds and apply a debit or credit to the cached balance and available amount in one round trip,
+     * returning both values after the change. This replaces the {@link #reserve} + {@link #commit} pair on the
+     * success path; once the DB update committed, call {@link #confirmApplied}, if it fails undo the change with
+     * {@link #revert}. A change left unconfirmed past the reservation TTL is checked by the reaper.
+     */
+    public AppliedBalance reserveAndCommit(Long accountId, long cents, boolean debit, String txId) {
+        return guarded(() -> reserveAndCommitUnguarded(accountId, cents, debit, txId),
+                a -> a.result() == ReserveResult.ERROR, new AppliedBalance(ReserveResult.ERROR, null, null));
+    }
+
+    private AppliedBalance reserveAndCommitUnguarded(Long accountId, long cents, boolean debit, String txId) {
+        try {
+            if (isStriped(accountId)) {
+                // slots are settled one by one; the summed balance is not known here
+                if (!debit) {
+                    if (striped.credit(accountId, cents, txId)) return new AppliedBalance(ReserveResult.OK, null, null);
+                    markStale(List.of(accountId));
+                    return new AppliedBalance(ReserveResult.NO_ACCOUNT, null, null);
+                }
+                ReserveResult rr = striped.reserve(accountId, cents, txId);
+                if (rr == ReserveResult.OK) striped.commit(accountId, txId);
+                return new AppliedBalance(rr, null, null);
+            }
+        } catch (Exception e) {
+            return new AppliedBalance(ReserveResult.ERROR, null, null);
+        }
+        AppliedBalance applied = reserveAndCommitOnce(accountId, cents, debit, txId);
+        if (applied.result() == ReserveResult.NO_ACCOUNT && loadIfMissing(accountId)) {
+            applied = reserveAndCommitOnce(accountId, cents, debit, txId);
+        }
+        return applied;
+    }
+
+    @SuppressWarnings("unchecked")
+    private AppliedBalance reserveAndCommitOnce(Long accountId, long cents, boolean debit, String txId) {
+        try {
+            List<Object> res = redisTemplate.execute(reserveCommitScript, List.of(balanceKey(accountId), inFlightKey(accountId), dueKey(accountId)),
+                    withIdleTtl(String.valueOf(debit ? -cents : cents), txId, String.valueOf(reservationDeadlineMillis()), String.valueOf(accountId)));
+            if (res == null || res.isEmpty()) return new AppliedBalance(ReserveResult.ERROR, null, null);
+            switch (String.valueOf(res.get(0))) {
+                case "OK":
+                    return new AppliedBalance(ReserveResult.OK, fromCents(res.get(1)), fromCents(res.get(2)));
+                case "NO_ACCOUNT":
+                    return new AppliedBalance(ReserveResult.NO_ACCOUNT, null, null);
+                case "INSUFFICIENT_FUNDS":
+                    return new AppliedBalance(ReserveResult.INSUFFICIENT_FUNDS, null, null);
+                default:
+                    return new AppliedBalance(ReserveResult.ERROR, null, null);
+            }
+        } catch (Exception e) {
+            return new AppliedBalance(ReserveResult.ERROR, null, null);
+        }
+    }
+
+    // undo a successful reserveAndCommit whose DB update failed
+    public void revert(Long accountId, long cents, boolean debit, String txId) {
+        long delta = debit ? cents : -cents;
+        if (isStriped(accountId)) {
+            if (!striped.credit(accountId, delta, txId)) markStale(List.of(accountId));
+            return;
+        }
+        creditIfPresent(List.of(new Reservation(accountId, delta, txId)));
+    }
+
+    /**
+     * Confirm the fused Redis changes of a txId ({@link #reserveAndCommit}, {@link #reserveTransfer}) once its DB
+     * transaction committed, so the reaper does not look it up. Best effort: an in-flight txId left behind costs the
+     * reaper one lookup, and it finds the txId committed.
+     */
+    public void confirmApplied(Collection<Long> accountIds, String txId) {
+        try {
+            executePipelined(ops -> {
+                for (Long accountId : accountIds) {
+                    if (!isStriped(accountId)) ops.opsForZSet().remove(inFlightKey(accountId), txId);
+                }
+            });
+        } catch (Exception e) {
+            log.debug("Could not confirm in-flight txId {}: {}", txId, e.getMessage());
+        }
+    }
+
+    /**
+     * Transfer counterpart of {@link #reserveAndCommit}: debit the source and credit the destination in Redis,
+     * recording one reservation for the txId next to the source balance. When both balance keys share a cluster
+     * slot (always, outside cluster mode) this is one atomic script call. Otherwise the source is debited with
+     * the reservation marked CREDIT_PENDING, the destination is credited and the reservation marked APPLIED;
+     * if the destination is not cached the source debit is undone. Once the DB update committed, call
+     * {@link #confirmApplied} for both accounts; undo a successful call with {@link #revertTransfer} when it fails.
+     *
+     * @return the source balance after the change; duplicate is set when the txId is already applied
+     */
+    public AppliedDelta reserveTransfer(Long sourceAccountId, Long destinationAccountId, long cents, String txId) {
+        return guarded(() -> reserveTransferUnguarded(sourceAccountId, destinationAccountId, cents, txId),
+                a -> a.result() == ReserveResult.ERROR, new AppliedDelta(ReserveResult.ERROR, null, false));
+    }
+
+    private AppliedDelta reserveTransferUnguarded(Long sourceAccountId, Long destinationAccountId, long cents, String txId) {
+        AppliedDelta applied = reserveTransferOnce(sourceAccountId, destinationAccountId, cents, txId);
+        // either account may be the missing one; both must be cached for the retry
+        if (applied.result() == ReserveResult.NO_ACCOUNT && loadIfMissing(sourceAccountId) & loadIfMissing(destinationAccountId)) {
+            applied = reserveTransferOnce(sourceAccountId, destinationAccountId, cents, txId);
+        }
+        return applied;
+    }
+
+    @SuppressWarnings("unchecked")
+    private AppliedDelta reserveTransferOnce(Long sourceAccountId, Long destinationAccountId, long cents, String txId) {
+        try {
+            if (isStriped(sourceAccountId) || isStriped(destinationAccountId)) {
+                return stripedTransfer(sourceAccountId, destinationAccountId, cents, txId);
+            }
+            String srcKey = balanceKey(sourceAccountId);
+            String dstKey = balanceKey(destinationAccountId);
+            String rKey = reservationKey(sourceAccountId, txId);
+            Object[] args = withIdleTtl(String.valueOf(cents), txId, String.valueOf(reservationTtlSeconds),
+                    String.valueOf(sourceAccountId), String.valueOf(destinationAccountId), String.valueOf(reservationDeadlineMillis()));
+            if (!cluster || ClusterSlotHashUtil.calculateSlot(srcKey) == ClusterSlotHashUtil.calculateSlot(dstKey)) {
+                return toAppliedDelta(redisTemplate.execute(reserveTransferScript,
+                        List.of(srcKey, dstKey, rKey, inFlightKey(sourceAccountId), inFlightKey(destinationAccountId), dueKey(sourceAccountId)), args));
+            }
+
+            AppliedDelta debited = toAppliedDelta(redisTemplate.execute(transferDebitScript,
+                    List.of(srcKey, rKey, inFlightKey(sourceAccountId), dueKey(sourceAccountId)), args));
+            if (debited.result() != ReserveResult.OK || debited.duplicate()) return debited;
+            AppliedBalance credited = reserveAndCommitUnguarded(destinationAccountId, cents, false, txId);
+            if (credited.result() != ReserveResult.OK) {
+                revert(sourceAccountId, cents, true, txId);
+                redisTemplate.delete(rKey);
+                return new AppliedDelta(credited.result(), null, false);
+            }
+            redisTemplate.opsForHash().put(rKey, "state", "APPLIED");
+            return debited;
+        } catch (Exception e) {
+            return new AppliedDelta(ReserveResult.ERROR, null, false);
+        }
+    }
+
+    // undo a successful reserveTransfer whose DB update failed
+    public void revertTransfer(Long sourceAccountId, Long destinationAccountId, long cents, String txId) {
+        revert(sourceAccountId, cents, true, txId);
+        revert(destinationAccountId, cents, false, txId);
+        redisTemplate.delete(reservationKey(sourceAccountId, txId));
+    }
+
+    // striped accounts have no single balance key to include in the transfer script: apply each leg on its own
+    private AppliedDelta stripedTransfer(Long sourceAccountId, Long destinationAccountId, long cents, String txId) {
+        if (getAvailable(destinationAccountId) == null) return new AppliedDelta(ReserveResult.NO_ACCOUNT, null, false);
+        AppliedBalance debited = reserveAndCommitUnguarded(sourceAccountId, cents, true, txId);
+        if (debited.result() != ReserveResult.OK) return new AppliedDelta(debited.result(), null, false);
+        reserveAndCommitUnguarded(destinationAccountId, cents, false, txId);
+        return new AppliedDelta(ReserveResult.OK, debited.balance(), false);
+    }
+
+    private AppliedDelta toAppliedDelta(List<Object> res) {
+        if (res == null || res.isEmpty()) return new AppliedDelta(ReserveResult.ERROR, null, false);
+        switch (String.valueOf(res.get(0))) {
+            case "OK":
+                return new AppliedDelta(ReserveResult.OK, fromCents(res.get(1)), false);
+            case "DUPLICATE":
+                return new AppliedDelta(ReserveResult.OK, fromCents(res.get(1)), true);
+            case "NO_ACCOUNT":
+                return new AppliedDelta(ReserveResult.NO_ACCOUNT, null, false);
+            case "INSUFFICIENT_FUNDS":
+                return new AppliedDelta(ReserveResult.INSUFFICIENT_FUNDS, null, false);
+            default:
+                return new AppliedDelta(ReserveResult.ERROR, null, false);
+        }
+    }
+
+    // Reserve many items with a single Lua call. The result list is aligned with the input;
+    // if Redis cannot be reached every item is reported as ERROR.
+    public List<ReserveResult> reserveBatch(List<Reservation> reservations) {
+        if (reservations.isEmpty()) return List.of();
+        return guarded(() -> reserveBatchUnguarded(reservations), r -> r.contains(ReserveResult.ERROR),
+                Collections.nCopies(reservations.size(), ReserveResult.ERROR));
+    }
+
+    private List<ReserveResult> reserveBatchUnguarded(List<Reservation> reservations) {
+        if (stripedAccounts.isEmpty()) return reserveUnstriped(reservations);
+        // striped accounts go through their slot scripts, all other items still share one call
+        List<Reservation> plain = new ArrayList<>();
+        for (Reservation r : reservations) {
+            if (!isStriped(r.accountId())) plain.add(r);
+        }
+        Iterator<ReserveResult> plainResults = (plain.isEmpty() ? List.<ReserveResult>of() : reserveUnstriped(plain)).iterator();
+        List<ReserveResult> results = new ArrayList<>(reservations.size());
+        for (Reservation r : reservations) {
+            results.add(isStriped(r.accountId()) ? reserveCents(r.accountId(), r.amountCents(), r.txId()) : plainResults.next());
+        }
+        retryMissing(reservations, results);
+        return results;
+    }
+
+    // read-through for a batch: load the accounts reported missing and reserve their items again in one call
+    private void retryMissing(List<Reservation> reservations, List<ReserveResult> results) {
+        List<Integer> retry = new ArrayList<>();
+        Set<Long> loaded = new HashSet<>();
+        Set<Long> failed = new HashSet<>();
+        for (int i = 0; i < reservations.size(); i++) {
+            Long accountId = reservations.get(i).accountId();
+            if (results.get(i) != ReserveResult.NO_ACCOUNT || isStriped(accountId) || failed.contains(accountId)) continue;
+            if (loaded.contains(accountId) || loadIfMissing(accountId)) {
+                loaded.add(accountId);
+                retry.add(i);
+            } else {
+                failed.add(accountId);
+            }
+        }
+        if (retry.isEmpty()) return;
+        List<Reservation> again = new ArrayList<>(retry.size());
+        for (int i : retry) again.add(reservations.get(i));
+        List<ReserveResult> retried = reserveUnstriped(again);
+        for (int k = 0; k < retry.size(); k++) {
+            results.set(retry.get(k), retried.get(k));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ReserveResult> reserveUnstriped(List<Reservation> reservations) {
+        if (cluster) {
+            Collection<List<Integer>> bySlot = bySlot(reservations);
+            if (bySlot.size() > 1) return reserveBySlot(reservations, bySlot);
+        }
+        List<String> keys = new ArrayList<>(reservations.size() * 3 + 1);
+        List<String> args = new ArrayList<>(reservations.size() * 3 + 3);
+        keys.add(dueKey(reservations.get(0).accountId()));
+        args.add(String.valueOf(reservationTtlSeconds));
+        args.add(String.valueOf(reservationDeadlineMillis()));
+        for (Reservation r : reservations) {
+            keys.add(balanceKey(r.accountId()));
+            keys.add(reservationKey(r.accountId(), r.txId()));
+            keys.add(reservationIndexKey(r.accountId()));
+            args.add(String.valueOf(r.amountCents()));
+            args.add(r.txId());
+            args.add(String.valueOf(r.accountId()));
+        }
+        if (balanceIdleTtlSeconds > 0) args.add(String.valueOf(balanceIdleTtlSeconds));
+        List<Object> raw;
+        try {
+            raw = redisTemplate.execute(reserveBatchScript, keys, (Object[]) args.toArray(new String[0]));
+        } catch (Exception e) {
+            raw = null;
+        }
+        if (raw == null || raw.size() != reservations.size()) {
+            return Collections.nCopies(reservations.size(), ReserveResult.ERROR);
+        }
+        List<ReserveResult> results = new ArrayList<>(raw.size());
+        for (Object o : raw) {
+            String res = o == null ? null : o.toString();
+            if ("OK".equalsIgnoreCase(res)) results.add(ReserveResult.OK);
+            else if ("NO_ACCOUNT".equals(res)) results.add(ReserveResult.NO_ACCOUNT);
+            else if ("INSUFFICIENT_FUNDS".equals(res)) results.add(ReserveResult.INSUFFICIENT_FUNDS);
+            else results.add(ReserveResult.ERROR);
+        }
+        return results;
+    }
+
+    // cluster mode: one script call per slot, results put back in input order
+    private List<ReserveResult> reserveBySlot(List<Reservation> reservations, Collection<List<Integer>> bySlot) {
+        List<ReserveResult> results = new ArrayList<>(Collections.nCopies(reservations.size(), ReserveResult.ERROR));
+        for (List<Integer> group : bySlot) {
+            List<ReserveResult> groupResults = reserveUnstriped(group.stream().map(reservations::get).toList());
+            for (int k = 0; k < group.size(); k++) {
+                results.set(group.get(k), groupResults.get(k));
+            }
+        }
+        return results;
+    }
+
+    // indexes of the reservations grouped by the cluster slot of their account, each group in input order
+    private Collection<List<Integer>> bySlot(List<Reservation> reservations) {
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < reservations.size(); i++) {
+            groups.computeIfAbsent(ClusterSlotHashUtil.calculateSlot(balanceKey(reservations.get(i).accountId())), k -> new ArrayList<>()).add(i);
+        }
+        return groups.values();
+    }
+
+    // single-call equivalent of calling commit() for every reservation
+    public void commitBatch(List<Reservation> reservations) {
+        Set<Long> gone = new HashSet<>();
+        List<Reservation> plain = withoutStriped(reservations, r -> {
+            if (!striped.commit(r.accountId(), r.txId())) gone.add(r.accountId());
+        });
+        resyncGone(gone);
+        if (plain.isEmpty()) return;
+        settle("commit", plain);
+    }
+
+    // single-call equivalent of calling rollback() for every reservation
+    public void rollbackBatch(List<Reservation> reservations) {
+        List<Reservation> plain = withoutStriped(reservations, r -> striped.rollback(r.accountId(), r.txId()));
+        if (plain.isEmpty()) return;
+        settle("rollback", plain);
+    }
+
+    // apply already-persisted credits to the cached balance and available amounts (no reservation involved)
+    public void creditBatch(List<Reservation> credits) {
+        Set<Long> missing = new HashSet<>();
+        List<Reservation> plain = withoutStriped(credits, r -> {
+            if (!striped.credit(r.accountId(), r.amountCents(), r.txId())) missing.add(r.accountId());
+        });
+        markStale(missing);
+        if (plain.isEmpty()) return;
+        creditIfPresent(plain);
+    }
+
+    // add the signed amounts to balance and available and drop the txIds from the in-flight sets, in one script
+    // call; accounts whose balance was evicted are not recreated but marked stale, so the DB values are loaded
+    @SuppressWarnings("unchecked")
+    private void creditIfPresent(List<Reservation> items) {
+        if (cluster) {
+            Collection<List<Integer>> bySlot = bySlot(items);
+            if (bySlot.size() > 1) {
+                bySlot.forEach(group -> creditIfPresent(group.stream().map(items::get).toList()));
+                return;
+            }
+        }
+        List<String> keys = new ArrayList<>(items.size() * 2);
+        List<String> args = new ArrayList<>(items.size() * 2);
+        for (Reservation r : items) {
+            keys.add(balanceKey(r.accountId()));
+            keys.add(inFlightKey(r.accountId()));
+            args.add(String.valueOf(r.amountCents()));
+            args.add(r.txId());
+        }
+        List<Object> missing = redisTemplate.execute(creditIfPresentScript, keys, (Object[]) args.toArray(new String[0]));
+        if (missing == null || missing.isEmpty()) return;
+        Set<Long> accounts = new HashSet<>();
+        for (Object item : missing) {
+            accounts.add(items.get(Integer.parseInt(String.valueOf(item)) - 1).accountId());
+        }
+        markStale(accounts);
+    }
+
+    // applies stripedOp to the items of striped accounts and returns the remaining ones
+    private List<Reservation> withoutStriped(List<Reservation> items, Consumer<Reservation> stripedOp) {
+        if (stripedAccounts.isEmpty()) return items;
+        List<Reservation> plain = new ArrayList<>(items.size());
+        for (Reservation r : items) {
+            if (isStriped(r.accountId())) stripedOp.accept(r);
+            else plain.add(r);
+        }
+        return plain;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> executePipelined(Consumer<RedisOperations<String, String>> commands) {
+        return redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                commands.accept((RedisOperations<String, String>) operations);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Write-behind: atomically check funds, apply the change to the cached balance(s) and append a delta
+     * entry to {@link #DELTA_STREAM_KEY} (in cluster mode the stream of the account's slot). Once this returns OK
+     * Redis is authoritative for the change; the DB is updated later by the SyncScheduler drain stage.
+     *
+     * @param type DEBIT, CREDIT or TRANSFER (destinationAccountId is only used for TRANSFER)
+     */
+    @SuppressWarnings("unchecked")
+    public AppliedDelta applyDelta(String type, Long accountId, Long destinationAccountId, long cents, String txId, String currency, Instant timestamp) {
+        return guarded(() -> applyDeltaUnguarded(type, accountId, destinationAccountId, cents, txId, currency, timestamp),
+                a -> a.result() == ReserveResult.ERROR, new AppliedDelta(ReserveResult.ERROR, null, false));
+    }
+
+    private AppliedDelta applyDeltaUnguarded(String type, Long accountId, Long destinationAccountId, long cents, String txId, String currency, Instant timestamp) {
+        AppliedDelta applied = applyDeltaOnce(type, accountId, destinationAccountId, cents, txId, currency, timestamp);
+        if (applied.result() == ReserveResult.NO_ACCOUNT
+                && loadIfMissing(accountId) & (!"TRANSFER".equals(type) || loadIfMissing(destinationAccountId))) {
+            applied = applyDeltaOnce(type, accountId, destinationAccountId, cents, txId, currency, timestamp);
+        }
+        return applied;
+    }
+
+    private AppliedDelta applyDeltaOnce(String type, Long accountId, Long destinationAccountId, long cents, String txId, String currency, Instant timestamp) {
+        boolean transfer = "TRANSFER".equals(type);
+        String[] args = {
+                type,
+                String.valueOf(cents),
+                txId,
+                String.valueOf(deltaMarkerTtlSeconds),
+                String.valueOf(accountId),
+                transfer ? String.valueOf(destinationAccountId) : "",
+                currency == null ? "" : currency,
+                String.valueOf((timestamp == null ? Instant.now() : timestamp).toEpochMilli())
+        };
+        try {
+            if (transfer && cluster && ClusterSlotHashUtil.calculateSlot(balanceKey(accountId)) != ClusterSlotHashUtil.calculateSlot(balanceKey(destinationAccountId))) {
+                return applyTransferAcrossSlots(accountId, destinationAccountId, txId, args);
+            }
+            List<String> keys = new ArrayList<>(4);
+            keys.add(registeredDeltaStream(accountId));
+            keys.add(appliedMarkerKey(accountId, txId));
+            keys.add(balanceKey(accountId));
+            if (transfer) keys.add(balanceKey(destinationAccountId));
+            return runApplyDelta(keys, args);
+        } catch (Exception e) {
+            return new AppliedDelta(ReserveResult.ERROR, null, false);
+        }
+    }
+
+    // Cluster mode, accounts in different slots: the source leg debits the source and appends the TRANSFER entry
+    // (the drainer applies both sides to the DB), then the destination leg credits the destination under a marker
+    // of its own slot. The change is committed once the entry is appended: if Redis fails between the two legs the
+    // cached destination lags until the txId is sent again (the source leg then reports a duplicate and the
+    // destination leg, a no-op once it succeeded, runs again) or the cache is rebuilt.
+    private AppliedDelta applyTransferAcrossSlots(Long sourceAccountId, Long destinationAccountId, String txId, String[] args) {
+        if (!Boolean.TRUE.equals(redisTemplate.hasKey(balanceKey(destinationAccountId)))) {
+            return new AppliedDelta(ReserveResult.NO_ACCOUNT, null, false);
+        }
+        AppliedDelta debited = runApplyDelta(List.of(registeredDeltaStream(sourceAccountId), appliedMarkerKey(sourceAccountId, txId),
+                balanceKey(sourceAccountId)), args);
+        if (debited.result() != ReserveResult.OK) return debited;
+        String[] credit = args.clone();
+        credit[0] = "TRANSFER_CREDIT";
+        credit[4] = String.valueOf(destinationAccountId);
+        credit[5] = "";
+        List<String> keys = List.of(deltaStreamKey(destinationAccountId), appliedMarkerKey(destinationAccountId, txId), balanceKey(destinationAccountId));
+        AppliedDelta credited = runApplyDelta(keys, credit);
+        if (credited.result() == ReserveResult.ERROR) credited = runApplyDelta(keys, credit);
+        if (credited.result() != ReserveResult.OK) {
+            log.error("Transfer {} debited account {} in Redis but could not credit account {} ({})", txId, sourceAccountId,
+                    destinationAccountId, credited.result());
+        }
+        return debited;
+    }
+
+    // cluster mode: list the account's delta stream in DELTA_SHARDS_KEY before the first append to it
+    private String registeredDeltaStream(Long accountId) {
+        String stream = deltaStreamKey(accountId);
+        if (cluster && !registeredDeltaShards.contains(stream)) {
+            redisTemplate.opsForSet().add(DELTA_SHARDS_KEY, stream);
+            registeredDeltaShards.add(stream);
+        }
+        return stream;
+    }
+
+    @SuppressWarnings("unchecked")
+    private AppliedDelta runApplyDelta(List<String> keys, Object[] args) {
+        try {
+            List<Object> res = redisTemplate.execute(applyDeltaScript, keys, args);
+            if (res == null || res.isEmpty()) return new AppliedDelta(ReserveResult.ERROR, null, false);
+            String status = String.valueOf(res.get(0));
+            BigDecimal balance = res.size() > 1 ? fromCents(res.get(1)) : null;
+            switch (status) {
+                case "OK":
+                    return new AppliedDelta(ReserveResult.OK, balance, false);
+                case "DUPLICATE":
+                    return new AppliedDelta(ReserveResult.OK, balance, true);
+                case "NO_ACCOUNT":
+                    return new AppliedDelta(ReserveResult.NO_ACCOUNT, null, false);
+                case "INSUFFICIENT_FUNDS":
+                    return new AppliedDelta(ReserveResult.INSUFFICIENT_FUNDS, null, false);
+                default:
+                    return new AppliedDelta(ReserveResult.ERROR, null, false);
+            }
+        } catch (Exception e) {
+            return new AppliedDelta(ReserveResult.ERROR, null, false);
+        }
     }
 
     public BigDecimal getBalance(Long accountId) {
+        if (isStriped(accountId)) {
+            long[] totals = striped.totals(accountId);
+            return totals == null ? null : fromCents(totals[0]);
+        }
         String bKey = balanceKey(accountId);
         Map<Object, Object> map = redisTemplate.opsForHash().entries(bKey);
         if (map == null || map.isEmpty()) return null;
@@ -114,6 +1101,10 @@ public class BalanceManager {
 
     // helper to get available balance
     public BigDecimal getAvailable(Long accountId) {
+        if (isStriped(accountId)) {
+            long[] totals = striped.totals(accountId);
+            return totals == null ? null : fromCents(totals[1]);
+        }
         String bKey = balanceKey(accountId);
         Map<Object, Object> map = redisTemplate.opsForHash().entries(bKey);
         if (map == null || map.isEmpty()) return null;
@@ -121,9 +1112,109 @@ public class BalanceManager {
         return fromCents(av);
     }
 
+    /**
+     * Read the cached balance of many accounts with one pipelined HMGET per account. Accounts whose hash is
+     * missing, or does not hold integer cents in both fields, are absent from the result.
+     */
+    public Map<Long, CachedBalance> getCachedBalances(List<Long> accountIds) {
+        Map<Long, CachedBalance> result = new HashMap<>();
+        List<Long> plain = new ArrayList<>(accountIds.size());
+        for (Long id : accountIds) {
+            if (!isStriped(id)) {
+                plain.add(id);
+                continue;
+            }
+            long[] totals = striped.totals(id);
+            if (totals != null) result.put(id, new CachedBalance(id, totals[0], totals[1], null));
+        }
+        if (plain.isEmpty()) return result;
+        List<Object> replies = executePipelined(ops -> {
+            for (Long id : plain) {
+                ops.opsForHash().multiGet(balanceKey(id), List.<Object>of("balance", "available", "currency"));
+            }
+        });
+        for (int i = 0; i < plain.size() && i < replies.size(); i++) {
+            if (!(replies.get(i) instanceof List<?> fields) || fields.size() < 3) continue;
+            Long balance = parseCents(fields.get(0));
+            Long available = parseCents(fields.get(1));
+            if (balance == null || available == null) continue;
+            Object currency = fields.get(2);
+            result.put(plain.get(i), new CachedBalance(plain.get(i), balance, available, currency == null ? null : currency.toString()));
+        }
+        return result;
+    }
+
+    private static Long parseCents(Object value) {
+        if (value == null) return null;
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // the accounts among these that have a balance hash in Redis, well-formed or not
+    public Set<Long> presentInCache(List<Long> accountIds) {
+        if (accountIds.isEmpty()) return Set.of();
+        List<Object> replies = executePipelined(ops -> {
+            for (Long id : accountIds) ops.hasKey(balanceKey(id));
+        });
+        Set<Long> present = new HashSet<>();
+        for (int i = 0; i < accountIds.size() && i < replies.size(); i++) {
+            if (Boolean.TRUE.equals(replies.get(i))) present.add(accountIds.get(i));
+        }
+        return present;
+    }
+
+    /**
+     * Replace a cached balance that disagrees with the DB by the DB values, provided Redis still holds the values
+     * {@code seen} and the account has no pending reservation or in-flight txId. Striped accounts and write-behind
+     * mode, where Redis is authoritative, are never overwritten.
+     *
+     * @return whether the entry was overwritten
+     */
+    public boolean overwriteIfSettled(CachedBalance seen, CachedBalance db) {
+        if (writeBehindEnabled || isStriped(seen.accountId()) || overwriteIfSettledScript == null) return false;
+        Long accountId = seen.accountId();
+        Long written = redisTemplate.execute(overwriteIfSettledScript,
+                List.of(balanceKey(accountId), reservationIndexKey(accountId), inFlightKey(accountId)),
+                String.valueOf(seen.balanceCents()), String.valueOf(seen.availableCents()),
+                String.valueOf(db.balanceCents()), String.valueOf(db.availableCents()));
+        return written != null && written == 1L;
+    }
+
+    // pipelined equivalent of calling populateBalance() for every entry
+    public void populateBalances(List<CachedBalance> entries) {
+        List<CachedBalance> plain = new ArrayList<>(entries.size());
+        for (CachedBalance e : entries) {
+            if (isStriped(e.accountId())) {
+                populateBalance(e.accountId(), fromCents(e.balanceCents()), fromCents(e.availableCents()), e.currency());
+            } else {
+                plain.add(e);
+            }
+        }
+        if (plain.isEmpty()) return;
+        executePipelined(ops -> {
+            for (CachedBalance e : plain) {
+                Map<String, String> fields = new HashMap<>();
+                fields.put("balance", String.valueOf(e.balanceCents()));
+                fields.put("available", String.valueOf(e.availableCents()));
+                if (e.currency() != null) fields.put("currency", e.currency());
+                ops.opsForHash().putAll(balanceKey(e.accountId()), fields);
+                if (balanceIdleTtlSeconds > 0) ops.expire(balanceKey(e.accountId()), Duration.ofSeconds(balanceIdleTtlSeconds));
+            }
+        });
+    }
+
     // New helper to populate or update the Redis balance hash from DB values
     public void populateBalance(Long accountId, BigDecimal balance, BigDecimal available, String currency) {
         String bKey = balanceKey(accountId);
+        if (isStriped(accountId) && balance != null && available != null) {
+            striped.populate(accountId, toCents(balance), toCents(available));
+            // the main hash only keeps the currency for striped accounts
+            if (currency != null) redisTemplate.opsForHash().put(bKey, "currency", currency);
+            return;
+        }
         if (balance != null) {
             long bc = toCents(balance);
             redisTemplate.opsForHash().put(bKey, "balance", String.valueOf(bc));
@@ -139,5 +1230,8 @@ public class BalanceManager {
         if (currency != null) {
             redisTemplate.opsForHash().put(bKey, "currency", currency);
         }
+        if (balanceIdleTtlSeconds > 0) {
+            redisTemplate.expire(bKey, Duration.ofSeconds(balanceIdleTtlSeconds));
+        }
     }
 }
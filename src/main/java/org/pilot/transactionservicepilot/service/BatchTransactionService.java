@@ -0,0 +1,380 @@
+package org.pilot.transactionservicepilot.service;
+
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+import org.pilot.transactionservicepilot.entity.Account;
+import org.pilot.transactionservicepilot.entity.TransactionRecord;
+import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.repository.TransactionBatchRepository;
+import org.pilot.transactionservicepilot.repository.TransactionBatchRepository.BalanceDelta;
+import org.pilot.transactionservicepilot.repository.TransactionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Batch-aware variant of {@link TransactionService#process}.
+ * <p>
+ * A batch costs one idempotency SELECT, one account SELECT, one Redis script call for all reservations,
+ * one DB transaction (one SELECT ... FOR UPDATE locking the accounts in id order, then JDBC batches of debits,
+ * credits and record inserts), one pipelined Redis settle and one SELECT for the response balances,
+ * independent of the number of items.
+ * Results are returned per item, in request order.
+ * <p>
+ * In write-behind mode Redis is authoritative and the DB is written by the delta drain, so the items go through
+ * {@link TransactionService#process} ({@link BalanceManager#applyDelta}) one by one instead; this also covers the
+ * partition engine and group commit, which hand their groups to this service.
+ */
+@Service
+public class BatchTransactionService {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchTransactionService.class);
+
+    private final BalanceManager balanceManager;
+    private final TransactionService transactionService;
+    private final TransactionRepository transactionRepository;
+    private final AccountRepository accountRepository;
+    private final TransactionBatchRepository batchRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final AccountMetadataCache accountCache;
+
+    @Value("${app.transactions.batch.max-size:1000}")
+    private int maxBatchSize = 1000;
+
+    @Value("${app.write-behind.enabled:false}")
+    private boolean writeBehindEnabled = false;
+
+    public BatchTransactionService(BalanceManager balanceManager, TransactionService transactionService, TransactionRepository transactionRepository,
+                                   AccountRepository accountRepository, TransactionBatchRepository batchRepository, PlatformTransactionManager transactionManager,
+                                   AccountMetadataCache accountCache) {
+        this.balanceManager = balanceManager;
+        this.transactionService = transactionService;
+        this.transactionRepository = transactionRepository;
+        this.accountRepository = accountRepository;
+        this.batchRepository = batchRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.accountCache = accountCache;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    // state of one request while it moves through the batch stages
+    private static final class Item {
+        final int index;
+        final TransactionRequest req;
+        final boolean transfer;
+        final boolean debit; // DEBIT or TRANSFER: needs a reservation and a conditional debit
+        boolean reserved;
+        boolean debited;
+        boolean applied;
+        String error;
+
+        Item(int index, TransactionRequest req) {
+            this.index = index;
+            this.req = req;
+            this.transfer = req.getSourceAccountId() != null && req.getDestinationAccountId() != null;
+            this.debit = transfer || "DEBIT".equalsIgnoreCase(req.getType());
+        }
+
+        Long debitAccount() {
+            return transfer ? req.getSourceAccountId() : req.getAccountId();
+        }
+
+        Long creditAccount() {
+            return transfer ? req.getDestinationAccountId() : req.getAccountId();
+        }
+
+        // account reported in the response, same as the single-item flow (source for transfers)
+        Long responseAccount() {
+            return transfer ? req.getSourceAccountId() : req.getAccountId();
+        }
+    }
+
+    public List<TransactionResponse> processBatch(List<TransactionRequest> requests) {
+        if (writeBehindEnabled) {
+            List<TransactionResponse> results = new ArrayList<>(requests.size());
+            for (TransactionRequest req : requests) {
+                results.add(req.getTxId() == null || req.getTxId().isBlank()
+                        ? new TransactionResponse(req.getTxId(), "FAILED", null, "Missing txId")
+                        : transactionService.process(req));
+            }
+            return results;
+        }
+        TransactionResponse[] results = new TransactionResponse[requests.size()];
+
+        // idempotency: one lookup for every txId in the batch
+        Set<String> txIds = new HashSet<>();
+        for (TransactionRequest req : requests) {
+            if (req.getTxId() != null) txIds.add(req.getTxId());
+        }
+        Map<String, TransactionRecord> existing = new HashMap<>();
+        if (!txIds.isEmpty()) {
+            for (TransactionRecord r : transactionRepository.findByTxIdIn(txIds)) {
+                existing.put(r.getTxId(), r);
+            }
+        }
+
+        Map<String, Integer> firstIndexByTxId = new HashMap<>();
+        Map<Integer, Integer> duplicates = new HashMap<>();
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            TransactionRequest req = requests.get(i);
+            if (req.getTxId() == null || req.getTxId().isBlank()) {
+                results[i] = new TransactionResponse(req.getTxId(), "FAILED", null, "Missing txId");
+                continue;
+            }
+            TransactionRecord r = existing.get(req.getTxId());
+            if (r != null) {
+                results[i] = new TransactionResponse(r.getTxId(), r.getStatus(), r.getAmount(), r.getError());
+                continue;
+            }
+            Integer first = firstIndexByTxId.putIfAbsent(req.getTxId(), i);
+            if (first != null) {
+                // repeated txId inside the same batch: answered with the result of its first occurrence
+                duplicates.put(i, first);
+                continue;
+            }
+            if (!req.isAmountValid()) {
+                results[i] = new TransactionResponse(req.getTxId(), "FAILED", null, "Invalid amount");
+                continue;
+            }
+            Item item = new Item(i, req);
+            if (item.transfer && req.getSourceAccountId().equals(req.getDestinationAccountId())) {
+                results[i] = new TransactionResponse(req.getTxId(), "FAILED", null, "Source and destination cannot be same");
+                continue;
+            }
+            items.add(item);
+        }
+
+        // account existence: metadata cache, one SELECT for the accounts it does not hold
+        Set<Long> accountIds = new HashSet<>();
+        for (Item item : items) {
+            if (item.debitAccount() != null) accountIds.add(item.debitAccount());
+            if (item.creditAccount() != null) accountIds.add(item.creditAccount());
+        }
+        Set<Long> known = accountCache.getAll(accountIds).keySet();
+        List<Item> live = new ArrayList<>();
+        for (Item item : items) {
+            boolean found = item.debitAccount() != null && known.contains(item.debitAccount())
+                    && (!item.transfer || known.contains(item.creditAccount()));
+            if (!found) {
+                String msg = item.transfer ? "Source or destination account not found" : "Account not found";
+                results[item.index] = new TransactionResponse(item.req.getTxId(), "FAILED", null, msg);
+            } else {
+                live.add(item);
+            }
+        }
+
+        // Redis: reserve every debit / transfer source in one script call
+        List<Item> toReserve = new ArrayList<>();
+        List<BalanceManager.Reservation> reservations = new ArrayList<>();
+        for (Item item : live) {
+            if (item.debit) {
+                toReserve.add(item);
+                reservations.add(new BalanceManager.Reservation(item.debitAccount(), item.req.getAmountCents(), item.req.getTxId()));
+            }
+        }
+        List<BalanceManager.ReserveResult> reserveResults = balanceManager.reserveBatch(reservations);
+        // on a Redis error the batch degrades to DB-only; the conditional debits still prevent overdraft
+        boolean cacheAvailable = !reserveResults.contains(BalanceManager.ReserveResult.ERROR);
+        List<Item> ready = new ArrayList<>();
+        if (cacheAvailable) {
+            Set<Item> rejected = new HashSet<>();
+            for (int i = 0; i < toReserve.size(); i++) {
+                Item item = toReserve.get(i);
+                BalanceManager.ReserveResult rr = reserveResults.get(i);
+                if (rr == BalanceManager.ReserveResult.OK) {
+                    item.reserved = true;
+                } else {
+                    String msg = rr == BalanceManager.ReserveResult.INSUFFICIENT_FUNDS ? "Insufficient funds"
+                            : item.transfer ? "Source account not in cache" : "Account not in cache";
+                    results[item.index] = new TransactionResponse(item.req.getTxId(), "FAILED", null, msg);
+                    rejected.add(item);
+                }
+            }
+            for (Item item : live) {
+                if (!rejected.contains(item)) ready.add(item);
+            }
+        } else {
+            log.warn("Redis unavailable for batch reservation of {} items, continuing with DB-only updates", reservations.size());
+            ready.addAll(live);
+        }
+
+        // DB: debits, credits and final-state records in one transaction
+        try {
+            transactionTemplate.executeWithoutResult(status -> applyToDb(ready));
+        } catch (Exception e) {
+            log.error("Batch DB update failed, reprocessing {} items individually: {}", ready.size(), e.getMessage());
+            List<BalanceManager.Reservation> release = new ArrayList<>();
+            for (Item item : ready) {
+                if (item.reserved) release.add(reservationOf(item));
+            }
+            safely(() -> balanceManager.rollbackBatch(release));
+            for (Item item : ready) {
+                results[item.index] = transactionService.process(item.req);
+            }
+            fillDuplicates(results, duplicates);
+            return List.of(results);
+        }
+
+        // Redis: settle reservations and apply credits in one pipeline each
+        if (cacheAvailable) {
+            List<BalanceManager.Reservation> commits = new ArrayList<>();
+            List<BalanceManager.Reservation> rollbacks = new ArrayList<>();
+            List<BalanceManager.Reservation> credits = new ArrayList<>();
+            for (Item item : ready) {
+                if (item.reserved) {
+                    (item.applied ? commits : rollbacks).add(reservationOf(item));
+                }
+                if (item.applied && (item.transfer || !item.debit)) {
+                    credits.add(new BalanceManager.Reservation(item.creditAccount(), item.req.getAmountCents(), item.req.getTxId()));
+                }
+            }
+            safely(() -> balanceManager.commitBatch(commits));
+            safely(() -> balanceManager.rollbackBatch(rollbacks));
+            safely(() -> balanceManager.creditBatch(credits));
+        } else {
+            // DB-only batch: the cached balances of the changed accounts are re-synced once Redis is back
+            Set<Long> changed = new HashSet<>();
+            for (Item item : ready) {
+                if (!item.applied) continue;
+                if (item.debit) changed.add(item.debitAccount());
+                if (item.transfer || !item.debit) changed.add(item.creditAccount());
+            }
+            balanceManager.markStale(changed);
+        }
+
+        // response balances: one read for every committed account
+        Set<Long> committedAccounts = new HashSet<>();
+        for (Item item : ready) {
+            if (item.applied) committedAccounts.add(item.responseAccount());
+        }
+        Map<Long, BigDecimal> balances = new HashMap<>();
+        if (!committedAccounts.isEmpty()) {
+            for (Account a : accountRepository.findAllById(committedAccounts)) {
+                balances.put(a.getId(), a.getBalance());
+            }
+        }
+        for (Item item : ready) {
+            results[item.index] = item.applied
+                    ? new TransactionResponse(item.req.getTxId(), "COMMITTED", balances.get(item.responseAccount()), null)
+                    : new TransactionResponse(item.req.getTxId(), "FAILED", null, item.error);
+        }
+        fillDuplicates(results, duplicates);
+        return List.of(results);
+    }
+
+    private void applyToDb(List<Item> ready) {
+        // lock every touched account row in ascending id order before the first update: the debits and credits
+        // below then run in item order on rows already held, and batches (and transfers) sharing accounts queue
+        // behind each other instead of deadlocking
+        Set<Long> touched = new TreeSet<>();
+        for (Item item : ready) {
+            touched.add(item.debitAccount());
+            touched.add(item.creditAccount());
+        }
+        batchRepository.lockInIdOrder(touched);
+
+        List<Item> debitItems = new ArrayList<>();
+        List<BalanceDelta> debits = new ArrayList<>();
+        for (Item item : ready) {
+            if (item.debit) {
+                debitItems.add(item);
+                debits.add(new BalanceDelta(item.debitAccount(), item.req.getAmount()));
+            }
+        }
+        int[] debitRows = batchRepository.debitIfAvailable(debits);
+        for (int i = 0; i < debitItems.size(); i++) {
+            Item item = debitItems.get(i);
+            item.debited = debitRows[i] > 0;
+            if (!item.debited) item.error = "Insufficient funds or concurrent modification";
+        }
+
+        List<Item> creditItems = new ArrayList<>();
+        List<BalanceDelta> credits = new ArrayList<>();
+        for (Item item : ready) {
+            if (!item.debit || (item.transfer && item.debited)) {
+                creditItems.add(item);
+                credits.add(new BalanceDelta(item.creditAccount(), item.req.getAmount()));
+            }
+        }
+        int[] creditRows = batchRepository.credit(credits);
+        for (int i = 0; i < creditItems.size(); i++) {
+            Item item = creditItems.get(i);
+            if (creditRows[i] == 0) {
+                item.error = "Credit failed";
+                // a transfer whose credit leg failed must not keep its debit; abort the batch
+                if (item.transfer) throw new IllegalStateException("Credit failed for transfer " + item.req.getTxId());
+            }
+        }
+
+        Instant now = Instant.now();
+        List<TransactionRecord> records = new ArrayList<>(ready.size());
+        for (Item item : ready) {
+            item.applied = item.error == null;
+            records.add(toRecord(item, now));
+        }
+        batchRepository.insertAll(records);
+    }
+
+    private TransactionRecord toRecord(Item item, Instant now) {
+        TransactionRequest req = item.req;
+        TransactionRecord rec = new TransactionRecord();
+        rec.setTxId(req.getTxId());
+        if (item.transfer) {
+            rec.setSourceAccountId(req.getSourceAccountId());
+            rec.setDestinationAccountId(req.getDestinationAccountId());
+            rec.setType("TRANSFER");
+        } else {
+            rec.setAccountId(req.getAccountId());
+            rec.setType(req.getType());
+        }
+        rec.setAmount(req.getAmount());
+        rec.setCurrency(req.getCurrency());
+        rec.setTimestamp(req.getTimestamp());
+        rec.setCreatedAt(now);
+        rec.setProcessedAt(now);
+        if (item.applied) {
+            rec.setStatus("COMMITTED");
+        } else {
+            // same retry bookkeeping as a failed single-item process() call
+            rec.setStatus("FAILED");
+            rec.setError(item.error);
+            rec.setRetryCount(1);
+            rec.setNextAttemptAt(transactionService.calculateNextAttempt(now, 1));
+        }
+        return rec;
+    }
+
+    private static BalanceManager.Reservation reservationOf(Item item) {
+        return new BalanceManager.Reservation(item.debitAccount(), item.req.getAmountCents(), item.req.getTxId());
+    }
+
+    private static void fillDuplicates(TransactionResponse[] results, Map<Integer, Integer> duplicates) {
+        duplicates.forEach((dup, first) -> results[dup] = results[first]);
+    }
+
+    private static void safely(Runnable redisCall) {
+        try {
+            redisCall.run();
+        } catch (Exception e) {
+            // the DB is already committed; SyncScheduler reconciles the cache
+            log.warn("Redis settle for batch failed: {}", e.getMessage());
+        }
+    }
+}
@@ -1,33 +1,235 @@
 package org.pilot.transactionservicepilot.service;
 
+import org.pilot.transactionservicepilot.dto.Money;
 import org.pilot.transactionservicepilot.entity.Account;
 import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.HealthIndicator;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Component;
 
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Startup warm-up of the Redis balance cache.
+ * <p>
+ * Runs in the background so the application starts right away: the account id space is split into ranges that
+ * are loaded in parallel, each in keyset pages written to Redis with one pipeline per page (in cents, through
+ * {@link BalanceManager#populateBalances}). With {@code active-within-hours} only recently created or updated
+ * accounts are loaded; the others are filled in by the SyncScheduler reconcile sweep.
+ * <p>
+ * As a health indicator it reports OUT_OF_SERVICE until the warm-up is done, so with this indicator in the
+ * readiness group Kubernetes routes traffic to the pod only once its cache is warm. A failed warm-up (the DB or
+ * Redis briefly unreachable at startup) is retried with exponential backoff; once {@code max-attempts} have
+ * failed it gives up and reports ready, leaving the cache to the reconcile sweep and read-through loads rather
+ * than keeping the pod out of service for good.
+ */
 @Component
-public class CacheInitializer implements CommandLineRunner {
+public class CacheInitializer implements CommandLineRunner, HealthIndicator {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheInitializer.class);
+
+    enum State {
+        PENDING, RUNNING, DONE, FAILED, SKIPPED
+    }
+
+    private static final long MAX_RETRY_BACKOFF_MS = 60_000L;
 
     private final AccountRepository accountRepository;
-    private final RedisTemplate<String, String> redisTemplate;
+    private final BalanceManager balanceManager;
+
+    // in write-behind mode Redis may hold deltas the DB has not seen yet, so existing entries are kept
+    @Value("${app.write-behind.enabled:false}")
+    private boolean writeBehindEnabled = false;
+
+    @Value("${app.cache.warmup.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${app.cache.warmup.threads:4}")
+    private int threads = 4;
+
+    @Value("${app.cache.warmup.page-size:1000}")
+    private int pageSize = 1000;
+
+    // 0 loads every account
+    @Value("${app.cache.warmup.active-within-hours:0}")
+    private long activeWithinHours = 0L;
 
-    public CacheInitializer(AccountRepository accountRepository, RedisTemplate<String, String> redisTemplate) {
+    @Value("${app.cache.warmup.max-attempts:5}")
+    private int maxAttempts = 5;
+
+    // delay before the first retry, doubled for each further one (capped at one minute)
+    @Value("${app.cache.warmup.retry-backoff-ms:1000}")
+    private long retryBackoffMs = 1000L;
+
+    // virtual worker threads, see WorkerThreads
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads = false;
+
+    private volatile State state = State.PENDING;
+    private volatile String error;
+    private volatile int attempts;
+    private volatile int rangeCount;
+    private final AtomicInteger rangesDone = new AtomicInteger();
+    private final AtomicLong loaded = new AtomicLong();
+    private volatile long startedAtMillis;
+    private volatile long finishedAtMillis;
+
+    public CacheInitializer(AccountRepository accountRepository, BalanceManager balanceManager) {
         this.accountRepository = accountRepository;
-        this.redisTemplate = redisTemplate;
+        this.balanceManager = balanceManager;
+    }
+
+    @Override
+    public void run(String... args) {
+        if (!enabled) {
+            state = State.DONE;
+            return;
+        }
+        WorkerThreads.builder(virtualThreads).name("cache-warmup").start(this::warmUpWithRetries);
+    }
+
+    void warmUpWithRetries() {
+        long backoff = Math.max(1L, retryBackoffMs);
+        while (true) {
+            warmUp();
+            if (state != State.FAILED) return;
+            if (attempts >= Math.max(1, maxAttempts)) {
+                log.warn("Cache warm-up gave up after {} attempts; the reconcile sweep fills the cache instead", attempts);
+                state = State.SKIPPED;
+                return;
+            }
+            log.info("Retrying cache warm-up in {} ms (attempt {} of {})", backoff, attempts + 1, maxAttempts);
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_RETRY_BACKOFF_MS);
+        }
+    }
+
+    void warmUp() {
+        state = State.RUNNING;
+        attempts++;
+        startedAtMillis = System.currentTimeMillis();
+        finishedAtMillis = 0L;
+        error = null;
+        // a retry loads every range again
+        loaded.set(0);
+        rangesDone.set(0);
+        Instant since = activeWithinHours > 0 ? Instant.now().minusSeconds(activeWithinHours * 3600L) : null;
+        int workers = Math.max(1, threads);
+        ExecutorService pool = null;
+        try {
+            Long minId = accountRepository.findMinId();
+            Long maxId = accountRepository.findMaxId();
+            if (minId != null && maxId != null) {
+                // a few ranges per thread, so one dense range does not leave the other threads idle
+                List<long[]> ranges = split(minId - 1, maxId, workers * 4);
+                rangeCount = ranges.size();
+                pool = Executors.newFixedThreadPool(workers, WorkerThreads.factory("cache-warmup-", virtualThreads));
+                List<Future<?>> running = new ArrayList<>(ranges.size());
+                for (long[] range : ranges) {
+                    running.add(pool.submit(() -> warmRange(range[0], range[1], since)));
+                }
+                for (Future<?> f : running) {
+                    f.get();
+                }
+            }
+            state = State.DONE;
+            log.info("Cache warm-up loaded {} accounts in {} ms", loaded.get(), System.currentTimeMillis() - startedAtMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "interrupted";
+            state = State.FAILED;
+        } catch (ExecutionException e) {
+            error = String.valueOf(e.getCause());
+            state = State.FAILED;
+            log.error("Cache warm-up failed after {} accounts", loaded.get(), e.getCause());
+        } catch (Exception e) {
+            error = e.toString();
+            state = State.FAILED;
+            log.error("Cache warm-up failed after {} accounts", loaded.get(), e);
+        } finally {
+            if (pool != null) pool.shutdownNow();
+            finishedAtMillis = System.currentTimeMillis();
+        }
+    }
+
+    // contiguous id ranges (afterId, toId] covering (afterId, maxId]
+    static List<long[]> split(long afterId, long maxId, int parts) {
+        List<long[]> ranges = new ArrayList<>(parts);
+        long width = Math.max(1L, (maxId - afterId + parts - 1) / parts);
+        for (long from = afterId; from < maxId; from += width) {
+            ranges.add(new long[]{from, Math.min(maxId, from + width)});
+        }
+        return ranges;
+    }
+
+    private void warmRange(long afterId, long toId, Instant since) {
+        PageRequest pageRequest = PageRequest.of(0, Math.max(1, pageSize));
+        long cursor = afterId;
+        while (true) {
+            List<Account> page = since == null
+                    ? accountRepository.findPageInRange(cursor, toId, pageRequest)
+                    : accountRepository.findActivePageInRange(cursor, toId, since, pageRequest);
+            if (page.isEmpty()) break;
+            load(page);
+            cursor = page.get(page.size() - 1).getId();
+            if (page.size() < pageRequest.getPageSize()) break;
+        }
+        rangesDone.incrementAndGet();
+    }
+
+    private void load(List<Account> page) {
+        Map<Long, BalanceManager.CachedBalance> existing = Map.of();
+        if (writeBehindEnabled) {
+            List<Long> ids = new ArrayList<>(page.size());
+            for (Account a : page) ids.add(a.getId());
+            existing = balanceManager.getCachedBalances(ids);
+        }
+        List<BalanceManager.CachedBalance> entries = new ArrayList<>(page.size());
+        for (Account a : page) {
+            if (existing.containsKey(a.getId())) continue;
+            entries.add(new BalanceManager.CachedBalance(a.getId(), Money.toCents(a.getBalance()), Money.toCents(a.getAvailableBalance()), a.getCurrency()));
+        }
+        if (!entries.isEmpty()) {
+            balanceManager.populateBalances(entries);
+        }
+        loaded.addAndGet(page.size());
     }
 
     @Override
-    public void run(String... args) throws Exception {
-        // load existing accounts into Redis hash (balance & available)
-        List<Account> accounts = accountRepository.findAll();
-        for (Account a : accounts) {
-            String key = "balance:" + a.getId();
-            redisTemplate.opsForHash().put(key, "balance", a.getBalance().toPlainString());
-            redisTemplate.opsForHash().put(key, "available", a.getAvailableBalance().toPlainString());
-            redisTemplate.opsForHash().put(key, "currency", a.getCurrency());
+    public Health health() {
+        Health.Builder builder = switch (state) {
+            case DONE, SKIPPED -> Health.up();
+            case FAILED -> Health.down();
+            default -> Health.outOfService();
+        };
+        builder.withDetail("state", state.name())
+                .withDetail("attempts", attempts)
+                .withDetail("accounts", loaded.get())
+                .withDetail("ranges", rangesDone.get() + "/" + rangeCount);
+        if (startedAtMillis > 0) {
+            long end = finishedAtMillis > 0 ? finishedAtMillis : System.currentTimeMillis();
+            builder.withDetail("elapsedMs", end - startedAtMillis);
         }
+        if (error != null) builder.withDetail("error", error);
+        return builder.build();
     }
 }
@@ -0,0 +1,222 @@
+package org.pilot.transactionservicepilot.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive concurrency limits in front of the transaction (write) and balance (read) endpoints.
+ * <p>
+ * Each limit learns the in-flight count the service handles without queueing, gradient style: the average
+ * latency of a short window is compared with a long-term baseline, and the limit shrinks in proportion when the
+ * short-term latency rises above it (requests queue in Tomcat, Hikari or Redis) and grows by a small headroom
+ * while it does not. Requests above the limit are rejected right away (the controller answers 429 with
+ * Retry-After), so under a spike a few requests fail fast instead of every request getting slow.
+ */
+@Component
+public class ConcurrencyLimiter {
+
+    @Value("${app.limiter.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${app.limiter.write.initial-limit:50}")
+    private int writeInitialLimit = 50;
+
+    @Value("${app.limiter.write.max-limit:500}")
+    private int writeMaxLimit = 500;
+
+    @Value("${app.limiter.read.initial-limit:100}")
+    private int readInitialLimit = 100;
+
+    @Value("${app.limiter.read.max-limit:1000}")
+    private int readMaxLimit = 1000;
+
+    @Value("${app.limiter.min-limit:8}")
+    private int minLimit = 8;
+
+    // short-term latency may exceed the baseline by this factor before the limit shrinks
+    @Value("${app.limiter.tolerance:1.5}")
+    private double tolerance = 1.5;
+
+    // share of a newly computed limit taken over per window
+    @Value("${app.limiter.smoothing:0.2}")
+    private double smoothing = 0.2;
+
+    @Value("${app.limiter.window-ms:250}")
+    private long windowMs = 250L;
+
+    @Value("${app.limiter.min-window-samples:10}")
+    private int minWindowSamples = 10;
+
+    // number of windows averaged into the long-term baseline
+    @Value("${app.limiter.baseline-windows:100}")
+    private int baselineWindows = 100;
+
+    @Value("${app.limiter.retry-after-seconds:1}")
+    private long retryAfterSeconds = 1L;
+
+    private final MeterRegistry meterRegistry;
+
+    private Limit writes;
+    private Limit reads;
+
+    @Autowired
+    public ConcurrencyLimiter(@Nullable MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        writes = new Limit("write", writeInitialLimit, writeMaxLimit);
+        reads = new Limit("read", readInitialLimit, readMaxLimit);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * @return a permit to release when the request completes, or null when the write limit is reached
+     */
+    public Permit tryAcquireWrite() {
+        return enabled ? writes.tryAcquire() : Permit.NONE;
+    }
+
+    /**
+     * @return a permit to release when the request completes, or null when the read limit is reached
+     */
+    public Permit tryAcquireRead() {
+        return enabled ? reads.tryAcquire() : Permit.NONE;
+    }
+
+    public int getWriteLimit() {
+        return writes.limit;
+    }
+
+    public int getReadLimit() {
+        return reads.limit;
+    }
+
+    // one admitted request; closing it frees the slot and feeds its latency to the limit
+    public static class Permit implements AutoCloseable {
+
+        // no-op permit, for requests that are not limited
+        public static final Permit NONE = new Permit(null);
+
+        private final Limit owner;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Limit owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void close() {
+            if (owner != null && released.compareAndSet(false, true)) {
+                owner.release(System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    final class Limit {
+
+        private final int maxLimit;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile int limit;
+
+        // current window, closed by the first release after window-ms with enough samples
+        private final LongAdder windowNanos = new LongAdder();
+        private final LongAdder windowSamples = new LongAdder();
+        private final AtomicBoolean updating = new AtomicBoolean();
+        private volatile long windowStartNanos = System.nanoTime();
+        private volatile int windowMaxInFlight;
+
+        // long-term average window latency; 0 until the first window
+        private double baselineNanos;
+        private double smoothedLimit;
+
+        private final Counter rejected;
+
+        Limit(String type, int initialLimit, int maxLimit) {
+            this.maxLimit = Math.max(minLimit, maxLimit);
+            this.limit = Math.max(minLimit, Math.min(this.maxLimit, initialLimit));
+            this.smoothedLimit = limit;
+            if (meterRegistry != null) {
+                List<Tag> tags = List.of(Tag.of("type", type));
+                meterRegistry.gauge("concurrency_limit.limit", tags, this, l -> l.limit);
+                meterRegistry.gauge("concurrency_limit.inflight", tags, inFlight, AtomicInteger::get);
+                rejected = meterRegistry.counter("concurrency_limit.rejected.count", tags);
+            } else {
+                rejected = null;
+            }
+        }
+
+        Permit tryAcquire() {
+            while (true) {
+                int current = inFlight.get();
+                if (current >= limit) {
+                    if (rejected != null) rejected.increment();
+                    return null;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    if (current + 1 > windowMaxInFlight) windowMaxInFlight = current + 1;
+                    return new Permit(this);
+                }
+            }
+        }
+
+        void release(long rttNanos) {
+            inFlight.decrementAndGet();
+            windowNanos.add(rttNanos);
+            windowSamples.increment();
+            long now = System.nanoTime();
+            if (now - windowStartNanos < windowMs * 1_000_000L || windowSamples.sum() < minWindowSamples) return;
+            if (!updating.compareAndSet(false, true)) return;
+            try {
+                long samples = windowSamples.sumThenReset();
+                long total = windowNanos.sumThenReset();
+                int peak = windowMaxInFlight;
+                windowMaxInFlight = inFlight.get();
+                windowStartNanos = now;
+                if (samples > 0) update((double) total / samples, peak);
+            } finally {
+                updating.set(false);
+            }
+        }
+
+        // gradient update: limit * min(1, tolerance * baseline / shortTerm) + sqrt(limit) headroom
+        private void update(double shortNanos, int peakInFlight) {
+            if (baselineNanos == 0) {
+                baselineNanos = shortNanos;
+                return;
+            }
+            baselineNanos += (shortNanos - baselineNanos) / Math.max(1, baselineWindows);
+            // after a long overload the baseline itself has drifted up; pull it back towards recent latency
+            if (baselineNanos > 2 * shortNanos) baselineNanos = shortNanos;
+
+            // with less than half of the limit in use latency says nothing about capacity: keep the limit
+            if (peakInFlight < limit / 2 && shortNanos <= baselineNanos * tolerance) return;
+
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * baselineNanos / shortNanos));
+            double target = smoothedLimit * gradient + Math.sqrt(smoothedLimit);
+            smoothedLimit = smoothedLimit * (1 - smoothing) + target * smoothing;
+            smoothedLimit = Math.max(minLimit, Math.min(maxLimit, smoothedLimit));
+            limit = (int) smoothedLimit;
+        }
+    }
+}
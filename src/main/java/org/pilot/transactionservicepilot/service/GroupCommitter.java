@@ -0,0 +1,214 @@
+package org.pilot.transactionservicepilot.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Group commit for single-item requests on the synchronous DB path.
+ * <p>
+ * Concurrent requests are queued and a flusher applies them together through
+ * {@link BatchTransactionService#processBatch}, i.e. in one DB transaction and one commit (fsync). A group is
+ * flushed as soon as it reaches the current size limit, or when its oldest request has waited {@code max-delay-us}.
+ * Each caller waits for its own item's result, so the API stays synchronous; items fail individually, and a
+ * failing group is retried item by item by the batch service.
+ * <p>
+ * The size limit adapts to load: it doubles (up to {@code max-batch-size}) while full groups still leave requests
+ * queued, and moves halfway towards the collected size when the deadline cuts a group short. Under light load the
+ * limit stays at 1, so a lone request goes straight through {@link TransactionService#process} without waiting.
+ */
+@Component
+public class GroupCommitter {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitter.class);
+
+    private final TransactionService transactionService;
+    private final BatchTransactionService batchTransactionService;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary groupSizes;
+
+    @Value("${app.group-commit.enabled:false}")
+    private boolean enabled = false;
+
+    // how long the first request of a group may wait for others
+    @Value("${app.group-commit.max-delay-us:2000}")
+    private long maxDelayMicros = 2000L;
+
+    @Value("${app.group-commit.max-batch-size:256}")
+    private int maxBatchSize = 256;
+
+    // one flusher serializes the groups; more overlap their transactions, which then queue on shared account
+    // rows (locked in id order by the batch service) instead of adding throughput
+    @Value("${app.group-commit.flushers:1}")
+    private int flusherCount = 1;
+
+    @Value("${app.group-commit.queue-capacity:10000}")
+    private int queueCapacity = 10000;
+
+    @Value("${app.group-commit.timeout-ms:5000}")
+    private long timeoutMs = 5000L;
+
+    // virtual worker threads, see WorkerThreads
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads = false;
+
+    private record Task(TransactionRequest req, CompletableFuture<TransactionResponse> result) {
+    }
+
+    private BlockingQueue<Task> queue;
+    private Thread[] flushers = new Thread[0];
+    private volatile int batchLimit = 1;
+
+    public GroupCommitter(TransactionService transactionService, BatchTransactionService batchTransactionService, @Nullable MeterRegistry meterRegistry) {
+        this.transactionService = transactionService;
+        this.batchTransactionService = batchTransactionService;
+        this.meterRegistry = meterRegistry;
+        this.groupSizes = meterRegistry == null ? null : DistributionSummary.builder("group_commit.batch.size").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        // the batch service refuses groups above its own limit
+        maxBatchSize = Math.max(1, Math.min(maxBatchSize, batchTransactionService.getMaxBatchSize()));
+        flushers = new Thread[Math.max(1, flusherCount)];
+        for (int i = 0; i < flushers.length; i++) {
+            flushers[i] = WorkerThreads.builder(virtualThreads).name("group-commit-" + i).start(this::runFlusher);
+        }
+        if (meterRegistry != null) {
+            meterRegistry.gauge("group_commit.queue.size", queue, BlockingQueue::size);
+            meterRegistry.gauge("group_commit.batch.limit", this, GroupCommitter::getBatchLimit);
+        }
+        log.info("Group commit started with {} flushers (max delay {}us, max batch {})", flushers.length, maxDelayMicros, maxBatchSize);
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (Thread t : flushers) {
+            t.interrupt();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled && flushers.length > 0;
+    }
+
+    public int getBatchLimit() {
+        return batchLimit;
+    }
+
+    /**
+     * Queue the request for the next group and wait for its result.
+     *
+     * @throws RejectedExecutionException when the queue is full or the committer is stopped
+     */
+    public TransactionResponse submit(TransactionRequest req) {
+        CompletableFuture<TransactionResponse> result = new CompletableFuture<>();
+        if (!queue.offer(new Task(req, result))) {
+            if (meterRegistry != null) {
+                meterRegistry.counter("group_commit.rejected.count").increment();
+            }
+            throw new RejectedExecutionException("Group commit queue is full");
+        }
+        try {
+            return result.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for group commit", e);
+        } catch (TimeoutException e) {
+            // the group may still commit it; the caller retries with the same txId and gets the stored result
+            return new TransactionResponse(req.getTxId(), "PENDING", null, "Queued for processing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException ree) throw ree;
+            return new TransactionResponse(req.getTxId(), "FAILED", null, e.getCause().getMessage());
+        }
+    }
+
+    private void runFlusher() {
+        List<Task> group = new ArrayList<>(maxBatchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                collect(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                flush(group);
+                break;
+            }
+            flush(group);
+            group.clear();
+        }
+        // fail whatever is still queued so callers do not wait for their timeout
+        Task t;
+        while ((t = queue.poll()) != null) {
+            t.result().completeExceptionally(new RejectedExecutionException("Group commit stopped"));
+        }
+    }
+
+    // blocks for the first task, then gathers more until the limit or the first task's deadline
+    private void collect(List<Task> group) throws InterruptedException {
+        group.add(queue.take());
+        int limit = batchLimit;
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        queue.drainTo(group, limit - group.size());
+        while (group.size() < limit) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) break;
+            Task next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) break;
+            group.add(next);
+            queue.drainTo(group, limit - group.size());
+        }
+        adapt(group.size(), limit, !queue.isEmpty());
+    }
+
+    // grow while full groups still leave requests waiting; otherwise settle towards what the deadline collected
+    void adapt(int observed, int limit, boolean backlog) {
+        int next;
+        if (observed >= limit) {
+            next = backlog ? Math.min(maxBatchSize, limit * 2) : limit;
+        } else {
+            next = Math.max(1, (limit + observed) / 2);
+        }
+        batchLimit = next;
+    }
+
+    private void flush(List<Task> group) {
+        if (group.isEmpty()) return;
+        if (groupSizes != null) groupSizes.record(group.size());
+        try {
+            if (group.size() == 1) {
+                Task t = group.get(0);
+                t.result().complete(transactionService.process(t.req()));
+                return;
+            }
+            List<TransactionRequest> reqs = new ArrayList<>(group.size());
+            for (Task t : group) reqs.add(t.req());
+            List<TransactionResponse> results = batchTransactionService.processBatch(reqs);
+            for (int i = 0; i < group.size(); i++) {
+                group.get(i).result().complete(results.get(i));
+            }
+        } catch (Exception e) {
+            log.error("Group commit of {} requests failed: {}", group.size(), e.getMessage());
+            for (Task t : group) t.result().completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.pilot.transactionservicepilot.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import jakarta.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.time.Duration;
+
+/**
+ * Tiered idempotency in front of the {@code findByTxId} lookup.
+ * <ol>
+ *   <li>Redis: a SET-if-absent claim on {@code idem:<txId>} lives for {@code app.transactions.idempotency-window-ms}.
+ *   It holds {@code PENDING} while the request runs, then the committed response. Retries inside the window are
+ *   answered from Redis, and concurrent duplicates see PENDING.</li>
+ *   <li>Local filter: a Bloom filter of the txIds this instance finished recently. An id that wins the Redis claim
+ *   and is not in the filter is treated as new, and the MySQL lookup is skipped.</li>
+ *   <li>MySQL: the unique index on {@code tx_id} still rejects a duplicate that slipped past both tiers, e.g. a
+ *   retry after the window that lands on another instance.</li>
+ * </ol>
+ * Only COMMITTED responses are cached. Other outcomes leave a {@code DB} marker, so a retry reads the stored record
+ * (FAILED records are retried by SyncScheduler and may still change). If Redis is unreachable, every request
+ * does the DB lookup.
+ */
+@Component
+public class IdempotencyGuard {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyGuard.class);
+
+    static final String KEY_PREFIX = "idem:";
+    private static final String IN_FLIGHT = "PENDING";
+    private static final String CONSULT_DB = "DB";
+
+    public enum State {
+        // claim won: no other request used this txId within the window
+        FRESH,
+        // a committed response is stored for this txId
+        DONE,
+        // another request with this txId is running
+        IN_FLIGHT,
+        // no usable answer from Redis; the DB decides
+        UNKNOWN
+    }
+
+    public record Claim(State state, TransactionResponse response) {
+    }
+
+    private static final Claim UNKNOWN = new Claim(State.UNKNOWN, null);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.idempotency.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${app.transactions.idempotency-window-ms:60000}")
+    private long windowMs = 60000L;
+
+    @Value("${app.idempotency.filter.expected-ids:1000000}")
+    private long filterExpectedIds = 1_000_000L;
+
+    @Value("${app.idempotency.filter.false-positive-rate:0.01}")
+    private double filterFalsePositiveRate = 0.01;
+
+    private RecentTxIdFilter recent;
+
+    public IdempotencyGuard(RedisTemplate<String, String> redisTemplate, @Nullable MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        recent = new RecentTxIdFilter(filterExpectedIds, filterFalsePositiveRate);
+    }
+
+    public Claim claim(String txId) {
+        if (!enabled || txId == null) return UNKNOWN;
+        String key = KEY_PREFIX + txId;
+        try {
+            if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, IN_FLIGHT, Duration.ofMillis(windowMs)))) {
+                return new Claim(State.FRESH, null);
+            }
+            String value = redisTemplate.opsForValue().get(key);
+            if (value == null || CONSULT_DB.equals(value)) return UNKNOWN;
+            if (IN_FLIGHT.equals(value)) {
+                increment("idempotency.redis.inflight.count");
+                return new Claim(State.IN_FLIGHT, null);
+            }
+            increment("idempotency.redis.hit.count");
+            return new Claim(State.DONE, decode(txId, value));
+        } catch (Exception e) {
+            log.debug("Idempotency claim for {} unavailable: {}", txId, e.getMessage());
+            return UNKNOWN;
+        }
+    }
+
+    // false only when the txId is new in Redis and unknown to this instance's filter
+    public boolean needsDbLookup(String txId, Claim claim) {
+        boolean lookup = claim.state() != State.FRESH || recent == null || recent.mightContain(txId);
+        increment(lookup ? "idempotency.db.lookup.count" : "idempotency.db.lookup.skipped.count");
+        return lookup;
+    }
+
+    /**
+     * Record the outcome of a processed txId. Inside a transaction the Redis entry is written after commit,
+     * so a rolled back request never shows up as committed.
+     */
+    public void complete(String txId, TransactionResponse response) {
+        if (!enabled || txId == null) return;
+        if (recent != null) recent.add(txId);
+        String value = "COMMITTED".equalsIgnoreCase(response.getStatus()) ? encode(response) : CONSULT_DB;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    store(txId, status == STATUS_COMMITTED ? value : CONSULT_DB);
+                }
+            });
+        } else {
+            store(txId, value);
+        }
+    }
+
+    // the request ended without a usable outcome (e.g. an exception): retries go to the DB
+    public void release(String txId) {
+        if (!enabled || txId == null) return;
+        store(txId, CONSULT_DB);
+    }
+
+    private void store(String txId, String value) {
+        try {
+            redisTemplate.opsForValue().set(KEY_PREFIX + txId, value, Duration.ofMillis(windowMs));
+        } catch (Exception e) {
+            log.debug("Could not store idempotency entry for {}: {}", txId, e.getMessage());
+        }
+    }
+
+    // status|balance|error; the error goes last because it may contain the separator
+    static String encode(TransactionResponse r) {
+        return r.getStatus() + "|" + (r.getBalance() == null ? "" : r.getBalance().toPlainString()) + "|" + (r.getError() == null ? "" : r.getError());
+    }
+
+    static TransactionResponse decode(String txId, String value) {
+        String[] parts = value.split("\\|", 3);
+        BigDecimal balance = parts.length > 1 && !parts[1].isEmpty() ? new BigDecimal(parts[1]) : null;
+        String error = parts.length > 2 && !parts[2].isEmpty() ? parts[2] : null;
+        return new TransactionResponse(txId, parts[0], balance, error);
+    }
+
+    private void increment(String name) {
+        if (meterRegistry != null) {
+            meterRegistry.counter(name).increment();
+        }
+    }
+}
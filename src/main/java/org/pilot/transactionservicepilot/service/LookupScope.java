@@ -0,0 +1,85 @@
+package org.pilot.transactionservicepilot.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Independent lookups of one request, run concurrently and joined before the request goes on.
+ * <p>
+ * Structured like a task scope: {@link #join()} returns once every fork has completed, and the first fork to fail
+ * cancels (interrupts) the ones still running before its exception is rethrown. Closing the scope cancels
+ * whatever is left, so no lookup outlives the request that forked it.
+ */
+final class LookupScope implements AutoCloseable {
+
+    private final Executor executor;
+    private final List<Fork<?>> forks = new ArrayList<>();
+    private final BlockingQueue<Fork<?>> completed = new LinkedBlockingQueue<>();
+
+    LookupScope(Executor executor) {
+        this.executor = executor;
+    }
+
+    <T> Future<T> fork(Callable<T> task) {
+        Fork<T> fork = new Fork<>(task);
+        forks.add(fork);
+        executor.execute(fork);
+        return fork;
+    }
+
+    /**
+     * Wait for all forks; rethrows the first failure (unchecked as is, checked ones wrapped).
+     */
+    void join() {
+        try {
+            for (int i = 0; i < forks.size(); i++) {
+                Fork<?> done = completed.take();
+                if (done.isCancelled()) continue;
+                try {
+                    done.get();
+                } catch (ExecutionException e) {
+                    cancelAll();
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException re) throw re;
+                    if (cause instanceof Error err) throw err;
+                    throw new IllegalStateException("Lookup failed", cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelAll();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for lookups");
+        }
+    }
+
+    @Override
+    public void close() {
+        cancelAll();
+    }
+
+    private void cancelAll() {
+        for (Fork<?> fork : forks) {
+            fork.cancel(true);
+        }
+    }
+
+    private final class Fork<T> extends FutureTask<T> {
+
+        Fork(Callable<T> task) {
+            super(task);
+        }
+
+        @Override
+        protected void done() {
+            completed.add(this);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.pilot.transactionservicepilot.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms of the request pipeline in {@link TransactionService}.
+ * <p>
+ * {@code transaction.latency} times whole requests, tagged with type (DEBIT, CREDIT, TRANSFER) and outcome
+ * (committed, failed, pending, error); its count is the throughput. {@code transaction.stage.latency} times each
+ * hop of a request, tagged with stage and outcome, so the hop behind a p99 shows up as
+ * {@code histogram_quantile(0.99, sum by (stage, le) (rate(transaction_stage_latency_seconds_bucket[1m])))}.
+ * Both have SLO-aligned buckets from 1 ms to 1 s (management.metrics.distribution.slo.transaction overrides them).
+ * {@code transaction.db_fallback.count} counts requests that took the DB-only path because Redis failed or the
+ * circuit was open; divided by the transaction.latency count it is the DB-fallback rate.
+ * <p>
+ * Meters are created once per tag combination and cached, so recording is a map lookup and a histogram update.
+ */
+final class PipelineMetrics {
+
+    // stages, in request order
+    static final String IDEMPOTENCY_CLAIM = "idempotency_claim";
+    static final String IDEMPOTENCY_LOOKUP = "idempotency_lookup";
+    static final String ACCOUNT_LOOKUP = "account_lookup";
+    static final String REDIS_RESERVE = "redis_reserve";
+    static final String DB_UPDATE = "db_update";
+    // DB-only path of a request whose Redis call failed; replaces db_update
+    static final String DB_FALLBACK = "db_fallback";
+    static final String REDIS_ROLLBACK = "redis_rollback";
+    static final String BALANCE_READ = "balance_read";
+    static final String RESPONSE = "response";
+
+    static final String OK = "ok";
+    static final String ERROR = "error";
+
+    private static final Duration[] SLOS = {
+            Duration.ofMillis(1), Duration.ofMillis(2), Duration.ofMillis(5), Duration.ofMillis(10),
+            Duration.ofMillis(25), Duration.ofMillis(50), Duration.ofMillis(100), Duration.ofMillis(250),
+            Duration.ofMillis(500), Duration.ofSeconds(1)
+    };
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> fallbacks = new ConcurrentHashMap<>();
+
+    // null registry: nothing is recorded
+    PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    long start() {
+        return registry == null ? 0L : System.nanoTime();
+    }
+
+    void stage(String stage, String outcome, long startNanos) {
+        if (registry == null) return;
+        timer("transaction.stage.latency", "stage", stage, outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // outcome of a redis_reserve stage
+    void reserve(BalanceManager.ReserveResult result, long startNanos) {
+        if (registry == null) return;
+        stage(REDIS_RESERVE, result == null ? ERROR : result.name().toLowerCase(Locale.ROOT), startNanos);
+    }
+
+    void request(String type, String outcome, long startNanos) {
+        if (registry == null) return;
+        timer("transaction.latency", "type", type, outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void dbFallback(String type) {
+        if (registry == null) return;
+        fallbacks.computeIfAbsent(type, t -> registry.counter("transaction.db_fallback.count", "type", t)).increment();
+    }
+
+    // DEBIT, CREDIT or TRANSFER, as recorded
+    static String typeOf(TransactionRequest req) {
+        if (req.getSourceAccountId() != null && req.getDestinationAccountId() != null) return "TRANSFER";
+        return "DEBIT".equalsIgnoreCase(req.getType()) ? "DEBIT" : "CREDIT";
+    }
+
+    private Timer timer(String name, String tag, String value, String outcome) {
+        return timers.computeIfAbsent(name + '|' + value + '|' + outcome, k -> Timer.builder(name)
+                .tag(tag, value)
+                .tag("outcome", outcome)
+                .serviceLevelObjectives(SLOS)
+                .register(registry));
+    }
+}
@@ -0,0 +1,89 @@
+package org.pilot.transactionservicepilot.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of the txIds this instance has recently finished. {@code mightContain} never misses an id added
+ * within the last one to two generations and reports unknown ids as present with roughly the configured
+ * false-positive rate.
+ * <p>
+ * Two generations are kept; once the current one holds its expected number of ids it becomes the previous one and
+ * the old previous one is dropped, so memory stays fixed and old ids age out.
+ */
+class RecentTxIdFilter {
+
+    private final int bits;
+    private final int hashes;
+    private final long generationCapacity;
+    private final AtomicLong currentCount = new AtomicLong();
+    private volatile AtomicLongArray current;
+    private volatile AtomicLongArray previous;
+
+    RecentTxIdFilter(long expectedIdsPerGeneration, double falsePositiveRate) {
+        long n = Math.max(1, expectedIdsPerGeneration);
+        // standard sizing: m = -n ln p / (ln 2)^2, k = m / n ln 2
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, m));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+        this.generationCapacity = n;
+        this.current = new AtomicLongArray((bits + 63) / 64);
+        this.previous = new AtomicLongArray((bits + 63) / 64);
+    }
+
+    boolean mightContain(String txId) {
+        long h = hash64(txId);
+        return contains(current, h) || contains(previous, h);
+    }
+
+    void add(String txId) {
+        if (currentCount.incrementAndGet() > generationCapacity) {
+            rotate();
+        }
+        long h = hash64(txId);
+        AtomicLongArray words = current;
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bits);
+            int word = bit >>> 6;
+            long mask = 1L << bit;
+            long old;
+            do {
+                old = words.get(word);
+            } while ((old & mask) == 0 && !words.compareAndSet(word, old, old | mask));
+        }
+    }
+
+    private synchronized void rotate() {
+        if (currentCount.get() <= generationCapacity) return; // another thread rotated already
+        previous = current;
+        current = new AtomicLongArray(previous.length());
+        currentCount.set(1);
+    }
+
+    private boolean contains(AtomicLongArray words, long h) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bits);
+            if ((words.get(bit >>> 6) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    // FNV-1a over the chars, finished with the murmur3 fmix64 step
+    private static long hash64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,265 @@
+package org.pilot.transactionservicepilot.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Circuit breaker in front of the hot-path Redis calls of {@link BalanceManager}.
+ * <p>
+ * The outcomes of the last {@code window-size} calls are kept in a ring. Once at least {@code minimum-calls} are
+ * recorded and the failure rate or the slow-call rate reaches its threshold the breaker opens: calls are rejected
+ * right away (BalanceManager reports ERROR), so callers take their DB path instead of waiting for the Redis
+ * client timeout. After {@code open-ms} the breaker lets {@code half-open-probes} calls through; one failed or
+ * slow probe opens it again, all of them succeeding closes it. Accounts the DB path wrote in the meantime are
+ * marked stale and re-synced into Redis before the breaker closes, so the cache path is trusted again only once
+ * it agrees with the DB.
+ */
+@Component
+public class RedisCircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisCircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    // ring slot bits; an empty slot is 0
+    private static final int RECORDED = 1;
+    private static final int FAILED = 2;
+    private static final int SLOW = 4;
+
+    @Value("${app.redis.circuit-breaker.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${app.redis.circuit-breaker.window-size:100}")
+    private int windowSize = 100;
+
+    @Value("${app.redis.circuit-breaker.minimum-calls:20}")
+    private int minimumCalls = 20;
+
+    // percentages of the calls in the window
+    @Value("${app.redis.circuit-breaker.failure-rate-threshold:50}")
+    private int failureRateThreshold = 50;
+
+    @Value("${app.redis.circuit-breaker.slow-call-rate-threshold:80}")
+    private int slowCallRateThreshold = 80;
+
+    @Value("${app.redis.circuit-breaker.slow-call-ms:250}")
+    private long slowCallMs = 250L;
+
+    @Value("${app.redis.circuit-breaker.open-ms:5000}")
+    private long openMs = 5000L;
+
+    @Value("${app.redis.circuit-breaker.half-open-probes:5}")
+    private int halfOpenProbes = 5;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private volatile long openedAtMillis;
+
+    private AtomicIntegerArray window;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicInteger recorded = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger slowCalls = new AtomicInteger();
+
+    private final AtomicInteger probesIssued = new AtomicInteger();
+    private final AtomicInteger probesSucceeded = new AtomicInteger();
+
+    // accounts updated by the DB path while Redis was skipped or failing
+    private final Set<Long> stale = ConcurrentHashMap.newKeySet();
+    private volatile Consumer<Set<Long>> resync = ids -> { };
+
+    private final Counter rejectedCounter;
+    private final Counter openedCounter;
+    private final Counter closedCounter;
+
+    @Autowired
+    public RedisCircuitBreaker(@Nullable MeterRegistry meterRegistry) {
+        if (meterRegistry != null) {
+            rejectedCounter = meterRegistry.counter("redis_circuit.rejected.count");
+            openedCounter = meterRegistry.counter("redis_circuit.opened.count");
+            closedCounter = meterRegistry.counter("redis_circuit.closed.count");
+            meterRegistry.gauge("redis_circuit.state", this, b -> b.getState().ordinal());
+            meterRegistry.gauge("redis_circuit.failure.rate", this, RedisCircuitBreaker::getFailureRate);
+            meterRegistry.gauge("redis_circuit.slow.rate", this, RedisCircuitBreaker::getSlowCallRate);
+            meterRegistry.gauge("redis_circuit.stale.accounts", stale, Set::size);
+        } else {
+            rejectedCounter = null;
+            openedCounter = null;
+            closedCounter = null;
+        }
+        init();
+    }
+
+    // breaker without metrics, for use outside Spring
+    public RedisCircuitBreaker() {
+        this(null);
+    }
+
+    // sized again once window-size is injected
+    @PostConstruct
+    public void init() {
+        window = new AtomicIntegerArray(Math.max(1, windowSize));
+    }
+
+    // called with the stale accounts before the breaker closes; throwing keeps the breaker open
+    public void setResync(Consumer<Set<Long>> resync) {
+        this.resync = resync;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return whether the caller may use Redis now; false means take the DB path
+     */
+    public boolean tryAcquire() {
+        if (!enabled) return true;
+        State s = state.get();
+        if (s == State.CLOSED) return true;
+        if (s == State.OPEN) {
+            if (System.currentTimeMillis() - openedAtMillis < openMs) {
+                reject();
+                return false;
+            }
+            if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                probesIssued.set(0);
+                probesSucceeded.set(0);
+                log.info("Redis circuit half-open, probing with {} calls", halfOpenProbes);
+            }
+        }
+        if (state.get() == State.HALF_OPEN && probesIssued.incrementAndGet() <= halfOpenProbes) return true;
+        reject();
+        return false;
+    }
+
+    // outcome of a call let through by tryAcquire
+    public void record(boolean success, long elapsedNanos) {
+        if (!enabled) return;
+        boolean slow = elapsedNanos >= slowCallMs * 1_000_000L;
+        State s = state.get();
+        if (s == State.HALF_OPEN) {
+            if (!success || slow) {
+                open(State.HALF_OPEN, success ? "slow probe" : "failed probe");
+            } else if (probesSucceeded.incrementAndGet() == halfOpenProbes) {
+                close();
+            }
+            return;
+        }
+        if (s != State.CLOSED) return;
+
+        int outcome = RECORDED | (success ? 0 : FAILED) | (slow ? SLOW : 0);
+        int old = window.getAndSet((int) (cursor.getAndIncrement() % window.length()), outcome);
+        if (old == 0) recorded.incrementAndGet();
+        if ((outcome & FAILED) != (old & FAILED)) failures.addAndGet(success ? -1 : 1);
+        if ((outcome & SLOW) != (old & SLOW)) slowCalls.addAndGet(slow ? 1 : -1);
+
+        int calls = recorded.get();
+        if (calls < minimumCalls) return;
+        if (failures.get() * 100 >= failureRateThreshold * calls) {
+            open(State.CLOSED, "failure rate " + getFailureRate() + "%");
+        } else if (slowCalls.get() * 100 >= slowCallRateThreshold * calls) {
+            open(State.CLOSED, "slow-call rate " + getSlowCallRate() + "%");
+        }
+    }
+
+    // accounts whose DB balance changed without the matching Redis update
+    public void markStale(Collection<Long> accountIds) {
+        for (Long id : accountIds) {
+            if (id != null) stale.add(id);
+        }
+    }
+
+    /**
+     * Re-sync the accounts marked stale while the breaker stayed closed (single failed calls that did not open
+     * it). Called periodically by SyncScheduler.
+     */
+    public void resyncStale() {
+        if (state.get() == State.CLOSED && !stale.isEmpty()) {
+            runResync();
+        }
+    }
+
+    private void open(State from, String reason) {
+        if (!state.compareAndSet(from, State.OPEN)) return;
+        openedAtMillis = System.currentTimeMillis();
+        if (openedCounter != null) openedCounter.increment();
+        log.warn("Redis circuit opened ({}), routing balance operations to the DB for {} ms", reason, openMs);
+    }
+
+    private void close() {
+        int accounts = stale.size();
+        try {
+            runResync();
+        } catch (Exception e) {
+            log.error("Re-sync of {} stale accounts failed, keeping the Redis circuit open", accounts, e);
+            open(State.HALF_OPEN, "re-sync failed");
+            return;
+        }
+        resetWindow();
+        if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            if (closedCounter != null) closedCounter.increment();
+            log.info("Redis circuit closed after re-syncing {} accounts", accounts);
+        }
+    }
+
+    private void runResync() {
+        Set<Long> ids = new HashSet<>(stale);
+        if (ids.isEmpty()) return;
+        // removed first, so an account marked again while its DB row is read is re-synced next time
+        stale.removeAll(ids);
+        try {
+            resync.accept(ids);
+        } catch (RuntimeException e) {
+            stale.addAll(ids);
+            throw e;
+        }
+    }
+
+    private void resetWindow() {
+        for (int i = 0; i < window.length(); i++) window.set(i, 0);
+        recorded.set(0);
+        failures.set(0);
+        slowCalls.set(0);
+    }
+
+    private void reject() {
+        if (rejectedCounter != null) rejectedCounter.increment();
+    }
+
+    public int getStaleCount() {
+        return stale.size();
+    }
+
+    public double getFailureRate() {
+        int calls = recorded.get();
+        return calls == 0 ? 0.0 : failures.get() * 100.0 / calls;
+    }
+
+    public double getSlowCallRate() {
+        int calls = recorded.get();
+        return calls == 0 ? 0.0 : slowCalls.get() * 100.0 / calls;
+    }
+}
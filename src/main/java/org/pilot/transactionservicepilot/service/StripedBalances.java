@@ -0,0 +1,243 @@
+package org.pilot.transactionservicepilot.service;
+
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Redis layout and operations for hot accounts whose balance is striped across N slot hashes.
+ * <p>
+ * Slot k of account id lives in {@code balance:{id:k}} with its own {@code balance} and {@code available}
+ * fields; the account balance is the sum over all slots. Each slot has a different hash tag, so on Redis
+ * Cluster the slots spread over shards. A reservation's part in slot k is kept in
+ * {@code reservation:{id:k}:txId}, next to that slot, and indexed by deadline in {@code reservations:{id:k}}; the slot
+ * is listed in the due index as {@code id:k}, so the reservation reaper returns parts that are never settled like
+ * it does for plain accounts. A part outlives its deadline by the reaped-marker TTL, so a settle arriving after the
+ * reaper still finds it and leaves the returned amount alone.
+ * <p>
+ * A reservation first tries its primary slot (chosen from the txId) all-or-nothing in one script call.
+ * Only when that slot cannot cover the amount does it take partial amounts from the sibling slots. Every
+ * take is atomic and never drives a slot below zero, so the account cannot be overdrawn; if the siblings
+ * together fall short, everything taken is returned. The sibling list is stored on the primary part so
+ * commit/rollback can settle every slot that contributed; the primary part's TTL is renewed after the last take, so
+ * it outlives the sibling parts. Should it be gone all the same (evicted under memory pressure), every other slot is
+ * settled, which leaves the slots that hold no part of the reservation alone.
+ */
+class StripedBalances {
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisScript<Long> reserveSlotScript;
+    private final RedisScript<List> settleSlotScript;
+    private final RedisScript<List> creditScript;
+    private final int slots;
+    private final int reservationTtlSeconds;
+    private final long partTtlSeconds;
+    // balance key -> the due index listing it
+    private final Function<String, String> dueKey;
+
+    StripedBalances(RedisTemplate<String, String> redisTemplate, RedisScript<Long> reserveSlotScript, RedisScript<List> settleSlotScript,
+                    RedisScript<List> creditScript, int slots, int reservationTtlSeconds, long reapedMarkerTtlSeconds, Function<String, String> dueKey) {
+        this.redisTemplate = redisTemplate;
+        this.reserveSlotScript = reserveSlotScript;
+        this.settleSlotScript = settleSlotScript;
+        this.creditScript = creditScript;
+        this.slots = slots;
+        this.reservationTtlSeconds = reservationTtlSeconds;
+        this.partTtlSeconds = reservationTtlSeconds + reapedMarkerTtlSeconds;
+        this.dueKey = dueKey;
+    }
+
+    static String slotKey(Long accountId, int slot) {
+        return "balance:{" + accountId + ":" + slot + "}";
+    }
+
+    static String slotReservationKey(Long accountId, int slot, String txId) {
+        return "reservation:{" + accountId + ":" + slot + "}:" + txId;
+    }
+
+    // deadlines of the slot's reservation parts (member amount_cents:txId)
+    static String slotIndexKey(Long accountId, int slot) {
+        return "reservations:{" + accountId + ":" + slot + "}";
+    }
+
+    // parts of the slot returned by the reaper, kept for late settles
+    static String slotReapedKey(Long accountId, int slot) {
+        return "reservations:reaped:{" + accountId + ":" + slot + "}";
+    }
+
+    // the slot's member in the due index
+    static String dueMember(Long accountId, int slot) {
+        return accountId + ":" + slot;
+    }
+
+    int primarySlot(String txId) {
+        return Math.floorMod(txId.hashCode(), slots);
+    }
+
+    BalanceManager.ReserveResult reserve(Long accountId, long cents, String txId) {
+        int primary = primarySlot(txId);
+        long taken = reserveSlot(accountId, primary, cents, txId, false);
+        if (taken < 0) return BalanceManager.ReserveResult.NO_ACCOUNT;
+        if (taken == cents) return BalanceManager.ReserveResult.OK;
+
+        // primary slot ran dry: borrow what the slots can give, starting with the primary itself
+        long remaining = cents;
+        List<Integer> contributors = new ArrayList<>();
+        for (int i = 0; i < slots && remaining > 0; i++) {
+            int slot = (primary + i) % slots;
+            long t = reserveSlot(accountId, slot, remaining, txId, true);
+            if (t > 0) {
+                remaining -= t;
+                contributors.add(slot);
+            }
+        }
+        List<Integer> borrowed = new ArrayList<>(contributors);
+        borrowed.remove(Integer.valueOf(primary));
+        if (remaining > 0) {
+            for (int slot : contributors) {
+                settleSlot(accountId, slot, txId, "rollback");
+            }
+            return BalanceManager.ReserveResult.INSUFFICIENT_FUNDS;
+        }
+        if (!borrowed.isEmpty()) {
+            String primaryPart = slotReservationKey(accountId, primary, txId);
+            redisTemplate.opsForHash().put(primaryPart, "borrowed", join(borrowed));
+            redisTemplate.expire(primaryPart, Duration.ofSeconds(partTtlSeconds));
+        }
+        return BalanceManager.ReserveResult.OK;
+    }
+
+    // false when a part was gone (reaped, or unknown to Redis): the slots may no longer reflect the commit
+    boolean commit(Long accountId, String txId) {
+        return settle(accountId, txId, "commit");
+    }
+
+    void rollback(Long accountId, String txId) {
+        settle(accountId, txId, "rollback");
+    }
+
+    // credits are spread over the slots by txId, like reservations; false when the slot was evicted, which is
+    // left missing rather than recreated holding the credit alone
+    boolean credit(Long accountId, long cents, String txId) {
+        int slot = primarySlot(txId);
+        List<Object> missing = redisTemplate.execute(creditScript,
+                List.of(slotKey(accountId, slot), "inflight:{" + dueMember(accountId, slot) + "}"), String.valueOf(cents), txId);
+        return missing == null || missing.isEmpty();
+    }
+
+    // summed {balance, available} in cents, or null when any slot is missing from the cache
+    long[] totals(Long accountId) {
+        List<Object> rows = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (int k = 0; k < slots; k++) {
+                    ops.opsForHash().multiGet(slotKey(accountId, k), List.of("balance", "available"));
+                }
+                return null;
+            }
+        });
+        long balance = 0;
+        long available = 0;
+        for (Object row : rows) {
+            List<?> values = (List<?>) row;
+            if (values == null || values.get(0) == null || values.get(1) == null) return null;
+            balance += Long.parseLong(values.get(0).toString());
+            available += Long.parseLong(values.get(1).toString());
+        }
+        return new long[]{balance, available};
+    }
+
+    // no slot holds a reservation part; read slot by slot, so a part reserved right after the read is not seen
+    boolean settled(Long accountId) {
+        List<Object> counts = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (int k = 0; k < slots; k++) {
+                    ops.opsForZSet().zCard(slotIndexKey(accountId, k));
+                }
+                return null;
+            }
+        });
+        for (Object count : counts) {
+            if (count instanceof Long n && n > 0) return false;
+        }
+        return true;
+    }
+
+    // split evenly; the remainder goes to slot 0
+    void populate(Long accountId, long balanceCents, long availableCents) {
+        long balanceShare = balanceCents / slots;
+        long availableShare = availableCents / slots;
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (int k = 0; k < slots; k++) {
+                    long b = balanceShare + (k == 0 ? balanceCents % slots : 0);
+                    long a = availableShare + (k == 0 ? availableCents % slots : 0);
+                    ops.opsForHash().put(slotKey(accountId, k), "balance", String.valueOf(b));
+                    ops.opsForHash().put(slotKey(accountId, k), "available", String.valueOf(a));
+                }
+                return null;
+            }
+        });
+    }
+
+    private long reserveSlot(Long accountId, int slot, long cents, String txId, boolean allowPartial) {
+        String key = slotKey(accountId, slot);
+        Long taken = redisTemplate.execute(reserveSlotScript,
+                List.of(key, slotReservationKey(accountId, slot, txId), slotIndexKey(accountId, slot), dueKey.apply(key)),
+                String.valueOf(cents), txId, String.valueOf(partTtlSeconds), allowPartial ? "1" : "0",
+                String.valueOf(System.currentTimeMillis() + reservationTtlSeconds * 1000L), dueMember(accountId, slot));
+        if (taken == null) throw new IllegalStateException("No reply from reserve_slot script");
+        return taken;
+    }
+
+    // {OK, GONE or NONE, borrowed slots}
+    @SuppressWarnings("unchecked")
+    private List<Object> settleSlot(Long accountId, int slot, String txId, String mode) {
+        List<Object> res = redisTemplate.execute(settleSlotScript,
+                List.of(slotKey(accountId, slot), slotReservationKey(accountId, slot, txId), slotIndexKey(accountId, slot), slotReapedKey(accountId, slot)),
+                mode, txId);
+        if (res == null || res.size() < 2) throw new IllegalStateException("No reply from settle_slot script");
+        return res;
+    }
+
+    private boolean settle(Long accountId, String txId, String mode) {
+        int primary = primarySlot(txId);
+        List<Object> res = settleSlot(accountId, primary, txId, mode);
+        String status = String.valueOf(res.get(0));
+        List<Integer> siblings = new ArrayList<>();
+        if ("NONE".equals(status)) {
+            // the sibling list went with the primary part: any slot may hold a part
+            for (int i = 1; i < slots; i++) siblings.add((primary + i) % slots);
+        } else if (!String.valueOf(res.get(1)).isEmpty()) {
+            for (String slot : String.valueOf(res.get(1)).split(",")) siblings.add(Integer.parseInt(slot));
+        }
+        boolean settled = "OK".equals(status);
+        for (int slot : siblings) {
+            settled &= "OK".equals(String.valueOf(settleSlot(accountId, slot, txId, mode).get(0)));
+        }
+        return settled;
+    }
+
+    private static String join(List<Integer> slots) {
+        StringBuilder sb = new StringBuilder();
+        for (int s : slots) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
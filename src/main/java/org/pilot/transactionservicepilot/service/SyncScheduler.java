@@ -1,18 +1,28 @@
 package org.pilot.transactionservicepilot.service;
 
+import org.pilot.transactionservicepilot.dto.Money;
 import org.pilot.transactionservicepilot.entity.Account;
 import org.pilot.transactionservicepilot.repository.AccountRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.lang.Nullable;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import io.micrometer.core.instrument.MeterRegistry;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Component
 public class SyncScheduler {
@@ -32,62 +42,299 @@ public class SyncScheduler {
     // optional metrics collector; injected if present in app
     private final MeterRegistry meterRegistry;
 
-    // single constructor: MeterRegistry is optional (@Nullable)
+    // write-behind delta drain; null when constructed without it (e.g. in unit tests)
+    private final BalanceDeltaDrainer deltaDrainer;
+
+    // upper bound of pages drained per scheduler tick so a large backlog does not starve the other stages
+    @Value("${app.write-behind.max-pages-per-run:50}")
+    private int maxDrainPagesPerRun = 50;
+
+    // keyset page size of the reconcile scans
+    @Value("${app.sync.reconcile.page-size:1000}")
+    private int reconcilePageSize = 1000;
+
+    // every n-th cycle scans all accounts instead of the changed ones (catches never-updated accounts and
+    // entries lost from Redis, or with idle eviction drift of the cached ones); 0 disables the periodic sweep after
+    // the first one
+    @Value("${app.sync.reconcile.full-sweep-every:20}")
+    private int fullSweepEvery = 20;
+
+    // each incremental scan re-reads this much before the watermark, covering late commits and DB/app clock skew
+    @Value("${app.sync.reconcile.overlap-ms:5000}")
+    private long overlapMs = 5000L;
+
+    // reservation reaper: accounts visited per run and expired reservations returned per account and script call
+    @Value("${app.redis.reservation-reaper.enabled:true}")
+    private boolean reaperEnabled = true;
+
+    @Value("${app.redis.reservation-reaper.accounts-per-run:500}")
+    private int reapAccountsPerRun = 500;
+
+    @Value("${app.redis.reservation-reaper.batch-size:100}")
+    private int reapBatchSize = 100;
+
+    // retry state of a failed reprocess run; the retry is due at reprocessRetryAt (null: none pending)
+    private final AtomicBoolean reprocessing = new AtomicBoolean();
+    private volatile int reprocessAttempts;
+    private volatile Instant reprocessRetryAt;
+
+    // accounts changed before this instant have been checked; null until the first full sweep
+    private volatile Instant watermark;
+    private long cycles;
+
+    // cached entries that disagreed with the DB at their last check, with the cached values seen then. An entry is
+    // overwritten only when the next check finds the same cached values: a transaction caught between its DB
+    // commit and its Redis update differs once, not twice.
+    private final Map<Long, BalanceManager.CachedBalance> mismatched = new ConcurrentHashMap<>();
+
+    // refreshed with every account reconcile loads anyway; optional so unit tests may leave it out
+    private AccountMetadataCache accountCache;
+
+    @Autowired(required = false)
+    public void setAccountCache(AccountMetadataCache accountCache) {
+        this.accountCache = accountCache;
+    }
+
+    // MeterRegistry is optional (@Nullable)
     @Autowired
-    public SyncScheduler(AccountRepository accountRepository, BalanceManager balanceManager, TransactionService transactionService, @Nullable MeterRegistry meterRegistry) {
+    public SyncScheduler(AccountRepository accountRepository, BalanceManager balanceManager, TransactionService transactionService, @Nullable MeterRegistry meterRegistry, @Nullable BalanceDeltaDrainer deltaDrainer) {
         this.accountRepository = accountRepository;
         this.balanceManager = balanceManager;
         this.transactionService = transactionService;
         this.meterRegistry = meterRegistry;
+        this.deltaDrainer = deltaDrainer;
+        if (meterRegistry != null) {
+            meterRegistry.gauge("sync_scheduler.reconcile.lag.ms", this, SyncScheduler::getReconcileLagMillis);
+        }
+    }
+
+    public SyncScheduler(AccountRepository accountRepository, BalanceManager balanceManager, TransactionService transactionService, @Nullable MeterRegistry meterRegistry) {
+        this(accountRepository, balanceManager, transactionService, meterRegistry, null);
+    }
+
+    // Write-behind stage: persist the Redis delta stream to MySQL. Runs far more often than reconcile so the
+    // DB trails Redis by seconds; a page that fails stays pending in the stream and is retried on the next run.
+    @Scheduled(fixedDelayString = "${app.write-behind.drain-interval-ms:1000}")
+    public void drainDeltas() {
+        if (deltaDrainer == null || !deltaDrainer.isEnabled()) return;
+        try {
+            for (int page = 0; page < maxDrainPagesPerRun; page++) {
+                if (deltaDrainer.drain() < deltaDrainer.getBatchSize()) break;
+            }
+        } catch (Exception e) {
+            log.error("Error while draining write-behind balance deltas", e);
+            if (meterRegistry != null) {
+                meterRegistry.counter("sync_scheduler.delta.drain.failure.count").increment();
+            }
+        }
+    }
+
+    // Reaper stage: a reservation whose instance died between reserve and commit/rollback would keep its amount
+    // out of the available balance forever; return it once the reservation is past its deadline.
+    @Scheduled(fixedDelayString = "${app.redis.reservation-reaper.interval-ms:5000}")
+    public void reapReservations() {
+        if (!reaperEnabled) return;
+        try {
+            int reaped = balanceManager.reapExpiredReservations(reapAccountsPerRun, reapBatchSize);
+            if (meterRegistry != null && reaped > 0) {
+                meterRegistry.counter("sync_scheduler.reservation.reaped.count").increment(reaped);
+            }
+        } catch (Exception e) {
+            log.error("Error while reaping expired reservations", e);
+            if (meterRegistry != null) {
+                meterRegistry.counter("sync_scheduler.reservation.reap.failure.count").increment();
+            }
+        }
     }
 
     @Scheduled(fixedDelayString = "${app.sync.run-interval-ms:30000}")
     public void reconcile() {
-        // For MVP: ensure Redis has balance for all accounts
-        List<Account> accounts = accountRepository.findAll();
-        for (Account a : accounts) {
-            // If Redis missing balance, populate it
-            if (balanceManager.getBalance(a.getId()) == null) {
-                log.info("Populating Redis balance for account {}", a.getId());
-                balanceManager.populateBalance(a.getId(), a.getBalance(), a.getAvailableBalance(), a.getCurrency());
+        try {
+            // accounts a DB-only fallback changed while the Redis circuit stayed closed
+            balanceManager.resyncStale();
+            reconcileCache();
+        } catch (Exception e) {
+            log.error("Error while reconciling the Redis balance cache", e);
+            if (meterRegistry != null) {
+                meterRegistry.counter("sync_scheduler.reconcile.failure.count").increment();
             }
         }
 
-        // Reprocess pending transactions with retry/backoff
-        int attempt = 0;
-        while (true) {
-            try {
-                attempt++;
-                transactionService.reprocessPending();
-                // success - record retry metric (optional) and break
-                if (meterRegistry != null) {
-                    meterRegistry.counter("sync_scheduler.attempt.count").increment();
-                }
-                break;
-            } catch (Exception e) {
-                log.error("Error while reprocessing pending transactions on attempt {}", attempt, e);
+        // a failed run is retried by retryReprocess once its backoff has passed
+        if (reprocessRetryAt == null) {
+            reprocess();
+        }
+    }
+
+    // Retry stage of reprocessPending. The backoff is a due time checked on every tick rather than a sleep, so it
+    // never holds a scheduler thread (with a single platform scheduler thread that stalled every other stage).
+    @Scheduled(fixedDelayString = "${app.sync.retry-check-interval-ms:1000}")
+    public void retryReprocess() {
+        Instant due = reprocessRetryAt;
+        if (due == null || Instant.now().isBefore(due)) return;
+        reprocess();
+    }
+
+    // Reprocess pending transactions with retry/backoff
+    private void reprocess() {
+        // stages may run concurrently (one virtual thread per run in virtual-thread mode)
+        if (!reprocessing.compareAndSet(false, true)) return;
+        int attempt = reprocessAttempts + 1;
+        try {
+            transactionService.reprocessPending();
+            // success - record retry metric (optional) and reset the retry state
+            if (meterRegistry != null) {
+                meterRegistry.counter("sync_scheduler.attempt.count").increment();
+            }
+            reprocessAttempts = 0;
+            reprocessRetryAt = null;
+        } catch (Exception e) {
+            log.error("Error while reprocessing pending transactions on attempt {}", attempt, e);
+            if (meterRegistry != null) {
+                meterRegistry.counter("sync_scheduler.attempt.failure.count").increment();
+            }
+            if (attempt >= maxRetries) {
+                // permanent failure: log and emit metric; do not requeue
+                log.error("Permanent failure while reprocessing pending transactions after {} attempts", attempt, e);
                 if (meterRegistry != null) {
-                    meterRegistry.counter("sync_scheduler.attempt.failure.count").increment();
+                    meterRegistry.counter("sync_scheduler.permanentFailure.count").increment();
                 }
-                if (attempt >= maxRetries) {
-                    // permanent failure: log and emit metric; do not requeue
-                    log.error("Permanent failure while reprocessing pending transactions after {} attempts", attempt, e);
-                    if (meterRegistry != null) {
-                        meterRegistry.counter("sync_scheduler.permanentFailure.count").increment();
-                    }
-                    break;
-                }
-
+                reprocessAttempts = 0;
+                reprocessRetryAt = null;
+            } else {
                 // exponential backoff before next retry
                 long delaySeconds = baseBackoffSeconds * (1L << Math.max(0, attempt - 1));
-                try {
-                    Thread.sleep(delaySeconds * 1000L);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    log.warn("SyncScheduler retry sleep interrupted");
-                    break;
+                reprocessAttempts = attempt;
+                reprocessRetryAt = Instant.now().plusSeconds(delaySeconds);
+            }
+        } finally {
+            reprocessing.set(false);
+        }
+    }
+
+    /**
+     * Check the Redis balance cache against the accounts table and repopulate entries that are missing or do not
+     * hold integer cents. An entry whose values differ from the DB is overwritten when two consecutive checks find
+     * the same cached values and the account has no pending reservation or in-flight txId (Redis runs ahead of the
+     * DB for those); accounts that differed are re-checked at the start of the next cycle. Nothing is overwritten
+     * in write-behind mode, where Redis is authoritative, nor for striped accounts.
+     * <p>
+     * Accounts are read in keyset pages and each page is checked with one pipelined read and repaired with one
+     * pipelined write. Normally only accounts whose {@code updated_at} passed the watermark are scanned; the first
+     * cycle and every {@code full-sweep-every}-th cycle scan all accounts by id. When idle balances are evicted a
+     * missing entry is an evicted cold account that read-through loads on demand, so only entries present in Redis
+     * are checked and repaired; bringing the others back would undo the eviction.
+     */
+    void reconcileCache() {
+        Instant started = Instant.now();
+        boolean sweep = watermark == null || (fullSweepEvery > 0 && cycles % fullSweepEvery == 0);
+        cycles++;
+        int pages = 0;
+        int repaired = 0;
+        PageRequest pageRequest = PageRequest.of(0, Math.max(1, reconcilePageSize));
+        if (!mismatched.isEmpty()) {
+            List<Long> ids = new ArrayList<>(mismatched.keySet());
+            for (int from = 0; from < ids.size(); from += pageRequest.getPageSize()) {
+                List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + pageRequest.getPageSize()));
+                List<Account> page = accountRepository.findAllById(chunk);
+                Set<Long> found = new HashSet<>();
+                for (Account a : page) found.add(a.getId());
+                // accounts deleted since
+                for (Long id : chunk) {
+                    if (!found.contains(id)) mismatched.remove(id);
                 }
+                pages++;
+                repaired += repair(page);
             }
         }
+        if (sweep) {
+            long afterId = 0L;
+            while (true) {
+                List<Account> page = accountRepository.findPageAfter(afterId, pageRequest);
+                if (page.isEmpty()) break;
+                pages++;
+                repaired += repair(page);
+                afterId = page.get(page.size() - 1).getId();
+                if (page.size() < pageRequest.getPageSize()) break;
+            }
+        } else {
+            Instant since = watermark.minusMillis(overlapMs);
+            long afterId = 0L;
+            while (true) {
+                List<Account> page = accountRepository.findChangedAfter(since, afterId, pageRequest);
+                if (page.isEmpty()) break;
+                pages++;
+                repaired += repair(page);
+                Account last = page.get(page.size() - 1);
+                since = last.getUpdatedAt();
+                afterId = last.getId();
+                if (page.size() < pageRequest.getPageSize()) break;
+            }
+        }
+        // changes made while scanning are re-read thanks to the overlap
+        watermark = started;
+
+        if (repaired > 0) {
+            log.info("Reconcile {} repaired Redis balances of {} accounts in {} pages", sweep ? "sweep" : "pass", repaired, pages);
+        }
+        if (meterRegistry != null) {
+            meterRegistry.counter("sync_scheduler.reconcile.page.count").increment(pages);
+            meterRegistry.counter("sync_scheduler.reconcile.repair.count").increment(repaired);
+        }
+    }
+
+    // time since the start of the last completed reconcile scan, i.e. how old an unchecked change can be
+    public double getReconcileLagMillis() {
+        Instant w = watermark;
+        return w == null ? Double.NaN : Duration.between(w, Instant.now()).toMillis();
+    }
+
+    // repopulate the accounts of one page whose Redis entry is missing or malformed and overwrite those that kept
+    // differing from the DB; returns how many
+    private int repair(List<Account> page) {
+        if (accountCache != null) {
+            accountCache.refresh(page);
+        }
+        List<Long> ids = new ArrayList<>(page.size());
+        for (Account a : page) ids.add(a.getId());
+        Map<Long, BalanceManager.CachedBalance> cached = balanceManager.getCachedBalances(ids);
+        boolean compare = !balanceManager.isWriteBehindEnabled();
+        // with idle eviction an absent entry was evicted: only malformed ones are repopulated
+        Set<Long> present = null;
+        if (balanceManager.isIdleEvictionEnabled() && cached.size() < ids.size()) {
+            List<Long> absent = new ArrayList<>();
+            for (Long id : ids) {
+                if (!cached.containsKey(id)) absent.add(id);
+            }
+            present = balanceManager.presentInCache(absent);
+        }
+        List<BalanceManager.CachedBalance> missing = new ArrayList<>();
+        int overwritten = 0;
+        for (Account a : page) {
+            BalanceManager.CachedBalance db = new BalanceManager.CachedBalance(a.getId(), Money.toCents(a.getBalance()), Money.toCents(a.getAvailableBalance()), a.getCurrency());
+            BalanceManager.CachedBalance c = cached.get(a.getId());
+            if (c == null) {
+                mismatched.remove(a.getId());
+                if (present == null || present.contains(a.getId())) missing.add(db);
+            } else if (!compare || balanceManager.isStriped(a.getId()) || sameCents(c, db)) {
+                mismatched.remove(a.getId());
+            } else {
+                BalanceManager.CachedBalance before = mismatched.put(a.getId(), c);
+                if (before != null && sameCents(before, c) && balanceManager.overwriteIfSettled(c, db)) {
+                    log.warn("Redis balance of account {} differed from the DB ({}/{} cents, DB {}/{}), overwritten",
+                            a.getId(), c.balanceCents(), c.availableCents(), db.balanceCents(), db.availableCents());
+                    mismatched.remove(a.getId());
+                    overwritten++;
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            balanceManager.populateBalances(missing);
+        }
+        return missing.size() + overwritten;
+    }
+
+    private static boolean sameCents(BalanceManager.CachedBalance a, BalanceManager.CachedBalance b) {
+        return a.balanceCents() == b.balanceCents() && a.availableCents() == b.availableCents();
     }
 }
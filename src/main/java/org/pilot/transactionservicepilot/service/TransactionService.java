@@ -1,25 +1,49 @@
 package org.pilot.transactionservicepilot.service;
 
 import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.pilot.transactionservicepilot.dto.Money;
 import org.pilot.transactionservicepilot.dto.TransactionRequest;
 import org.pilot.transactionservicepilot.dto.TransactionResponse;
 import org.pilot.transactionservicepilot.entity.Account;
 import org.pilot.transactionservicepilot.entity.TransactionRecord;
 import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.repository.JpaTransactionWriter;
+import org.pilot.transactionservicepilot.repository.TransactionBatchRepository;
 import org.pilot.transactionservicepilot.repository.TransactionRepository;
+import org.pilot.transactionservicepilot.repository.TransactionWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import jakarta.persistence.OptimisticLockException;
 import java.math.BigDecimal;
 import java.time.Instant;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 @Service
 public class TransactionService {
@@ -29,6 +53,8 @@ public class TransactionService {
     private final BalanceManager balanceManager;
     private final TransactionRepository transactionRepository;
     private final AccountRepository accountRepository;
+    private final AccountMetadataCache accountCache;
+    private final TransactionWriter jpaWriter;
 
     @Value("${app.sync.base-backoff-seconds:5}")
     private long baseBackoffSeconds = 5L;
@@ -36,59 +62,322 @@ public class TransactionService {
     @Value("${app.sync.max-retries:3}")
     private int maxRetries = 3;
 
+    // write-behind: Redis is authoritative and SyncScheduler persists the delta stream to the DB asynchronously
+    @Value("${app.write-behind.enabled:false}")
+    private boolean writeBehindEnabled = false;
+
+    // records in these states are retried until retryCount reaches maxRetries
+    private static final List<String> RETRYABLE_STATUSES = List.of("PENDING", "FAILED");
+
+    // error of a write-behind request refused while Redis is unavailable; the controller answers it with 503
+    public static final String CACHE_UNAVAILABLE = "Balance cache unavailable";
+
+    // page size of a reprocessing claim
+    @Value("${app.sync.batch-size:100}")
+    private int batchSize = 100;
+
+    // workers per instance draining a retry backlog in parallel, each claiming its own pages
+    @Value("${app.sync.reprocess.workers:4}")
+    private int reprocessWorkers = 4;
+
+    // upper bound of pages one worker claims per scheduler tick
+    @Value("${app.sync.reprocess.max-pages-per-run:50}")
+    private int maxReprocessPagesPerRun = 50;
+
+    // how long a claimed page stays reserved for this instance; after that another instance may take it over
+    @Value("${app.sync.reprocess.lease-ms:60000}")
+    private long leaseMs = 60000L;
+
+    // concurrent idempotency check and account lookups of a request (see prefetch); off runs them in sequence
+    @Value("${app.transactions.parallel-lookups.enabled:true}")
+    private boolean parallelLookups = true;
+
+    // lookup threads in platform-thread mode; when all are busy a request runs its lookups itself
+    @Value("${app.transactions.parallel-lookups.threads:64}")
+    private int lookupThreads = 64;
+
+    // virtual worker threads, see WorkerThreads
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads = false;
+
+    // host name plus a random part, so two processes on one host never share lease owners
+    private final String leaseOwnerPrefix = System.getenv().getOrDefault("HOSTNAME", "local") + "-" + UUID.randomUUID().toString().substring(0, 8);
+    private final AtomicLong leaseSequence = new AtomicLong();
+
+    private ExecutorService reprocessPool;
+    private ExecutorService lookupPool;
+
     // keep legacy constant for backward compatibility in code areas that expect a constant (not strictly required)
     private static final int MAX_RETRIES = -1; // deprecated; use `maxRetries` instance field
 
     private MeterRegistry meterRegistry;
 
+    // stage latency histograms of process; records nothing without a registry
+    private PipelineMetrics metrics = new PipelineMetrics(null);
+
     // optional injection by Spring; tests that construct TransactionService directly may leave this null
     @org.springframework.beans.factory.annotation.Autowired(required = false)
     public void setMeterRegistry(MeterRegistry meterRegistry) {
         this.meterRegistry = meterRegistry;
+        this.metrics = new PipelineMetrics(meterRegistry);
     }
 
     @org.springframework.beans.factory.annotation.Autowired
-    public TransactionService(BalanceManager balanceManager, TransactionRepository transactionRepository, AccountRepository accountRepository, MeterRegistry meterRegistry) {
+    public TransactionService(BalanceManager balanceManager, TransactionRepository transactionRepository, AccountRepository accountRepository, MeterRegistry meterRegistry,
+                              AccountMetadataCache accountCache) {
         this.balanceManager = balanceManager;
         this.transactionRepository = transactionRepository;
         this.accountRepository = accountRepository;
         this.meterRegistry = meterRegistry;
+        this.metrics = new PipelineMetrics(meterRegistry);
+        this.accountCache = accountCache;
+        this.jpaWriter = new JpaTransactionWriter(accountRepository, transactionRepository);
+    }
+
+    public TransactionService(BalanceManager balanceManager, TransactionRepository transactionRepository, AccountRepository accountRepository, MeterRegistry meterRegistry) {
+        this(balanceManager, transactionRepository, accountRepository, meterRegistry, new AccountMetadataCache(accountRepository));
     }
 
     public TransactionService(BalanceManager balanceManager, TransactionRepository transactionRepository, AccountRepository accountRepository) {
         this.balanceManager = balanceManager;
         this.transactionRepository = transactionRepository;
         this.accountRepository = accountRepository;
+        this.accountCache = new AccountMetadataCache(accountRepository);
+        this.jpaWriter = new JpaTransactionWriter(accountRepository, transactionRepository);
+    }
+
+    // tiered idempotency (Redis claim + local filter) in front of findByTxId; null means always query the DB
+    private IdempotencyGuard idempotencyGuard;
+
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    public void setIdempotencyGuard(IdempotencyGuard idempotencyGuard) {
+        this.idempotencyGuard = idempotencyGuard;
     }
 
-    @Transactional
+    // plain-JDBC writes of the request path (see TransactionWriter); without it, or with the flag off, the JPA
+    // repositories are used
+    private TransactionBatchRepository jdbcWriter;
+
+    @Value("${app.persistence.jdbc-writer.enabled:true}")
+    private boolean jdbcWriterEnabled = true;
+
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    public void setJdbcWriter(TransactionBatchRepository jdbcWriter) {
+        this.jdbcWriter = jdbcWriter;
+    }
+
+    private TransactionWriter writer() {
+        return jdbcWriterEnabled && jdbcWriter != null ? jdbcWriter : jpaWriter;
+    }
+
+    // short per-record transactions for reprocessPending; without it (plain unit tests) records run without one
+    private TransactionTemplate transactionTemplate;
+
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Process one request in phases, so a pooled DB connection is held only for the DB writes:
+     * <ol>
+     *   <li>lookups, without a connection of the request's own: the Redis claim first, as it decides whether the
+     *   request runs at all, then the DB idempotency check and the account lookups concurrently (see
+     *   {@link #prefetch});</li>
+     *   <li>validation and the Redis reserve-and-apply, still without a connection;</li>
+     *   <li>the balance updates and the final record in one short transaction;</li>
+     *   <li>after it ended: the Redis undo when it failed (see {@link #undoInRedis}) and, for striped accounts,
+     *   the balance re-read.</li>
+     * </ol>
+     * Each stage is timed, see {@link PipelineMetrics}.
+     */
     public TransactionResponse process(TransactionRequest req) {
-        // idempotency check
-        Optional<TransactionRecord> existing = transactionRepository.findByTxId(req.getTxId());
-        if (existing.isPresent()) {
-            TransactionRecord r = existing.get();
-            return new TransactionResponse(r.getTxId(), r.getStatus(), r.getAmount(), r.getError());
+        long started = metrics.start();
+        String outcome = PipelineMetrics.ERROR;
+        try {
+            TransactionResponse res = processStages(req);
+            if (res != null && res.getStatus() != null) outcome = res.getStatus().toLowerCase(Locale.ROOT);
+            return res;
+        } finally {
+            metrics.request(PipelineMetrics.typeOf(req), outcome, started);
+        }
+    }
+
+    private TransactionResponse processStages(TransactionRequest req) {
+        IdempotencyGuard.Claim claim = null;
+        if (idempotencyGuard != null) {
+            long claimStarted = metrics.start();
+            claim = idempotencyGuard.claim(req.getTxId());
+            metrics.stage(PipelineMetrics.IDEMPOTENCY_CLAIM, PipelineMetrics.OK, claimStarted);
+        }
+        if (claim != null && claim.state() == IdempotencyGuard.State.DONE) {
+            return claim.response();
         }
+        if (claim != null && claim.state() == IdempotencyGuard.State.IN_FLIGHT) {
+            return new TransactionResponse(req.getTxId(), "PENDING", null, "Transaction already in progress");
+        }
+
+        TransactionResponse res;
+        try {
+            // idempotency check; skipped for txIds that are new in Redis and unknown to this instance
+            boolean dbLookup = claim == null || idempotencyGuard.needsDbLookup(req.getTxId(), claim);
+            Prefetched prefetched = prefetch(req, dbLookup);
+            if (prefetched.existing().isPresent()) {
+                return stored(req, prefetched.existing().get());
+            }
+            res = processNew(req, prefetched.accounts());
+        } catch (DataIntegrityViolationException duplicate) {
+            // unique tx_id index: a concurrent or earlier request persisted the txId past both idempotency tiers
+            // (this transaction was rolled back on the way out); answer with that request's outcome
+            log.warn("Duplicate txId {} rejected by the database", req.getTxId());
+            Optional<TransactionRecord> existing = Optional.empty();
+            try {
+                existing = findExisting(req.getTxId());
+            } catch (RuntimeException e) {
+                log.warn("Could not read the stored record of duplicate txId {}: {}", req.getTxId(), e.toString());
+            }
+            if (existing.isPresent()) return stored(req, existing.get());
+            if (idempotencyGuard != null) idempotencyGuard.release(req.getTxId());
+            return new TransactionResponse(req.getTxId(), "FAILED", null, "Duplicate txId");
+        } catch (RuntimeException e) {
+            if (idempotencyGuard != null) idempotencyGuard.release(req.getTxId());
+            throw e;
+        }
+        long responseStarted = metrics.start();
+        if (idempotencyGuard != null) idempotencyGuard.complete(req.getTxId(), res);
+        metrics.stage(PipelineMetrics.RESPONSE, PipelineMetrics.OK, responseStarted);
+        return res;
+    }
+
+    // response of the request that stored this txId first, remembered by the idempotency guard
+    private TransactionResponse stored(TransactionRequest req, TransactionRecord r) {
+        TransactionResponse stored = new TransactionResponse(r.getTxId(), r.getStatus(), r.getAmount(), r.getError());
+        if (idempotencyGuard != null) idempotencyGuard.complete(req.getTxId(), stored);
+        return stored;
+    }
+
+    // the stored record of an earlier request with this txId, and the request's accounts that exist
+    private record Prefetched(Optional<TransactionRecord> existing, Map<Long, AccountMetadataCache.AccountMetadata> accounts) {
+    }
 
+    /**
+     * First stage of a request: the DB idempotency check and the lookups of the accounts not in the metadata
+     * cache (source and destination for a transfer). Those that need a round trip run concurrently on the lookup
+     * executor, so the stage takes as long as the slowest of them instead of their sum; a single one runs on the
+     * calling thread. It runs outside the request's transaction, so no request holds a connection while its
+     * lookups wait for theirs.
+     */
+    private Prefetched prefetch(TransactionRequest req, boolean dbLookup) {
+        Map<Long, AccountMetadataCache.AccountMetadata> accounts = new HashMap<>();
+        List<Long> misses = new ArrayList<>(2);
+        for (Long id : accountIds(req)) {
+            AccountMetadataCache.AccountMetadata cached = accountCache.getIfCached(id);
+            if (cached != null) accounts.put(id, cached);
+            else misses.add(id);
+        }
+
+        Executor executor = misses.size() + (dbLookup ? 1 : 0) > 1 ? lookupExecutor() : null;
+        if (executor == null) {
+            Optional<TransactionRecord> existing = dbLookup ? findExisting(req.getTxId()) : Optional.empty();
+            if (existing.isPresent()) return new Prefetched(existing, accounts);
+            for (Long id : misses) {
+                loadAccount(id).ifPresent(m -> accounts.put(id, m));
+            }
+            return new Prefetched(existing, accounts);
+        }
+
+        try (LookupScope scope = new LookupScope(executor)) {
+            Future<Optional<TransactionRecord>> existing = dbLookup
+                    ? scope.fork(() -> findExisting(req.getTxId())) : null;
+            Map<Long, Future<Optional<AccountMetadataCache.AccountMetadata>>> loads = new HashMap<>();
+            for (Long id : misses) {
+                loads.put(id, scope.fork(() -> loadAccount(id)));
+            }
+            scope.join();
+            for (Map.Entry<Long, Future<Optional<AccountMetadataCache.AccountMetadata>>> e : loads.entrySet()) {
+                e.getValue().resultNow().ifPresent(m -> accounts.put(e.getKey(), m));
+            }
+            return new Prefetched(existing == null ? Optional.empty() : existing.resultNow(), accounts);
+        }
+    }
+
+    private Optional<TransactionRecord> findExisting(String txId) {
+        long started = metrics.start();
+        String outcome = PipelineMetrics.ERROR;
+        try {
+            Optional<TransactionRecord> existing = transactionRepository.findByTxId(txId);
+            outcome = PipelineMetrics.OK;
+            return existing;
+        } finally {
+            metrics.stage(PipelineMetrics.IDEMPOTENCY_LOOKUP, outcome, started);
+        }
+    }
+
+    // metadata cache miss: load from the DB
+    private Optional<AccountMetadataCache.AccountMetadata> loadAccount(Long accountId) {
+        long started = metrics.start();
+        String outcome = PipelineMetrics.ERROR;
+        try {
+            Optional<AccountMetadataCache.AccountMetadata> account = accountCache.get(accountId);
+            outcome = PipelineMetrics.OK;
+            return account;
+        } finally {
+            metrics.stage(PipelineMetrics.ACCOUNT_LOOKUP, outcome, started);
+        }
+    }
+
+    // the accounts processNew looks at; none for requests it rejects before that
+    private static List<Long> accountIds(TransactionRequest req) {
+        if (!req.isAmountValid()) return List.of();
+        Long src = req.getSourceAccountId();
+        Long dst = req.getDestinationAccountId();
+        if (src != null && dst != null) {
+            return src.equals(dst) ? List.of() : List.of(src, dst);
+        }
+        return req.getAccountId() == null ? List.of() : List.of(req.getAccountId());
+    }
+
+    private TransactionResponse processNew(TransactionRequest req, Map<Long, AccountMetadataCache.AccountMetadata> accounts) {
         // basic validation
-        if (req.getAmount() == null || req.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
+        // positive whole cents; sub-cent amounts would make Redis (cents) and the DB disagree
+        if (!req.isAmountValid()) {
             return new TransactionResponse(req.getTxId(), "FAILED", null, "Invalid amount");
         }
 
         // Choose transfer vs single-account flows
         if (req.getSourceAccountId() != null && req.getDestinationAccountId() != null) {
-            return processTransfer(req);
+            return processTransfer(req, accounts);
         }
 
-        // legacy single-account handling (debit/credit on accountId)
-        Optional<Account> accountOpt = accountRepository.findById(req.getAccountId());
-        if (accountOpt.isEmpty()) {
+        // legacy single-account handling (debit/credit on accountId); existence comes from the metadata cache
+        AccountMetadataCache.AccountMetadata account = accounts.get(req.getAccountId());
+        if (account == null) {
             return new TransactionResponse(req.getTxId(), "FAILED", null, "Account not found");
         }
-        Account account = accountOpt.get();
 
-        // Reserve in Redis
-        BalanceManager.ReserveResult reserveResult = balanceManager.reserve(account.getId(), req.getAmount(), req.getTxId());
+        if (writeBehindEnabled) {
+            String type = "DEBIT".equalsIgnoreCase(req.getType()) ? "DEBIT" : "CREDIT";
+            long reserveStarted = metrics.start();
+            BalanceManager.AppliedDelta applied = balanceManager.applyDelta(type, account.id(), null, req.getAmountCents(), req.getTxId(), req.getCurrency(), req.getTimestamp());
+            metrics.reserve(applied.result(), reserveStarted);
+            if (applied.result() == BalanceManager.ReserveResult.NO_ACCOUNT) {
+                return new TransactionResponse(req.getTxId(), "FAILED", null, "Account not in cache");
+            }
+            if (applied.result() == BalanceManager.ReserveResult.INSUFFICIENT_FUNDS) {
+                return new TransactionResponse(req.getTxId(), "FAILED", null, "Insufficient funds");
+            }
+            if (applied.result() == BalanceManager.ReserveResult.ERROR) {
+                return cacheUnavailable(req);
+            }
+            return new TransactionResponse(req.getTxId(), "COMMITTED", applied.balance(), null);
+        }
+
+        // Reserve and apply in Redis in one round trip; undone below if the DB update fails
+        boolean debit = "DEBIT".equalsIgnoreCase(req.getType());
+        long reserveStarted = metrics.start();
+        BalanceManager.AppliedBalance applied = balanceManager.reserveAndCommit(account.id(), req.getAmountCents(), debit, req.getTxId());
+        metrics.reserve(applied.result(), reserveStarted);
+        BalanceManager.ReserveResult reserveResult = applied.result();
         if (reserveResult == BalanceManager.ReserveResult.NO_ACCOUNT) {
             return new TransactionResponse(req.getTxId(), "FAILED", null, "Account not in cache");
         }
@@ -97,52 +386,53 @@ public class TransactionService {
         }
         if (reserveResult == BalanceManager.ReserveResult.ERROR) {
             // fallback: perform DB-only update
-            return processWithDbFallback(req, account);
+            return dbFallback(req, () -> processWithDbFallback(req, account.id()));
         }
 
-        // create transaction record (PENDING)
+        // the record is written once, in its final state, after the DB balance update
         TransactionRecord rec = new TransactionRecord();
         rec.setTxId(req.getTxId());
-        rec.setAccountId(account.getId());
+        rec.setAccountId(account.id());
         rec.setType(req.getType());
         rec.setAmount(req.getAmount());
         rec.setCurrency(req.getCurrency());
-        rec.setStatus("PENDING");
         rec.setTimestamp(req.getTimestamp());
-        transactionRepository.save(rec);
 
+        long dbStarted = metrics.start();
         try {
-            // update DB account balance using DB-side conditional update to avoid optimistic lock churn
-            if ("DEBIT".equalsIgnoreCase(req.getType())) {
-                int updated = accountRepository.debitIfAvailable(account.getId(), req.getAmount());
-                if (updated == 0) throw new RuntimeException("Insufficient funds or concurrent modification");
-            } else {
-                int updated = accountRepository.credit(account.getId(), req.getAmount());
-                if (updated == 0) throw new RuntimeException("Credit failed");
-            }
-
-            // mark transaction committed
-            rec.setStatus("COMMITTED");
-            rec.setProcessedAt(Instant.now());
-            transactionRepository.save(rec);
-
-            // commit Redis reservation
-            balanceManager.commit(account.getId(), req.getAmount(), req.getTxId());
+            // the request's only transaction: conditional DB-side update (no optimistic lock churn) and the record
+            inTransaction(() -> {
+                if (debit) {
+                    int updated = writer().debitIfAvailable(account.id(), req.getAmount());
+                    if (updated == 0) throw new RuntimeException("Insufficient funds or concurrent modification");
+                } else {
+                    int updated = writer().credit(account.id(), req.getAmount());
+                    if (updated == 0) throw new RuntimeException("Credit failed");
+                }
 
-            // fetch updated balance from DB to include in response
-            BigDecimal updatedBal = accountRepository.findById(account.getId()).map(Account::getBalance).orElse(null);
-            return new TransactionResponse(req.getTxId(), "COMMITTED", updatedBal, null);
+                rec.setStatus("COMMITTED");
+                rec.setProcessedAt(Instant.now());
+                writer().insert(rec);
+                return null;
+            });
+            metrics.stage(PipelineMetrics.DB_UPDATE, PipelineMetrics.OK, dbStarted);
+        } catch (DataIntegrityViolationException duplicate) {
+            metrics.stage(PipelineMetrics.DB_UPDATE, PipelineMetrics.ERROR, dbStarted);
+            // txId already recorded: the DB update is rolled back, undo the Redis change
+            undoInRedis(() -> balanceManager.revert(account.id(), req.getAmountCents(), debit, req.getTxId()), List.of(account.id()), req.getTxId());
+            throw duplicate;
         } catch (Exception e) {
-            // rollback reservation
-            balanceManager.rollback(account.getId(), req.getAmount(), req.getTxId());
+            metrics.stage(PipelineMetrics.DB_UPDATE, PipelineMetrics.ERROR, dbStarted);
+            // the transaction is rolled back and its connection returned; undo the Redis change
+            undoInRedis(() -> balanceManager.revert(account.id(), req.getAmountCents(), debit, req.getTxId()), List.of(account.id()), req.getTxId());
+            // written afresh in a short transaction of its own, even if the rolled-back one had persisted it
+            rec.setId(null);
             rec.setStatus("FAILED");
             rec.setError(e.getMessage());
             rec.setProcessedAt(Instant.now());
-            // increment retry count and schedule next attempt or mark permanent
-            int rc = rec.getRetryCount() == null ? 0 : rec.getRetryCount();
-            rec.setRetryCount(rc + 1);
+            // first failed attempt: schedule the next one or mark permanent
+            rec.setRetryCount(1);
             if (rec.getRetryCount() >= maxRetries) {
-                rec.setStatus("FAILED");
                 recordPermanentFailure(rec);
                 rec.setNextAttemptAt(null);
                 log.error("Permanent failure processing transaction {} after {} retries: {}", req.getTxId(), rec.getRetryCount(), e.toString());
@@ -153,35 +443,61 @@ public class TransactionService {
             transactionRepository.save(rec);
             return new TransactionResponse(req.getTxId(), "FAILED", null, e.getMessage());
         }
+
+        balanceManager.confirmApplied(List.of(account.id()), req.getTxId());
+        // balance returned by the Redis script; re-read from the DB only when it is not known (striped accounts)
+        BigDecimal updatedBal = applied.balance() != null ? applied.balance() : readBalance(account.id());
+        return new TransactionResponse(req.getTxId(), "COMMITTED", updatedBal, null);
     }
 
-    private TransactionResponse processTransfer(TransactionRequest req) {
+    private TransactionResponse processTransfer(TransactionRequest req, Map<Long, AccountMetadataCache.AccountMetadata> accounts) {
         Long src = req.getSourceAccountId();
         Long dst = req.getDestinationAccountId();
         if (src.equals(dst)) {
             return new TransactionResponse(req.getTxId(), "FAILED", null, "Source and destination cannot be same");
         }
 
-        Optional<Account> srcOpt = accountRepository.findById(src);
-        Optional<Account> dstOpt = accountRepository.findById(dst);
-        if (srcOpt.isEmpty() || dstOpt.isEmpty()) {
+        if (!accounts.containsKey(src) || !accounts.containsKey(dst)) {
             return new TransactionResponse(req.getTxId(), "FAILED", null, "Source or destination account not found");
         }
 
-        // Reserve on source in Redis
-        BalanceManager.ReserveResult reserveResult = balanceManager.reserve(src, req.getAmount(), req.getTxId());
+        if (writeBehindEnabled) {
+            long reserveStarted = metrics.start();
+            BalanceManager.AppliedDelta applied = balanceManager.applyDelta("TRANSFER", src, dst, req.getAmountCents(), req.getTxId(), req.getCurrency(), req.getTimestamp());
+            metrics.reserve(applied.result(), reserveStarted);
+            if (applied.result() == BalanceManager.ReserveResult.NO_ACCOUNT) {
+                return new TransactionResponse(req.getTxId(), "FAILED", null, "Source or destination account not in cache");
+            }
+            if (applied.result() == BalanceManager.ReserveResult.INSUFFICIENT_FUNDS) {
+                return new TransactionResponse(req.getTxId(), "FAILED", null, "Insufficient funds");
+            }
+            if (applied.result() == BalanceManager.ReserveResult.ERROR) {
+                return cacheUnavailable(req);
+            }
+            return new TransactionResponse(req.getTxId(), "COMMITTED", applied.balance(), null);
+        }
+
+        // Debit source and credit destination in Redis in one round trip
+        long reserveStarted = metrics.start();
+        BalanceManager.AppliedDelta applied = balanceManager.reserveTransfer(src, dst, req.getAmountCents(), req.getTxId());
+        metrics.reserve(applied.result(), reserveStarted);
+        BalanceManager.ReserveResult reserveResult = applied.result();
         if (reserveResult == BalanceManager.ReserveResult.NO_ACCOUNT) {
-            return new TransactionResponse(req.getTxId(), "FAILED", null, "Source account not in cache");
+            return new TransactionResponse(req.getTxId(), "FAILED", null, "Source or destination account not in cache");
+        }
+        if (applied.duplicate()) {
+            // a concurrent request with the same txId applied it in Redis and is writing the DB record
+            return new TransactionResponse(req.getTxId(), "PENDING", null, "Transaction already in progress");
         }
         if (reserveResult == BalanceManager.ReserveResult.INSUFFICIENT_FUNDS) {
             return new TransactionResponse(req.getTxId(), "FAILED", null, "Insufficient funds");
         }
         if (reserveResult == BalanceManager.ReserveResult.ERROR) {
             // fallback to DB-side atomic update
-            return processTransferWithDb(req, src, dst);
+            return dbFallback(req, () -> processTransferWithDb(req, src, dst));
         }
 
-        // create transaction record (PENDING)
+        // the record is written once, in its final state, after the DB balance update
         TransactionRecord rec = new TransactionRecord();
         rec.setTxId(req.getTxId());
         rec.setSourceAccountId(src);
@@ -189,37 +505,38 @@ public class TransactionService {
         rec.setType("TRANSFER");
         rec.setAmount(req.getAmount());
         rec.setCurrency(req.getCurrency());
-        rec.setStatus("PENDING");
         rec.setTimestamp(req.getTimestamp());
-        transactionRepository.save(rec);
 
+        long dbStarted = metrics.start();
         try {
-            // perform DB-side conditional debit and credit within the transaction
-            int debitUpdated = accountRepository.debitIfAvailable(src, req.getAmount());
-            if (debitUpdated == 0) throw new RuntimeException("Insufficient funds or concurrent modification");
-            int creditUpdated = accountRepository.credit(dst, req.getAmount());
-            if (creditUpdated == 0) throw new RuntimeException("Credit failed");
-
-            rec.setStatus("COMMITTED");
-            rec.setProcessedAt(Instant.now());
-            transactionRepository.save(rec);
-
-            // commit reservation on source
-            balanceManager.commit(src, req.getAmount(), req.getTxId());
-
-            // fetch updated balances for response (source balance)
-            BigDecimal srcBal = accountRepository.findById(src).map(Account::getBalance).orElse(null);
-            return new TransactionResponse(req.getTxId(), "COMMITTED", srcBal, null);
+            // the request's only transaction: DB-side conditional debit and credit, and the record; the two rows
+            // are updated in ascending id order, like the batch path locks them, and either failure rolls back both
+            inTransaction(() -> {
+                if (dst < src) creditOrFail(dst, req.getAmount());
+                int debitUpdated = writer().debitIfAvailable(src, req.getAmount());
+                if (debitUpdated == 0) throw new RuntimeException("Insufficient funds or concurrent modification");
+                if (src < dst) creditOrFail(dst, req.getAmount());
+
+                rec.setStatus("COMMITTED");
+                rec.setProcessedAt(Instant.now());
+                writer().insert(rec);
+                return null;
+            });
+            metrics.stage(PipelineMetrics.DB_UPDATE, PipelineMetrics.OK, dbStarted);
+        } catch (DataIntegrityViolationException duplicate) {
+            metrics.stage(PipelineMetrics.DB_UPDATE, PipelineMetrics.ERROR, dbStarted);
+            undoInRedis(() -> balanceManager.revertTransfer(src, dst, req.getAmountCents(), req.getTxId()), List.of(src, dst), req.getTxId());
+            throw duplicate;
         } catch (Exception e) {
-            // rollback reservation
-            balanceManager.rollback(src, req.getAmount(), req.getTxId());
+            metrics.stage(PipelineMetrics.DB_UPDATE, PipelineMetrics.ERROR, dbStarted);
+            // the transaction is rolled back and its connection returned; undo the Redis change on both accounts
+            undoInRedis(() -> balanceManager.revertTransfer(src, dst, req.getAmountCents(), req.getTxId()), List.of(src, dst), req.getTxId());
+            rec.setId(null);
             rec.setStatus("FAILED");
             rec.setError(e.getMessage());
             rec.setProcessedAt(Instant.now());
-            int rc = rec.getRetryCount() == null ? 0 : rec.getRetryCount();
-            rec.setRetryCount(rc + 1);
+            rec.setRetryCount(1);
             if (rec.getRetryCount() >= maxRetries) {
-                rec.setStatus("FAILED");
                 recordPermanentFailure(rec);
                 rec.setNextAttemptAt(null);
                 log.error("Permanent failure processing transfer {} after {} retries: {}", req.getTxId(), rec.getRetryCount(), e.toString());
@@ -230,6 +547,57 @@ public class TransactionService {
             transactionRepository.save(rec);
             return new TransactionResponse(req.getTxId(), "FAILED", null, e.getMessage());
         }
+
+        balanceManager.confirmApplied(List.of(src, dst), req.getTxId());
+        // source balance as returned by the Redis script
+        BigDecimal srcBal = applied.balance() != null ? applied.balance() : readBalance(src);
+        return new TransactionResponse(req.getTxId(), "COMMITTED", srcBal, null);
+    }
+
+    private void creditOrFail(Long accountId, BigDecimal amount) {
+        if (writer().credit(accountId, amount) == 0) throw new RuntimeException("Credit failed");
+    }
+
+    private BigDecimal readBalance(Long accountId) {
+        long started = metrics.start();
+        BigDecimal balance = accountRepository.findById(accountId).map(Account::getBalance).orElse(null);
+        metrics.stage(PipelineMetrics.BALANCE_READ, PipelineMetrics.OK, started);
+        return balance;
+    }
+
+    // DB-only path of a request whose Redis call failed (or was rejected by the open circuit), in its own transaction
+    // Write-behind mode has no DB fallback: the cached balances run ahead of the DB until the drainer persists
+    // their deltas, so a direct DB update would check funds against stale rows and land out of order with the
+    // queued deltas. The request fails fast and the caller retries once Redis is back.
+    private TransactionResponse cacheUnavailable(TransactionRequest req) {
+        return new TransactionResponse(req.getTxId(), "FAILED", null, CACHE_UNAVAILABLE);
+    }
+
+    private TransactionResponse dbFallback(TransactionRequest req, Supplier<TransactionResponse> path) {
+        metrics.dbFallback(PipelineMetrics.typeOf(req));
+        long started = metrics.start();
+        String outcome = PipelineMetrics.ERROR;
+        try {
+            TransactionResponse res = inTransaction(path);
+            outcome = PipelineMetrics.OK;
+            return res;
+        } finally {
+            metrics.stage(PipelineMetrics.DB_FALLBACK, outcome, started);
+        }
+    }
+
+    // Undo a Redis change after its DB transaction failed. If Redis fails now too, the cached balances are ahead
+    // of the DB: the accounts are marked stale, the recovery record that has them re-synced from the DB.
+    private void undoInRedis(Runnable revert, List<Long> accountIds, String txId) {
+        long started = metrics.start();
+        try {
+            revert.run();
+            metrics.stage(PipelineMetrics.REDIS_ROLLBACK, PipelineMetrics.OK, started);
+        } catch (Exception e) {
+            metrics.stage(PipelineMetrics.REDIS_ROLLBACK, PipelineMetrics.ERROR, started);
+            log.error("Undoing the Redis change of {} failed, re-syncing accounts {}: {}", txId, accountIds, e.getMessage());
+            balanceManager.markStale(accountIds);
+        }
     }
 
     private TransactionResponse processTransferWithDb(TransactionRequest req, Long src, Long dst) {
@@ -255,6 +623,7 @@ public class TransactionService {
             srcAcc.setUpdatedAt(Instant.now());
 
             dstAcc.setBalance(dstAcc.getBalance().add(req.getAmount()));
+            dstAcc.setAvailableBalance(dstAcc.getAvailableBalance().add(req.getAmount()));
             dstAcc.setUpdatedAt(Instant.now());
 
             try {
@@ -295,6 +664,8 @@ public class TransactionService {
             rec.setProcessedAt(Instant.now());
             rec.setTimestamp(req.getTimestamp());
             transactionRepository.save(rec);
+            // Redis was skipped: bring both cached balances back in line once it is usable again
+            balanceManager.markStale(List.of(src, dst));
 
             BigDecimal srcBal = accountRepository.findById(src).map(Account::getBalance).orElse(null);
             return new TransactionResponse(req.getTxId(), "COMMITTED", srcBal, null);
@@ -304,8 +675,14 @@ public class TransactionService {
         }
     }
 
-    private TransactionResponse processWithDbFallback(TransactionRequest req, Account account) {
+    private TransactionResponse processWithDbFallback(TransactionRequest req, Long accountId) {
         try {
+            Optional<Account> accountOpt = accountRepository.findById(accountId);
+            if (accountOpt.isEmpty()) {
+                return new TransactionResponse(req.getTxId(), "FAILED", null, "Account not found");
+            }
+            Account account = accountOpt.get();
+
             // Use JPA entity updates with optimistic locking
             TransactionRecord rec = new TransactionRecord();
             rec.setTxId(req.getTxId());
@@ -331,6 +708,7 @@ public class TransactionService {
                 accountRepository.save(account);
             } else {
                 account.setBalance(account.getBalance().add(req.getAmount()));
+                account.setAvailableBalance(account.getAvailableBalance().add(req.getAmount()));
                 account.setUpdatedAt(Instant.now());
                 accountRepository.save(account);
             }
@@ -338,6 +716,7 @@ public class TransactionService {
             rec.setStatus("COMMITTED");
             rec.setProcessedAt(Instant.now());
             transactionRepository.save(rec);
+            balanceManager.markStale(List.of(account.getId()));
 
             BigDecimal newBal = accountRepository.findById(account.getId()).map(Account::getBalance).orElse(null);
             return new TransactionResponse(req.getTxId(), "COMMITTED", newBal, null);
@@ -347,118 +726,231 @@ public class TransactionService {
         }
     }
 
-    // New: reprocess pending/failed transactions (called by scheduler)
-    @Transactional
+    // Reprocess pending/failed transactions (called by scheduler). Rows are claimed in pages of app.sync.batch-size
+    // through a lease, so every instance works on its own rows; each record is applied in a short transaction of its
+    // own, so one failing record neither rolls back nor holds up the others.
+    // The calling thread takes the first page, and only a full page (a backlog) fans out to the worker pool.
     public void reprocessPending() {
-        // process PENDING or FAILED (retryable) transactions, but respect exponential backoff
-        List<String> retryableStatuses = Arrays.asList("PENDING", "FAILED");
-        List<TransactionRecord> candidates = transactionRepository.findRetryable(retryableStatuses, Instant.now());
+        if (reprocessPage() < batchSize) return;
+        int workers = Math.max(1, reprocessWorkers);
+        if (workers == 1) {
+            drainRetryable();
+            return;
+        }
+        ExecutorService pool = reprocessPool(workers);
+        List<Future<?>> running = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            running.add(pool.submit(this::drainRetryable));
+        }
+        try {
+            for (Future<?> f : running) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for reprocessing workers");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException("Reprocessing worker failed", e.getCause());
+        }
+    }
 
-        for (TransactionRecord rec : candidates) {
-            try {
-                // skip if someone else processed it
-                if ("COMMITTED".equalsIgnoreCase(rec.getStatus())) continue;
+    // one worker: claim and process pages until a short page shows the backlog is gone
+    private void drainRetryable() {
+        for (int page = 1; page < maxReprocessPagesPerRun; page++) {
+            if (reprocessPage() < batchSize) break;
+        }
+    }
 
-                // eligibility guard (in case nextAttemptAt was set after query)
-                Instant now = Instant.now();
-                if (rec.getNextAttemptAt() != null && rec.getNextAttemptAt().isAfter(now)) {
-                    continue;
-                }
+    /**
+     * Claim one page of due records and process it.
+     *
+     * @return number of ids found due; less than the batch size means nothing else is waiting
+     */
+    int reprocessPage() {
+        Instant now = Instant.now();
+        String owner = leaseOwnerPrefix + ":" + leaseSequence.incrementAndGet();
+        // claim: a short transaction of its own, so the lease is visible to the other instances right away
+        Integer due = inTransaction(() -> {
+            List<Long> ids = transactionRepository.findRetryableIds(RETRYABLE_STATUSES, now, maxRetries, PageRequest.of(0, batchSize));
+            if (ids.isEmpty()) return 0;
+            transactionRepository.lease(ids, owner, now.plusMillis(leaseMs), now, RETRYABLE_STATUSES);
+            return ids.size();
+        });
+        if (due == null || due == 0) return 0;
+
+        List<TransactionRecord> page = transactionRepository.findByLeaseOwner(owner);
+        if (page.isEmpty()) return due;
+        // one SELECT for the accounts of the whole page; transfers need both of theirs
+        Set<Long> accountIds = new HashSet<>();
+        for (TransactionRecord rec : page) {
+            if (rec.getAccountId() != null) accountIds.add(rec.getAccountId());
+            if (rec.getSourceAccountId() != null) accountIds.add(rec.getSourceAccountId());
+            if (rec.getDestinationAccountId() != null) accountIds.add(rec.getDestinationAccountId());
+        }
+        Map<Long, AccountMetadataCache.AccountMetadata> accounts = accountCache.getAll(accountIds);
+        for (TransactionRecord rec : page) {
+            reprocessRecord(rec, accounts);
+        }
+        return due;
+    }
 
-                int retries = rec.getRetryCount() == null ? 0 : rec.getRetryCount();
+    private void reprocessRecord(TransactionRecord rec, Map<Long, AccountMetadataCache.AccountMetadata> accounts) {
+        // the lease ends with this attempt; a rescheduled record waits only for its nextAttemptAt
+        rec.setLeaseOwner(null);
+        rec.setLeaseUntil(null);
+        try {
+            // skip if someone else processed it, or if nextAttemptAt was set after the query; only the lease is released
+            Instant now = Instant.now();
+            if ("COMMITTED".equalsIgnoreCase(rec.getStatus())
+                    || (rec.getNextAttemptAt() != null && rec.getNextAttemptAt().isAfter(now))) {
+                transactionRepository.save(rec);
+                return;
+            }
 
-                Optional<Account> accountOpt = accountRepository.findById(rec.getAccountId());
-                if (accountOpt.isEmpty()) {
-                    rec.setRetryCount(retries + 1);
-                    rec.setError("Account not found");
-                    rec.setProcessedAt(Instant.now());
-                    if (rec.getRetryCount() >= maxRetries) {
-                        rec.setStatus("FAILED");
-                        // permanent failure: log, record metric and do not reschedule
-                        log.error("Permanent failure processing transaction {}: account {} not found after {} retries", rec.getTxId(), rec.getAccountId(), rec.getRetryCount());
-                        // increment permanent failure metric so monitoring/test can observe it
-                        recordPermanentFailure(rec);
-                        rec.setNextAttemptAt(null);
-                    } else {
-                        // schedule next attempt
-                        rec.setNextAttemptAt(calculateNextAttempt(now, rec.getRetryCount()));
-                    }
-                    transactionRepository.save(rec);
-                    continue;
-                }
-                Account account = accountOpt.get();
-
-                BalanceManager.ReserveResult reserveResult = balanceManager.reserve(account.getId(), rec.getAmount(), rec.getTxId());
-                if (reserveResult == BalanceManager.ReserveResult.OK) {
-                    try {
-                        if ("DEBIT".equalsIgnoreCase(rec.getType())) {
-                            int updated = accountRepository.debitIfAvailable(account.getId(), rec.getAmount());
-                            if (updated == 0) throw new RuntimeException("Insufficient funds or concurrent modification");
-                        } else {
-                            int updated = accountRepository.credit(account.getId(), rec.getAmount());
-                            if (updated == 0) throw new RuntimeException("Concurrent modification on credit");
-                        }
-
-                        // successful
-                        balanceManager.commit(account.getId(), rec.getAmount(), rec.getTxId());
-                        rec.setStatus("COMMITTED");
-                        rec.setProcessedAt(Instant.now());
-                        rec.setError(null);
-                        rec.setNextAttemptAt(null);
-                        transactionRepository.save(rec);
-
-                    } catch (Exception e) {
-                        // failure when trying to apply to DB
-                        rec.setRetryCount(retries + 1);
-                        rec.setError(e.getMessage());
-                        rec.setProcessedAt(Instant.now());
-                        if (rec.getRetryCount() >= maxRetries) {
-                            rec.setStatus("FAILED");
-                            // permanent failure: log as event and do not requeue
-                            log.error("Permanent failure processing transaction {} account {} after {} retries: {}", rec.getTxId(), account.getId(), rec.getRetryCount(), e.toString());
-                            // metrics
-                            recordPermanentFailure(rec);
-                            rec.setNextAttemptAt(null);
-                        } else {
-                            rec.setNextAttemptAt(calculateNextAttempt(now, rec.getRetryCount()));
-                        }
-                        transactionRepository.save(rec);
-                        balanceManager.rollback(account.getId(), rec.getAmount(), rec.getTxId());
-                    }
-                } else {
-                    // reservation failed in Redis — increment retry and schedule next attempt
-                    rec.setRetryCount(retries + 1);
-                    rec.setError("Redis reserve failed: " + reserveResult);
-                    rec.setProcessedAt(Instant.now());
-                    if (rec.getRetryCount() >= maxRetries) {
-                        rec.setStatus("FAILED");
-                        log.error("Permanent failure reserving transaction {} after {} retries: {}", rec.getTxId(), rec.getRetryCount(), reserveResult);
-                        recordPermanentFailure(rec);
-                        rec.setNextAttemptAt(null);
-                    } else {
-                        rec.setNextAttemptAt(calculateNextAttempt(now, rec.getRetryCount()));
-                    }
-                    transactionRepository.save(rec);
-                }
+            if (rec.getSourceAccountId() != null && rec.getDestinationAccountId() != null) {
+                reprocessTransfer(rec, accounts, now);
+            } else {
+                reprocessSingle(rec, accounts, now);
+            }
+        } catch (Exception e) {
+            log.error("Unexpected error while reprocessing transaction {}: {}", rec.getTxId(), e.toString());
+            failAttempt(rec, e.getMessage(), Instant.now());
+        }
+    }
 
-            } catch (Exception e) {
-                log.error("Unexpected error while reprocessing transaction {}: {}", rec.getTxId(), e.toString());
-                // increment retry, schedule next attempt
-                int rc = rec.getRetryCount() == null ? 1 : rec.getRetryCount() + 1;
-                rec.setRetryCount(rc);
-                rec.setProcessedAt(Instant.now());
-                rec.setError(e.getMessage());
-                if (rc >= maxRetries) {
-                    rec.setStatus("FAILED");
-                    log.error("Permanent failure reprocessing transaction {}: {}", rec.getTxId(), e.toString());
-                    recordPermanentFailure(rec);
-                    rec.setNextAttemptAt(null);
+    private void reprocessSingle(TransactionRecord rec, Map<Long, AccountMetadataCache.AccountMetadata> accounts, Instant now) {
+        Long accountId = rec.getAccountId();
+        if (accountId == null || !accounts.containsKey(accountId)) {
+            failAttempt(rec, "Account not found", now);
+            return;
+        }
+
+        // same fused Redis call as the request path: a credit must raise the cached balance, not reserve it
+        boolean debit = "DEBIT".equalsIgnoreCase(rec.getType());
+        long cents = Money.toCents(rec.getAmount());
+        BalanceManager.ReserveResult reserveResult = balanceManager.reserveAndCommit(accountId, cents, debit, rec.getTxId()).result();
+        if (reserveResult != BalanceManager.ReserveResult.OK) {
+            // reservation failed in Redis — increment retry and schedule next attempt
+            failAttempt(rec, "Redis reserve failed: " + reserveResult, now);
+            return;
+        }
+        String status = rec.getStatus();
+        try {
+            inTransaction(() -> {
+                if (debit) {
+                    int updated = accountRepository.debitIfAvailable(accountId, rec.getAmount());
+                    if (updated == 0) throw new RuntimeException("Insufficient funds or concurrent modification");
                 } else {
-                    rec.setNextAttemptAt(calculateNextAttempt(Instant.now(), rc));
+                    int updated = accountRepository.credit(accountId, rec.getAmount());
+                    if (updated == 0) throw new RuntimeException("Concurrent modification on credit");
                 }
-                transactionRepository.save(rec);
+                markCommitted(rec);
+                return null;
+            });
+        } catch (Exception e) {
+            // the record's transaction rolled back, commit included: undo the Redis change
+            balanceManager.revert(accountId, cents, debit, rec.getTxId());
+            rec.setStatus(status);
+            failAttempt(rec, e.getMessage(), now);
+            return;
+        }
+        balanceManager.confirmApplied(List.of(accountId), rec.getTxId());
+    }
+
+    // transfer records carry source and destination instead of accountId
+    private void reprocessTransfer(TransactionRecord rec, Map<Long, AccountMetadataCache.AccountMetadata> accounts, Instant now) {
+        Long src = rec.getSourceAccountId();
+        Long dst = rec.getDestinationAccountId();
+        if (!accounts.containsKey(src) || !accounts.containsKey(dst)) {
+            failAttempt(rec, "Source or destination account not found", now);
+            return;
+        }
+
+        long cents = Money.toCents(rec.getAmount());
+        BalanceManager.AppliedDelta applied = balanceManager.reserveTransfer(src, dst, cents, rec.getTxId());
+        if (applied.result() != BalanceManager.ReserveResult.OK || applied.duplicate()) {
+            failAttempt(rec, "Redis reserve failed: " + (applied.duplicate() ? "DUPLICATE" : applied.result()), now);
+            return;
+        }
+        String status = rec.getStatus();
+        try {
+            // both rows in ascending id order, like the request and batch paths lock them
+            inTransaction(() -> {
+                if (dst < src && accountRepository.credit(dst, rec.getAmount()) == 0) throw new RuntimeException("Credit failed");
+                int debitUpdated = accountRepository.debitIfAvailable(src, rec.getAmount());
+                if (debitUpdated == 0) throw new RuntimeException("Insufficient funds or concurrent modification");
+                if (src < dst && accountRepository.credit(dst, rec.getAmount()) == 0) throw new RuntimeException("Credit failed");
+                markCommitted(rec);
+                return null;
+            });
+        } catch (Exception e) {
+            // undo the Redis change on both accounts
+            balanceManager.revertTransfer(src, dst, cents, rec.getTxId());
+            rec.setStatus(status);
+            failAttempt(rec, e.getMessage(), now);
+            return;
+        }
+        balanceManager.confirmApplied(List.of(src, dst), rec.getTxId());
+    }
+
+    private void markCommitted(TransactionRecord rec) {
+        rec.setStatus("COMMITTED");
+        rec.setProcessedAt(Instant.now());
+        rec.setError(null);
+        rec.setNextAttemptAt(null);
+        transactionRepository.save(rec);
+    }
+
+    // count a failed retry: schedule the next attempt with backoff, or mark the record permanently failed
+    private void failAttempt(TransactionRecord rec, String error, Instant now) {
+        int retries = rec.getRetryCount() == null ? 1 : rec.getRetryCount() + 1;
+        rec.setRetryCount(retries);
+        rec.setError(error);
+        rec.setProcessedAt(Instant.now());
+        if (retries >= maxRetries) {
+            rec.setStatus("FAILED");
+            // permanent failure: log, record metric and do not reschedule
+            log.error("Permanent failure reprocessing transaction {} after {} retries: {}", rec.getTxId(), retries, error);
+            recordPermanentFailure(rec);
+            rec.setNextAttemptAt(null);
+        } else {
+            rec.setNextAttemptAt(calculateNextAttempt(now, retries));
+        }
+        transactionRepository.save(rec);
+    }
+
+    private <T> T inTransaction(Supplier<T> work) {
+        return transactionTemplate == null ? work.get() : transactionTemplate.execute(status -> work.get());
+    }
+
+    private synchronized ExecutorService reprocessPool(int workers) {
+        if (reprocessPool == null) {
+            reprocessPool = Executors.newFixedThreadPool(workers, WorkerThreads.factory("reprocess-", virtualThreads));
+        }
+        return reprocessPool;
+    }
+
+    private synchronized Executor lookupExecutor() {
+        if (!parallelLookups) return null;
+        if (lookupPool == null) {
+            if (virtualThreads) {
+                lookupPool = Executors.newThreadPerTaskExecutor(WorkerThreads.factory("lookup-", true));
+            } else {
+                // no queue: a lookup either gets an idle thread right away or runs on the request thread
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(lookupThreads, lookupThreads, 60L, TimeUnit.SECONDS,
+                        new SynchronousQueue<>(), WorkerThreads.factory("lookup-", false), new ThreadPoolExecutor.CallerRunsPolicy());
+                pool.allowCoreThreadTimeOut(true);
+                lookupPool = pool;
             }
         }
+        return lookupPool;
+    }
+
+    @PreDestroy
+    public synchronized void stopReprocessing() {
+        if (reprocessPool != null) reprocessPool.shutdownNow();
+        if (lookupPool != null) lookupPool.shutdownNow();
     }
 
     Instant calculateNextAttempt(Instant now, int retryCount) {
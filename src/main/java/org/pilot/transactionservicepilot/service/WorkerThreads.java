@@ -0,0 +1,26 @@
+package org.pilot.transactionservicepilot.service;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads of the service's own workers (partitions, group-commit flushers, reprocess and warm-up pools).
+ * <p>
+ * With {@code spring.threads.virtual.enabled}, the switch Spring Boot also applies to Tomcat and the
+ * {@code @Scheduled} executor, they are virtual threads, which release their carrier while blocked on JDBC or
+ * Redis; otherwise named daemon platform threads. Pool sizes stay as configured in both modes, since they bound
+ * DB and Redis concurrency rather than thread cost.
+ */
+final class WorkerThreads {
+
+    private WorkerThreads() {
+    }
+
+    static Thread.Builder builder(boolean virtual) {
+        return virtual ? Thread.ofVirtual() : Thread.ofPlatform().daemon();
+    }
+
+    // threads named prefix0, prefix1, ...
+    static ThreadFactory factory(String prefix, boolean virtual) {
+        return builder(virtual).name(prefix, 0).factory();
+    }
+}
@@ -4,30 +4,38 @@ CREATE TABLE IF NOT EXISTS accounts (
   id BIGINT AUTO_INCREMENT PRIMARY KEY,
   account_number VARCHAR(64) NOT NULL UNIQUE,
   currency VARCHAR(3) NOT NULL,
-  balance DECIMAL(19,4) NOT NULL DEFAULT 0,
-  available_balance DECIMAL(19,4) NOT NULL DEFAULT 0,
+  balance DECIMAL(19,2) NOT NULL DEFAULT 0,
+  available_balance DECIMAL(19,2) NOT NULL DEFAULT 0,
   version BIGINT NOT NULL DEFAULT 0,
   status VARCHAR(16) DEFAULT 'ACTIVE',
   created_by VARCHAR(64),
   created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
   updated_by VARCHAR(64),
   updated_at TIMESTAMP NULL,
-  INDEX idx_accounts_account_number (account_number)
+  INDEX idx_accounts_account_number (account_number),
+  INDEX idx_accounts_updated_at (updated_at, id)
 );
 
 CREATE TABLE IF NOT EXISTS transactions (
-  id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  id BIGINT PRIMARY KEY, -- assigned by the service (time-ordered, see SnowflakeIdGenerator)
   tx_id VARCHAR(128) NOT NULL UNIQUE,
-  account_id BIGINT NOT NULL,
+  account_id BIGINT NULL, -- single-account transactions; transfers use the two columns below
+  source_account_id BIGINT NULL,
+  destination_account_id BIGINT NULL,
   type VARCHAR(16) NOT NULL,
-  amount DECIMAL(19,4) NOT NULL,
+  amount DECIMAL(19,2) NOT NULL,
   currency VARCHAR(3) NOT NULL,
   status VARCHAR(16) NOT NULL,
   created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
   processed_at TIMESTAMP NULL,
   error TEXT,
   retry_count INT DEFAULT 0,
+  next_attempt_at TIMESTAMP NULL,
+  lease_owner VARCHAR(128) NULL,
+  lease_until TIMESTAMP NULL,
   INDEX idx_transactions_account_id (account_id),
+  INDEX idx_transactions_retryable (status, next_attempt_at),
+  INDEX idx_transactions_lease_owner (lease_owner),
   INDEX idx_transactions_tx_id (tx_id),
   FOREIGN KEY (account_id) REFERENCES accounts(id)
 );
@@ -0,0 +1,53 @@
+-- Write-behind: apply a balance change directly in Redis and append it to the delta stream.
+-- KEYS: [1] streamKey, [2] markerKey, [3] balanceKey of the debited/credited account, [4] destination balanceKey
+--       (TRANSFER within one cluster slot only)
+-- ARGV: [1] type (DEBIT, CREDIT, TRANSFER or TRANSFER_CREDIT), [2] amount_cents, [3] txId, [4] markerTtlSeconds,
+--       [5] accountId, [6] destinationAccountId ('' unless TRANSFER), [7] currency, [8] timestamp (epoch millis)
+-- A TRANSFER without KEYS[4] is the source leg of a transfer across cluster slots: it debits the source and
+-- appends the TRANSFER entry; TRANSFER_CREDIT is its destination leg, credited without a stream entry.
+-- Returns {status, balance_cents_after}; status is OK, DUPLICATE, NO_ACCOUNT or INSUFFICIENT_FUNDS.
+local streamKey = KEYS[1]
+local markerKey = KEYS[2]
+local balanceKey = KEYS[3]
+local txType = ARGV[1]
+local amount = tonumber(ARGV[2])
+
+-- the marker is only written for applied deltas, so a retry returns the current balance
+if redis.call('EXISTS', markerKey) == 1 then
+  return {'DUPLICATE', redis.call('HGET', balanceKey, 'balance') or ''}
+end
+
+local available = tonumber(redis.call('HGET', balanceKey, 'available') or '-1')
+if available < 0 then
+  return {'NO_ACCOUNT', ''}
+end
+local toDestination = txType == 'TRANSFER' and #KEYS > 3
+if toDestination and tonumber(redis.call('HGET', KEYS[4], 'available') or '-1') < 0 then
+  return {'NO_ACCOUNT', ''}
+end
+
+local delta = amount
+if txType == 'DEBIT' or txType == 'TRANSFER' then
+  if available < amount then
+    return {'INSUFFICIENT_FUNDS', ''}
+  end
+  delta = -amount
+end
+
+redis.call('HINCRBY', balanceKey, 'available', delta)
+local newBalance = redis.call('HINCRBY', balanceKey, 'balance', delta)
+if toDestination then
+  redis.call('HINCRBY', KEYS[4], 'available', amount)
+  redis.call('HINCRBY', KEYS[4], 'balance', amount)
+end
+
+if txType == 'TRANSFER_CREDIT' then
+  redis.call('SET', markerKey, '1', 'EX', tonumber(ARGV[4]))
+  return {'OK', tostring(newBalance)}
+end
+
+redis.call('XADD', streamKey, '*', 'txId', ARGV[3], 'type', txType, 'accountId', ARGV[5],
+  'destinationAccountId', ARGV[6], 'amountCents', ARGV[2], 'currency', ARGV[7], 'ts', ARGV[8])
+redis.call('SET', markerKey, '1', 'EX', tonumber(ARGV[4]))
+
+return {'OK', tostring(newBalance)}
@@ -0,0 +1,20 @@
+-- Add amounts to cached balances that are still there: credits already persisted, or the undo of a fused change.
+-- KEYS: for each item i: [2i-1] balanceKey (hash), [2i] in-flight txIds of the account (zset)
+-- ARGV: for each item i: [2i-1] signed amount_cents added to balance and available, [2i] txId dropped from KEYS[2i]
+-- A bare HINCRBY on an evicted key would create a hash holding the amount alone, which later reads take for the
+-- balance. Such an item is skipped and reported, so the caller re-syncs the account from the DB.
+-- Returns the (1-based) numbers of the items whose balance was missing.
+local missing = {}
+
+for i = 1, #KEYS / 2 do
+  local balanceKey = KEYS[2 * i - 1]
+  if redis.call('EXISTS', balanceKey) == 1 then
+    redis.call('HINCRBY', balanceKey, 'available', ARGV[2 * i - 1])
+    redis.call('HINCRBY', balanceKey, 'balance', ARGV[2 * i - 1])
+  else
+    missing[#missing + 1] = i
+  end
+  redis.call('ZREM', KEYS[2 * i], ARGV[2 * i])
+end
+
+return missing
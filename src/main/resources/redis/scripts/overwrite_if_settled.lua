@@ -0,0 +1,16 @@
+-- Reconcile repair: overwrite a cached balance that disagrees with the DB, unless the account is busy.
+-- KEYS: [1] balanceKey (hash), [2] expiry index of the account (zset), [3] in-flight txIds of the account (zset)
+-- ARGV: [1] balance_cents and [2] available_cents last seen in Redis, [3] balance_cents and [4] available_cents
+--       from the DB
+-- Pending reservations and in-flight txIds are changes Redis legitimately holds ahead of the DB; a hash that
+-- changed since it was read was written by a transaction the DB values may not include yet. Both are left alone.
+-- Returns 1 when the hash was overwritten, 0 otherwise.
+if redis.call('ZCARD', KEYS[2]) > 0 or redis.call('ZCARD', KEYS[3]) > 0 then
+  return 0
+end
+local current = redis.call('HMGET', KEYS[1], 'balance', 'available')
+if current[1] ~= ARGV[1] or current[2] ~= ARGV[2] then
+  return 0
+end
+redis.call('HSET', KEYS[1], 'balance', ARGV[3], 'available', ARGV[4])
+return 1
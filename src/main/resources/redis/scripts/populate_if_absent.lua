@@ -0,0 +1,20 @@
+-- Read-through load: write the balance hash loaded from the DB unless Redis already holds the account.
+-- A hash without 'available' (left behind by an increment after the key expired) counts as absent.
+-- KEYS: [1] balanceKey (hash)
+-- ARGV: [1] balance_cents, [2] available_cents, [3] currency, [4] idle TTL seconds (0 keeps the key forever)
+-- Returns 1 when the hash was written, 0 when the account was already cached.
+local balanceKey = KEYS[1]
+local idleTtl = tonumber(ARGV[4])
+
+if redis.call('HEXISTS', balanceKey, 'available') == 1 then
+  return 0
+end
+
+redis.call('HSET', balanceKey, 'balance', ARGV[1], 'available', ARGV[2])
+if ARGV[3] ~= '' then
+  redis.call('HSET', balanceKey, 'currency', ARGV[3])
+end
+if idleTtl > 0 then
+  redis.call('EXPIRE', balanceKey, idleTtl)
+end
+return 1
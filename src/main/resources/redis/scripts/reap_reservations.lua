@@ -0,0 +1,49 @@
+-- Return the amounts of expired reservations of one account to its available balance, and hand back the in-flight
+-- txIds of the account that passed their deadline unconfirmed.
+-- KEYS: [1] expiry index of the account (zset), [2] reaped reservations of the account (zset),
+--       [3] balanceKey (hash), [4] due accounts (zset), [5] in-flight txIds of the account (zset)
+-- ARGV: [1] now (epoch ms), [2] max reservations (and max in-flight txIds) to reap, [3] the account's member in KEYS[4]
+--       (accountId, or accountId:slot for a stripe of a striped account), [4] how long reaped markers are kept (ms)
+-- Reaped reservations stay in KEYS[2] so a settle arriving after all leaves the returned amount alone. Expired in-flight
+-- txIds are removed; the caller checks them against the DB.
+-- Returns {number of reservations reaped, expired in-flight txId...}.
+local expired = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[2]))
+local cached = redis.call('EXISTS', KEYS[3]) == 1
+
+for _, member in ipairs(expired) do
+  local sep = string.find(member, ':', 1, true)
+  local amount = tonumber(string.sub(member, 1, sep - 1))
+  redis.call('ZREM', KEYS[1], member)
+  redis.call('ZADD', KEYS[2], ARGV[1], member)
+  -- an evicted balance is loaded back from the DB, which never saw the reservation
+  if cached then
+    redis.call('HINCRBY', KEYS[3], 'available', amount)
+  end
+end
+if #expired > 0 then
+  redis.call('ZREMRANGEBYSCORE', KEYS[2], '-inf', '(' .. (tonumber(ARGV[1]) - tonumber(ARGV[4])))
+  redis.call('PEXPIRE', KEYS[2], ARGV[4])
+end
+
+local result = {#expired}
+local unconfirmed = redis.call('ZRANGEBYSCORE', KEYS[5], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[2]))
+for _, txId in ipairs(unconfirmed) do
+  redis.call('ZREM', KEYS[5], txId)
+  result[#result + 1] = txId
+end
+
+-- reschedule the account at its next deadline, or drop it when nothing is pending
+local nextDue = nil
+for _, key in ipairs({KEYS[1], KEYS[5]}) do
+  local head = redis.call('ZRANGE', key, 0, 0, 'WITHSCORES')
+  if #head > 0 and (nextDue == nil or tonumber(head[2]) < tonumber(nextDue)) then
+    nextDue = head[2]
+  end
+end
+if nextDue == nil then
+  redis.call('ZREM', KEYS[4], ARGV[3])
+else
+  redis.call('ZADD', KEYS[4], nextDue, ARGV[3])
+end
+
+return result
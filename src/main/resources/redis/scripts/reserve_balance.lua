@@ -1,10 +1,12 @@
--- KEYS: [1] balanceKey (hash), [2] reservationKey
--- ARGV: [1] amount_cents, [2] txId, [3] reservationTtlSeconds
+-- KEYS: [1] balanceKey (hash), [2] reservationKey, [3] expiry index of the account (zset), [4] due accounts (zset)
+-- ARGV: [1] amount_cents, [2] txId, [3] reservationTtlSeconds, [4] accountId, [5] deadline (epoch ms),
+--       [6] optional idle TTL seconds of the balance key
 local balanceKey = KEYS[1]
 local reservationKey = KEYS[2]
 local amount = tonumber(ARGV[1])
 local txId = ARGV[2]
 local ttl = tonumber(ARGV[3])
+local idleTtl = tonumber(ARGV[6] or '0')
 
 local currentAvailable = tonumber(redis.call('HGET', balanceKey, 'available') or '-1')
 if currentAvailable < 0 then
@@ -16,7 +18,14 @@ end
 
 -- decrement available (integer cents) and write reservation
 redis.call('HINCRBY', balanceKey, 'available', -amount)
+if idleTtl > 0 then
+  redis.call('EXPIRE', balanceKey, idleTtl)
+end
 redis.call('HMSET', reservationKey, 'txId', txId, 'amount_cents', tostring(amount), 'balanceKey', balanceKey)
 redis.call('EXPIRE', reservationKey, ttl)
 
+-- index the deadline so the reaper returns the amount if neither commit nor rollback ever arrives
+redis.call('ZADD', KEYS[3], ARGV[5], tostring(amount) .. ':' .. txId)
+redis.call('ZADD', KEYS[4], 'LT', ARGV[5], ARGV[4])
+
 return {ok = 'OK'}
@@ -0,0 +1,42 @@
+-- KEYS: [1] due accounts (zset), then for each item i: [3i-1] balanceKey (hash), [3i] reservationKey,
+--       [3i+1] expiry index of the account (zset)
+-- ARGV: [1] reservationTtlSeconds, [2] deadline (epoch ms), then for each item i: [3i] amount_cents, [3i+1] txId,
+--       [3i+2] accountId, then optionally the idle TTL seconds of the balance keys
+-- Returns one status per item: OK, NO_ACCOUNT or INSUFFICIENT_FUNDS.
+-- Items are applied in order, so several reservations on the same account see each other's decrements.
+local ttl = tonumber(ARGV[1])
+local deadline = ARGV[2]
+local items = (#KEYS - 1) / 3
+local idleTtl = 0
+if #ARGV > 2 + 3 * items then
+  idleTtl = tonumber(ARGV[#ARGV])
+end
+local results = {}
+
+for i = 1, items do
+  local balanceKey = KEYS[3 * i - 1]
+  local reservationKey = KEYS[3 * i]
+  local indexKey = KEYS[3 * i + 1]
+  local amount = tonumber(ARGV[3 * i])
+  local txId = ARGV[3 * i + 1]
+  local accountId = ARGV[3 * i + 2]
+
+  local currentAvailable = tonumber(redis.call('HGET', balanceKey, 'available') or '-1')
+  if currentAvailable < 0 then
+    results[i] = 'NO_ACCOUNT'
+  elseif currentAvailable < amount then
+    results[i] = 'INSUFFICIENT_FUNDS'
+  else
+    redis.call('HINCRBY', balanceKey, 'available', -amount)
+    if idleTtl > 0 then
+      redis.call('EXPIRE', balanceKey, idleTtl)
+    end
+    redis.call('HMSET', reservationKey, 'txId', txId, 'amount_cents', tostring(amount), 'balanceKey', balanceKey)
+    redis.call('EXPIRE', reservationKey, ttl)
+    redis.call('ZADD', indexKey, deadline, tostring(amount) .. ':' .. txId)
+    redis.call('ZADD', KEYS[1], 'LT', deadline, accountId)
+    results[i] = 'OK'
+  end
+end
+
+return results
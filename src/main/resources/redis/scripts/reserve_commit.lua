@@ -0,0 +1,27 @@
+-- Fused reserve + commit: check funds and apply the change to balance and available in one call.
+-- KEYS: [1] balanceKey (hash), [2] in-flight txIds of the account (zset), [3] due accounts (zset)
+-- ARGV: [1] signed amount_cents (negative for a debit, positive for a credit), [2] txId, [3] deadline (epoch ms),
+--       [4] accountId, [5] optional idle TTL seconds of the balance key
+-- The txId stays in KEYS[2] until the caller confirms its DB commit or reverts the change. One still there after
+-- its deadline was applied by an instance that died in between; the reaper then checks it against the DB.
+-- Returns {status, balance_cents_after, available_cents_after}; status is OK, NO_ACCOUNT or INSUFFICIENT_FUNDS.
+local balanceKey = KEYS[1]
+local delta = tonumber(ARGV[1])
+local idleTtl = tonumber(ARGV[5] or '0')
+
+local available = tonumber(redis.call('HGET', balanceKey, 'available') or '-1')
+if available < 0 then
+  return {'NO_ACCOUNT', '', ''}
+end
+if delta < 0 and available < -delta then
+  return {'INSUFFICIENT_FUNDS', '', ''}
+end
+
+local availableAfter = redis.call('HINCRBY', balanceKey, 'available', delta)
+local balanceAfter = redis.call('HINCRBY', balanceKey, 'balance', delta)
+if idleTtl > 0 then
+  redis.call('EXPIRE', balanceKey, idleTtl)
+end
+redis.call('ZADD', KEYS[2], ARGV[3], ARGV[2])
+redis.call('ZADD', KEYS[3], 'LT', ARGV[3], ARGV[4])
+return {'OK', balanceAfter, availableAfter}
@@ -0,0 +1,29 @@
+-- Reserve on one slot of a striped (hot) account.
+-- KEYS: [1] slot balance key (hash), [2] slot reservation key, [3] expiry index of the slot (zset),
+--       [4] due accounts (zset), all with the hash tag of KEYS[1]
+-- ARGV: [1] amount_cents, [2] txId, [3] TTL seconds of the reservation part, [4] allowPartial ('1' = take what is
+--       available, up to amount), [5] deadline (epoch ms), [6] member of the slot in the due index (accountId:slot)
+-- Returns the reserved cents (0 when the slot cannot cover the request) or -1 when the slot is not cached.
+local available = tonumber(redis.call('HGET', KEYS[1], 'available') or '-1')
+if available < 0 then
+  return -1
+end
+local amount = tonumber(ARGV[1])
+local take = amount
+if available < amount then
+  if ARGV[4] ~= '1' then
+    return 0
+  end
+  take = available
+end
+if take > 0 then
+  redis.call('HINCRBY', KEYS[1], 'available', -take)
+  local total = redis.call('HINCRBY', KEYS[2], 'amount_cents', take)
+  redis.call('HSET', KEYS[2], 'txId', ARGV[2])
+  redis.call('EXPIRE', KEYS[2], tonumber(ARGV[3]))
+  -- index the part's deadline (member total_cents:txId) so the reaper returns it if it is never settled
+  redis.call('ZREM', KEYS[3], tostring(total - take) .. ':' .. ARGV[2])
+  redis.call('ZADD', KEYS[3], ARGV[5], tostring(total) .. ':' .. ARGV[2])
+  redis.call('ZADD', KEYS[4], 'LT', ARGV[5], ARGV[6])
+end
+return take
@@ -0,0 +1,43 @@
+-- Transfer: debit the source and credit the destination atomically and record one reservation for the txId.
+-- KEYS: [1] source balanceKey, [2] destination balanceKey, [3] reservationKey (hash-tagged with the source balanceKey),
+--       [4] in-flight txIds of the source (zset), [5] in-flight txIds of the destination (zset), [6] due accounts (zset)
+-- ARGV: [1] amount_cents, [2] txId, [3] reservationTtlSeconds, [4] sourceAccountId, [5] destinationAccountId,
+--       [6] deadline (epoch ms), [7] optional idle TTL seconds of the balance keys
+-- Both accounts keep the txId in flight until the DB commit is confirmed, as in reserve_commit.lua.
+-- Returns {status, source_balance_after, source_available_after};
+-- status is OK, DUPLICATE (txId already applied), NO_ACCOUNT or INSUFFICIENT_FUNDS.
+-- All keys must live in one cluster slot; BalanceManager only calls this script when they do.
+local srcKey = KEYS[1]
+local dstKey = KEYS[2]
+local reservationKey = KEYS[3]
+local amount = tonumber(ARGV[1])
+local idleTtl = tonumber(ARGV[7] or '0')
+
+if redis.call('EXISTS', reservationKey) == 1 then
+  return {'DUPLICATE', redis.call('HGET', srcKey, 'balance') or '', redis.call('HGET', srcKey, 'available') or ''}
+end
+
+local available = tonumber(redis.call('HGET', srcKey, 'available') or '-1')
+if available < 0 or redis.call('HEXISTS', dstKey, 'available') == 0 then
+  return {'NO_ACCOUNT', '', ''}
+end
+if available < amount then
+  return {'INSUFFICIENT_FUNDS', '', ''}
+end
+
+local availableAfter = redis.call('HINCRBY', srcKey, 'available', -amount)
+local balanceAfter = redis.call('HINCRBY', srcKey, 'balance', -amount)
+redis.call('HINCRBY', dstKey, 'available', amount)
+redis.call('HINCRBY', dstKey, 'balance', amount)
+if idleTtl > 0 then
+  redis.call('EXPIRE', srcKey, idleTtl)
+  redis.call('EXPIRE', dstKey, idleTtl)
+end
+redis.call('HSET', reservationKey, 'txId', ARGV[2], 'amount_cents', tostring(amount),
+  'sourceAccountId', ARGV[4], 'destinationAccountId', ARGV[5], 'state', 'APPLIED')
+redis.call('EXPIRE', reservationKey, tonumber(ARGV[3]))
+redis.call('ZADD', KEYS[4], ARGV[6], ARGV[2])
+redis.call('ZADD', KEYS[5], ARGV[6], ARGV[2])
+redis.call('ZADD', KEYS[6], 'LT', ARGV[6], ARGV[4])
+redis.call('ZADD', KEYS[6], 'LT', ARGV[6], ARGV[5])
+return {'OK', balanceAfter, availableAfter}
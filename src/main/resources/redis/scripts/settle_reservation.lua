@@ -0,0 +1,38 @@
+-- Commit or roll back reservations made by reserve_balance(_batch).lua.
+-- KEYS: for each item i: [4i-3] balanceKey (hash), [4i-2] reservationKey, [4i-1] expiry index of the account (zset),
+--       [4i] reaped reservations of the account (zset)
+-- ARGV: [1] 'commit' (balance -= amount) or 'rollback' (available += amount),
+--       then for each item i: [2i] amount_cents, [2i+1] txId
+-- A reservation the reaper already expired has had its amount returned to available, which other reservations may
+-- have taken since: a late commit leaves the cached balance alone and reports the item GONE so the caller re-syncs
+-- the account, as it does for a commit of a reservation Redis no longer knows. A late rollback changes nothing.
+-- Returns the (1-based) numbers of the GONE items.
+local commit = ARGV[1] == 'commit'
+local gone = {}
+
+for i = 1, #KEYS / 4 do
+  local balanceKey = KEYS[4 * i - 3]
+  local reservationKey = KEYS[4 * i - 2]
+  local amount = tonumber(ARGV[2 * i])
+  local member = ARGV[2 * i] .. ':' .. ARGV[2 * i + 1]
+
+  local held = redis.call('ZREM', KEYS[4 * i - 1], member) == 1
+  local reaped = redis.call('ZREM', KEYS[4 * i], member) == 1
+  -- the second case is a reservation made before the expiry index existed
+  local pending = held or (not reaped and redis.call('EXISTS', reservationKey) == 1)
+  -- an evicted balance is loaded back from the DB, which already reflects the outcome
+  if redis.call('EXISTS', balanceKey) == 1 then
+    if not pending then
+      if commit then
+        gone[#gone + 1] = i
+      end
+    elseif commit then
+      redis.call('HINCRBY', balanceKey, 'balance', -amount)
+    else
+      redis.call('HINCRBY', balanceKey, 'available', amount)
+    end
+  end
+  redis.call('DEL', reservationKey)
+end
+
+return gone
@@ -0,0 +1,27 @@
+-- Commit or roll back the part of a striped reservation held by one slot.
+-- KEYS: [1] slot balance key (hash), [2] slot reservation key, [3] expiry index of the slot (zset),
+--       [4] reaped reservations of the slot (zset), all with the hash tag of KEYS[1]
+-- ARGV: [1] 'commit' (balance -= reserved) or 'rollback' (available += reserved), [2] txId
+-- A part the reaper already returned to available is left alone (a commit of it reports GONE so the caller re-syncs
+-- the account), and so is a part Redis no longer knows, reported as NONE: the caller cannot tell which slots it
+-- borrowed from.
+-- Returns {OK, GONE or NONE, comma separated sibling slots this reservation borrowed from ('' when none)}.
+if redis.call('EXISTS', KEYS[2]) == 0 then
+  return {'NONE', ''}
+end
+local taken = tonumber(redis.call('HGET', KEYS[2], 'amount_cents') or '0')
+local borrowed = redis.call('HGET', KEYS[2], 'borrowed') or ''
+redis.call('DEL', KEYS[2])
+local member = tostring(taken) .. ':' .. ARGV[2]
+redis.call('ZREM', KEYS[3], member)
+if redis.call('ZREM', KEYS[4], member) == 1 then
+  return {ARGV[1] == 'commit' and 'GONE' or 'OK', borrowed}
+end
+if taken > 0 then
+  if ARGV[1] == 'commit' then
+    redis.call('HINCRBY', KEYS[1], 'balance', -taken)
+  else
+    redis.call('HINCRBY', KEYS[1], 'available', taken)
+  end
+end
+return {'OK', borrowed}
@@ -0,0 +1,35 @@
+-- Source leg of a transfer whose accounts live in different cluster slots: debit the source and record
+-- the reservation next to it with state CREDIT_PENDING until BalanceManager has credited the destination.
+-- KEYS: [1] source balanceKey, [2] reservationKey (hash-tagged with the source balanceKey),
+--       [3] in-flight txIds of the source (zset), [4] due accounts (zset)
+-- ARGV: [1] amount_cents, [2] txId, [3] reservationTtlSeconds, [4] sourceAccountId, [5] destinationAccountId,
+--       [6] deadline (epoch ms), [7] optional idle TTL seconds of the source balance key
+-- Returns {status, source_balance_after, source_available_after}; status as in reserve_transfer.lua.
+local srcKey = KEYS[1]
+local reservationKey = KEYS[2]
+local amount = tonumber(ARGV[1])
+local idleTtl = tonumber(ARGV[7] or '0')
+
+if redis.call('EXISTS', reservationKey) == 1 then
+  return {'DUPLICATE', redis.call('HGET', srcKey, 'balance') or '', redis.call('HGET', srcKey, 'available') or ''}
+end
+
+local available = tonumber(redis.call('HGET', srcKey, 'available') or '-1')
+if available < 0 then
+  return {'NO_ACCOUNT', '', ''}
+end
+if available < amount then
+  return {'INSUFFICIENT_FUNDS', '', ''}
+end
+
+local availableAfter = redis.call('HINCRBY', srcKey, 'available', -amount)
+local balanceAfter = redis.call('HINCRBY', srcKey, 'balance', -amount)
+if idleTtl > 0 then
+  redis.call('EXPIRE', srcKey, idleTtl)
+end
+redis.call('HSET', reservationKey, 'txId', ARGV[2], 'amount_cents', tostring(amount),
+  'sourceAccountId', ARGV[4], 'destinationAccountId', ARGV[5], 'state', 'CREDIT_PENDING')
+redis.call('EXPIRE', reservationKey, tonumber(ARGV[3]))
+redis.call('ZADD', KEYS[3], ARGV[6], ARGV[2])
+redis.call('ZADD', KEYS[4], 'LT', ARGV[6], ARGV[4])
+return {'OK', balanceAfter, availableAfter}
@@ -6,11 +6,16 @@ import org.pilot.transactionservicepilot.dto.TransactionRequest;
 import org.pilot.transactionservicepilot.dto.TransactionResponse;
 import org.pilot.transactionservicepilot.entity.Account;
 import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.service.AccountMetadataCache;
 import org.pilot.transactionservicepilot.service.BalanceManager;
+import org.pilot.transactionservicepilot.service.BatchTransactionService;
+import org.pilot.transactionservicepilot.service.ConcurrencyLimiter;
 import org.pilot.transactionservicepilot.service.TransactionService;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -22,6 +27,7 @@ public class TransactionControllerTest {
     TransactionService transactionService;
     AccountRepository accountRepository;
     BalanceManager balanceManager;
+    BatchTransactionService batchTransactionService;
     TransactionController controller;
 
     @BeforeEach
@@ -29,7 +35,9 @@ public class TransactionControllerTest {
         transactionService = mock(TransactionService.class);
         accountRepository = mock(AccountRepository.class);
         balanceManager = mock(BalanceManager.class);
-        controller = new TransactionController(transactionService, accountRepository, balanceManager);
+        batchTransactionService = mock(BatchTransactionService.class);
+        when(batchTransactionService.getMaxBatchSize()).thenReturn(2);
+        controller = new TransactionController(transactionService, accountRepository, balanceManager, batchTransactionService, null, new AccountMetadataCache(accountRepository), null);
     }
 
     @Test
@@ -50,6 +58,30 @@ public class TransactionControllerTest {
         assertThat(controller.postTransaction(req).getStatusCode().value()).isEqualTo(400);
     }
 
+    @Test
+    void postTransaction_returns_service_unavailable_when_the_write_behind_cache_is_down() {
+        TransactionRequest req = new TransactionRequest(); req.setTxId("t2b");
+        when(transactionService.process(req)).thenReturn(new TransactionResponse("t2b", "FAILED", null, TransactionService.CACHE_UNAVAILABLE));
+        assertThat(controller.postTransaction(req).getStatusCode().value()).isEqualTo(503);
+    }
+
+    @Test
+    void postTransactionBatch_returns_per_item_results_and_rejects_bad_sizes() {
+        TransactionRequest r1 = new TransactionRequest(); r1.setTxId("b1");
+        TransactionRequest r2 = new TransactionRequest(); r2.setTxId("b2");
+        List<TransactionResponse> out = List.of(new TransactionResponse("b1", "COMMITTED", new BigDecimal("1.00"), null),
+                new TransactionResponse("b2", "FAILED", null, "Insufficient funds"));
+        when(batchTransactionService.processBatch(List.of(r1, r2))).thenReturn(out);
+
+        ResponseEntity<List<TransactionResponse>> r = controller.postTransactionBatch(List.of(r1, r2));
+        assertThat(r.getStatusCode().value()).isEqualTo(200);
+        assertThat(r.getBody()).hasSize(2);
+        assertThat(r.getBody().get(1).getError()).isEqualTo("Insufficient funds");
+
+        assertThat(controller.postTransactionBatch(List.of()).getStatusCode().value()).isEqualTo(400);
+        assertThat(controller.postTransactionBatch(List.of(r1, r2, new TransactionRequest())).getStatusCode().value()).isEqualTo(400);
+    }
+
     @Test
     void getBalance_prefers_cache_then_db_and_notfound() {
         Long id = 10L;
@@ -75,4 +107,44 @@ public class TransactionControllerTest {
         ResponseEntity<?> r3 = controller.getBalance(id);
         assertThat(r3.getStatusCode().value()).isEqualTo(404);
     }
+
+    @Test
+    void getBalance_keeps_the_cached_balance_when_the_currency_lookup_fails() {
+        Long id = 11L;
+        when(balanceManager.getBalance(id)).thenReturn(new BigDecimal("5.00"));
+        when(balanceManager.getAvailable(id)).thenReturn(new BigDecimal("2.00"));
+        when(accountRepository.findById(id)).thenThrow(new RuntimeException("db down"));
+
+        ResponseEntity<?> r = controller.getBalance(id);
+
+        assertThat(r.getStatusCode().value()).isEqualTo(200);
+        Map<String, Object> body = (Map<String, Object>) r.getBody();
+        assertThat(body.get("balance")).isEqualTo(new BigDecimal("5.00"));
+        assertThat(body.get("currency")).isNull();
+    }
+
+    @Test
+    void requests_above_the_concurrency_limit_get_429_with_retry_after() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(null);
+        ReflectionTestUtils.setField(limiter, "minLimit", 1);
+        ReflectionTestUtils.setField(limiter, "writeInitialLimit", 1);
+        ReflectionTestUtils.setField(limiter, "readInitialLimit", 1);
+        limiter.start();
+        controller.setLimiter(limiter);
+        TransactionRequest req = new TransactionRequest(); req.setTxId("t3");
+        when(transactionService.process(req)).thenReturn(new TransactionResponse("t3", "COMMITTED", new BigDecimal("1.00"), null));
+
+        ConcurrencyLimiter.Permit held = limiter.tryAcquireWrite();
+        ResponseEntity<TransactionResponse> rejected = controller.postTransaction(req);
+        assertThat(rejected.getStatusCode().value()).isEqualTo(429);
+        assertThat(rejected.getHeaders().getFirst("Retry-After")).isEqualTo("1");
+        verify(transactionService, never()).process(req);
+
+        // reads have their own limit
+        when(accountRepository.findById(11L)).thenReturn(Optional.empty());
+        assertThat(controller.getBalance(11L).getStatusCode().value()).isEqualTo(404);
+
+        held.close();
+        assertThat(controller.postTransaction(req).getStatusCode().value()).isEqualTo(200);
+    }
 }
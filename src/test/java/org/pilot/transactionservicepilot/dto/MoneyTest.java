@@ -0,0 +1,47 @@
+package org.pilot.transactionservicepilot.dto;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MoneyTest {
+
+    @Test
+    void exact_cents_accepts_whole_cents_at_any_scale_and_rejects_sub_cent_digits() {
+        assertThat(Money.exactCents(new BigDecimal("12.34"))).isEqualTo(1234L);
+        assertThat(Money.exactCents(new BigDecimal("7"))).isEqualTo(700L);
+        assertThat(Money.exactCents(new BigDecimal("0.5"))).isEqualTo(50L);
+        // DB values carry trailing zeros
+        assertThat(Money.exactCents(new BigDecimal("100.0000"))).isEqualTo(10000L);
+
+        assertThat(Money.exactCents(new BigDecimal("10.005"))).isEqualTo(Money.INVALID);
+        assertThat(Money.exactCents(new BigDecimal("1e30"))).isEqualTo(Money.INVALID);
+        assertThat(Money.exactCents(null)).isEqualTo(Money.INVALID);
+    }
+
+    @Test
+    void stored_values_round_and_redis_replies_convert_back_at_scale_two() {
+        assertThat(Money.toCents(new BigDecimal("10.005"))).isEqualTo(1001L);
+        assertThat(Money.fromCents(1234L)).isEqualTo(new BigDecimal("12.34"));
+        assertThat(Money.fromCents((Object) "-250")).isEqualTo(new BigDecimal("-2.50"));
+        assertThat(Money.fromCents((Object) 5L)).isEqualTo(new BigDecimal("0.05"));
+        assertThat(Money.fromCents((Object) "12.34")).isNull();
+    }
+
+    @Test
+    void request_converts_its_amount_once_and_validates_it() {
+        TransactionRequest req = new TransactionRequest();
+        assertThat(req.isAmountValid()).isFalse();
+
+        req.setAmount(new BigDecimal("25.10"));
+        assertThat(req.getAmountCents()).isEqualTo(2510L);
+        assertThat(req.isAmountValid()).isTrue();
+
+        req.setAmount(new BigDecimal("0.001"));
+        assertThat(req.isAmountValid()).isFalse();
+        req.setAmount(new BigDecimal("-1.00"));
+        assertThat(req.isAmountValid()).isFalse();
+    }
+}
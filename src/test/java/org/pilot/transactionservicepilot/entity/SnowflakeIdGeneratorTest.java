@@ -0,0 +1,78 @@
+package org.pilot.transactionservicepilot.entity;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SnowflakeIdGeneratorTest {
+
+    @Test
+    void ids_carry_worker_and_timestamp_and_increase_even_when_the_clock_steps_back() {
+        AtomicLong clock = new AtomicLong(SnowflakeIdGenerator.EPOCH_MILLIS + 1_000);
+        SnowflakeIdGenerator gen = new SnowflakeIdGenerator(37, clock::get);
+
+        long first = gen.nextId();
+        assertThat(SnowflakeIdGenerator.workerIdOf(first)).isEqualTo(37);
+        assertThat(SnowflakeIdGenerator.timestampOf(first)).isEqualTo(SnowflakeIdGenerator.EPOCH_MILLIS + 1_000);
+
+        clock.addAndGet(-500);
+        long second = gen.nextId();
+        clock.addAndGet(1_000);
+        long third = gen.nextId();
+        assertThat(second).isGreaterThan(first);
+        assertThat(third).isGreaterThan(second);
+        assertThat(SnowflakeIdGenerator.timestampOf(third)).isEqualTo(SnowflakeIdGenerator.EPOCH_MILLIS + 1_500);
+    }
+
+    @Test
+    void sequence_overflow_borrows_the_next_millisecond() {
+        SnowflakeIdGenerator gen = new SnowflakeIdGenerator(1, () -> SnowflakeIdGenerator.EPOCH_MILLIS + 10);
+        long last = 0;
+        for (int i = 0; i < 5000; i++) {
+            long id = gen.nextId();
+            assertThat(id).isGreaterThan(last);
+            last = id;
+        }
+        assertThat(SnowflakeIdGenerator.timestampOf(last)).isEqualTo(SnowflakeIdGenerator.EPOCH_MILLIS + 11);
+        assertThat(SnowflakeIdGenerator.workerIdOf(last)).isEqualTo(1);
+    }
+
+    @Test
+    void concurrent_callers_never_get_the_same_id() throws Exception {
+        SnowflakeIdGenerator gen = new SnowflakeIdGenerator(5);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        int threads = 8;
+        int perThread = 20_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) ids.add(gen.nextId());
+                return null;
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+        assertThat(ids).hasSize(threads * perThread);
+    }
+
+    @Test
+    void worker_id_comes_from_the_pod_ordinal_or_a_bounded_hash() {
+        assertThat(SnowflakeIdGenerator.deriveWorkerId("transaction-service-12")).isEqualTo(12);
+        assertThat(SnowflakeIdGenerator.deriveWorkerId("transaction-service-7d9f8-x2k4q"))
+                .isBetween(0, SnowflakeIdGenerator.MAX_WORKER_ID);
+        assertThatThrownBy(() -> new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_WORKER_ID + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -1,13 +1,19 @@
 package org.pilot.transactionservicepilot.integration;
 
+import org.pilot.transactionservicepilot.dto.Money;
 import org.pilot.transactionservicepilot.service.BalanceManager;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Component
 @Primary
@@ -65,6 +71,91 @@ public class InMemoryBalanceManager extends BalanceManager {
         map.remove("reservation:" + txId);
     }
 
+    @Override
+    public AppliedBalance reserveAndCommit(Long accountId, long cents, boolean debit, String txId) {
+        Map<String, String> map = store.computeIfAbsent("balance:" + accountId, k -> new HashMap<>());
+        String avail = map.get("available");
+        if (avail == null) return new AppliedBalance(ReserveResult.NO_ACCOUNT, null, null);
+        long delta = debit ? -cents : cents;
+        if (debit && Long.parseLong(avail) < cents) return new AppliedBalance(ReserveResult.INSUFFICIENT_FUNDS, null, null);
+        String bal = map.get("balance");
+        long b = (bal == null ? 0L : Long.parseLong(bal)) + delta;
+        long a = Long.parseLong(avail) + delta;
+        map.put("balance", String.valueOf(b));
+        map.put("available", String.valueOf(a));
+        return new AppliedBalance(ReserveResult.OK, Money.fromCents(b), Money.fromCents(a));
+    }
+
+    @Override
+    public void revert(Long accountId, long cents, boolean debit, String txId) {
+        Map<String, String> map = store.computeIfAbsent("balance:" + accountId, k -> new HashMap<>());
+        long delta = debit ? cents : -cents;
+        String bal = map.get("balance");
+        String avail = map.get("available");
+        map.put("balance", String.valueOf((bal == null ? 0L : Long.parseLong(bal)) + delta));
+        map.put("available", String.valueOf((avail == null ? 0L : Long.parseLong(avail)) + delta));
+    }
+
+    @Override
+    public AppliedDelta reserveTransfer(Long sourceAccountId, Long destinationAccountId, long cents, String txId) {
+        if (getBalance(destinationAccountId) == null) return new AppliedDelta(ReserveResult.NO_ACCOUNT, null, false);
+        AppliedBalance debited = reserveAndCommit(sourceAccountId, cents, true, txId);
+        if (debited.result() != ReserveResult.OK) return new AppliedDelta(debited.result(), null, false);
+        reserveAndCommit(destinationAccountId, cents, false, txId);
+        return new AppliedDelta(ReserveResult.OK, debited.balance(), false);
+    }
+
+    @Override
+    public void revertTransfer(Long sourceAccountId, Long destinationAccountId, long cents, String txId) {
+        revert(sourceAccountId, cents, true, txId);
+        revert(destinationAccountId, cents, false, txId);
+    }
+
+    // changes here cannot outlive a dead instance, so there is nothing to confirm
+    @Override
+    public void confirmApplied(Collection<Long> accountIds, String txId) {
+    }
+
+    @Override
+    public List<ReserveResult> reserveBatch(List<Reservation> reservations) {
+        List<ReserveResult> results = new ArrayList<>();
+        for (Reservation r : reservations) {
+            results.add(reserve(r.accountId(), Money.fromCents(r.amountCents()), r.txId()));
+        }
+        return results;
+    }
+
+    @Override
+    public void commitBatch(List<Reservation> reservations) {
+        for (Reservation r : reservations) {
+            commit(r.accountId(), Money.fromCents(r.amountCents()), r.txId());
+        }
+    }
+
+    @Override
+    public void rollbackBatch(List<Reservation> reservations) {
+        for (Reservation r : reservations) {
+            rollback(r.accountId(), Money.fromCents(r.amountCents()), r.txId());
+        }
+    }
+
+    // reservations here never expire, so there is nothing to reap
+    @Override
+    public int reapExpiredReservations(int maxAccounts, int maxPerAccount) {
+        return 0;
+    }
+
+    @Override
+    public void creditBatch(List<Reservation> credits) {
+        for (Reservation r : credits) {
+            Map<String, String> map = store.computeIfAbsent("balance:" + r.accountId(), k -> new HashMap<>());
+            String bal = map.get("balance");
+            String avail = map.get("available");
+            map.put("balance", String.valueOf(toCents((bal == null ? BigDecimal.ZERO : fromCents(bal)).add(Money.fromCents(r.amountCents())))));
+            map.put("available", String.valueOf(toCents((avail == null ? BigDecimal.ZERO : fromCents(avail)).add(Money.fromCents(r.amountCents())))));
+        }
+    }
+
     @Override
     public BigDecimal getBalance(Long accountId) {
         String key = "balance:" + accountId;
@@ -82,4 +173,43 @@ public class InMemoryBalanceManager extends BalanceManager {
         if (available != null) map.put("available", String.valueOf(toCents(available)));
         if (currency != null) map.put("currency", currency);
     }
+
+    @Override
+    public Map<Long, CachedBalance> getCachedBalances(List<Long> accountIds) {
+        Map<Long, CachedBalance> result = new HashMap<>();
+        for (Long id : accountIds) {
+            Map<String, String> map = store.get("balance:" + id);
+            if (map == null || map.get("balance") == null || map.get("available") == null) continue;
+            result.put(id, new CachedBalance(id, Long.parseLong(map.get("balance")), Long.parseLong(map.get("available")), map.get("currency")));
+        }
+        return result;
+    }
+
+    // no reservation may be pending and the entry must still hold the values seen, as in overwrite_if_settled.lua
+    @Override
+    public boolean overwriteIfSettled(CachedBalance seen, CachedBalance db) {
+        Map<String, String> map = store.get("balance:" + seen.accountId());
+        if (map == null || map.keySet().stream().anyMatch(k -> k.startsWith("reservation:"))) return false;
+        if (!String.valueOf(seen.balanceCents()).equals(map.get("balance"))
+                || !String.valueOf(seen.availableCents()).equals(map.get("available"))) return false;
+        map.put("balance", String.valueOf(db.balanceCents()));
+        map.put("available", String.valueOf(db.availableCents()));
+        return true;
+    }
+
+    @Override
+    public Set<Long> presentInCache(List<Long> accountIds) {
+        Set<Long> present = new HashSet<>();
+        for (Long id : accountIds) {
+            if (store.containsKey("balance:" + id)) present.add(id);
+        }
+        return present;
+    }
+
+    @Override
+    public void populateBalances(List<CachedBalance> entries) {
+        for (CachedBalance e : entries) {
+            populateBalance(e.accountId(), Money.fromCents(e.balanceCents()), Money.fromCents(e.availableCents()), e.currency());
+        }
+    }
 }
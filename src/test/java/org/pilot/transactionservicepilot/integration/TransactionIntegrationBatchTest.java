@@ -0,0 +1,100 @@
+package org.pilot.transactionservicepilot.integration;
+
+import org.junit.jupiter.api.Test;
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+import org.pilot.transactionservicepilot.entity.Account;
+import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.repository.TransactionRepository;
+import org.pilot.transactionservicepilot.service.BalanceManager;
+import org.pilot.transactionservicepilot.service.BatchTransactionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class TransactionIntegrationBatchTest {
+
+    @Autowired
+    private BatchTransactionService batchTransactionService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private BalanceManager balanceManager;
+
+    @Test
+    void integrationBatchFlow() {
+        transactionRepository.deleteAll();
+        accountRepository.deleteAll();
+
+        Account a = newAccount("acct-batch-a", "100.00");
+        Account b = newAccount("acct-batch-b", "20.00");
+
+        List<TransactionRequest> batch = List.of(
+                request("btx-1", a.getId(), null, null, "DEBIT", "30.00"),
+                request("btx-2", b.getId(), null, null, "CREDIT", "5.00"),
+                request("btx-3", null, a.getId(), b.getId(), "TRANSFER", "50.00"),
+                request("btx-4", a.getId(), null, null, "DEBIT", "40.00"), // only 20.00 left after 1 and 3
+                request("btx-1", a.getId(), null, null, "DEBIT", "30.00"), // duplicate of the first item
+                request("btx-5", 999999L, null, null, "DEBIT", "1.00"));
+
+        List<TransactionResponse> res = batchTransactionService.processBatch(batch);
+
+        assertEquals(6, res.size());
+        assertEquals("COMMITTED", res.get(0).getStatus());
+        assertEquals("COMMITTED", res.get(1).getStatus());
+        assertEquals("COMMITTED", res.get(2).getStatus());
+        assertEquals("FAILED", res.get(3).getStatus());
+        assertEquals("Insufficient funds", res.get(3).getError());
+        assertSame(res.get(0), res.get(4));
+        assertEquals("Account not found", res.get(5).getError());
+
+        Account afterA = accountRepository.findById(a.getId()).orElseThrow();
+        Account afterB = accountRepository.findById(b.getId()).orElseThrow();
+        assertEquals(0, afterA.getBalance().compareTo(new BigDecimal("20.00")));
+        assertEquals(0, afterB.getBalance().compareTo(new BigDecimal("75.00")));
+        assertEquals(0, balanceManager.getBalance(b.getId()).compareTo(new BigDecimal("75.00")));
+
+        assertEquals("COMMITTED", transactionRepository.findByTxId("btx-3").orElseThrow().getStatus());
+        assertTrue(transactionRepository.findByTxId("btx-4").isEmpty());
+
+        // a replayed batch is answered from the stored records without touching balances
+        List<TransactionResponse> replay = batchTransactionService.processBatch(batch.subList(0, 3));
+        assertTrue(replay.stream().allMatch(r -> "COMMITTED".equals(r.getStatus())));
+        assertEquals(0, accountRepository.findById(a.getId()).orElseThrow().getBalance().compareTo(new BigDecimal("20.00")));
+    }
+
+    private Account newAccount(String number, String balance) {
+        Account acc = new Account();
+        acc.setAccountNumber(number);
+        acc.setCurrency("USD");
+        acc.setBalance(new BigDecimal(balance));
+        acc.setAvailableBalance(new BigDecimal(balance));
+        Account saved = accountRepository.save(acc);
+        balanceManager.populateBalance(saved.getId(), saved.getBalance(), saved.getAvailableBalance(), saved.getCurrency());
+        return saved;
+    }
+
+    private TransactionRequest request(String txId, Long accountId, Long src, Long dst, String type, String amount) {
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId(txId);
+        req.setAccountId(accountId);
+        req.setSourceAccountId(src);
+        req.setDestinationAccountId(dst);
+        req.setType(type);
+        req.setAmount(new BigDecimal(amount));
+        req.setCurrency("USD");
+        return req;
+    }
+}
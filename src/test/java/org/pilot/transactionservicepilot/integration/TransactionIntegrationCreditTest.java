@@ -7,12 +7,14 @@ import org.pilot.transactionservicepilot.entity.Account;
 import org.pilot.transactionservicepilot.repository.AccountRepository;
 import org.pilot.transactionservicepilot.repository.TransactionRepository;
 import org.pilot.transactionservicepilot.service.BalanceManager;
+import org.pilot.transactionservicepilot.service.SyncScheduler;
 import org.pilot.transactionservicepilot.service.TransactionService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -32,6 +34,9 @@ public class TransactionIntegrationCreditTest {
     @Autowired
     private BalanceManager balanceManager;
 
+    @Autowired
+    private SyncScheduler syncScheduler;
+
     @Test
     void integrationCreditFlow() {
         // clean
@@ -61,4 +66,36 @@ public class TransactionIntegrationCreditTest {
         Account after = accountRepository.findById(saved.getId()).orElseThrow();
         assertEquals(0, after.getBalance().compareTo(new BigDecimal("150.00")));
     }
+
+    @Test
+    void credit_raises_available_in_the_db_so_reconcile_keeps_the_cached_funds() {
+        transactionRepository.deleteAll();
+        accountRepository.deleteAll();
+
+        Account a = new Account();
+        a.setAccountNumber("acct-c-200");
+        a.setCurrency("USD");
+        a.setBalance(new BigDecimal("100.00"));
+        a.setAvailableBalance(new BigDecimal("100.00"));
+        Account saved = accountRepository.save(a);
+        balanceManager.populateBalance(saved.getId(), saved.getBalance(), saved.getAvailableBalance(), saved.getCurrency());
+
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("itx-credit-2");
+        req.setAccountId(saved.getId());
+        req.setType("CREDIT");
+        req.setAmount(new BigDecimal("50.00"));
+        req.setCurrency("USD");
+        assertEquals("COMMITTED", transactionService.process(req).getStatus());
+
+        Account after = accountRepository.findById(saved.getId()).orElseThrow();
+        assertEquals(0, after.getAvailableBalance().compareTo(new BigDecimal("150.00")));
+
+        // two checks in a row would overwrite a cached entry that differs from the DB
+        syncScheduler.reconcile();
+        syncScheduler.reconcile();
+        BalanceManager.CachedBalance cached = balanceManager.getCachedBalances(List.of(saved.getId())).get(saved.getId());
+        assertEquals(15000L, cached.balanceCents());
+        assertEquals(15000L, cached.availableCents());
+    }
 }
@@ -0,0 +1,142 @@
+package org.pilot.transactionservicepilot.perf;
+
+import org.junit.jupiter.api.Test;
+import org.pilot.transactionservicepilot.entity.Account;
+import org.pilot.transactionservicepilot.perf.load.LoadTarget;
+import org.pilot.transactionservicepilot.perf.load.OpenLoopDriver;
+import org.pilot.transactionservicepilot.perf.load.Workload;
+import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.service.BalanceManager;
+import org.pilot.transactionservicepilot.service.TransactionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestPropertySource(properties = "spring.profiles.active=${perf.profile:local}")
+public class OpenModelLoadTest {
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private BalanceManager balanceManager;
+
+    @Value("${local.server.port:0}")
+    private int port;
+
+    /**
+     * Open-model load run: requests arrive at a fixed rate, latencies are recorded from their intended start into
+     * HDR histograms (see OpenLoopDriver), so they are free of coordinated omission.
+     * System properties (optional):
+     *  - perf.profile (default local)
+     *  - perf.target (default service) service calls TransactionService.process, http posts to /v1/transactions
+     *  - perf.baseUrl (default this test's server) for perf.target=http, e.g. a deployed instance whose accounts
+     *    are seeded separately (then also set perf.accountIds)
+     *  - perf.accountIds (default: perf.accounts new accounts) comma-separated ids or a range such as 1-1000
+     *  - perf.rate (default 200) requests per second
+     *  - perf.durationSec (default 10), perf.warmupSec (default 2) warm-up at the same rate, not reported
+     *  - perf.accounts (default 200) accounts created for the run
+     *  - perf.zipf (default 0.99) Zipfian exponent of the account choice, 0 for uniform
+     *  - perf.hotAccounts (default 5), perf.hotShare (default 0.2) share of picks that go to the hot accounts
+     *  - perf.mix (default debit=50,credit=30,transfer=10,cycle=5,duplicate=5)
+     *  - perf.maxInFlight (default 10000) outstanding requests beyond which new ones are dropped
+     *  - perf.seed (default 42)
+     *
+     * Writes target/perf-results/load-latest.json (the perf summary shape, with percentiles; convert it with
+     * tools/generate_perf_report_from_json.py) and the full response- and service-time distributions as
+     * load-latest.hgrm and load-latest-service-time.hgrm.
+     */
+    @Test
+    public void openModelLoad() throws Exception {
+        String targetMode = System.getProperty("perf.target", "service");
+        double rate = Double.parseDouble(System.getProperty("perf.rate", "200"));
+        long durationSec = Long.parseLong(System.getProperty("perf.durationSec", "10"));
+        long warmupSec = Long.parseLong(System.getProperty("perf.warmupSec", "2"));
+        int accountCount = Integer.parseInt(System.getProperty("perf.accounts", "200"));
+        double zipf = Double.parseDouble(System.getProperty("perf.zipf", "0.99"));
+        int hotAccounts = Integer.parseInt(System.getProperty("perf.hotAccounts", "5"));
+        double hotShare = Double.parseDouble(System.getProperty("perf.hotShare", "0.2"));
+        Workload.Mix mix = Workload.Mix.parse(System.getProperty("perf.mix", "debit=50,credit=30,transfer=10,cycle=5,duplicate=5"));
+        int maxInFlight = Integer.parseInt(System.getProperty("perf.maxInFlight", "10000"));
+        long seed = Long.parseLong(System.getProperty("perf.seed", "42"));
+
+        String accountIds = System.getProperty("perf.accountIds");
+        List<Long> accounts = accountIds != null ? parseIds(accountIds) : createAccounts(accountCount);
+
+        LoadTarget target = "http".equalsIgnoreCase(targetMode)
+                ? LoadTarget.http(System.getProperty("perf.baseUrl", "http://localhost:" + port))
+                : LoadTarget.service(transactionService);
+        OpenLoopDriver driver = new OpenLoopDriver(target, rate, maxInFlight);
+        BigDecimal amount = new BigDecimal("1.00");
+
+        if (warmupSec > 0) {
+            driver.run(new Workload(accounts, mix, zipf, hotAccounts, hotShare, amount, seed + 1), warmupSec);
+        }
+        OpenLoopDriver.Result result = driver.run(new Workload(accounts, mix, zipf, hotAccounts, hotShare, amount, seed), durationSec);
+
+        System.out.print("----- OPEN MODEL LOAD TEST SUMMARY -----\n" + result + "----------------------------------------\n");
+
+        try {
+            Path outDir = Paths.get("target", "perf-results");
+            Files.createDirectories(outDir);
+            Path outFile = outDir.resolve("load-latest.json");
+            Files.write(outFile, result.toJson().getBytes(StandardCharsets.UTF_8));
+            Files.write(outDir.resolve("load-latest.hgrm"),
+                    OpenLoopDriver.Result.hgrm(result.responseTime()).getBytes(StandardCharsets.UTF_8));
+            Files.write(outDir.resolve("load-latest-service-time.hgrm"),
+                    OpenLoopDriver.Result.hgrm(result.serviceTime()).getBytes(StandardCharsets.UTF_8));
+            System.out.println("Wrote load test summary to: " + outFile.toAbsolutePath());
+        } catch (Exception e) {
+            System.err.println("Failed to write perf summary: " + e.getMessage());
+        }
+
+        assertTrue(result.scheduled() > 0);
+    }
+
+    private List<Long> createAccounts(int count) {
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Account a = new Account();
+            a.setAccountNumber("load-" + UUID.randomUUID());
+            a.setCurrency("USD");
+            a.setBalance(new BigDecimal("1000000.00"));
+            a.setAvailableBalance(new BigDecimal("1000000.00"));
+            Account saved = accountRepository.save(a);
+            balanceManager.populateBalance(saved.getId(), saved.getBalance(), saved.getAvailableBalance(), saved.getCurrency());
+            ids.add(saved.getId());
+        }
+        return ids;
+    }
+
+    private static List<Long> parseIds(String spec) {
+        List<Long> ids = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String p = part.trim();
+            int dash = p.indexOf('-');
+            if (dash > 0) {
+                long from = Long.parseLong(p.substring(0, dash));
+                long to = Long.parseLong(p.substring(dash + 1));
+                for (long id = from; id <= to; id++) ids.add(id);
+            } else if (!p.isEmpty()) {
+                ids.add(Long.parseLong(p));
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,131 @@
+package org.pilot.transactionservicepilot.perf;
+
+import org.junit.jupiter.api.Test;
+import org.pilot.transactionservicepilot.entity.Account;
+import org.pilot.transactionservicepilot.entity.TransactionRecord;
+import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.repository.JpaTransactionWriter;
+import org.pilot.transactionservicepilot.repository.TransactionBatchRepository;
+import org.pilot.transactionservicepilot.repository.TransactionRepository;
+import org.pilot.transactionservicepilot.repository.TransactionWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = "spring.profiles.active=${perf.profile:local}")
+public class TransactionWriterPerformanceTest {
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private TransactionBatchRepository jdbcWriter;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * CPU per transaction of the request path's DB phase (conditional debit plus final record, in one
+     * transaction) through the JPA repositories and through the plain-JDBC writer.
+     * System properties (optional):
+     *  - perf.profile (default local)
+     *  - perf.txs (default 5000) transactions per writer, after as many warm-up transactions
+     *
+     * Runs on one thread, so the thread CPU time is the cost of the writer plus the driver and database work it
+     * causes in-process (all of it with the embedded test database). Results are written to
+     * target/perf-results/transaction-writer-latest.json.
+     */
+    @Test
+    public void jdbcWriterCpuPerTransaction() throws Exception {
+        int txs = Integer.parseInt(System.getProperty("perf.txs", "5000"));
+
+        Account a = new Account();
+        a.setAccountNumber("writer-perf-" + UUID.randomUUID());
+        a.setCurrency("USD");
+        a.setBalance(new BigDecimal("100000000.00"));
+        a.setAvailableBalance(new BigDecimal("100000000.00"));
+        Long accountId = accountRepository.save(a).getId();
+
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        TransactionWriter jpa = new JpaTransactionWriter(accountRepository, transactionRepository);
+
+        // warm-up of both, so neither pays for class loading and JIT
+        run("warmup-jpa", jpa, tx, accountId, txs);
+        run("warmup-jdbc", jdbcWriter, tx, accountId, txs);
+
+        long[] jpaResult = run("jpa", jpa, tx, accountId, txs);
+        long[] jdbcResult = run("jdbc", jdbcWriter, tx, accountId, txs);
+
+        double jpaCpuUs = jpaResult[0] / 1000.0 / txs;
+        double jdbcCpuUs = jdbcResult[0] / 1000.0 / txs;
+        double jpaWallUs = jpaResult[1] / 1000.0 / txs;
+        double jdbcWallUs = jdbcResult[1] / 1000.0 / txs;
+        double savedPct = jpaCpuUs == 0 ? 0.0 : (jpaCpuUs - jdbcCpuUs) * 100.0 / jpaCpuUs;
+
+        StringBuilder summary = new StringBuilder();
+        summary.append("----- TRANSACTION WRITER CPU -----\n");
+        summary.append("Transactions per writer: ").append(txs).append('\n');
+        summary.append(String.format("JPA : %.1f us CPU, %.1f us wall per tx%n", jpaCpuUs, jpaWallUs));
+        summary.append(String.format("JDBC: %.1f us CPU, %.1f us wall per tx%n", jdbcCpuUs, jdbcWallUs));
+        summary.append(String.format("CPU saved per tx: %.1f us (%.1f%%)%n", jpaCpuUs - jdbcCpuUs, savedPct));
+        summary.append("----------------------------------\n");
+        System.out.print(summary);
+
+        try {
+            Path outDir = Paths.get("target", "perf-results");
+            Files.createDirectories(outDir);
+            Path outFile = outDir.resolve("transaction-writer-latest.json");
+            String json = String.format(
+                    "{\n  \"txs\": %d,\n  \"jpaCpuUsPerTx\": %.2f,\n  \"jdbcCpuUsPerTx\": %.2f,\n  \"jpaWallUsPerTx\": %.2f,\n  \"jdbcWallUsPerTx\": %.2f,\n  \"cpuSavedPct\": %.2f\n}",
+                    txs, jpaCpuUs, jdbcCpuUs, jpaWallUs, jdbcWallUs, savedPct);
+            Files.write(outFile, json.getBytes(StandardCharsets.UTF_8));
+            System.out.println("Wrote writer comparison to: " + outFile.toAbsolutePath());
+        } catch (Exception e) {
+            System.err.println("Failed to write perf summary: " + e.getMessage());
+        }
+
+        assertTrue(jpaResult[0] > 0 && jdbcResult[0] > 0);
+    }
+
+    // {thread CPU nanos, wall nanos}
+    private long[] run(String label, TransactionWriter writer, TransactionTemplate tx, Long accountId, int txs) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        BigDecimal amount = new BigDecimal("0.01");
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        long wallStart = System.nanoTime();
+        for (int i = 0; i < txs; i++) {
+            TransactionRecord rec = new TransactionRecord();
+            rec.setTxId("writer-" + label + "-" + i + "-" + UUID.randomUUID());
+            rec.setAccountId(accountId);
+            rec.setType("DEBIT");
+            rec.setAmount(amount);
+            rec.setCurrency("USD");
+            rec.setTimestamp(Instant.now());
+            tx.executeWithoutResult(status -> {
+                if (writer.debitIfAvailable(accountId, amount) == 0) throw new IllegalStateException("debit failed");
+                rec.setStatus("COMMITTED");
+                rec.setProcessedAt(Instant.now());
+                writer.insert(rec);
+            });
+        }
+        return new long[]{threads.getCurrentThreadCpuTime() - cpuStart, System.nanoTime() - wallStart};
+    }
+}
@@ -0,0 +1,161 @@
+package org.pilot.transactionservicepilot.perf;
+
+import org.junit.jupiter.api.Test;
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+import org.pilot.transactionservicepilot.entity.Account;
+import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.service.BalanceManager;
+import org.pilot.transactionservicepilot.service.TransactionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = "spring.profiles.active=${perf.profile:local}")
+public class VirtualThreadPerformanceTest {
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private BalanceManager balanceManager;
+
+    /**
+     * Platform threads vs virtual threads for the same debit workload.
+     * System properties (optional):
+     *  - perf.profile (default local)
+     *  - perf.concurrency (default 200) requests in flight in both modes
+     *  - perf.txs (default 5000) transactions per mode
+     *  - perf.accounts (default 50) accounts the debits are spread over
+     *
+     * Both modes run in this JVM one after the other, so they share the heap (the same memory budget); the
+     * platform mode runs perf.concurrency workers on a fixed pool, the virtual mode the same workers on one virtual
+     * thread each. Throughput, p50/p99/p99.9 latency and the heap in use after each run are written to target/perf-results/virtual-threads-latest.json.
+     */
+    @Test
+    public void platformVersusVirtualThreads() throws Exception {
+        int concurrency = Integer.parseInt(System.getProperty("perf.concurrency", "200"));
+        int txs = Integer.parseInt(System.getProperty("perf.txs", "5000"));
+        int accountCount = Integer.parseInt(System.getProperty("perf.accounts", "50"));
+
+        List<Long> accounts = new ArrayList<>(accountCount);
+        for (int i = 0; i < accountCount; i++) {
+            Account a = new Account();
+            a.setAccountNumber("vt-perf-" + UUID.randomUUID());
+            a.setCurrency("USD");
+            a.setBalance(new BigDecimal("1000000.00"));
+            a.setAvailableBalance(new BigDecimal("1000000.00"));
+            Account saved = accountRepository.save(a);
+            balanceManager.populateBalance(saved.getId(), saved.getBalance(), saved.getAvailableBalance(), saved.getCurrency());
+            accounts.add(saved.getId());
+        }
+
+        // warm-up so neither mode pays for class loading and JIT
+        run("warmup", Executors.newFixedThreadPool(concurrency), concurrency, Math.min(txs, 1000), accounts);
+
+        Result platform = run("platform", Executors.newFixedThreadPool(concurrency), concurrency, txs, accounts);
+        Result virtual = run("virtual", Executors.newVirtualThreadPerTaskExecutor(), concurrency, txs, accounts);
+
+        System.out.print("----- VIRTUAL THREAD COMPARISON -----\n" + platform + virtual
+                + "-------------------------------------\n");
+
+        try {
+            Path outDir = Paths.get("target", "perf-results");
+            Files.createDirectories(outDir);
+            Path outFile = outDir.resolve("virtual-threads-latest.json");
+            String json = String.format("{\n  \"concurrency\": %d,\n  \"txs\": %d,\n  \"accounts\": %d,\n  \"maxHeapBytes\": %d,\n  \"platform\": %s,\n  \"virtual\": %s\n}",
+                    concurrency, txs, accountCount, Runtime.getRuntime().maxMemory(), platform.toJson(), virtual.toJson());
+            Files.write(outFile, json.getBytes(StandardCharsets.UTF_8));
+            System.out.println("Wrote virtual thread comparison to: " + outFile.toAbsolutePath());
+        } catch (Exception e) {
+            System.err.println("Failed to write perf summary: " + e.getMessage());
+        }
+
+        assertTrue(platform.committed + virtual.committed > 0);
+    }
+
+    private Result run(String mode, ExecutorService exec, int concurrency, int txs, List<Long> accounts) throws Exception {
+        long[] latencies = new long[txs];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger committed = new AtomicInteger();
+        // concurrency workers pull transactions until txs are done, so both modes keep the same number in flight
+        List<Callable<Void>> workers = new ArrayList<>(concurrency);
+        for (int w = 0; w < concurrency; w++) {
+            workers.add(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < txs) {
+                    TransactionRequest req = new TransactionRequest();
+                    req.setTxId("vt-" + mode + "-" + i + "-" + UUID.randomUUID());
+                    req.setAccountId(accounts.get(i % accounts.size()));
+                    req.setType("DEBIT");
+                    req.setAmount(new BigDecimal("0.01"));
+                    req.setCurrency("USD");
+                    long startNs = System.nanoTime();
+                    try {
+                        TransactionResponse resp = transactionService.process(req);
+                        if (resp != null && "COMMITTED".equalsIgnoreCase(resp.getStatus())) committed.incrementAndGet();
+                    } catch (Exception ignored) {
+                        // counted as not committed
+                    } finally {
+                        latencies[i] = System.nanoTime() - startNs;
+                    }
+                }
+                return null;
+            });
+        }
+        long start = System.nanoTime();
+        exec.invokeAll(workers);
+        long durationNs = System.nanoTime() - start;
+        exec.shutdown();
+        exec.awaitTermination(1, TimeUnit.MINUTES);
+
+        Runtime rt = Runtime.getRuntime();
+        Arrays.sort(latencies);
+        return new Result(mode, durationNs / 1_000_000L, committed.get(), txs - committed.get(),
+                committed.get() * 1_000_000_000.0 / Math.max(1L, durationNs),
+                percentileMs(latencies, 0.50), percentileMs(latencies, 0.99), percentileMs(latencies, 0.999),
+                rt.totalMemory() - rt.freeMemory());
+    }
+
+    private static double percentileMs(long[] sorted, double p) {
+        if (sorted.length == 0) return 0.0;
+        int idx = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, idx)] / 1_000_000.0;
+    }
+
+    private record Result(String mode, long durationMs, int committed, int failed, double throughput,
+                          double p50Ms, double p99Ms, double p999Ms, long heapUsedBytes) {
+
+        @Override
+        public String toString() {
+            return String.format("%-8s duration %d ms, committed %d, failed %d, %.2f tx/s, p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, heap used %d MB%n",
+                    mode, durationMs, committed, failed, throughput, p50Ms, p99Ms, p999Ms, heapUsedBytes >> 20);
+        }
+
+        String toJson() {
+            return String.format("{\"durationMs\": %d, \"committed\": %d, \"failed\": %d, \"throughput\": %.2f, \"p50Ms\": %.3f, \"p99Ms\": %.3f, \"p999Ms\": %.3f, \"heapUsedBytes\": %d}",
+                    durationMs, committed, failed, throughput, p50Ms, p99Ms, p999Ms, heapUsedBytes);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.pilot.transactionservicepilot.perf.load;
+
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+import org.pilot.transactionservicepilot.service.TransactionService;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * What a load run sends its requests to. A failure to get any response (an exception) counts as an error.
+ */
+public interface LoadTarget {
+
+    TransactionResponse send(TransactionRequest req) throws Exception;
+
+    String name();
+
+    // in-process: TransactionService.process, without the HTTP stack, limiter or partition engine
+    static LoadTarget service(TransactionService service) {
+        return new LoadTarget() {
+            @Override
+            public TransactionResponse send(TransactionRequest req) {
+                return service.process(req);
+            }
+
+            @Override
+            public String name() {
+                return "service";
+            }
+        };
+    }
+
+    // POST /v1/transactions; rejected (429, 503) and failed (400) requests still carry a TransactionResponse body
+    static LoadTarget http(String baseUrl) {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        JsonMapper mapper = JsonMapper.builder().build();
+        URI uri = URI.create(baseUrl.replaceAll("/+$", "") + "/v1/transactions");
+        return new LoadTarget() {
+            @Override
+            public TransactionResponse send(TransactionRequest req) throws Exception {
+                HttpRequest httpReq = HttpRequest.newBuilder(uri)
+                        .timeout(Duration.ofSeconds(30))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(req)))
+                        .build();
+                HttpResponse<byte[]> res = client.send(httpReq, HttpResponse.BodyHandlers.ofByteArray());
+                if (res.body() == null || res.body().length == 0) {
+                    throw new IllegalStateException("HTTP " + res.statusCode() + " without a body");
+                }
+                return mapper.readValue(res.body(), TransactionResponse.class);
+            }
+
+            @Override
+            public String name() {
+                return "http " + uri;
+            }
+        };
+    }
+}
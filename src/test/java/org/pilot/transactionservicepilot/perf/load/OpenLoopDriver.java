@@ -0,0 +1,166 @@
+package org.pilot.transactionservicepilot.perf.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-model load: requests are started at a fixed arrival rate, whatever the target's latency, each on its own
+ * virtual thread, the way independent clients arrive at a service.
+ * <p>
+ * Latencies are measured from each request's <em>intended</em> start on the schedule, not from when it was
+ * actually sent, so a stall of the target (or of the dispatcher) counts against every request that should have
+ * gone out during it; a closed loop of threads would instead stop sending and leave those out (coordinated
+ * omission). The time from the actual send is kept as the service time, for comparison. Both go into HDR
+ * histograms (3 significant digits, nanoseconds).
+ * <p>
+ * Requests beyond {@code maxInFlight} outstanding ones are not sent and are reported as dropped, so a target that
+ * stops responding cannot exhaust the generator's memory.
+ */
+public final class OpenLoopDriver {
+
+    private final LoadTarget target;
+    private final double ratePerSecond;
+    private final int maxInFlight;
+
+    public OpenLoopDriver(LoadTarget target, double ratePerSecond, int maxInFlight) {
+        if (ratePerSecond <= 0) throw new IllegalArgumentException("rate must be positive");
+        this.target = target;
+        this.ratePerSecond = ratePerSecond;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public Result run(Workload workload, long durationSeconds) throws InterruptedException {
+        long total = (long) (ratePerSecond * durationSeconds);
+        double intervalNs = 1_000_000_000.0 / ratePerSecond;
+        Histogram responseTime = new ConcurrentHistogram(3);
+        Histogram serviceTime = new ConcurrentHistogram(3);
+        LongAdder committed = new LongAdder();
+        LongAdder failed = new LongAdder();
+        LongAdder pending = new LongAdder();
+        LongAdder errors = new LongAdder();
+        long dropped = 0;
+        long duplicates = 0;
+        AtomicInteger inFlight = new AtomicInteger();
+
+        ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor();
+        long t0 = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long intended = t0 + (long) (i * intervalNs);
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            Workload.Next next = workload.next();
+            if (next.duplicate()) duplicates++;
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                dropped++;
+                continue;
+            }
+            exec.execute(() -> {
+                long sent = System.nanoTime();
+                try {
+                    TransactionResponse res = target.send(next.request());
+                    String status = res == null ? null : res.getStatus();
+                    if ("COMMITTED".equalsIgnoreCase(status)) committed.increment();
+                    else if ("PENDING".equalsIgnoreCase(status)) pending.increment();
+                    else failed.increment();
+                } catch (Exception e) {
+                    errors.increment();
+                } finally {
+                    long done = System.nanoTime();
+                    responseTime.recordValue(done - intended);
+                    serviceTime.recordValue(done - sent);
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+        exec.shutdown();
+        if (!exec.awaitTermination(5, TimeUnit.MINUTES)) {
+            exec.shutdownNow();
+        }
+        long durationNs = System.nanoTime() - t0;
+
+        return new Result(target.name(), workload.mix().toString(), ratePerSecond, durationNs / 1_000_000L, total,
+                committed.sum(), failed.sum(), pending.sum(), errors.sum(), dropped, duplicates, responseTime, serviceTime);
+    }
+
+    /**
+     * Outcome of a run. The histograms hold nanoseconds, reported in milliseconds; {@code failed} includes requests
+     * the service rejected.
+     */
+    public record Result(String target, String mix, double targetTps, long durationMs, long scheduled,
+                         long committed, long failed, long pending, long errors, long dropped, long duplicates,
+                         Histogram responseTime, Histogram serviceTime) {
+
+        // the percentiles reported by tools/process_jmeter_results.py, plus the tail
+        private static final double[] PERCENTILES = {30, 50, 70, 90, 95, 99, 99.9, 99.99};
+
+        public double throughput() {
+            return committed * 1000.0 / Math.max(1L, durationMs);
+        }
+
+        private static double ms(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "target %s, mix %s%nrate %.0f/s, duration %d ms, scheduled %d, committed %d, failed %d, pending %d, errors %d, dropped %d, duplicates %d%n"
+                            + "committed %.2f tx/s%nresponse time p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n"
+                            + "service time  p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+                    target, mix, targetTps, durationMs, scheduled, committed, failed, pending, errors, dropped, duplicates,
+                    throughput(),
+                    ms(responseTime.getValueAtPercentile(50)), ms(responseTime.getValueAtPercentile(99)),
+                    ms(responseTime.getValueAtPercentile(99.9)), ms(responseTime.getMaxValue()),
+                    ms(serviceTime.getValueAtPercentile(50)), ms(serviceTime.getValueAtPercentile(99)),
+                    ms(serviceTime.getValueAtPercentile(99.9)), ms(serviceTime.getMaxValue()));
+        }
+
+        /**
+         * Summary in the shape of the perf summary JSON (totalTx, committed, failed, durationMs, throughput), which
+         * tools/generate_perf_report_from_json.py turns into the XML report, plus the target rate, the mean and the
+         * percentiles of the response time and of the service time. Its failed count covers every scheduled request
+         * that was neither committed nor pending (errors and dropped ones included), as the report expects.
+         */
+        public String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\n  \"target\": \"%s\",\n  \"mix\": \"%s\",\n  \"targetTps\": %.2f,\n  \"totalTx\": %d,\n  \"committed\": %d,\n"
+                            + "  \"failed\": %d,\n  \"pending\": %d,\n  \"errors\": %d,\n  \"dropped\": %d,\n  \"duplicates\": %d,\n"
+                            + "  \"durationMs\": %d,\n  \"throughput\": %.2f,\n  \"avgLatencyMs\": %.3f,\n  \"percentiles\": %s,\n"
+                            + "  \"serviceTimeAvgMs\": %.3f,\n  \"serviceTimePercentiles\": %s\n}",
+                    target, mix, targetTps, scheduled, committed, failed + errors + dropped, pending, errors, dropped, duplicates,
+                    durationMs, throughput(), responseTime.getMean() / 1_000_000.0, percentilesJson(responseTime),
+                    serviceTime.getMean() / 1_000_000.0, percentilesJson(serviceTime));
+        }
+
+        // full percentile distribution in the HdrHistogram text format (.hgrm), in milliseconds
+        public static String hgrm(Histogram histogram) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            histogram.outputPercentileDistribution(new PrintStream(out, true, StandardCharsets.UTF_8), 1_000_000.0);
+            return out.toString(StandardCharsets.UTF_8);
+        }
+
+        private static String percentilesJson(Histogram histogram) {
+            StringBuilder sb = new StringBuilder("{");
+            for (double p : PERCENTILES) {
+                String key = p == Math.rint(p) ? String.valueOf((int) p) : String.valueOf(p);
+                sb.append(String.format(Locale.ROOT, "\"p%s\": %.3f, ", key, ms(histogram.getValueAtPercentile(p))));
+            }
+            return sb.append(String.format(Locale.ROOT, "\"max\": %.3f}", ms(histogram.getMaxValue()))).toString();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.pilot.transactionservicepilot.perf.load;
+
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Request stream of a load run, drawn from a weighted mix of operations:
+ * <ul>
+ *   <li>debit / credit: one account, picked with Zipfian skew over all accounts, or from the hot accounts (the
+ *   first {@code hotAccounts} ids) for a {@code hotShare} fraction of the requests;</li>
+ *   <li>transfer: between two such accounts;</li>
+ *   <li>cycle: transfers around a ring of three accounts (A to B, B to C, C to A on consecutive cycle picks), the
+ *   pattern that makes lock ordering and deadlock handling show up;</li>
+ *   <li>duplicate: an identical resend of one of the last requests (same txId and body), in flight or done, to
+ *   exercise idempotency under load.</li>
+ * </ul>
+ * Not thread-safe: the driver's dispatcher thread is its only user.
+ */
+public final class Workload {
+
+    /**
+     * Relative weights of the operations, parsed from e.g. {@code debit=50,credit=30,transfer=10,cycle=5,duplicate=5}.
+     */
+    public record Mix(int debit, int credit, int transfer, int cycle, int duplicate) {
+
+        public static Mix parse(String spec) {
+            int debit = 0, credit = 0, transfer = 0, cycle = 0, duplicate = 0;
+            for (String part : spec.split(",")) {
+                String[] kv = part.trim().split("=");
+                if (kv.length != 2) throw new IllegalArgumentException("Bad mix entry: " + part);
+                int weight = Integer.parseInt(kv[1].trim());
+                switch (kv[0].trim().toLowerCase(Locale.ROOT)) {
+                    case "debit" -> debit = weight;
+                    case "credit" -> credit = weight;
+                    case "transfer" -> transfer = weight;
+                    case "cycle" -> cycle = weight;
+                    case "duplicate" -> duplicate = weight;
+                    default -> throw new IllegalArgumentException("Unknown operation in mix: " + kv[0]);
+                }
+            }
+            Mix mix = new Mix(debit, credit, transfer, cycle, duplicate);
+            if (mix.total() <= 0) throw new IllegalArgumentException("Mix has no weight: " + spec);
+            return mix;
+        }
+
+        int total() {
+            return debit + credit + transfer + cycle + duplicate;
+        }
+
+        @Override
+        public String toString() {
+            return "debit=" + debit + ",credit=" + credit + ",transfer=" + transfer + ",cycle=" + cycle + ",duplicate=" + duplicate;
+        }
+    }
+
+    // requests a duplicate may repeat
+    private static final int RECENT = 1024;
+
+    private final List<Long> accounts;
+    private final Mix mix;
+    private final ZipfianDistribution skew;
+    private final int hotAccounts;
+    private final double hotShare;
+    private final BigDecimal amount;
+    private final Random rnd;
+    private final String runId;
+
+    private final TransactionRequest[] recent = new TransactionRequest[RECENT];
+    private long issued;
+    private final long[] ring = new long[3];
+    private int ringPos;
+
+    public Workload(List<Long> accounts, Mix mix, double zipfExponent, int hotAccounts, double hotShare, BigDecimal amount, long seed) {
+        if (accounts.size() < 3) throw new IllegalArgumentException("A workload needs at least 3 accounts");
+        this.accounts = List.copyOf(accounts);
+        this.mix = mix;
+        this.skew = new ZipfianDistribution(accounts.size(), zipfExponent);
+        this.hotAccounts = Math.min(hotAccounts, accounts.size());
+        this.hotShare = hotShare;
+        this.amount = amount;
+        this.rnd = new Random(seed);
+        this.runId = Long.toHexString(System.nanoTime());
+    }
+
+    public Mix mix() {
+        return mix;
+    }
+
+    /**
+     * The next request; {@code duplicate} tells whether it repeats an earlier one.
+     */
+    public Next next() {
+        int pick = rnd.nextInt(mix.total());
+        if ((pick -= mix.debit()) < 0) return fresh(single("DEBIT"));
+        if ((pick -= mix.credit()) < 0) return fresh(single("CREDIT"));
+        if ((pick -= mix.transfer()) < 0) {
+            long src = account();
+            long dst = account();
+            while (dst == src) dst = account();
+            return fresh(transfer(src, dst));
+        }
+        if ((pick -= mix.cycle()) < 0) return fresh(cycleStep());
+        if (issued == 0) return fresh(single("CREDIT"));
+        long back = 1 + rnd.nextInt((int) Math.min(issued, RECENT));
+        return new Next(recent[(int) ((issued - back) % RECENT)], true);
+    }
+
+    public record Next(TransactionRequest request, boolean duplicate) {
+    }
+
+    private Next fresh(TransactionRequest req) {
+        recent[(int) (issued % RECENT)] = req;
+        issued++;
+        return new Next(req, false);
+    }
+
+    private TransactionRequest single(String type) {
+        TransactionRequest req = base(type);
+        req.setAccountId(account());
+        return req;
+    }
+
+    private TransactionRequest transfer(long src, long dst) {
+        TransactionRequest req = base("TRANSFER");
+        req.setSourceAccountId(src);
+        req.setDestinationAccountId(dst);
+        return req;
+    }
+
+    // one leg of the current ring; a new ring of three distinct accounts is drawn after its last leg
+    private TransactionRequest cycleStep() {
+        if (ringPos == 0) {
+            ring[0] = account();
+            do ring[1] = account(); while (ring[1] == ring[0]);
+            do ring[2] = account(); while (ring[2] == ring[0] || ring[2] == ring[1]);
+        }
+        TransactionRequest req = transfer(ring[ringPos], ring[(ringPos + 1) % 3]);
+        ringPos = (ringPos + 1) % 3;
+        return req;
+    }
+
+    private long account() {
+        if (hotAccounts > 0 && rnd.nextDouble() < hotShare) return accounts.get(rnd.nextInt(hotAccounts));
+        return accounts.get(skew.sample(rnd));
+    }
+
+    private TransactionRequest base(String type) {
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("load-" + runId + "-" + issued);
+        req.setType(type);
+        req.setAmount(amount);
+        req.setCurrency("USD");
+        return req;
+    }
+}
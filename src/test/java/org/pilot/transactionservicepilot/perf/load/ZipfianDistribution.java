@@ -0,0 +1,34 @@
+package org.pilot.transactionservicepilot.perf.load;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Ranks 0..n-1 drawn with probability proportional to 1 / (rank + 1)^exponent; exponent 0 is uniform, around 1
+ * a few ranks take most of the draws (the classic YCSB skew is 0.99). The CDF is precomputed, so a draw is one
+ * binary search.
+ */
+public final class ZipfianDistribution {
+
+    private final double[] cdf;
+
+    public ZipfianDistribution(int n, double exponent) {
+        if (n <= 0) throw new IllegalArgumentException("n must be positive");
+        cdf = new double[n];
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            sum += 1.0 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+    }
+
+    public int sample(Random rnd) {
+        int idx = Arrays.binarySearch(cdf, rnd.nextDouble());
+        // not found: insertion point, the first rank whose cumulative probability exceeds the draw
+        if (idx < 0) idx = -idx - 1;
+        return Math.min(idx, cdf.length - 1);
+    }
+}
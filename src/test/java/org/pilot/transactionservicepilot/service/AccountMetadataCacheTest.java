@@ -0,0 +1,156 @@
+package org.pilot.transactionservicepilot.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pilot.transactionservicepilot.entity.Account;
+import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class AccountMetadataCacheTest {
+
+    AccountRepository accountRepository;
+    SimpleMeterRegistry registry;
+    AccountMetadataCache cache;
+
+    @BeforeEach
+    void setUp() {
+        accountRepository = mock(AccountRepository.class);
+        registry = new SimpleMeterRegistry();
+        cache = new AccountMetadataCache(accountRepository, registry);
+    }
+
+    private static Account account(long id, String currency) {
+        Account a = new Account();
+        a.setId(id);
+        a.setAccountNumber("ACC-" + id);
+        a.setCurrency(currency);
+        return a;
+    }
+
+    @Test
+    void second_lookup_is_served_from_cache_and_counted_as_hit() {
+        when(accountRepository.findById(1L)).thenReturn(Optional.of(account(1L, "EUR")));
+
+        assertThat(cache.get(1L)).map(AccountMetadataCache.AccountMetadata::currency).contains("EUR");
+        assertThat(cache.get(1L)).map(AccountMetadataCache.AccountMetadata::accountNumber).contains("ACC-1");
+
+        verify(accountRepository, times(1)).findById(1L);
+        assertThat(registry.counter("account_cache.hit.count").count()).isEqualTo(1.0);
+        assertThat(registry.counter("account_cache.miss.count").count()).isEqualTo(1.0);
+        assertThat(registry.get("account_cache.hit.ratio").gauge().value()).isEqualTo(0.5);
+    }
+
+    @Test
+    void missing_accounts_are_not_cached() {
+        when(accountRepository.findById(2L)).thenReturn(Optional.empty(), Optional.of(account(2L, "USD")));
+
+        assertThat(cache.get(2L)).isEmpty();
+        assertThat(cache.get(2L)).isPresent();
+    }
+
+    @Test
+    void least_recently_used_entry_is_evicted_beyond_max_size() {
+        ReflectionTestUtils.setField(cache, "maxSize", 2);
+        cache.refresh(List.of(account(1L, "USD"), account(2L, "USD")));
+        cache.get(1L); // 2 is now the least recently used
+        cache.refresh(List.of(account(3L, "USD")));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get(1L)).isPresent();
+        assertThat(cache.get(3L)).isPresent();
+        verify(accountRepository, never()).findById(anyLong());
+        assertThat(cache.get(2L)).isEmpty();
+        verify(accountRepository).findById(2L);
+    }
+
+    @Test
+    void expired_and_invalidated_entries_are_reloaded() {
+        when(accountRepository.findById(4L)).thenReturn(Optional.of(account(4L, "USD")));
+        cache.get(4L);
+        cache.invalidate(4L);
+        cache.get(4L);
+        verify(accountRepository, times(2)).findById(4L);
+
+        ReflectionTestUtils.setField(cache, "ttlMs", -1L);
+        cache.get(4L);
+        verify(accountRepository, times(3)).findById(4L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void account_writes_through_jpa_invalidate_the_entry() {
+        cache.refresh(List.of(account(5L, "USD")));
+        ObjectProvider<AccountMetadataCache> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(cache);
+        AccountMetadataCacheListener listener = new AccountMetadataCacheListener();
+        listener.setCache(provider);
+
+        listener.written(account(5L, "EUR"));
+
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void concurrent_lookups_stay_near_max_size() throws Exception {
+        ReflectionTestUtils.setField(cache, "maxSize", 100);
+        when(accountRepository.findById(anyLong())).thenAnswer(inv -> Optional.of(account((Long) inv.getArgument(0), "USD")));
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long seed = t;
+                done.add(pool.submit(() -> {
+                    Random rnd = new Random(seed);
+                    for (int i = 0; i < 5000; i++) {
+                        assertThat(cache.get((long) rnd.nextInt(1000))).isPresent();
+                    }
+                }));
+            }
+            for (Future<?> f : done) f.get(30, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+        // an insert that finds another thread evicting leaves the excess to the next one
+        assertThat(cache.size()).isLessThanOrEqualTo(100 + threads);
+    }
+
+    @Test
+    void getAll_selects_only_the_accounts_not_cached() {
+        cache.refresh(List.of(account(1L, "USD")));
+        when(accountRepository.findAllById(List.of(2L, 3L))).thenReturn(List.of(account(2L, "GBP")));
+
+        Map<Long, AccountMetadataCache.AccountMetadata> found = cache.getAll(List.of(1L, 2L, 3L));
+
+        assertThat(found).containsOnlyKeys(1L, 2L);
+        verify(accountRepository).findAllById(List.of(2L, 3L));
+        verify(accountRepository, never()).findById(anyLong());
+    }
+
+    @Test
+    void a_row_loaded_without_id_is_cached_under_the_requested_id() {
+        Account a = new Account();
+        a.setCurrency("USD");
+        when(accountRepository.findById(4L)).thenReturn(Optional.of(a));
+
+        assertThat(cache.get(4L)).map(AccountMetadataCache.AccountMetadata::currency).contains("USD");
+        assertThat(cache.get(4L)).isPresent();
+        verify(accountRepository, times(1)).findById(4L);
+    }
+}
@@ -0,0 +1,129 @@
+package org.pilot.transactionservicepilot.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+public class AccountPartitionEngineTest {
+
+    TransactionService transactionService;
+    BatchTransactionService batchTransactionService;
+    AccountPartitionEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        transactionService = mock(TransactionService.class);
+        batchTransactionService = mock(BatchTransactionService.class);
+        engine = new AccountPartitionEngine(transactionService, batchTransactionService, null);
+        ReflectionTestUtils.setField(engine, "enabled", true);
+        ReflectionTestUtils.setField(engine, "partitionCount", 4);
+        engine.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.stop();
+    }
+
+    @Test
+    void routing_is_deterministic_and_transfers_follow_the_source() {
+        assertThat(engine.partitionOf(42L)).isEqualTo(engine.partitionOf(42L));
+        TransactionRequest transfer = request("t", null);
+        transfer.setSourceAccountId(7L);
+        transfer.setDestinationAccountId(8L);
+        assertThat(AccountPartitionEngine.routingAccount(transfer)).isEqualTo(7L);
+        assertThat(AccountPartitionEngine.routingAccount(request("d", 9L))).isEqualTo(9L);
+        // sequential ids should not all land on one partition
+        assertThat(LongStream.rangeClosed(1, 64).mapToInt(id -> engine.partitionOf(id)).distinct().count()).isEqualTo(4);
+    }
+
+    @Test
+    void same_account_requests_never_run_concurrently() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(transactionService.process(any())).thenAnswer(inv -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(2);
+            inFlight.decrementAndGet();
+            TransactionRequest r = inv.getArgument(0);
+            return new TransactionResponse(r.getTxId(), "COMMITTED", null, null);
+        });
+        when(batchTransactionService.processBatch(anyList())).thenAnswer(inv -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(2);
+            inFlight.decrementAndGet();
+            List<TransactionRequest> reqs = inv.getArgument(0);
+            List<TransactionResponse> out = new ArrayList<>();
+            for (TransactionRequest r : reqs) out.add(new TransactionResponse(r.getTxId(), "COMMITTED", null, null));
+            return out;
+        });
+
+        ExecutorService callers = Executors.newFixedThreadPool(16);
+        List<Future<TransactionResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            TransactionRequest req = request("s-" + i, 1L);
+            futures.add(callers.submit(() -> engine.submit(req)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertThat(futures.get(i).get().getTxId()).isEqualTo("s-" + i);
+        }
+        callers.shutdown();
+
+        assertThat(maxInFlight.get()).isEqualTo(1);
+        // queued requests are picked up together, so far fewer calls than requests
+        verify(batchTransactionService, atLeastOnce()).processBatch(anyList());
+    }
+
+    @Test
+    void full_queue_rejects_immediately() {
+        engine.stop();
+        engine = new AccountPartitionEngine(transactionService, batchTransactionService, null);
+        ReflectionTestUtils.setField(engine, "enabled", true);
+        ReflectionTestUtils.setField(engine, "partitionCount", 1);
+        ReflectionTestUtils.setField(engine, "queueCapacity", 1);
+        ReflectionTestUtils.setField(engine, "timeoutMs", 50L);
+        when(transactionService.process(any())).thenAnswer(inv -> {
+            Thread.sleep(500);
+            return new TransactionResponse("x", "COMMITTED", null, null);
+        });
+        engine.start();
+
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        callers.submit(() -> engine.submit(request("busy-1", 1L)));
+        callers.submit(() -> engine.submit(request("busy-2", 1L)));
+        callers.shutdown();
+
+        await().atMost(Duration.ofSeconds(2)).untilAsserted(() ->
+                assertThatThrownBy(() -> engine.submit(request("busy-3", 1L))).isInstanceOf(RejectedExecutionException.class));
+    }
+
+    private static TransactionRequest request(String txId, Long accountId) {
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId(txId);
+        req.setAccountId(accountId);
+        req.setType("DEBIT");
+        req.setAmount(BigDecimal.ONE);
+        return req;
+    }
+}
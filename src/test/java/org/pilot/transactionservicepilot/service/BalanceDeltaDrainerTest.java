@@ -0,0 +1,127 @@
+package org.pilot.transactionservicepilot.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.pilot.transactionservicepilot.entity.TransactionRecord;
+import org.pilot.transactionservicepilot.repository.TransactionBatchRepository;
+import org.pilot.transactionservicepilot.repository.TransactionBatchRepository.BalanceDelta;
+import org.pilot.transactionservicepilot.repository.TransactionRepository;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class BalanceDeltaDrainerTest {
+
+    RedisTemplate<String, String> redisTemplate;
+    StreamOperations<String, Object, Object> streamOps;
+    TransactionRepository transactionRepository;
+    TransactionBatchRepository batchRepository;
+    BalanceDeltaDrainer drainer;
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = mock(RedisTemplate.class);
+        streamOps = mock(StreamOperations.class);
+        doReturn(streamOps).when(redisTemplate).opsForStream();
+        transactionRepository = mock(TransactionRepository.class);
+        batchRepository = mock(TransactionBatchRepository.class);
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        drainer = new BalanceDeltaDrainer(redisTemplate, transactionRepository, batchRepository, txManager, null);
+        ReflectionTestUtils.setField(drainer, "enabled", true);
+    }
+
+    @Test
+    void disabled_drainer_does_nothing() {
+        ReflectionTestUtils.setField(drainer, "enabled", false);
+        assertThat(drainer.drain()).isZero();
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void drain_persists_records_and_net_deltas_then_acks() {
+        MapRecord<String, Object, Object> d1 = entry("1-0", "tx1", "DEBIT", "1", "", "1000");
+        MapRecord<String, Object, Object> d2 = entry("2-0", "tx2", "CREDIT", "1", "", "250");
+        MapRecord<String, Object, Object> t1 = entry("3-0", "tx3", "TRANSFER", "1", "2", "500");
+        MapRecord<String, Object, Object> old = entry("4-0", "tx-old", "DEBIT", "1", "", "99");
+        when(streamOps.read(any(org.springframework.data.redis.connection.stream.Consumer.class), any(), any()))
+                .thenReturn(List.of(d1, d2, t1, old));
+        TransactionRecord persisted = new TransactionRecord();
+        persisted.setTxId("tx-old");
+        when(transactionRepository.findByTxIdIn(any())).thenReturn(List.of(persisted));
+
+        assertThat(drainer.drain()).isEqualTo(4);
+
+        ArgumentCaptor<List> records = ArgumentCaptor.forClass(List.class);
+        verify(batchRepository).insertAll(records.capture());
+        assertThat(records.getValue()).hasSize(3);
+
+        ArgumentCaptor<List> deltas = ArgumentCaptor.forClass(List.class);
+        verify(batchRepository).applyNetDeltas(deltas.capture());
+        List<BalanceDelta> net = deltas.getValue();
+        // account 1: -10.00 + 2.50 - 5.00, account 2: +5.00
+        assertThat(net).extracting(BalanceDelta::accountId).containsExactly(1L, 2L);
+        assertThat(net.get(0).amount()).isEqualByComparingTo("-12.50");
+        assertThat(net.get(1).amount()).isEqualByComparingTo("5.00");
+
+        verify(streamOps).acknowledge(eq(BalanceManager.DELTA_STREAM_KEY), eq(BalanceDeltaDrainer.GROUP), any(RecordId[].class));
+        verify(streamOps).delete(eq(BalanceManager.DELTA_STREAM_KEY), any(RecordId[].class));
+    }
+
+    @Test
+    void transient_db_failure_leaves_entries_pending() {
+        when(streamOps.read(any(org.springframework.data.redis.connection.stream.Consumer.class), any(), any()))
+                .thenReturn(List.of(entry("1-0", "tx1", "DEBIT", "1", "", "100")));
+        when(transactionRepository.findByTxIdIn(any())).thenReturn(List.of());
+        doThrow(new org.springframework.dao.QueryTimeoutException("db down")).when(batchRepository).insertAll(any());
+
+        drainer.drain();
+
+        verify(streamOps, never()).acknowledge(anyString(), anyString(), any(RecordId[].class));
+    }
+
+    @Test
+    void cluster_mode_drains_every_listed_stream() {
+        ReflectionTestUtils.setField(drainer, "cluster", true);
+        SetOperations<String, String> setOps = mock(SetOperations.class);
+        doReturn(setOps).when(redisTemplate).opsForSet();
+        when(setOps.members(BalanceManager.DELTA_SHARDS_KEY)).thenReturn(Set.of("balance:deltas:{a}", "balance:deltas:{b}"));
+        when(streamOps.read(any(org.springframework.data.redis.connection.stream.Consumer.class), any(StreamReadOptions.class),
+                argThat((StreamOffset<String> o) -> o != null && o.getKey().equals("balance:deltas:{a}"))))
+                .thenReturn(List.of(entry("1-0", "tx1", "DEBIT", "1", "", "100")));
+        when(transactionRepository.findByTxIdIn(any())).thenReturn(List.of());
+
+        assertThat(drainer.drain()).isEqualTo(1);
+
+        verify(streamOps).createGroup(eq("balance:deltas:{a}"), any(), eq(BalanceDeltaDrainer.GROUP));
+        verify(streamOps).createGroup(eq("balance:deltas:{b}"), any(), eq(BalanceDeltaDrainer.GROUP));
+        verify(streamOps).acknowledge(eq("balance:deltas:{a}"), eq(BalanceDeltaDrainer.GROUP), any(RecordId[].class));
+        verify(streamOps, never()).acknowledge(eq("balance:deltas:{b}"), anyString(), any(RecordId[].class));
+        verify(streamOps, never()).read(any(org.springframework.data.redis.connection.stream.Consumer.class), any(StreamReadOptions.class),
+                argThat((StreamOffset<String> o) -> o != null && o.getKey().equals(BalanceManager.DELTA_STREAM_KEY)));
+    }
+
+    private static MapRecord<String, Object, Object> entry(String id, String txId, String type, String account, String dst, String cents) {
+        Map<Object, Object> fields = Map.of("txId", txId, "type", type, "accountId", account, "destinationAccountId", dst,
+                "amountCents", cents, "currency", "USD", "ts", "1700000000000");
+        return MapRecord.<String, Object, Object>create(BalanceManager.DELTA_STREAM_KEY, fields).withId(RecordId.of(id));
+    }
+}
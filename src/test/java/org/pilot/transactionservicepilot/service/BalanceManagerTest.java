@@ -67,15 +67,18 @@ public class BalanceManagerTest {
         balanceManager.populateBalance(2L, new BigDecimal("12.34"), new BigDecimal("5.00"), "USD");
         verify(hashOps, times(3)).put(eq("balance:2"), any(), any());
 
-        // commit should call increment with negative cents and delete reservation
+        // commit and rollback settle the reservation through the settle script, in cents
+        RedisScript settleScript = mock(RedisScript.class);
+        org.springframework.test.util.ReflectionTestUtils.setField(balanceManager, "settleReservationScript", settleScript);
         balanceManager.commit(2L, new BigDecimal("1.00"), "tx2");
-        verify(hashOps).increment("balance:2", "balance", -100L);
-        verify(redisTemplate).delete("reservation:tx2");
+        verify(redisTemplate).execute(same(settleScript),
+                eq(java.util.List.of("balance:2", "reservation:{balance:2}:tx2", "reservations:{balance:2}", "reservations:reaped:{balance:2}")),
+                eq("commit"), eq("100"), eq("tx2"));
 
-        // rollback should increment available and delete
         balanceManager.rollback(2L, new BigDecimal("2.00"), "tx3");
-        verify(hashOps).increment("balance:2", "available", 200L);
-        verify(redisTemplate).delete("reservation:tx3");
+        verify(redisTemplate).execute(same(settleScript),
+                eq(java.util.List.of("balance:2", "reservation:{balance:2}:tx3", "reservations:{balance:2}", "reservations:reaped:{balance:2}")),
+                eq("rollback"), eq("200"), eq("tx3"));
 
         // getBalance/getAvailable will call opsForHash().entries
         Map<Object, Object> map = new HashMap<>();
@@ -2,13 +2,30 @@ package org.pilot.transactionservicepilot.service;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.pilot.transactionservicepilot.entity.Account;
+import org.pilot.transactionservicepilot.entity.TransactionRecord;
+import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.repository.TransactionRepository;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
 import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -84,15 +101,540 @@ public class BalanceManagerUnitTest {
     }
 
     @Test
-    void commit_and_rollback_call_increment_and_delete() {
-        // commit should decrement balance by cents and delete reservation
+    void commit_and_rollback_settle_reservation_and_its_expiry_entry() {
+        RedisScript settleScript = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "settleReservationScript", settleScript);
+
         balanceManager.commit(2L, new BigDecimal("1.23"), "tx-c");
-        verify(mockHashOps).increment("balance:2", "balance", -123L);
-        verify(redisTemplate).delete("reservation:tx-c");
+        verify(redisTemplate).execute(same(settleScript),
+                eq(List.of("balance:2", "reservation:{balance:2}:tx-c", "reservations:{balance:2}", "reservations:reaped:{balance:2}")),
+                eq("commit"), eq("123"), eq("tx-c"));
 
-        // rollback should increment available by cents and delete reservation
         balanceManager.rollback(3L, new BigDecimal("2.50"), "tx-r");
-        verify(mockHashOps).increment("balance:3", "available", 250L);
-        verify(redisTemplate).delete("reservation:tx-r");
+        verify(redisTemplate).execute(same(settleScript),
+                eq(List.of("balance:3", "reservation:{balance:3}:tx-r", "reservations:{balance:3}", "reservations:reaped:{balance:3}")),
+                eq("rollback"), eq("250"), eq("tx-r"));
+
+        // the expiry index and reaped markers share the slot of the balance key
+        assertThat(ClusterSlotHashUtil.calculateSlot("reservations:{balance:2}")).isEqualTo(ClusterSlotHashUtil.calculateSlot("balance:2"));
+        assertThat(ClusterSlotHashUtil.calculateSlot("reservations:reaped:{balance:2}")).isEqualTo(ClusterSlotHashUtil.calculateSlot("balance:2"));
+    }
+
+    @Test
+    void commitBatch_settles_all_items_in_one_call() {
+        RedisScript settleScript = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "settleReservationScript", settleScript);
+
+        balanceManager.commitBatch(List.of(new BalanceManager.Reservation(1L, 100L, "a"), new BalanceManager.Reservation(2L, 200L, "b")));
+
+        verify(redisTemplate, times(1)).execute(same(settleScript),
+                eq(List.of("balance:1", "reservation:{balance:1}:a", "reservations:{balance:1}", "reservations:reaped:{balance:1}",
+                        "balance:2", "reservation:{balance:2}:b", "reservations:{balance:2}", "reservations:reaped:{balance:2}")),
+                eq("commit"), eq("100"), eq("a"), eq("200"), eq("b"));
+    }
+
+    @Test
+    void commit_of_a_reservation_gone_from_redis_resyncs_its_account() {
+        RedisScript settleScript = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "settleReservationScript", settleScript);
+        // the second item was reaped before its commit arrived
+        when(redisTemplate.execute(same(settleScript), anyList(), any(Object[].class))).thenReturn(List.of(2L));
+        AccountRepository repo = mock(AccountRepository.class);
+        balanceManager.setAccountRepository(repo);
+        Account a = new Account();
+        a.setId(2L);
+        a.setBalance(new BigDecimal("8.00"));
+        a.setAvailableBalance(new BigDecimal("6.00"));
+        a.setCurrency("USD");
+        when(repo.findAllById(List.of(2L))).thenReturn(List.of(a));
+        RedisOperations<String, String> ops = mock(RedisOperations.class);
+        doReturn(mockHashOps).when(ops).opsForHash();
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenAnswer(inv -> {
+            ((SessionCallback<Object>) inv.getArgument(0)).execute(ops);
+            return List.of();
+        });
+
+        balanceManager.commitBatch(List.of(new BalanceManager.Reservation(1L, 100L, "a"), new BalanceManager.Reservation(2L, 200L, "b")));
+
+        verify(repo, times(1)).findAllById(any());
+        verify(mockHashOps).putAll("balance:2", Map.of("balance", "800", "available", "600", "currency", "USD"));
+    }
+
+    @Test
+    void reserve_indexes_the_reservation_deadline() {
+        RedisScript script = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "reserveScript", script);
+        ReflectionTestUtils.setField(balanceManager, "reservationTtlSeconds", 30);
+        when(redisTemplate.execute(same(script), anyList(), any(Object[].class))).thenReturn("OK");
+
+        long before = System.currentTimeMillis();
+        balanceManager.reserve(9L, new BigDecimal("4.00"), "tx-d");
+
+        verify(redisTemplate).execute(same(script), eq(List.of("balance:9", "reservation:{balance:9}:tx-d", "reservations:{balance:9}", "reservations:due")),
+                eq("400"), eq("tx-d"), eq("30"), eq("9"), argThat((String deadline) -> Long.parseLong(deadline) >= before + 30_000L));
+    }
+
+    @Test
+    void open_circuit_breaker_returns_error_without_calling_redis() {
+        RedisScript script = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "reserveCommitScript", script);
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker();
+        ReflectionTestUtils.setField(breaker, "minimumCalls", 2);
+        ReflectionTestUtils.setField(breaker, "openMs", 60_000L);
+        balanceManager.setCircuitBreaker(breaker);
+        when(redisTemplate.execute(same(script), eq(List.of("balance:4", "inflight:{balance:4}", "reservations:due")), any(Object[].class))).thenThrow(new RuntimeException("timeout"));
+
+        balanceManager.reserveAndCommit(4L, 100L, true, "tx-1");
+        balanceManager.reserveAndCommit(4L, 100L, true, "tx-2");
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+
+        assertThat(balanceManager.reserveAndCommit(4L, 100L, true, "tx-3").result()).isEqualTo(BalanceManager.ReserveResult.ERROR);
+        assertThat(balanceManager.reserve(4L, new BigDecimal("1.00"), "tx-4")).isEqualTo(BalanceManager.ReserveResult.ERROR);
+        verify(redisTemplate, times(2)).execute(same(script), anyList(), any(Object[].class));
+    }
+
+    @Test
+    void resyncFromDb_overwrites_cached_balances_with_db_values() {
+        AccountRepository repo = mock(AccountRepository.class);
+        balanceManager.setAccountRepository(repo);
+        Account a = new Account();
+        a.setId(3L);
+        a.setBalance(new BigDecimal("7.00"));
+        a.setAvailableBalance(new BigDecimal("6.50"));
+        a.setCurrency("USD");
+        when(repo.findAllById(List.of(3L))).thenReturn(List.of(a));
+        RedisOperations<String, String> ops = mock(RedisOperations.class);
+        doReturn(mockHashOps).when(ops).opsForHash();
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenAnswer(inv -> {
+            ((SessionCallback<Object>) inv.getArgument(0)).execute(ops);
+            return List.of();
+        });
+
+        balanceManager.resyncFromDb(java.util.Set.of(3L));
+
+        verify(mockHashOps).putAll("balance:3", Map.of("balance", "700", "available", "650", "currency", "USD"));
+    }
+
+    @Test
+    void resyncFromDb_leaves_busy_accounts_stale_for_the_next_pass() {
+        AccountRepository repo = mock(AccountRepository.class);
+        balanceManager.setAccountRepository(repo);
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker();
+        balanceManager.setCircuitBreaker(breaker);
+        RedisScript script = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "overwriteIfSettledScript", script);
+        Account busy = new Account();
+        busy.setId(3L);
+        busy.setBalance(new BigDecimal("7.00"));
+        busy.setAvailableBalance(new BigDecimal("6.50"));
+        Account settled = new Account();
+        settled.setId(4L);
+        settled.setBalance(new BigDecimal("2.00"));
+        settled.setAvailableBalance(new BigDecimal("2.00"));
+        when(repo.findAllById(anyList())).thenReturn(List.of(busy, settled));
+        when(redisTemplate.executePipelined(any(SessionCallback.class)))
+                .thenReturn(List.of(Arrays.asList("900", "900", "USD"), Arrays.asList("100", "100", "USD")));
+        when(redisTemplate.execute(same(script), eq(List.of("balance:3", "reservations:{balance:3}", "inflight:{balance:3}")),
+                eq("900"), eq("900"), eq("700"), eq("650"))).thenReturn(0L);
+        when(redisTemplate.execute(same(script), eq(List.of("balance:4", "reservations:{balance:4}", "inflight:{balance:4}")),
+                eq("100"), eq("100"), eq("200"), eq("200"))).thenReturn(1L);
+
+        balanceManager.resyncFromDb(new LinkedHashSet<>(List.of(3L, 4L)));
+
+        // the account with a pending reservation is not overwritten, only marked for the next re-sync
+        verify(mockHashOps, never()).putAll(anyString(), anyMap());
+        assertThat(breaker.getStaleCount()).isEqualTo(1);
+    }
+
+    @Test
+    void overwriteIfSettled_compares_and_sets_through_the_script_except_in_write_behind_mode() {
+        RedisScript script = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "overwriteIfSettledScript", script);
+        when(redisTemplate.execute(same(script), eq(List.of("balance:3", "reservations:{balance:3}", "inflight:{balance:3}")),
+                eq("900"), eq("900"), eq("1000"), eq("950"))).thenReturn(1L);
+        BalanceManager.CachedBalance seen = new BalanceManager.CachedBalance(3L, 900L, 900L, "USD");
+        BalanceManager.CachedBalance db = new BalanceManager.CachedBalance(3L, 1000L, 950L, "USD");
+
+        assertThat(balanceManager.overwriteIfSettled(seen, db)).isTrue();
+
+        ReflectionTestUtils.setField(balanceManager, "writeBehindEnabled", true);
+        assertThat(balanceManager.overwriteIfSettled(seen, db)).isFalse();
+        verify(redisTemplate, times(1)).execute(same(script), anyList(), any(), any(), any(), any());
+    }
+
+    @Test
+    void reapExpiredReservations_runs_the_reap_script_for_every_due_account() {
+        RedisScript reapScript = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "reapReservationsScript", reapScript);
+        ZSetOperations<String, String> zSetOps = mock(ZSetOperations.class);
+        doReturn(zSetOps).when(redisTemplate).opsForZSet();
+        when(zSetOps.rangeByScore(eq("reservations:due"), eq(0.0), anyDouble(), eq(0L), eq(50L)))
+                .thenReturn(new java.util.LinkedHashSet<>(List.of("1", "2")));
+        when(redisTemplate.execute(same(reapScript), eq(List.of("reservations:{balance:1}", "reservations:reaped:{balance:1}", "balance:1", "reservations:due", "inflight:{balance:1}")),
+                anyString(), eq("100"), eq("1"), eq("3600000"))).thenReturn(List.of(3L));
+        when(redisTemplate.execute(same(reapScript), eq(List.of("reservations:{balance:2}", "reservations:reaped:{balance:2}", "balance:2", "reservations:due", "inflight:{balance:2}")),
+                anyString(), eq("100"), eq("2"), eq("3600000"))).thenReturn(List.of(0L));
+
+        assertThat(balanceManager.reapExpiredReservations(50, 100)).isEqualTo(3);
+    }
+
+    @Test
+    void reaper_visits_the_stripes_of_striped_accounts() {
+        RedisScript reapScript = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "reapReservationsScript", reapScript);
+        ZSetOperations<String, String> zSetOps = mock(ZSetOperations.class);
+        doReturn(zSetOps).when(redisTemplate).opsForZSet();
+        when(zSetOps.rangeByScore(eq("reservations:due"), eq(0.0), anyDouble(), eq(0L), eq(50L)))
+                .thenReturn(new java.util.LinkedHashSet<>(List.of("5:3")));
+        when(redisTemplate.execute(same(reapScript), eq(List.of("reservations:{5:3}", "reservations:reaped:{5:3}", "balance:{5:3}", "reservations:due", "inflight:{5:3}")),
+                anyString(), eq("100"), eq("5:3"), eq("3600000"))).thenReturn(List.of(2L));
+
+        assertThat(balanceManager.reapExpiredReservations(50, 100)).isEqualTo(2);
+    }
+
+    @Test
+    void reaper_resyncs_accounts_whose_unconfirmed_change_was_never_committed() {
+        RedisScript reapScript = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "reapReservationsScript", reapScript);
+        ZSetOperations<String, String> zSetOps = mock(ZSetOperations.class);
+        doReturn(zSetOps).when(redisTemplate).opsForZSet();
+        when(zSetOps.rangeByScore(eq("reservations:due"), eq(0.0), anyDouble(), eq(0L), eq(50L)))
+                .thenReturn(new java.util.LinkedHashSet<>(List.of("1", "2")));
+        when(redisTemplate.execute(same(reapScript), eq(List.of("reservations:{balance:1}", "reservations:reaped:{balance:1}", "balance:1", "reservations:due", "inflight:{balance:1}")),
+                anyString(), eq("100"), eq("1"), eq("3600000"))).thenReturn(List.of(0L, "tx-done"));
+        when(redisTemplate.execute(same(reapScript), eq(List.of("reservations:{balance:2}", "reservations:reaped:{balance:2}", "balance:2", "reservations:due", "inflight:{balance:2}")),
+                anyString(), eq("100"), eq("2"), eq("3600000"))).thenReturn(List.of(0L, "tx-lost"));
+        TransactionRepository transactionRepository = mock(TransactionRepository.class);
+        balanceManager.setTransactionRepository(transactionRepository);
+        TransactionRecord done = new TransactionRecord();
+        done.setTxId("tx-done");
+        done.setStatus("COMMITTED");
+        when(transactionRepository.findByTxIdIn(java.util.Set.of("tx-done", "tx-lost"))).thenReturn(List.of(done));
+        AccountRepository accountRepository = mock(AccountRepository.class);
+        balanceManager.setAccountRepository(accountRepository);
+        Account a = new Account();
+        a.setId(2L);
+        a.setBalance(new BigDecimal("7.00"));
+        a.setAvailableBalance(new BigDecimal("7.00"));
+        a.setCurrency("USD");
+        when(accountRepository.findAllById(List.of(2L))).thenReturn(List.of(a));
+        RedisOperations<String, String> ops = mock(RedisOperations.class);
+        doReturn(mockHashOps).when(ops).opsForHash();
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenAnswer(inv -> {
+            ((SessionCallback<Object>) inv.getArgument(0)).execute(ops);
+            return List.of();
+        });
+
+        balanceManager.reapExpiredReservations(50, 100);
+
+        // tx-done reached the DB, tx-lost did not: only account 2 is overwritten with its DB values
+        verify(accountRepository, times(1)).findAllById(any());
+        verify(mockHashOps).putAll("balance:2", Map.of("balance", "700", "available", "700", "currency", "USD"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reserveAndCommit_sends_signed_cents_and_returns_balance_after() {
+        RedisScript script = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "reserveCommitScript", script);
+        when(redisTemplate.execute(same(script), eq(List.of("balance:4", "inflight:{balance:4}", "reservations:due")), eq("-250"), eq("tx-f"), anyString(), eq("4"))).thenReturn(List.of("OK", 750L, 500L));
+
+        BalanceManager.AppliedBalance applied = balanceManager.reserveAndCommit(4L, 250L, true, "tx-f");
+
+        assertThat(applied.result()).isEqualTo(BalanceManager.ReserveResult.OK);
+        assertThat(applied.balance()).isEqualByComparingTo("7.50");
+        assertThat(applied.available()).isEqualByComparingTo("5.00");
+
+        when(redisTemplate.execute(same(script), eq(List.of("balance:4", "inflight:{balance:4}", "reservations:due")), eq("-99900"), eq("tx-g"), anyString(), eq("4"))).thenReturn(List.of("INSUFFICIENT_FUNDS", "", ""));
+        assertThat(balanceManager.reserveAndCommit(4L, 99900L, true, "tx-g").result())
+                .isEqualTo(BalanceManager.ReserveResult.INSUFFICIENT_FUNDS);
+
+        when(redisTemplate.execute(same(script), eq(List.of("balance:4", "inflight:{balance:4}", "reservations:due")), eq("100"), eq("tx-h"), anyString(), eq("4"))).thenThrow(new RuntimeException("down"));
+        assertThat(balanceManager.reserveAndCommit(4L, 100L, false, "tx-h").result())
+                .isEqualTo(BalanceManager.ReserveResult.ERROR);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void revert_undoes_debit_on_balance_and_available_through_the_guarded_script() {
+        RedisScript script = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "creditIfPresentScript", script);
+        when(redisTemplate.execute(same(script), anyList(), any(Object[].class))).thenReturn(List.of());
+
+        balanceManager.revert(5L, 310L, true, "tx-u");
+
+        verify(redisTemplate).execute(same(script), eq(List.of("balance:5", "inflight:{balance:5}")), eq("310"), eq("tx-u"));
+        verify(mockHashOps, never()).increment(anyString(), any(), anyLong());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void creditBatch_marks_accounts_whose_balance_was_evicted_stale() {
+        RedisScript script = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "creditIfPresentScript", script);
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker();
+        balanceManager.setCircuitBreaker(breaker);
+        // the second item's balance key is gone
+        when(redisTemplate.execute(same(script), eq(List.of("balance:1", "inflight:{balance:1}", "balance:2", "inflight:{balance:2}")),
+                eq("100"), eq("c1"), eq("200"), eq("c2"))).thenReturn(List.of(2L));
+
+        balanceManager.creditBatch(List.of(new BalanceManager.Reservation(1L, 100L, "c1"), new BalanceManager.Reservation(2L, 200L, "c2")));
+
+        assertThat(breaker.getStaleCount()).isEqualTo(1);
+        verify(mockHashOps, never()).increment(anyString(), any(), anyLong());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reserveTransfer_uses_one_script_with_reservation_tagged_by_source_key() {
+        RedisScript script = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "reserveTransferScript", script);
+        when(redisTemplate.execute(same(script), eq(List.of("balance:1", "balance:2", "reservation:{balance:1}:tx-t",
+                        "inflight:{balance:1}", "inflight:{balance:2}", "reservations:due")),
+                eq("500"), eq("tx-t"), any(), eq("1"), eq("2"), anyString())).thenReturn(List.of("OK", 1500L, 1500L));
+
+        BalanceManager.AppliedDelta applied = balanceManager.reserveTransfer(1L, 2L, 500L, "tx-t");
+
+        assertThat(applied.result()).isEqualTo(BalanceManager.ReserveResult.OK);
+        assertThat(applied.duplicate()).isFalse();
+        assertThat(applied.balance()).isEqualByComparingTo("15.00");
+        assertThat(ClusterSlotHashUtil.calculateSlot("reservation:{balance:1}:tx-t")).isEqualTo(ClusterSlotHashUtil.calculateSlot("balance:1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reserveTransfer_across_cluster_slots_undoes_source_debit_when_destination_not_cached() {
+        assertThat(ClusterSlotHashUtil.calculateSlot("balance:1")).isNotEqualTo(ClusterSlotHashUtil.calculateSlot("balance:2"));
+        RedisScript debitScript = mock(RedisScript.class);
+        RedisScript commitScript = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "cluster", true);
+        ReflectionTestUtils.setField(balanceManager, "transferDebitScript", debitScript);
+        ReflectionTestUtils.setField(balanceManager, "reserveCommitScript", commitScript);
+        RedisScript creditScript = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "creditIfPresentScript", creditScript);
+        when(redisTemplate.execute(same(debitScript), eq(List.of("balance:1", "reservation:{balance:1}:tx-x", "inflight:{balance:1}", dueShardOf("balance:1"))),
+                any(), any(), any(), any(), any(), any()))
+                .thenReturn(List.of("OK", 1500L, 1500L));
+        when(redisTemplate.execute(same(commitScript), eq(List.of("balance:2", "inflight:{balance:2}", dueShardOf("balance:2"))), eq("500"), eq("tx-x"), anyString(), eq("2"))).thenReturn(List.of("NO_ACCOUNT", "", ""));
+        RedisOperations<String, String> ops = mock(RedisOperations.class);
+        doReturn(mockHashOps).when(ops).opsForHash();
+        doReturn(mock(ZSetOperations.class)).when(ops).opsForZSet();
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenAnswer(inv -> {
+            ((SessionCallback<Object>) inv.getArgument(0)).execute(ops);
+            return List.of();
+        });
+
+        BalanceManager.AppliedDelta applied = balanceManager.reserveTransfer(1L, 2L, 500L, "tx-x");
+
+        assertThat(applied.result()).isEqualTo(BalanceManager.ReserveResult.NO_ACCOUNT);
+        verify(redisTemplate).execute(same(creditScript), eq(List.of("balance:1", "inflight:{balance:1}")), eq("500"), eq("tx-x"));
+        verify(redisTemplate).delete("reservation:{balance:1}:tx-x");
+    }
+
+    @Test
+    void cluster_mode_keeps_every_key_of_a_reservation_in_the_slot_of_its_account() {
+        RedisScript script = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "cluster", true);
+        ReflectionTestUtils.setField(balanceManager, "reserveScript", script);
+        when(redisTemplate.execute(same(script), anyList(), any(Object[].class))).thenReturn("OK");
+
+        balanceManager.reserve(9L, new BigDecimal("4.00"), "tx-s");
+
+        ArgumentCaptor<List<String>> keys = ArgumentCaptor.forClass(List.class);
+        verify(redisTemplate).execute(same(script), keys.capture(), any(Object[].class));
+        assertThat(keys.getValue().get(3)).startsWith("reservations:due:{");
+        for (String key : keys.getValue()) {
+            assertThat(ClusterSlotHashUtil.calculateSlot(key)).isEqualTo(ClusterSlotHashUtil.calculateSlot("balance:9"));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void cluster_mode_splits_a_batch_per_slot_and_keeps_the_result_order() {
+        assertThat(ClusterSlotHashUtil.calculateSlot("balance:1")).isNotEqualTo(ClusterSlotHashUtil.calculateSlot("balance:2"));
+        RedisScript script = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "cluster", true);
+        ReflectionTestUtils.setField(balanceManager, "reserveBatchScript", script);
+        when(redisTemplate.execute(same(script), argThat((List<String> keys) -> keys.contains("balance:1")), any(Object[].class)))
+                .thenReturn(List.of("OK", "INSUFFICIENT_FUNDS"));
+        when(redisTemplate.execute(same(script), argThat((List<String> keys) -> keys.contains("balance:2")), any(Object[].class)))
+                .thenReturn(List.of("OK"));
+
+        List<BalanceManager.ReserveResult> results = balanceManager.reserveBatch(List.of(
+                new BalanceManager.Reservation(1L, 100L, "a"),
+                new BalanceManager.Reservation(2L, 100L, "b"),
+                new BalanceManager.Reservation(1L, 900L, "c")));
+
+        assertThat(results).containsExactly(BalanceManager.ReserveResult.OK, BalanceManager.ReserveResult.OK,
+                BalanceManager.ReserveResult.INSUFFICIENT_FUNDS);
+        verify(redisTemplate).execute(same(script), eq(List.of(dueShardOf("balance:1"),
+                        "balance:1", "reservation:{balance:1}:a", "reservations:{balance:1}",
+                        "balance:1", "reservation:{balance:1}:c", "reservations:{balance:1}")),
+                any(Object[].class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void cluster_mode_reaper_reads_every_slot_of_the_due_index() {
+        RedisScript reapScript = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "cluster", true);
+        ReflectionTestUtils.setField(balanceManager, "reapReservationsScript", reapScript);
+        RedisOperations<String, String> ops = mock(RedisOperations.class);
+        ZSetOperations<String, String> pipelinedZSet = mock(ZSetOperations.class);
+        doReturn(pipelinedZSet).when(ops).opsForZSet();
+        List<String> read = new ArrayList<>();
+        when(pipelinedZSet.rangeByScore(anyString(), eq(0.0), anyDouble(), eq(0L), anyLong())).thenAnswer(inv -> {
+            read.add(inv.getArgument(0));
+            return null;
+        });
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenAnswer(inv -> {
+            int from = read.size();
+            ((SessionCallback<Object>) inv.getArgument(0)).execute(ops);
+            List<Object> pages = new ArrayList<>();
+            for (String shard : read.subList(from, read.size())) {
+                pages.add(shard.equals(dueShardOf("balance:7")) ? Set.of("7") : Set.of());
+            }
+            return pages;
+        });
+        when(redisTemplate.execute(same(reapScript), eq(List.of("reservations:{balance:7}", "reservations:reaped:{balance:7}", "balance:7",
+                dueShardOf("balance:7"), "inflight:{balance:7}")), any(Object[].class))).thenReturn(List.of(1L));
+
+        assertThat(balanceManager.reapExpiredReservations(50, 100)).isEqualTo(1);
+        assertThat(read).hasSize(ClusterSlotHashUtil.SLOT_COUNT).doesNotHaveDuplicates();
+    }
+
+    @Test
+    void applyDelta_tags_the_applied_marker_with_the_account() {
+        RedisScript script = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "applyDeltaScript", script);
+        when(redisTemplate.execute(same(script), eq(List.of("balance:deltas", "applied:{balance:3}:tx-w", "balance:3")), any(Object[].class)))
+                .thenReturn(List.of("OK", 900L));
+
+        BalanceManager.AppliedDelta applied = balanceManager.applyDelta("DEBIT", 3L, null, 100L, "tx-w", "USD", null);
+
+        assertThat(applied.result()).isEqualTo(BalanceManager.ReserveResult.OK);
+        assertThat(ClusterSlotHashUtil.calculateSlot("applied:{balance:3}:tx-w")).isEqualTo(ClusterSlotHashUtil.calculateSlot("balance:3"));
+    }
+
+    @Test
+    void cluster_mode_applies_a_transfer_across_slots_in_two_legs() {
+        assertThat(ClusterSlotHashUtil.calculateSlot("balance:1")).isNotEqualTo(ClusterSlotHashUtil.calculateSlot("balance:2"));
+        RedisScript script = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "cluster", true);
+        ReflectionTestUtils.setField(balanceManager, "applyDeltaScript", script);
+        SetOperations<String, String> setOps = mock(SetOperations.class);
+        doReturn(setOps).when(redisTemplate).opsForSet();
+        when(redisTemplate.hasKey("balance:2")).thenReturn(true);
+        String srcStream = deltaShardOf("balance:1");
+        String dstStream = deltaShardOf("balance:2");
+        when(redisTemplate.execute(same(script), eq(List.of(srcStream, "applied:{balance:1}:tx-v", "balance:1")),
+                eq("TRANSFER"), eq("500"), eq("tx-v"), any(), eq("1"), eq("2"), any(), any())).thenReturn(List.of("OK", 1000L));
+        when(redisTemplate.execute(same(script), eq(List.of(dstStream, "applied:{balance:2}:tx-v", "balance:2")),
+                eq("TRANSFER_CREDIT"), eq("500"), eq("tx-v"), any(), eq("2"), eq(""), any(), any())).thenReturn(List.of("OK", 700L));
+
+        BalanceManager.AppliedDelta applied = balanceManager.applyDelta("TRANSFER", 1L, 2L, 500L, "tx-v", "USD", null);
+
+        assertThat(applied.result()).isEqualTo(BalanceManager.ReserveResult.OK);
+        assertThat(applied.balance()).isEqualByComparingTo("10.00");
+        verify(redisTemplate).execute(same(script), eq(List.of(dstStream, "applied:{balance:2}:tx-v", "balance:2")),
+                eq("TRANSFER_CREDIT"), eq("500"), eq("tx-v"), any(), eq("2"), eq(""), any(), any());
+        // only the stream that receives the entry is listed for the drainer
+        verify(setOps).add(BalanceManager.DELTA_SHARDS_KEY, srcStream);
+        verify(setOps, never()).add(BalanceManager.DELTA_SHARDS_KEY, dstStream);
+        assertThat(ClusterSlotHashUtil.calculateSlot(srcStream)).isEqualTo(ClusterSlotHashUtil.calculateSlot("balance:1"));
+    }
+
+    private static String deltaShardOf(String key) {
+        return dueShardOf(key).replace("reservations:due:", "balance:deltas:");
+    }
+
+    // the due index shard of the slot of the key, as found by its hash tag
+    private static String dueShardOf(String key) {
+        int slot = ClusterSlotHashUtil.calculateSlot(key);
+        for (int i = 0; ; i++) {
+            String tag = Integer.toString(i, 36);
+            if (ClusterSlotHashUtil.calculateSlot(tag) == slot) return "reservations:due:{" + tag + "}";
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void getCachedBalances_skips_missing_and_non_cents_entries() {
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenReturn(List.of(
+                java.util.Arrays.asList("1234", "567", "USD"),
+                java.util.Arrays.asList(null, null, null),
+                java.util.Arrays.asList("12.34", "5.67", "USD")));
+
+        Map<Long, BalanceManager.CachedBalance> cached = balanceManager.getCachedBalances(List.of(1L, 2L, 3L));
+
+        assertThat(cached).containsOnlyKeys(1L);
+        assertThat(cached.get(1L)).isEqualTo(new BalanceManager.CachedBalance(1L, 1234L, 567L, "USD"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void populateBalances_writes_cents_in_one_pipeline() {
+        RedisOperations<String, String> ops = mock(RedisOperations.class);
+        doReturn(mockHashOps).when(ops).opsForHash();
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenAnswer(inv -> {
+            ((SessionCallback<Object>) inv.getArgument(0)).execute(ops);
+            return List.of();
+        });
+
+        balanceManager.populateBalances(List.of(new BalanceManager.CachedBalance(1L, 1234L, 567L, "USD"),
+                new BalanceManager.CachedBalance(2L, 100L, 100L, null)));
+
+        verify(redisTemplate, times(1)).executePipelined(any(SessionCallback.class));
+        verify(mockHashOps).putAll("balance:1", Map.of("balance", "1234", "available", "567", "currency", "USD"));
+        verify(mockHashOps).putAll("balance:2", Map.of("balance", "100", "available", "100"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reserveAndCommit_loads_missing_account_from_db_and_retries() {
+        RedisScript commitScript = mock(RedisScript.class);
+        RedisScript populateScript = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "reserveCommitScript", commitScript);
+        ReflectionTestUtils.setField(balanceManager, "populateIfAbsentScript", populateScript);
+        AccountRepository accountRepository = mock(AccountRepository.class);
+        balanceManager.setAccountRepository(accountRepository);
+        Account a = new Account(); a.setId(6L); a.setBalance(new BigDecimal("20.00")); a.setAvailableBalance(new BigDecimal("20.00")); a.setCurrency("USD");
+        when(accountRepository.findById(6L)).thenReturn(Optional.of(a));
+        when(redisTemplate.execute(same(commitScript), eq(List.of("balance:6", "inflight:{balance:6}", "reservations:due")), eq("-500"), eq("tx-rt"), anyString(), eq("6")))
+                .thenReturn(List.of("NO_ACCOUNT", "", ""), List.of("OK", 1500L, 1500L));
+        when(redisTemplate.execute(same(populateScript), eq(List.of("balance:6")), eq("2000"), eq("2000"), eq("USD"), eq("0"))).thenReturn(1L);
+
+        BalanceManager.AppliedBalance applied = balanceManager.reserveAndCommit(6L, 500L, true, "tx-rt");
+
+        assertThat(applied.result()).isEqualTo(BalanceManager.ReserveResult.OK);
+        assertThat(applied.balance()).isEqualByComparingTo("15.00");
+        verify(accountRepository, times(1)).findById(6L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reserveAndCommit_stays_no_account_when_db_has_no_such_account() {
+        RedisScript commitScript = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "reserveCommitScript", commitScript);
+        ReflectionTestUtils.setField(balanceManager, "populateIfAbsentScript", mock(RedisScript.class));
+        AccountRepository accountRepository = mock(AccountRepository.class);
+        balanceManager.setAccountRepository(accountRepository);
+        when(accountRepository.findById(7L)).thenReturn(Optional.empty());
+        when(redisTemplate.execute(same(commitScript), eq(List.of("balance:7", "inflight:{balance:7}", "reservations:due")), eq("-500"), eq("tx-na"), anyString(), eq("7"))).thenReturn(List.of("NO_ACCOUNT", "", ""));
+
+        assertThat(balanceManager.reserveAndCommit(7L, 500L, true, "tx-na").result()).isEqualTo(BalanceManager.ReserveResult.NO_ACCOUNT);
+        verify(redisTemplate, times(1)).execute(same(commitScript), eq(List.of("balance:7", "inflight:{balance:7}", "reservations:due")), eq("-500"), eq("tx-na"), anyString(), eq("7"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void idle_ttl_is_passed_to_the_scripts_when_eviction_is_on() {
+        RedisScript commitScript = mock(RedisScript.class);
+        ReflectionTestUtils.setField(balanceManager, "reserveCommitScript", commitScript);
+        ReflectionTestUtils.setField(balanceManager, "balanceIdleTtlSeconds", 3600L);
+        when(redisTemplate.execute(same(commitScript), eq(List.of("balance:8", "inflight:{balance:8}", "reservations:due")), eq("100"), eq("tx-ttl"), anyString(), eq("8"), eq("3600"))).thenReturn(List.of("OK", 100L, 100L));
+
+        assertThat(balanceManager.reserveAndCommit(8L, 100L, false, "tx-ttl").result()).isEqualTo(BalanceManager.ReserveResult.OK);
+        assertThat(balanceManager.isIdleEvictionEnabled()).isTrue();
     }
 }
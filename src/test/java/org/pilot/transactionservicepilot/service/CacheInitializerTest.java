@@ -0,0 +1,112 @@
+package org.pilot.transactionservicepilot.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pilot.transactionservicepilot.entity.Account;
+import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.springframework.boot.health.contributor.Status;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class CacheInitializerTest {
+
+    AccountRepository accountRepository;
+    BalanceManager balanceManager;
+    CacheInitializer initializer;
+
+    @BeforeEach
+    void setUp() {
+        accountRepository = mock(AccountRepository.class);
+        balanceManager = mock(BalanceManager.class);
+        initializer = new CacheInitializer(accountRepository, balanceManager);
+        ReflectionTestUtils.setField(initializer, "threads", 2);
+    }
+
+    private static Account account(long id, String balance) {
+        Account a = new Account(); a.setId(id); a.setBalance(new BigDecimal(balance)); a.setAvailableBalance(new BigDecimal(balance)); a.setCurrency("USD");
+        return a;
+    }
+
+    @Test
+    void split_covers_the_id_space_without_gaps() {
+        List<long[]> ranges = CacheInitializer.split(0L, 10L, 4);
+        assertThat(ranges).hasSize(4);
+        assertThat(ranges.get(0)).containsExactly(0L, 3L);
+        assertThat(ranges.get(3)).containsExactly(9L, 10L);
+        assertThat(CacheInitializer.split(4L, 5L, 8)).hasSize(1);
+    }
+
+    @Test
+    void warmUp_writes_cents_per_page_and_reports_ready() {
+        when(accountRepository.findMinId()).thenReturn(1L);
+        when(accountRepository.findMaxId()).thenReturn(2L);
+        when(accountRepository.findPageInRange(eq(0L), eq(1L), any(Pageable.class))).thenReturn(List.of(account(1L, "12.34")));
+        when(accountRepository.findPageInRange(eq(1L), eq(2L), any(Pageable.class))).thenReturn(List.of(account(2L, "5.00")));
+        assertThat(initializer.health().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+
+        initializer.warmUp();
+
+        verify(balanceManager).populateBalances(List.of(new BalanceManager.CachedBalance(1L, 1234L, 1234L, "USD")));
+        verify(balanceManager).populateBalances(List.of(new BalanceManager.CachedBalance(2L, 500L, 500L, "USD")));
+        assertThat(initializer.health().getStatus()).isEqualTo(Status.UP);
+        assertThat(initializer.health().getDetails()).containsEntry("accounts", 2L);
+    }
+
+    @Test
+    void warmUp_limited_to_active_accounts_and_keeps_entries_in_write_behind_mode() {
+        ReflectionTestUtils.setField(initializer, "activeWithinHours", 24L);
+        ReflectionTestUtils.setField(initializer, "writeBehindEnabled", true);
+        when(accountRepository.findMinId()).thenReturn(1L);
+        when(accountRepository.findMaxId()).thenReturn(1L);
+        when(accountRepository.findActivePageInRange(eq(0L), eq(1L), any(Instant.class), any(Pageable.class))).thenReturn(List.of(account(1L, "1.00")));
+        when(balanceManager.getCachedBalances(List.of(1L))).thenReturn(Map.of(1L, new BalanceManager.CachedBalance(1L, 90L, 90L, "USD")));
+
+        initializer.warmUp();
+
+        verify(accountRepository, never()).findPageInRange(anyLong(), anyLong(), any(Pageable.class));
+        verify(balanceManager, never()).populateBalances(any());
+        assertThat(initializer.health().getStatus()).isEqualTo(Status.UP);
+    }
+
+    @Test
+    void failed_warmUp_reports_down() {
+        when(accountRepository.findMinId()).thenThrow(new RuntimeException("db down"));
+
+        initializer.warmUp();
+
+        assertThat(initializer.health().getStatus()).isEqualTo(Status.DOWN);
+    }
+
+    @Test
+    void failed_warmUp_is_retried_with_backoff() {
+        ReflectionTestUtils.setField(initializer, "retryBackoffMs", 1L);
+        when(accountRepository.findMinId()).thenThrow(new RuntimeException("db down")).thenReturn(null);
+
+        initializer.warmUpWithRetries();
+
+        verify(accountRepository, times(2)).findMinId();
+        assertThat(initializer.health().getStatus()).isEqualTo(Status.UP);
+        assertThat(initializer.health().getDetails()).containsEntry("state", "DONE").containsEntry("attempts", 2);
+    }
+
+    @Test
+    void warmUp_gives_up_after_max_attempts_and_reports_ready() {
+        ReflectionTestUtils.setField(initializer, "retryBackoffMs", 1L);
+        ReflectionTestUtils.setField(initializer, "maxAttempts", 3);
+        when(accountRepository.findMinId()).thenThrow(new RuntimeException("db down"));
+
+        initializer.warmUpWithRetries();
+
+        verify(accountRepository, times(3)).findMinId();
+        assertThat(initializer.health().getStatus()).isEqualTo(Status.UP);
+        assertThat(initializer.health().getDetails()).containsEntry("state", "SKIPPED").containsKey("error");
+    }
+}
@@ -0,0 +1,74 @@
+package org.pilot.transactionservicepilot.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrencyLimiterTest {
+
+    ConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new ConcurrencyLimiter(null);
+        ReflectionTestUtils.setField(limiter, "minLimit", 2);
+        ReflectionTestUtils.setField(limiter, "writeInitialLimit", 20);
+        ReflectionTestUtils.setField(limiter, "windowMs", 0L);
+        ReflectionTestUtils.setField(limiter, "minWindowSamples", 1);
+        ReflectionTestUtils.setField(limiter, "smoothing", 1.0);
+        limiter.start();
+    }
+
+    // n requests in flight together, each completing after the given latency; with window-ms 0 every
+    // release closes a one-sample window
+    private void window(int n, long latencyNanos) {
+        List<ConcurrencyLimiter.Permit> held = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            ConcurrencyLimiter.Permit p = limiter.tryAcquireWrite();
+            assertThat(p).isNotNull();
+            ReflectionTestUtils.setField(p, "startNanos", System.nanoTime() - latencyNanos);
+            held.add(p);
+        }
+        held.forEach(ConcurrencyLimiter.Permit::close);
+    }
+
+    @Test
+    void rejects_above_the_limit_and_admits_again_after_release() {
+        List<ConcurrencyLimiter.Permit> held = new ArrayList<>();
+        for (int i = 0; i < 20; i++) held.add(limiter.tryAcquireWrite());
+        assertThat(limiter.tryAcquireWrite()).isNull();
+        // the read limit is separate
+        assertThat(limiter.tryAcquireRead()).isNotNull();
+
+        held.get(0).close();
+        held.get(0).close();
+        assertThat(limiter.tryAcquireWrite()).isNotNull();
+        assertThat(limiter.tryAcquireWrite()).isNull();
+    }
+
+    @Test
+    void limit_shrinks_when_latency_rises_and_grows_back_when_it_recovers() {
+        window(20, 1_000_000L);  // baseline 1 ms
+        window(20, 1_000_000L);
+        int steady = limiter.getWriteLimit();
+        assertThat(steady).isGreaterThanOrEqualTo(20);
+
+        window(steady, 10_000_000L);  // queueing: 10 ms
+        int loaded = limiter.getWriteLimit();
+        assertThat(loaded).isLessThan(steady);
+
+        for (int i = 0; i < 5; i++) window(limiter.getWriteLimit(), 1_000_000L);
+        assertThat(limiter.getWriteLimit()).isGreaterThan(loaded);
+    }
+
+    @Test
+    void disabled_limiter_admits_everything() {
+        ReflectionTestUtils.setField(limiter, "enabled", false);
+        for (int i = 0; i < 100; i++) assertThat(limiter.tryAcquireWrite()).isNotNull();
+    }
+}
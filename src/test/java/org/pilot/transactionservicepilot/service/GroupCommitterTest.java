@@ -0,0 +1,124 @@
+package org.pilot.transactionservicepilot.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+public class GroupCommitterTest {
+
+    TransactionService transactionService;
+    BatchTransactionService batchTransactionService;
+    GroupCommitter committer;
+
+    @BeforeEach
+    void setUp() {
+        transactionService = mock(TransactionService.class);
+        batchTransactionService = mock(BatchTransactionService.class);
+        when(batchTransactionService.getMaxBatchSize()).thenReturn(1000);
+        committer = new GroupCommitter(transactionService, batchTransactionService, null);
+        ReflectionTestUtils.setField(committer, "enabled", true);
+        ReflectionTestUtils.setField(committer, "flusherCount", 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        committer.stop();
+    }
+
+    @Test
+    void concurrent_requests_share_groups_and_each_caller_gets_its_own_result() throws Exception {
+        AtomicInteger groups = new AtomicInteger();
+        when(transactionService.process(any())).thenAnswer(inv -> {
+            groups.incrementAndGet();
+            Thread.sleep(2);
+            TransactionRequest r = inv.getArgument(0);
+            return new TransactionResponse(r.getTxId(), "COMMITTED", null, null);
+        });
+        when(batchTransactionService.processBatch(anyList())).thenAnswer(inv -> {
+            groups.incrementAndGet();
+            Thread.sleep(2);
+            List<TransactionRequest> reqs = inv.getArgument(0);
+            List<TransactionResponse> out = new ArrayList<>();
+            // item-level failures stay with their item
+            for (TransactionRequest r : reqs) {
+                out.add(r.getTxId().endsWith("7") ? new TransactionResponse(r.getTxId(), "FAILED", null, "Insufficient funds")
+                        : new TransactionResponse(r.getTxId(), "COMMITTED", null, null));
+            }
+            return out;
+        });
+        committer.start();
+
+        ExecutorService callers = Executors.newFixedThreadPool(32);
+        List<Future<TransactionResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            TransactionRequest req = request("g-" + i);
+            futures.add(callers.submit(() -> committer.submit(req)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            TransactionResponse res = futures.get(i).get();
+            assertThat(res.getTxId()).isEqualTo("g-" + i);
+            assertThat(res.getStatus()).isEqualTo(i % 10 == 7 ? "FAILED" : "COMMITTED");
+        }
+        callers.shutdown();
+
+        assertThat(groups.get()).isLessThan(400);
+        verify(batchTransactionService, atLeastOnce()).processBatch(anyList());
+    }
+
+    @Test
+    void lone_request_is_not_held_back_and_group_failure_is_reported_per_caller() {
+        when(transactionService.process(any())).thenReturn(new TransactionResponse("solo", "COMMITTED", BigDecimal.TEN, null));
+        committer.start();
+
+        TransactionResponse res = committer.submit(request("solo"));
+
+        assertThat(res.getStatus()).isEqualTo("COMMITTED");
+        verify(batchTransactionService, never()).processBatch(anyList());
+
+        when(transactionService.process(any())).thenThrow(new IllegalStateException("db down"));
+        TransactionResponse failed = committer.submit(request("solo-2"));
+        assertThat(failed.getStatus()).isEqualTo("FAILED");
+        assertThat(failed.getError()).isEqualTo("db down");
+    }
+
+    @Test
+    void limit_grows_under_backlog_and_shrinks_when_the_deadline_cuts_groups_short() {
+        ReflectionTestUtils.setField(committer, "maxBatchSize", 64);
+
+        committer.adapt(1, 1, false);
+        assertThat(committer.getBatchLimit()).isEqualTo(1);
+        committer.adapt(1, 1, true);
+        assertThat(committer.getBatchLimit()).isEqualTo(2);
+        committer.adapt(64, 64, true);
+        assertThat(committer.getBatchLimit()).isEqualTo(64);
+        committer.adapt(8, 64, false);
+        assertThat(committer.getBatchLimit()).isEqualTo(36);
+        committer.adapt(1, 2, false);
+        assertThat(committer.getBatchLimit()).isEqualTo(1);
+    }
+
+    private static TransactionRequest request(String txId) {
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId(txId);
+        req.setAccountId(1L);
+        req.setType("DEBIT");
+        req.setAmount(BigDecimal.ONE);
+        return req;
+    }
+}
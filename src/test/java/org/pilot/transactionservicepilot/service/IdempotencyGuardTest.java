@@ -0,0 +1,123 @@
+package org.pilot.transactionservicepilot.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.repository.TransactionRepository;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+public class IdempotencyGuardTest {
+
+    RedisTemplate<String, String> redisTemplate;
+    ValueOperations<String, String> valueOps;
+    IdempotencyGuard guard;
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = mock(RedisTemplate.class);
+        valueOps = mock(ValueOperations.class);
+        doReturn(valueOps).when(redisTemplate).opsForValue();
+        guard = new IdempotencyGuard(redisTemplate, null);
+        guard.init();
+    }
+
+    @Test
+    void won_claim_for_unseen_txId_skips_db_lookup() {
+        when(valueOps.setIfAbsent(eq("idem:tx-1"), eq("PENDING"), any(Duration.class))).thenReturn(true);
+
+        IdempotencyGuard.Claim claim = guard.claim("tx-1");
+
+        assertThat(claim.state()).isEqualTo(IdempotencyGuard.State.FRESH);
+        assertThat(guard.needsDbLookup("tx-1", claim)).isFalse();
+    }
+
+    @Test
+    void txId_finished_on_this_instance_is_looked_up_even_after_a_won_claim() {
+        guard.complete("tx-2", new TransactionResponse("tx-2", "FAILED", null, "Insufficient funds"));
+        verify(valueOps).set(eq("idem:tx-2"), eq("DB"), any(Duration.class));
+
+        IdempotencyGuard.Claim fresh = new IdempotencyGuard.Claim(IdempotencyGuard.State.FRESH, null);
+        assertThat(guard.needsDbLookup("tx-2", fresh)).isTrue();
+    }
+
+    @Test
+    void committed_response_is_stored_and_answered_from_redis() {
+        TransactionResponse committed = new TransactionResponse("tx-3", "COMMITTED", new BigDecimal("90.00"), null);
+        guard.complete("tx-3", committed);
+        verify(valueOps).set(eq("idem:tx-3"), eq("COMMITTED|90.00|"), any(Duration.class));
+
+        when(valueOps.setIfAbsent(eq("idem:tx-3"), eq("PENDING"), any(Duration.class))).thenReturn(false);
+        when(valueOps.get("idem:tx-3")).thenReturn("COMMITTED|90.00|");
+        IdempotencyGuard.Claim claim = guard.claim("tx-3");
+
+        assertThat(claim.state()).isEqualTo(IdempotencyGuard.State.DONE);
+        assertThat(claim.response().getStatus()).isEqualTo("COMMITTED");
+        assertThat(claim.response().getBalance()).isEqualByComparingTo("90.00");
+        assertThat(claim.response().getError()).isNull();
+    }
+
+    @Test
+    void running_duplicate_is_in_flight_and_redis_errors_fall_back_to_db() {
+        when(valueOps.setIfAbsent(eq("idem:tx-4"), eq("PENDING"), any(Duration.class))).thenReturn(false);
+        when(valueOps.get("idem:tx-4")).thenReturn("PENDING");
+        assertThat(guard.claim("tx-4").state()).isEqualTo(IdempotencyGuard.State.IN_FLIGHT);
+
+        when(valueOps.setIfAbsent(eq("idem:tx-5"), eq("PENDING"), any(Duration.class))).thenThrow(new RuntimeException("down"));
+        IdempotencyGuard.Claim claim = guard.claim("tx-5");
+        assertThat(claim.state()).isEqualTo(IdempotencyGuard.State.UNKNOWN);
+        assertThat(guard.needsDbLookup("tx-5", claim)).isTrue();
+    }
+
+    @Test
+    void process_answers_stored_response_without_touching_the_db() {
+        TransactionRepository transactionRepository = mock(TransactionRepository.class);
+        AccountRepository accountRepository = mock(AccountRepository.class);
+        BalanceManager balanceManager = mock(BalanceManager.class);
+        TransactionService svc = new TransactionService(balanceManager, transactionRepository, accountRepository);
+        svc.setIdempotencyGuard(guard);
+        when(valueOps.setIfAbsent(eq("idem:tx-6"), eq("PENDING"), any(Duration.class))).thenReturn(false);
+        when(valueOps.get("idem:tx-6")).thenReturn("COMMITTED|12.50|");
+
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("tx-6");
+        req.setAccountId(1L);
+        req.setAmount(new BigDecimal("1.00"));
+        TransactionResponse res = svc.process(req);
+
+        assertThat(res.getStatus()).isEqualTo("COMMITTED");
+        assertThat(res.getBalance()).isEqualByComparingTo("12.50");
+        verifyNoInteractions(transactionRepository, accountRepository, balanceManager);
+    }
+
+    @Test
+    void recent_filter_has_no_false_negatives_and_ages_out_old_generations() {
+        RecentTxIdFilter filter = new RecentTxIdFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) filter.add("a-" + i);
+        for (int i = 0; i < 1000; i++) assertThat(filter.mightContain("a-" + i)).isTrue();
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("b-" + i)) falsePositives++;
+        }
+        assertThat(falsePositives).isLessThan(300);
+
+        // two more generations push the "a" ids out
+        for (int i = 0; i < 2001; i++) filter.add("c-" + i);
+        int stillThere = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (filter.mightContain("a-" + i)) stillThere++;
+        }
+        assertThat(stillThere).isLessThan(100);
+    }
+}
@@ -0,0 +1,116 @@
+package org.pilot.transactionservicepilot.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RedisCircuitBreakerTest {
+
+    RedisCircuitBreaker breaker;
+    List<Set<Long>> resynced;
+
+    @BeforeEach
+    void setUp() {
+        breaker = new RedisCircuitBreaker();
+        ReflectionTestUtils.setField(breaker, "windowSize", 10);
+        ReflectionTestUtils.setField(breaker, "minimumCalls", 4);
+        ReflectionTestUtils.setField(breaker, "openMs", 0L);
+        ReflectionTestUtils.setField(breaker, "halfOpenProbes", 2);
+        breaker.init();
+        resynced = new ArrayList<>();
+        breaker.setResync(resynced::add);
+    }
+
+    private void calls(int n, boolean success, long elapsedMs) {
+        for (int i = 0; i < n; i++) {
+            assertThat(breaker.tryAcquire()).isTrue();
+            breaker.record(success, elapsedMs * 1_000_000L);
+        }
+    }
+
+    @Test
+    void opens_on_failure_rate_once_minimum_calls_are_recorded() {
+        calls(1, true, 1);
+        calls(1, false, 1);
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.CLOSED);
+
+        calls(1, true, 1);
+        calls(1, false, 1);
+
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void opens_on_slow_call_rate() {
+        calls(4, true, 1000);
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void rejects_while_open() {
+        ReflectionTestUtils.setField(breaker, "openMs", 60_000L);
+        calls(4, false, 1);
+
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void half_open_probes_resync_stale_accounts_before_closing() {
+        calls(4, false, 1);
+        breaker.markStale(List.of(1L, 2L));
+
+        // open-ms elapsed: two probes are let through, a third call waits for their outcome
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        breaker.record(true, 1_000_000L);
+        assertThat(resynced).isEmpty();
+        breaker.record(true, 1_000_000L);
+
+        assertThat(resynced).containsExactly(Set.of(1L, 2L));
+        assertThat(breaker.getStaleCount()).isZero();
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.CLOSED);
+        assertThat(breaker.getFailureRate()).isZero();
+    }
+
+    @Test
+    void failed_probe_or_failed_resync_keeps_it_open() {
+        ReflectionTestUtils.setField(breaker, "halfOpenProbes", 1);
+        calls(4, false, 1);
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.record(false, 1_000_000L);
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+
+        breaker.markStale(List.of(3L));
+        breaker.setResync(ids -> {
+            throw new IllegalStateException("db down");
+        });
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.record(true, 1_000_000L);
+
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+        assertThat(breaker.getStaleCount()).isEqualTo(1);
+    }
+
+    @Test
+    void resyncStale_runs_only_while_closed() {
+        breaker.markStale(List.of(5L));
+        breaker.resyncStale();
+        assertThat(resynced).containsExactly(Set.of(5L));
+
+        calls(4, false, 1);
+        breaker.markStale(List.of(6L));
+        breaker.resyncStale();
+        assertThat(resynced).hasSize(1);
+    }
+}
@@ -0,0 +1,244 @@
+package org.pilot.transactionservicepilot.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Exercises the slot borrowing logic against an in-memory stand-in for the two slot scripts.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class StripedBalancesTest {
+
+    RedisTemplate<String, String> redisTemplate;
+    HashOperations<String, Object, Object> hashOps;
+    RedisScript<Long> reserveSlot;
+    RedisScript<List> settleSlot;
+    RedisScript<List> credit;
+    StripedBalances striped;
+
+    // slot key -> {balance, available}; reservation part key -> reserved cents
+    Map<String, long[]> slots = new HashMap<>();
+    Map<String, Long> parts = new HashMap<>();
+    Map<String, String> borrowed = new HashMap<>();
+    // parts the reaper returned to their slot
+    Set<String> reaped = new HashSet<>();
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = mock(RedisTemplate.class);
+        hashOps = mock(HashOperations.class);
+        doReturn(hashOps).when(redisTemplate).opsForHash();
+        reserveSlot = mock(RedisScript.class);
+        settleSlot = mock(RedisScript.class);
+        credit = mock(RedisScript.class);
+        striped = new StripedBalances(redisTemplate, reserveSlot, settleSlot, credit, 4, 30, 3600, key -> "reservations:due");
+
+        doAnswer(inv -> {
+            List<String> keys = inv.getArgument(1);
+            long[] slot = slots.get(keys.get(0));
+            if (slot == null) return -1L;
+            long amount = Long.parseLong(inv.getArgument(2));
+            boolean partial = "1".equals(inv.getArgument(5));
+            long take = slot[1] >= amount ? amount : partial ? slot[1] : 0;
+            slot[1] -= take;
+            if (take > 0) parts.merge(keys.get(1), take, Long::sum);
+            return take;
+        }).when(redisTemplate).execute(same(reserveSlot), anyList(), any(), any(), any(), any(), any(), any());
+
+        doAnswer(inv -> {
+            List<String> keys = inv.getArgument(1);
+            long[] slot = slots.get(keys.get(0));
+            boolean commit = "commit".equals(inv.getArgument(2));
+            boolean exists = parts.containsKey(keys.get(1)) || borrowed.containsKey(keys.get(1));
+            long taken = exists ? parts.getOrDefault(keys.get(1), 0L) : 0L;
+            parts.remove(keys.get(1));
+            String b = borrowed.remove(keys.get(1));
+            if (!exists) return List.of("NONE", "");
+            if (reaped.remove(keys.get(1))) return List.of(commit ? "GONE" : "OK", b == null ? "" : b);
+            if (commit) slot[0] -= taken;
+            else slot[1] += taken;
+            return List.of("OK", b == null ? "" : b);
+        }).when(redisTemplate).execute(same(settleSlot), anyList(), any(), any());
+
+        doAnswer(inv -> {
+            List<String> keys = inv.getArgument(1);
+            long[] slot = slots.get(keys.get(0));
+            if (slot == null) return List.of(1L);
+            long cents = Long.parseLong(inv.getArgument(2));
+            slot[0] += cents;
+            slot[1] += cents;
+            return List.of();
+        }).when(redisTemplate).execute(same(credit), anyList(), any(), any());
+
+        doAnswer(inv -> borrowed.put(inv.getArgument(0), inv.getArgument(2)))
+                .when(hashOps).put(startsWith("reservation:"), eq("borrowed"), any());
+    }
+
+    private void slotsOf(long accountId, long... available) {
+        for (int k = 0; k < available.length; k++) {
+            slots.put(StripedBalances.slotKey(accountId, k), new long[]{available[k], available[k]});
+        }
+    }
+
+    // what the reaper does to every pending part: return it to its slot and remember it
+    private void reapAll() {
+        parts.forEach((part, cents) -> {
+            String slotKey = "balance:" + part.substring("reservation:".length(), part.indexOf('}') + 1);
+            slots.get(slotKey)[1] += cents;
+            reaped.add(part);
+        });
+    }
+
+    private long totalAvailable() {
+        return slots.values().stream().mapToLong(s -> s[1]).sum();
+    }
+
+    private long totalBalance() {
+        return slots.values().stream().mapToLong(s -> s[0]).sum();
+    }
+
+    @Test
+    void reserve_uses_only_primary_slot_when_it_can_cover_the_amount() {
+        slotsOf(7L, 1000, 1000, 1000, 1000);
+
+        assertThat(striped.reserve(7L, 600, "tx-1")).isEqualTo(BalanceManager.ReserveResult.OK);
+
+        int primary = striped.primarySlot("tx-1");
+        assertThat(slots.get(StripedBalances.slotKey(7L, primary))[1]).isEqualTo(400);
+        assertThat(totalAvailable()).isEqualTo(3400);
+        verify(redisTemplate, times(1)).execute(same(reserveSlot), anyList(), any(), any(), any(), any(), any(), any());
+        verify(hashOps, never()).put(anyString(), eq("borrowed"), any());
+    }
+
+    @Test
+    void reserve_borrows_from_siblings_and_commit_settles_every_contributing_slot() {
+        slotsOf(7L, 100, 100, 100, 100);
+
+        assertThat(striped.reserve(7L, 250, "tx-2")).isEqualTo(BalanceManager.ReserveResult.OK);
+        assertThat(totalAvailable()).isEqualTo(150);
+        assertThat(borrowed).hasSize(1);
+
+        assertThat(striped.commit(7L, "tx-2")).isTrue();
+
+        assertThat(totalBalance()).isEqualTo(150);
+        assertThat(totalAvailable()).isEqualTo(150);
+        assertThat(parts).isEmpty();
+    }
+
+    @Test
+    void rollback_returns_borrowed_amounts_to_their_slots() {
+        slotsOf(7L, 100, 100, 100, 100);
+        striped.reserve(7L, 350, "tx-3");
+
+        striped.rollback(7L, "tx-3");
+
+        assertThat(totalAvailable()).isEqualTo(400);
+        assertThat(totalBalance()).isEqualTo(400);
+        slots.values().forEach(s -> assertThat(s[1]).isEqualTo(100));
+    }
+
+    @Test
+    void insufficient_funds_across_slots_releases_partial_takes() {
+        slotsOf(7L, 100, 50, 0, 25);
+
+        assertThat(striped.reserve(7L, 200, "tx-4")).isEqualTo(BalanceManager.ReserveResult.INSUFFICIENT_FUNDS);
+
+        assertThat(totalAvailable()).isEqualTo(175);
+        assertThat(parts).isEmpty();
+    }
+
+    @Test
+    void reserve_indexes_each_part_in_its_slot_for_the_reaper() {
+        slotsOf(7L, 1000, 1000, 1000, 1000);
+
+        striped.reserve(7L, 600, "tx-6");
+
+        int primary = striped.primarySlot("tx-6");
+        verify(redisTemplate).execute(same(reserveSlot),
+                eq(List.of(StripedBalances.slotKey(7L, primary), StripedBalances.slotReservationKey(7L, primary, "tx-6"),
+                        "reservations:{7:" + primary + "}", "reservations:due")),
+                eq("600"), eq("tx-6"), eq("3630"), eq("0"), anyString(), eq("7:" + primary));
+    }
+
+    @Test
+    void commit_after_the_reaper_leaves_the_slots_alone_and_reports_it() {
+        slotsOf(7L, 100, 100, 100, 100);
+        striped.reserve(7L, 250, "tx-7");
+        reapAll();
+
+        assertThat(striped.commit(7L, "tx-7")).isFalse();
+
+        assertThat(totalBalance()).isEqualTo(400);
+        assertThat(totalAvailable()).isEqualTo(400);
+    }
+
+    @Test
+    void rollback_after_the_reaper_does_not_return_the_amount_twice() {
+        slotsOf(7L, 100, 100, 100, 100);
+        striped.reserve(7L, 60, "tx-8");
+        reapAll();
+
+        striped.rollback(7L, "tx-8");
+
+        assertThat(totalAvailable()).isEqualTo(400);
+    }
+
+    @Test
+    void settle_visits_every_slot_when_the_primary_part_is_gone() {
+        slotsOf(7L, 100, 100, 100, 100);
+        striped.reserve(7L, 250, "tx-9");
+        // the primary part, and the sibling list with it, was evicted
+        String primaryPart = StripedBalances.slotReservationKey(7L, striped.primarySlot("tx-9"), "tx-9");
+        long lost = parts.remove(primaryPart);
+        borrowed.remove(primaryPart);
+
+        striped.rollback(7L, "tx-9");
+
+        assertThat(parts).isEmpty();
+        assertThat(totalAvailable()).isEqualTo(400 - lost);
+        assertThat(striped.commit(7L, "tx-9")).isFalse();
+    }
+
+    @Test
+    void reserve_on_uncached_account_reports_no_account() {
+        assertThat(striped.reserve(9L, 10, "tx-5")).isEqualTo(BalanceManager.ReserveResult.NO_ACCOUNT);
+    }
+
+    @Test
+    void totals_sum_slots_and_return_null_when_a_slot_is_missing() {
+        doReturn(List.of(List.of("100", "90"), List.of("200", "200"), List.of("300", "250"), List.of("1", "1")))
+                .when(redisTemplate).executePipelined(any(SessionCallback.class));
+        assertThat(striped.totals(7L)).containsExactly(601, 541);
+
+        doReturn(List.of(List.of("100", "90"), Arrays.asList(null, null), List.of("1", "1"), List.of("1", "1")))
+                .when(redisTemplate).executePipelined(any(SessionCallback.class));
+        assertThat(striped.totals(7L)).isNull();
+    }
+
+    @Test
+    void credit_adds_to_the_primary_slot_and_leaves_an_evicted_slot_missing() {
+        slotsOf(7L, 100, 100, 100, 100);
+
+        assertThat(striped.credit(7L, 50, "tx-c")).isTrue();
+        assertThat(slots.get(StripedBalances.slotKey(7L, striped.primarySlot("tx-c")))).containsExactly(150, 150);
+
+        slots.remove(StripedBalances.slotKey(7L, striped.primarySlot("tx-d")));
+        assertThat(striped.credit(7L, 50, "tx-d")).isFalse();
+        assertThat(slots).doesNotContainKey(StripedBalances.slotKey(7L, striped.primarySlot("tx-d")));
+    }
+}
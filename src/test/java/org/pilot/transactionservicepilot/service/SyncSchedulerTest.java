@@ -7,8 +7,15 @@ import org.pilot.transactionservicepilot.repository.AccountRepository;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Counter;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
 
 import static org.mockito.Mockito.*;
 
@@ -33,25 +40,142 @@ public class SyncSchedulerTest {
         scheduler = new SyncScheduler(accountRepository, balanceManager, transactionService, meterRegistry);
     }
 
+    private static Account account(long id, String updatedAt) {
+        Account a = new Account(); a.setId(id); a.setBalance(new BigDecimal("10.00")); a.setAvailableBalance(new BigDecimal("10.00")); a.setCurrency("USD");
+        if (updatedAt != null) a.setUpdatedAt(Instant.parse(updatedAt));
+        return a;
+    }
+
     @Test
     void reconcile_populates_missing_balance_and_calls_reprocess() {
-        Account a1 = new Account(); a1.setId(1L); a1.setBalance(new BigDecimal("10.00")); a1.setAvailableBalance(new BigDecimal("10.00")); a1.setCurrency("USD");
-        when(accountRepository.findAll()).thenReturn(List.of(a1));
-        when(balanceManager.getBalance(1L)).thenReturn(null);
+        Account a1 = account(1L, null);
+        when(accountRepository.findPageAfter(eq(0L), any(Pageable.class))).thenReturn(List.of(a1));
+        // balance cache has no entry for the account (mock returns an empty map)
 
         // transactionService.reprocessPending should be invoked without throwing
         scheduler.reconcile();
 
-        verify(balanceManager).populateBalance(eq(1L), any(), any(), eq("USD"));
+        verify(balanceManager).populateBalances(List.of(new BalanceManager.CachedBalance(1L, 1000L, 1000L, "USD")));
         verify(transactionService).reprocessPending();
     }
 
+    @Test
+    void reconcile_keeps_existing_entries_and_scans_only_changed_accounts_after_the_first_sweep() {
+        Account a1 = account(1L, "2026-01-01T00:00:00Z");
+        Account a2 = account(2L, "2026-01-01T00:00:01Z");
+        when(accountRepository.findPageAfter(eq(0L), any(Pageable.class))).thenReturn(List.of(a1));
+        when(balanceManager.getCachedBalances(List.of(1L))).thenReturn(Map.of(1L, new BalanceManager.CachedBalance(1L, 900L, 900L, "USD")));
+        when(accountRepository.findChangedAfter(any(Instant.class), eq(0L), any(Pageable.class))).thenReturn(List.of(a2));
+
+        scheduler.reconcile();
+        scheduler.reconcile();
+
+        verify(accountRepository, times(1)).findPageAfter(anyLong(), any(Pageable.class));
+        verify(accountRepository).findChangedAfter(any(Instant.class), eq(0L), any(Pageable.class));
+        verify(balanceManager, times(1)).populateBalances(List.of(new BalanceManager.CachedBalance(2L, 1000L, 1000L, "USD")));
+        verify(balanceManager, never()).populateBalance(anyLong(), any(), any(), any());
+        assertThat(scheduler.getReconcileLagMillis()).isGreaterThanOrEqualTo(0.0);
+    }
+
+    @Test
+    void reconcile_overwrites_an_entry_that_differs_from_the_db_on_two_checks_in_a_row() {
+        Account a1 = account(1L, "2026-01-01T00:00:00Z");
+        BalanceManager.CachedBalance seen = new BalanceManager.CachedBalance(1L, 900L, 900L, "USD");
+        BalanceManager.CachedBalance db = new BalanceManager.CachedBalance(1L, 1000L, 1000L, "USD");
+        when(accountRepository.findPageAfter(eq(0L), any(Pageable.class))).thenReturn(List.of(a1));
+        when(accountRepository.findAllById(List.of(1L))).thenReturn(List.of(a1));
+        when(balanceManager.getCachedBalances(List.of(1L))).thenReturn(Map.of(1L, seen));
+        when(balanceManager.overwriteIfSettled(seen, db)).thenReturn(true);
+
+        scheduler.reconcile();
+        // one check may catch a transaction between its DB commit and its Redis update
+        verify(balanceManager, never()).overwriteIfSettled(any(), any());
+
+        scheduler.reconcile();
+        verify(balanceManager, times(1)).overwriteIfSettled(seen, db);
+
+        // repaired: not re-checked again
+        scheduler.reconcile();
+        verify(accountRepository, times(1)).findAllById(any());
+    }
+
+    @Test
+    void reconcile_leaves_an_entry_that_moved_between_checks_and_never_overwrites_in_write_behind_mode() {
+        Account a1 = account(1L, "2026-01-01T00:00:00Z");
+        when(accountRepository.findPageAfter(eq(0L), any(Pageable.class))).thenReturn(List.of(a1));
+        when(accountRepository.findAllById(List.of(1L))).thenReturn(List.of(a1));
+        when(balanceManager.getCachedBalances(List.of(1L)))
+                .thenReturn(Map.of(1L, new BalanceManager.CachedBalance(1L, 900L, 900L, "USD")))
+                .thenReturn(Map.of(1L, new BalanceManager.CachedBalance(1L, 800L, 800L, "USD")));
+
+        scheduler.reconcile();
+        scheduler.reconcile();
+        verify(balanceManager, never()).overwriteIfSettled(any(), any());
+
+        when(balanceManager.isWriteBehindEnabled()).thenReturn(true);
+        scheduler.reconcile();
+        scheduler.reconcile();
+        verify(balanceManager, never()).overwriteIfSettled(any(), any());
+    }
+
+    @Test
+    void reconcile_sweep_with_idle_eviction_repairs_only_entries_present_in_redis() {
+        Account a1 = account(1L, null);
+        Account a2 = account(2L, null);
+        Account a3 = account(3L, null);
+        when(balanceManager.isIdleEvictionEnabled()).thenReturn(true);
+        when(accountRepository.findPageAfter(eq(0L), any(Pageable.class))).thenReturn(List.of(a1, a2, a3));
+        when(balanceManager.getCachedBalances(List.of(1L, 2L, 3L))).thenReturn(Map.of(3L, new BalanceManager.CachedBalance(3L, 900L, 900L, "USD")));
+        // account 1 was evicted, account 2 holds a malformed entry
+        when(balanceManager.presentInCache(List.of(1L, 2L))).thenReturn(java.util.Set.of(2L));
+
+        scheduler.reconcile();
+
+        verify(balanceManager).populateBalances(List.of(new BalanceManager.CachedBalance(2L, 1000L, 1000L, "USD")));
+        // the differing entry is re-checked on the next cycle
+        when(accountRepository.findAllById(List.of(3L))).thenReturn(List.of(a3));
+        when(balanceManager.getCachedBalances(List.of(3L))).thenReturn(Map.of(3L, new BalanceManager.CachedBalance(3L, 900L, 900L, "USD")));
+        scheduler.reconcile();
+        verify(balanceManager).overwriteIfSettled(new BalanceManager.CachedBalance(3L, 900L, 900L, "USD"), new BalanceManager.CachedBalance(3L, 1000L, 1000L, "USD"));
+    }
+
     @Test
     void reconcile_handles_reprocess_exceptions_and_respects_retries() {
-        when(accountRepository.findAll()).thenReturn(List.of());
         doThrow(new RuntimeException("boom")).when(transactionService).reprocessPending();
         // This will cause the scheduler to attempt up to maxRetries and then stop; we run it
         scheduler.reconcile();
         verify(transactionService, atLeastOnce()).reprocessPending();
     }
+
+    @Test
+    void failed_reprocess_is_retried_by_the_retry_stage_until_max_retries() {
+        ReflectionTestUtils.setField(scheduler, "baseBackoffSeconds", 0L);
+        doThrow(new RuntimeException("boom")).when(transactionService).reprocessPending();
+
+        // the first attempt does not wait for its retries
+        scheduler.reconcile();
+        verify(transactionService, times(1)).reprocessPending();
+
+        // while a retry is pending reconcile leaves reprocessing to the retry stage
+        scheduler.reconcile();
+        verify(transactionService, times(1)).reprocessPending();
+
+        scheduler.retryReprocess();
+        scheduler.retryReprocess();
+        scheduler.retryReprocess();
+        verify(transactionService, times(3)).reprocessPending();
+        verify(meterRegistry).counter("sync_scheduler.permanentFailure.count");
+    }
+
+    @Test
+    void reapReservations_counts_reaped_reservations_and_survives_redis_errors() {
+        when(balanceManager.reapExpiredReservations(500, 100)).thenReturn(3);
+        scheduler.reapReservations();
+        verify(meterRegistry).counter("sync_scheduler.reservation.reaped.count");
+        verify(counter).increment(3);
+
+        when(balanceManager.reapExpiredReservations(500, 100)).thenThrow(new RuntimeException("down"));
+        scheduler.reapReservations();
+        verify(meterRegistry).counter("sync_scheduler.reservation.reap.failure.count");
+    }
 }
@@ -57,7 +57,7 @@ public class TransactionServiceHeavyCoverageTest {
 
         when(transactionRepository.findByTxId("t-retry")).thenReturn(Optional.empty());
         when(accountRepository.findById(11L)).thenReturn(Optional.of(a));
-        when(balanceManager.reserve(11L, req.getAmount(), "t-retry")).thenReturn(BalanceManager.ReserveResult.OK);
+        when(balanceManager.reserveAndCommit(eq(11L), eq(req.getAmountCents()), anyBoolean(), eq("t-retry"))).thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.OK, null, null));
         // simulate debit failing (0 rows updated) -> throws runtime
         when(accountRepository.debitIfAvailable(11L, req.getAmount())).thenReturn(0);
 
@@ -81,7 +81,7 @@ public class TransactionServiceHeavyCoverageTest {
         when(transactionRepository.findByTxId("t-fallback")).thenReturn(Optional.empty());
         when(accountRepository.findById(21L)).thenReturn(Optional.of(src));
         when(accountRepository.findById(22L)).thenReturn(Optional.of(dst));
-        when(balanceManager.reserve(21L, req.getAmount(), "t-fallback")).thenReturn(BalanceManager.ReserveResult.ERROR);
+        when(balanceManager.reserveTransfer(21L, 22L, req.getAmountCents(), "t-fallback")).thenReturn(new BalanceManager.AppliedDelta(BalanceManager.ReserveResult.ERROR, null, false));
 
         // simulate optimistic lock when saving srcAcc
         when(accountRepository.save(any(Account.class))).thenThrow(new OptimisticLockException("lock"));
@@ -103,7 +103,7 @@ public class TransactionServiceHeavyCoverageTest {
         Account a = new Account(); a.setId(31L); a.setBalance(new BigDecimal("30.00")); a.setAvailableBalance(new BigDecimal("30.00"));
         when(transactionRepository.findByTxId("t-fall2")).thenReturn(Optional.empty());
         when(accountRepository.findById(31L)).thenReturn(Optional.of(a));
-        when(balanceManager.reserve(31L, req.getAmount(), "t-fall2")).thenReturn(BalanceManager.ReserveResult.ERROR);
+        when(balanceManager.reserveAndCommit(eq(31L), anyLong(), anyBoolean(), eq("t-fall2"))).thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.ERROR, null, null));
 
         TransactionResponse r1 = svc.process(req);
         assertThat(r1.getStatus()).isEqualTo("FAILED");
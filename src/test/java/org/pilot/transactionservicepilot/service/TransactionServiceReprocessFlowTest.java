@@ -5,15 +5,17 @@ import org.junit.jupiter.api.Test;
 import org.pilot.transactionservicepilot.entity.TransactionRecord;
 import org.pilot.transactionservicepilot.repository.TransactionRepository;
 import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.springframework.data.domain.Pageable;
 
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.List;
-import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 class TransactionServiceReprocessFlowTest {
@@ -41,10 +43,11 @@ class TransactionServiceReprocessFlowTest {
         rec.setStatus("PENDING");
         rec.setRetryCount(0);
 
-        // make findRetryable return our mutable record object each call
-        when(transactionRepository.findRetryable(anyList(), any(Instant.class))).thenAnswer(invocation -> List.of(rec));
+        // make every claim lease our mutable record object
+        when(transactionRepository.findRetryableIds(anyList(), any(Instant.class), anyInt(), any(Pageable.class))).thenReturn(List.of(rec.getId()));
+        when(transactionRepository.findByLeaseOwner(anyString())).thenAnswer(invocation -> List.of(rec));
         // account is missing
-        when(accountRepository.findById(rec.getAccountId())).thenReturn(Optional.empty());
+        when(accountRepository.findAllById(any())).thenReturn(List.of());
 
         // first reprocess -> retryCount = 1, nextAttemptAt set
         transactionService.reprocessPending();
@@ -6,12 +6,20 @@ import org.pilot.transactionservicepilot.entity.TransactionRecord;
 import org.pilot.transactionservicepilot.entity.Account;
 import org.pilot.transactionservicepilot.repository.TransactionRepository;
 import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.mockito.InOrder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.UnexpectedRollbackException;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.math.BigDecimal;
-import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 public class TransactionServiceReprocessTest {
@@ -29,9 +37,22 @@ public class TransactionServiceReprocessTest {
         svc = new TransactionService(balanceManager, transactionRepository, accountRepository);
     }
 
+    private void leasePage(TransactionRecord... page) {
+        List<Long> ids = new ArrayList<>();
+        for (TransactionRecord r : page) ids.add(r.getId());
+        when(transactionRepository.findRetryableIds(any(), any(), anyInt(), any())).thenReturn(ids);
+        when(transactionRepository.findByLeaseOwner(anyString())).thenReturn(List.of(page));
+    }
+
+    private static Account account(long id) {
+        Account a = new Account(); a.setId(id); a.setBalance(new BigDecimal("10.00")); a.setAvailableBalance(new BigDecimal("10.00"));
+        return a;
+    }
+
     @Test
     void reprocessPending_handles_no_account_and_permanent_failure() {
         TransactionRecord rec = new TransactionRecord();
+        rec.setId(1L);
         rec.setTxId("r1");
         rec.setAccountId(99L);
         rec.setAmount(new BigDecimal("1.00"));
@@ -39,8 +60,7 @@ public class TransactionServiceReprocessTest {
         rec.setRetryCount(0);
         rec.setNextAttemptAt(null);
 
-        when(transactionRepository.findRetryable(any(), any())).thenReturn(List.of(rec));
-        when(accountRepository.findById(99L)).thenReturn(Optional.empty());
+        leasePage(rec);
 
         svc.reprocessPending();
 
@@ -50,23 +70,178 @@ public class TransactionServiceReprocessTest {
     @Test
     void reprocessPending_handles_reserve_ok_and_db_apply_success() {
         TransactionRecord rec = new TransactionRecord();
+        rec.setId(2L);
         rec.setTxId("r2");
         rec.setAccountId(1L);
         rec.setAmount(new BigDecimal("1.00"));
         rec.setType("DEBIT");
         rec.setStatus("PENDING");
         rec.setRetryCount(0);
+        rec.setLeaseOwner("worker-1");
 
-        Account a = new Account(); a.setId(1L); a.setBalance(new BigDecimal("10.00")); a.setAvailableBalance(new BigDecimal("10.00"));
-
-        when(transactionRepository.findRetryable(any(), any())).thenReturn(List.of(rec));
-        when(accountRepository.findById(1L)).thenReturn(Optional.of(a));
-        when(balanceManager.reserve(1L, rec.getAmount(), "r2")).thenReturn(BalanceManager.ReserveResult.OK);
+        leasePage(rec);
+        when(accountRepository.findAllById(any())).thenReturn(List.of(account(1L)));
+        when(balanceManager.reserveAndCommit(1L, 100L, true, "r2"))
+                .thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.OK, new BigDecimal("9.00"), new BigDecimal("9.00")));
         when(accountRepository.debitIfAvailable(1L, rec.getAmount())).thenReturn(1);
 
         svc.reprocessPending();
 
         verify(transactionRepository).save(argThat(r -> "COMMITTED".equals(r.getStatus())));
-        verify(balanceManager).commit(1L, rec.getAmount(), "r2");
+        verify(balanceManager).reserveAndCommit(1L, 100L, true, "r2");
+        assertNull(rec.getLeaseOwner());
+    }
+
+    @Test
+    void reprocessPending_applies_transfer_to_both_accounts() {
+        TransactionRecord rec = new TransactionRecord();
+        rec.setId(3L);
+        rec.setTxId("r3");
+        rec.setSourceAccountId(1L);
+        rec.setDestinationAccountId(2L);
+        rec.setAmount(new BigDecimal("2.50"));
+        rec.setType("TRANSFER");
+        rec.setStatus("FAILED");
+        rec.setRetryCount(1);
+
+        leasePage(rec);
+        when(accountRepository.findAllById(any())).thenReturn(List.of(account(1L), account(2L)));
+        when(balanceManager.reserveTransfer(1L, 2L, 250L, "r3"))
+                .thenReturn(new BalanceManager.AppliedDelta(BalanceManager.ReserveResult.OK, new BigDecimal("7.50"), false));
+        when(accountRepository.debitIfAvailable(1L, rec.getAmount())).thenReturn(1);
+        when(accountRepository.credit(2L, rec.getAmount())).thenReturn(1);
+
+        svc.reprocessPending();
+
+        assertEquals("COMMITTED", rec.getStatus());
+        verify(accountRepository).credit(2L, rec.getAmount());
+        verify(balanceManager, never()).revertTransfer(anyLong(), anyLong(), anyLong(), anyString());
+    }
+
+    @Test
+    void reprocessPending_reverts_transfer_when_db_update_fails() {
+        TransactionRecord rec = new TransactionRecord();
+        rec.setId(4L);
+        rec.setTxId("r4");
+        rec.setSourceAccountId(1L);
+        rec.setDestinationAccountId(2L);
+        rec.setAmount(new BigDecimal("2.50"));
+        rec.setType("TRANSFER");
+        rec.setStatus("FAILED");
+        rec.setRetryCount(1);
+
+        leasePage(rec);
+        when(accountRepository.findAllById(any())).thenReturn(List.of(account(1L), account(2L)));
+        when(balanceManager.reserveTransfer(1L, 2L, 250L, "r4"))
+                .thenReturn(new BalanceManager.AppliedDelta(BalanceManager.ReserveResult.OK, new BigDecimal("7.50"), false));
+        when(accountRepository.debitIfAvailable(1L, rec.getAmount())).thenReturn(0);
+
+        svc.reprocessPending();
+
+        verify(balanceManager).revertTransfer(1L, 2L, 250L, "r4");
+        assertEquals(2, rec.getRetryCount().intValue());
+        assertNotNull(rec.getNextAttemptAt());
+    }
+
+    @Test
+    void reprocessPending_stops_after_a_short_page() {
+        ReflectionTestUtils.setField(svc, "batchSize", 2);
+        TransactionRecord rec = new TransactionRecord();
+        rec.setId(5L);
+        rec.setTxId("r5");
+        rec.setAccountId(99L);
+        rec.setAmount(new BigDecimal("1.00"));
+        rec.setStatus("PENDING");
+        rec.setRetryCount(0);
+
+        leasePage(rec);
+
+        svc.reprocessPending();
+
+        // one id found for a page of two: nothing else is due, so no further claims
+        verify(transactionRepository, times(1)).findRetryableIds(any(), any(), anyInt(), any());
+        verify(transactionRepository).lease(eq(List.of(5L)), anyString(), any(), any(), any());
+    }
+
+    @Test
+    void reprocessPending_drains_a_backlog_with_the_worker_pool() {
+        ReflectionTestUtils.setField(svc, "batchSize", 1);
+        ReflectionTestUtils.setField(svc, "reprocessWorkers", 3);
+        ReflectionTestUtils.setField(svc, "maxReprocessPagesPerRun", 2);
+        TransactionRecord rec = new TransactionRecord();
+        rec.setId(6L);
+        rec.setTxId("r6");
+        rec.setAccountId(99L);
+        rec.setAmount(new BigDecimal("1.00"));
+        rec.setStatus("PENDING");
+        rec.setRetryCount(0);
+
+        // every claim returns a full page, so each worker stops at its page limit
+        when(transactionRepository.findRetryableIds(any(), any(), anyInt(), any())).thenReturn(List.of(6L));
+        when(transactionRepository.findByLeaseOwner(anyString())).thenReturn(List.of());
+
+        svc.reprocessPending();
+        svc.stopReprocessing();
+
+        // the first page on the caller, then one more page per worker
+        verify(transactionRepository, times(4)).findRetryableIds(any(), any(), anyInt(), any());
+    }
+
+    @Test
+    void reprocessPending_commits_each_record_on_its_own() {
+        TransactionRecord ok = new TransactionRecord();
+        ok.setId(7L); ok.setTxId("r7"); ok.setAccountId(1L); ok.setAmount(new BigDecimal("1.00"));
+        ok.setType("DEBIT"); ok.setStatus("PENDING"); ok.setRetryCount(0);
+        TransactionRecord lost = new TransactionRecord();
+        lost.setId(8L); lost.setTxId("r8"); lost.setAccountId(1L); lost.setAmount(new BigDecimal("2.00"));
+        lost.setType("DEBIT"); lost.setStatus("PENDING"); lost.setRetryCount(0);
+
+        leasePage(ok, lost);
+        when(accountRepository.findAllById(any())).thenReturn(List.of(account(1L)));
+        when(balanceManager.reserveAndCommit(eq(1L), anyLong(), eq(true), anyString()))
+                .thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.OK, new BigDecimal("9.00"), new BigDecimal("9.00")));
+        when(accountRepository.debitIfAvailable(eq(1L), any())).thenReturn(1);
+        // the claim and the first record commit; the second record's commit finds its transaction rollback-only
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(mock(TransactionStatus.class));
+        doNothing().doNothing().doThrow(new UnexpectedRollbackException("rollback-only")).when(txManager).commit(any());
+        svc.setTransactionManager(txManager);
+
+        svc.reprocessPending();
+
+        assertEquals("COMMITTED", ok.getStatus());
+        verify(balanceManager).confirmApplied(List.of(1L), "r7");
+        assertEquals("PENDING", lost.getStatus());
+        assertEquals(1, lost.getRetryCount().intValue());
+        verify(balanceManager).revert(1L, 200L, true, "r8");
+        verify(balanceManager, never()).confirmApplied(List.of(1L), "r8");
+    }
+
+    @Test
+    void reprocessPending_updates_transfer_rows_in_ascending_id_order() {
+        TransactionRecord rec = new TransactionRecord();
+        rec.setId(9L);
+        rec.setTxId("r9");
+        rec.setSourceAccountId(2L);
+        rec.setDestinationAccountId(1L);
+        rec.setAmount(new BigDecimal("2.50"));
+        rec.setType("TRANSFER");
+        rec.setStatus("FAILED");
+        rec.setRetryCount(1);
+
+        leasePage(rec);
+        when(accountRepository.findAllById(any())).thenReturn(List.of(account(1L), account(2L)));
+        when(balanceManager.reserveTransfer(2L, 1L, 250L, "r9"))
+                .thenReturn(new BalanceManager.AppliedDelta(BalanceManager.ReserveResult.OK, new BigDecimal("7.50"), false));
+        when(accountRepository.debitIfAvailable(2L, rec.getAmount())).thenReturn(1);
+        when(accountRepository.credit(1L, rec.getAmount())).thenReturn(1);
+
+        svc.reprocessPending();
+
+        InOrder order = inOrder(accountRepository, balanceManager);
+        order.verify(accountRepository).credit(1L, rec.getAmount());
+        order.verify(accountRepository).debitIfAvailable(2L, rec.getAmount());
+        order.verify(balanceManager).confirmApplied(List.of(2L, 1L), "r9");
+        assertEquals("COMMITTED", rec.getStatus());
     }
 }
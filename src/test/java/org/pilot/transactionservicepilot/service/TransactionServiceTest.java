@@ -40,7 +40,7 @@ class TransactionServiceTest {
         a.setCurrency("USD");
 
         when(accountRepository.findById(1L)).thenReturn(Optional.of(a));
-        when(balanceManager.reserve(eq(1L), any(BigDecimal.class), eq("tx-1"))).thenReturn(BalanceManager.ReserveResult.INSUFFICIENT_FUNDS);
+        when(balanceManager.reserveAndCommit(eq(1L), anyLong(), anyBoolean(), eq("tx-1"))).thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.INSUFFICIENT_FUNDS, null, null));
 
         TransactionRequest req = new TransactionRequest();
         req.setTxId("tx-1");
@@ -62,7 +62,7 @@ class TransactionServiceTest {
         a.setCurrency("USD");
 
         when(accountRepository.findById(2L)).thenReturn(Optional.of(a));
-        when(balanceManager.reserve(eq(2L), any(BigDecimal.class), eq("tx-2"))).thenReturn(BalanceManager.ReserveResult.OK);
+        when(balanceManager.reserveAndCommit(eq(2L), anyLong(), anyBoolean(), eq("tx-2"))).thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.OK, null, null));
         when(transactionRepository.findByTxId("tx-2")).thenReturn(Optional.empty());
         when(transactionRepository.save(any(TransactionRecord.class))).thenAnswer(i -> i.getArguments()[0]);
         // mock DB-side update to succeed
@@ -78,4 +78,55 @@ class TransactionServiceTest {
         TransactionResponse res = transactionService.process(req);
         assertEquals("COMMITTED", res.getStatus());
     }
+
+    @Test
+    void testCommittedBalanceComesFromRedisScript() {
+        Account a = new Account();
+        a.setId(3L);
+        a.setBalance(new BigDecimal("200.00"));
+        a.setAvailableBalance(new BigDecimal("200.00"));
+
+        when(accountRepository.findById(3L)).thenReturn(Optional.of(a));
+        when(balanceManager.reserveAndCommit(3L, 1000L, true, "tx-3"))
+                .thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.OK, new BigDecimal("190.00"), new BigDecimal("190.00")));
+        when(transactionRepository.findByTxId("tx-3")).thenReturn(Optional.empty());
+        when(accountRepository.debitIfAvailable(eq(3L), any(BigDecimal.class))).thenReturn(1);
+
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("tx-3");
+        req.setAccountId(3L);
+        req.setType("DEBIT");
+        req.setAmount(new BigDecimal("10.00"));
+
+        TransactionResponse res = transactionService.process(req);
+        assertEquals("COMMITTED", res.getStatus());
+        assertEquals(new BigDecimal("190.00"), res.getBalance());
+        // one lookup for validation, no re-read for the response
+        verify(accountRepository, times(1)).findById(3L);
+        verify(balanceManager, never()).commit(any(), any(), any());
+    }
+
+    @Test
+    void testRedisChangeRevertedWhenDbUpdateFails() {
+        Account a = new Account();
+        a.setId(4L);
+        a.setBalance(new BigDecimal("20.00"));
+        a.setAvailableBalance(new BigDecimal("20.00"));
+
+        when(accountRepository.findById(4L)).thenReturn(Optional.of(a));
+        when(balanceManager.reserveAndCommit(4L, 1000L, true, "tx-4"))
+                .thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.OK, new BigDecimal("10.00"), new BigDecimal("10.00")));
+        when(transactionRepository.findByTxId("tx-4")).thenReturn(Optional.empty());
+        when(accountRepository.debitIfAvailable(eq(4L), any(BigDecimal.class))).thenReturn(0);
+
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("tx-4");
+        req.setAccountId(4L);
+        req.setType("DEBIT");
+        req.setAmount(new BigDecimal("10.00"));
+
+        TransactionResponse res = transactionService.process(req);
+        assertEquals("FAILED", res.getStatus());
+        verify(balanceManager).revert(4L, 1000L, true, "tx-4");
+    }
 }
@@ -1,18 +1,30 @@
 package org.pilot.transactionservicepilot.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.pilot.transactionservicepilot.dto.TransactionRequest;
 import org.pilot.transactionservicepilot.dto.TransactionResponse;
 import org.pilot.transactionservicepilot.entity.Account;
+import org.pilot.transactionservicepilot.entity.TransactionRecord;
 import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.repository.TransactionBatchRepository;
 import org.pilot.transactionservicepilot.repository.TransactionRepository;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
 
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.*;
 
 public class TransactionServiceUnitTest {
@@ -62,7 +74,7 @@ public class TransactionServiceUnitTest {
         a.setId(6L);
         when(transactionRepository.findByTxId("t3")).thenReturn(Optional.empty());
         when(accountRepository.findById(6L)).thenReturn(Optional.of(a));
-        when(balanceManager.reserve(6L, req.getAmount(), "t3")).thenReturn(BalanceManager.ReserveResult.NO_ACCOUNT);
+        when(balanceManager.reserveAndCommit(eq(6L), eq(req.getAmountCents()), anyBoolean(), eq("t3"))).thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.NO_ACCOUNT, null, null));
         TransactionResponse resp = svc.process(req);
         assertThat(resp.getStatus()).isEqualTo("FAILED");
         assertThat(resp.getError()).contains("Account not in cache");
@@ -78,7 +90,7 @@ public class TransactionServiceUnitTest {
         a.setId(7L);
         when(transactionRepository.findByTxId("t4")).thenReturn(Optional.empty());
         when(accountRepository.findById(7L)).thenReturn(Optional.of(a));
-        when(balanceManager.reserve(7L, req.getAmount(), "t4")).thenReturn(BalanceManager.ReserveResult.INSUFFICIENT_FUNDS);
+        when(balanceManager.reserveAndCommit(eq(7L), eq(req.getAmountCents()), anyBoolean(), eq("t4"))).thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.INSUFFICIENT_FUNDS, null, null));
         TransactionResponse resp = svc.process(req);
         assertThat(resp.getStatus()).isEqualTo("FAILED");
         assertThat(resp.getError()).contains("Insufficient funds");
@@ -96,7 +108,7 @@ public class TransactionServiceUnitTest {
         a.setAvailableBalance(new BigDecimal("100.00"));
         when(transactionRepository.findByTxId("t5")).thenReturn(Optional.empty());
         when(accountRepository.findById(8L)).thenReturn(Optional.of(a));
-        when(balanceManager.reserve(8L, req.getAmount(), "t5")).thenReturn(BalanceManager.ReserveResult.ERROR);
+        when(balanceManager.reserveAndCommit(eq(8L), eq(req.getAmountCents()), anyBoolean(), eq("t5"))).thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.ERROR, null, null));
         // mock DB save path: accountRepository.save will be called in fallback; we simulate save by returning account
         when(accountRepository.save(any(Account.class))).thenReturn(a);
         TransactionResponse resp = svc.process(req);
@@ -126,13 +138,229 @@ public class TransactionServiceUnitTest {
         Account dst = new Account(); dst.setId(2L); dst.setBalance(new BigDecimal("5.00")); dst.setAvailableBalance(new BigDecimal("5.00"));
         when(accountRepository.findById(1L)).thenReturn(Optional.of(src));
         when(accountRepository.findById(2L)).thenReturn(Optional.of(dst));
-        when(balanceManager.reserve(1L, req.getAmount(), "t6")).thenReturn(BalanceManager.ReserveResult.OK);
+        when(balanceManager.reserveTransfer(1L, 2L, req.getAmountCents(), "t6")).thenReturn(new BalanceManager.AppliedDelta(BalanceManager.ReserveResult.OK, null, false));
         when(accountRepository.debitIfAvailable(1L, req.getAmount())).thenReturn(1);
         when(accountRepository.credit(2L, req.getAmount())).thenReturn(1);
         TransactionResponse r3 = svc.process(req);
         assertThat(r3.getStatus()).isIn("COMMITTED","FAILED");
     }
 
+    @Test
+    void transfer_runs_idempotency_check_and_account_lookups_concurrently() {
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("t7");
+        req.setAmount(new BigDecimal("1.00"));
+        req.setSourceAccountId(1L);
+        req.setDestinationAccountId(2L);
+        Account src = new Account(); src.setId(1L);
+        Account dst = new Account(); dst.setId(2L);
+        // each lookup waits until all three have started; run one after another they would time out
+        CountDownLatch started = new CountDownLatch(3);
+        List<Boolean> overlapped = new CopyOnWriteArrayList<>();
+        when(transactionRepository.findByTxId("t7")).thenAnswer(inv -> {
+            started.countDown();
+            overlapped.add(started.await(5, TimeUnit.SECONDS));
+            return Optional.empty();
+        });
+        when(accountRepository.findById(anyLong())).thenAnswer(inv -> {
+            started.countDown();
+            overlapped.add(started.await(5, TimeUnit.SECONDS));
+            return Optional.of(inv.getArgument(0, Long.class) == 1L ? src : dst);
+        });
+        when(balanceManager.reserveTransfer(1L, 2L, req.getAmountCents(), "t7")).thenReturn(new BalanceManager.AppliedDelta(BalanceManager.ReserveResult.INSUFFICIENT_FUNDS, null, false));
+
+        TransactionResponse resp = svc.process(req);
+
+        assertThat(overlapped).containsExactly(true, true, true);
+        assertThat(resp.getError()).isEqualTo("Insufficient funds");
+    }
+
+    @Test
+    void failed_lookup_cancels_the_others() throws Exception {
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("t8");
+        req.setAmount(new BigDecimal("1.00"));
+        req.setAccountId(3L);
+        CountDownLatch lookupStarted = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(accountRepository.findById(3L)).thenAnswer(inv -> {
+            lookupStarted.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return Optional.empty();
+        });
+        when(transactionRepository.findByTxId("t8")).thenAnswer(inv -> {
+            lookupStarted.await(5, TimeUnit.SECONDS);
+            throw new IllegalStateException("db down");
+        });
+
+        assertThatThrownBy(() -> svc.process(req)).isInstanceOf(IllegalStateException.class).hasMessage("db down");
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+        verify(balanceManager, never()).reserveAndCommit(anyLong(), anyLong(), anyBoolean(), anyString());
+    }
+
+    @Test
+    void redis_calls_run_outside_the_db_transaction() {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        svc.setTransactionManager(txManager);
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("t9");
+        req.setAmount(new BigDecimal("1.00"));
+        req.setAccountId(9L);
+        req.setType("DEBIT");
+        Account a = new Account();
+        a.setId(9L);
+        when(accountRepository.findById(9L)).thenReturn(Optional.of(a));
+        when(balanceManager.reserveAndCommit(9L, 100L, true, "t9")).thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.OK, new BigDecimal("4.00"), new BigDecimal("4.00")));
+        when(accountRepository.debitIfAvailable(9L, req.getAmount())).thenReturn(0);
+
+        TransactionResponse resp = svc.process(req);
+
+        assertThat(resp.getStatus()).isEqualTo("FAILED");
+        // reserve before the connection is borrowed, undo after the rolled-back transaction returned it
+        InOrder order = inOrder(balanceManager, txManager, accountRepository);
+        order.verify(balanceManager).reserveAndCommit(9L, 100L, true, "t9");
+        order.verify(txManager).getTransaction(any());
+        order.verify(accountRepository).debitIfAvailable(9L, req.getAmount());
+        order.verify(txManager).rollback(any());
+        order.verify(balanceManager).revert(9L, 100L, true, "t9");
+    }
+
+    @Test
+    void transfer_updates_its_rows_in_ascending_account_id_order() {
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("t12");
+        req.setAmount(new BigDecimal("1.00"));
+        req.setSourceAccountId(13L);
+        req.setDestinationAccountId(12L);
+        Account src = new Account();
+        src.setId(13L);
+        Account dst = new Account();
+        dst.setId(12L);
+        when(accountRepository.findById(13L)).thenReturn(Optional.of(src));
+        when(accountRepository.findById(12L)).thenReturn(Optional.of(dst));
+        when(balanceManager.reserveTransfer(13L, 12L, 100L, "t12")).thenReturn(new BalanceManager.AppliedDelta(BalanceManager.ReserveResult.OK, new BigDecimal("9.00"), false));
+        when(accountRepository.credit(12L, req.getAmount())).thenReturn(1);
+        when(accountRepository.debitIfAvailable(13L, req.getAmount())).thenReturn(0);
+
+        TransactionResponse resp = svc.process(req);
+
+        // the destination has the lower id, so it is credited first; the failed debit rolls both back
+        assertThat(resp.getStatus()).isEqualTo("FAILED");
+        InOrder order = inOrder(accountRepository, balanceManager);
+        order.verify(accountRepository).credit(12L, req.getAmount());
+        order.verify(accountRepository).debitIfAvailable(13L, req.getAmount());
+        order.verify(balanceManager).revertTransfer(13L, 12L, 100L, "t12");
+    }
+
+    @Test
+    void failed_redis_undo_marks_the_account_stale() {
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("t10");
+        req.setAmount(new BigDecimal("1.00"));
+        req.setAccountId(10L);
+        req.setType("DEBIT");
+        Account a = new Account();
+        a.setId(10L);
+        when(accountRepository.findById(10L)).thenReturn(Optional.of(a));
+        when(balanceManager.reserveAndCommit(10L, 100L, true, "t10")).thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.OK, null, null));
+        when(accountRepository.debitIfAvailable(10L, req.getAmount())).thenReturn(0);
+        doThrow(new IllegalStateException("redis down")).when(balanceManager).revert(10L, 100L, true, "t10");
+
+        TransactionResponse resp = svc.process(req);
+
+        assertThat(resp.getStatus()).isEqualTo("FAILED");
+        verify(balanceManager).markStale(List.of(10L));
+        verify(transactionRepository).save(argThat(r -> "FAILED".equals(r.getStatus()) && r.getId() == null));
+    }
+
+    @Test
+    void request_path_writes_through_the_jdbc_writer_when_present() {
+        TransactionBatchRepository jdbcWriter = mock(TransactionBatchRepository.class);
+        svc.setJdbcWriter(jdbcWriter);
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("t11");
+        req.setAmount(new BigDecimal("1.00"));
+        req.setAccountId(11L);
+        req.setType("DEBIT");
+        Account a = new Account();
+        a.setId(11L);
+        when(accountRepository.findById(11L)).thenReturn(Optional.of(a));
+        when(balanceManager.reserveAndCommit(11L, 100L, true, "t11")).thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.OK, new BigDecimal("9.00"), new BigDecimal("9.00")));
+        when(jdbcWriter.debitIfAvailable(11L, req.getAmount())).thenReturn(1);
+
+        TransactionResponse resp = svc.process(req);
+
+        assertThat(resp.getStatus()).isEqualTo("COMMITTED");
+        verify(jdbcWriter).insert(argThat(r -> "t11".equals(r.getTxId()) && "COMMITTED".equals(r.getStatus())));
+        verify(accountRepository, never()).debitIfAvailable(anyLong(), any());
+        verify(transactionRepository, never()).save(any());
+    }
+
+    @Test
+    void duplicate_rejected_by_the_database_returns_the_stored_outcome() {
+        TransactionBatchRepository jdbcWriter = mock(TransactionBatchRepository.class);
+        svc.setJdbcWriter(jdbcWriter);
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("t13");
+        req.setAmount(new BigDecimal("1.00"));
+        req.setAccountId(13L);
+        req.setType("DEBIT");
+        Account a = new Account();
+        a.setId(13L);
+        TransactionRecord stored = new TransactionRecord();
+        stored.setTxId("t13");
+        stored.setStatus("COMMITTED");
+        stored.setAmount(req.getAmount());
+        when(transactionRepository.findByTxId("t13")).thenReturn(Optional.empty(), Optional.of(stored));
+        when(accountRepository.findById(13L)).thenReturn(Optional.of(a));
+        when(balanceManager.reserveAndCommit(13L, 100L, true, "t13")).thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.OK, new BigDecimal("9.00"), new BigDecimal("9.00")));
+        when(jdbcWriter.debitIfAvailable(13L, req.getAmount())).thenReturn(1);
+        doThrow(new DuplicateKeyException("tx_id")).when(jdbcWriter).insert(any());
+
+        TransactionResponse resp = svc.process(req);
+
+        assertThat(resp.getStatus()).isEqualTo("COMMITTED");
+        assertThat(resp.getError()).isNull();
+        verify(balanceManager).revert(13L, 100L, true, "t13");
+    }
+
+    @Test
+    void stages_and_db_fallbacks_are_timed_per_outcome() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        svc.setMeterRegistry(registry);
+        Account a = new Account();
+        a.setId(12L);
+        a.setBalance(new BigDecimal("100.00"));
+        a.setAvailableBalance(new BigDecimal("100.00"));
+        when(accountRepository.findById(12L)).thenReturn(Optional.of(a));
+        when(accountRepository.debitIfAvailable(eq(12L), any())).thenReturn(1);
+        when(balanceManager.reserveAndCommit(12L, 100L, true, "t12")).thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.OK, new BigDecimal("99.00"), new BigDecimal("99.00")));
+        when(balanceManager.reserveAndCommit(12L, 100L, true, "t13")).thenReturn(new BalanceManager.AppliedBalance(BalanceManager.ReserveResult.ERROR, null, null));
+        when(accountRepository.save(any(Account.class))).thenReturn(a);
+
+        for (String txId : List.of("t12", "t13")) {
+            TransactionRequest req = new TransactionRequest();
+            req.setTxId(txId);
+            req.setAmount(new BigDecimal("1.00"));
+            req.setAccountId(12L);
+            req.setType("DEBIT");
+            svc.process(req);
+        }
+
+        assertThat(registry.get("transaction.latency").tags("type", "DEBIT", "outcome", "committed").timer().count()).isEqualTo(2);
+        assertThat(registry.get("transaction.stage.latency").tags("stage", "redis_reserve", "outcome", "ok").timer().count()).isEqualTo(1);
+        assertThat(registry.get("transaction.stage.latency").tags("stage", "redis_reserve", "outcome", "error").timer().count()).isEqualTo(1);
+        assertThat(registry.get("transaction.stage.latency").tags("stage", "db_update", "outcome", "ok").timer().count()).isEqualTo(1);
+        assertThat(registry.get("transaction.stage.latency").tags("stage", "db_fallback", "outcome", "ok").timer().count()).isEqualTo(1);
+        assertThat(registry.get("transaction.stage.latency").tags("stage", "account_lookup").timers()).isNotEmpty();
+        assertThat(registry.get("transaction.db_fallback.count").tag("type", "DEBIT").counter().count()).isEqualTo(1.0);
+    }
+
     @Test
     void calculateNextAttempt_works_exponential() {
         Instant now = Instant.now();
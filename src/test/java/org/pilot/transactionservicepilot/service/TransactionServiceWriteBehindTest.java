@@ -0,0 +1,129 @@
+package org.pilot.transactionservicepilot.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pilot.transactionservicepilot.dto.TransactionRequest;
+import org.pilot.transactionservicepilot.dto.TransactionResponse;
+import org.pilot.transactionservicepilot.entity.Account;
+import org.pilot.transactionservicepilot.repository.AccountRepository;
+import org.pilot.transactionservicepilot.repository.TransactionRepository;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class TransactionServiceWriteBehindTest {
+
+    BalanceManager balanceManager;
+    TransactionRepository transactionRepository;
+    AccountRepository accountRepository;
+    TransactionService svc;
+
+    @BeforeEach
+    void setUp() {
+        balanceManager = mock(BalanceManager.class);
+        transactionRepository = mock(TransactionRepository.class);
+        accountRepository = mock(AccountRepository.class);
+        svc = new TransactionService(balanceManager, transactionRepository, accountRepository);
+        ReflectionTestUtils.setField(svc, "writeBehindEnabled", true);
+    }
+
+    @Test
+    void debit_commits_in_redis_without_touching_db() {
+        TransactionRequest req = debit("wb1", 1L, "10.00");
+        when(accountRepository.findById(1L)).thenReturn(Optional.of(account(1L, "100.00")));
+        when(balanceManager.applyDelta("DEBIT", 1L, null, req.getAmountCents(), "wb1", "USD", null))
+                .thenReturn(new BalanceManager.AppliedDelta(BalanceManager.ReserveResult.OK, new BigDecimal("90.00"), false));
+
+        TransactionResponse resp = svc.process(req);
+
+        assertThat(resp.getStatus()).isEqualTo("COMMITTED");
+        assertThat(resp.getBalance()).isEqualByComparingTo("90.00");
+        verify(accountRepository, never()).debitIfAvailable(any(), any());
+        verify(transactionRepository, never()).save(any());
+        verify(balanceManager, never()).reserve(any(), any(), any());
+    }
+
+    @Test
+    void insufficient_funds_and_missing_cache_entry_fail() {
+        TransactionRequest req = debit("wb2", 2L, "10.00");
+        when(accountRepository.findById(2L)).thenReturn(Optional.of(account(2L, "1.00")));
+        when(balanceManager.applyDelta(eq("DEBIT"), eq(2L), isNull(), anyLong(), eq("wb2"), any(), any()))
+                .thenReturn(new BalanceManager.AppliedDelta(BalanceManager.ReserveResult.INSUFFICIENT_FUNDS, null, false));
+        assertThat(svc.process(req).getError()).isEqualTo("Insufficient funds");
+
+        when(balanceManager.applyDelta(eq("DEBIT"), eq(2L), isNull(), anyLong(), eq("wb2"), any(), any()))
+                .thenReturn(new BalanceManager.AppliedDelta(BalanceManager.ReserveResult.NO_ACCOUNT, null, false));
+        assertThat(svc.process(req).getError()).isEqualTo("Account not in cache");
+    }
+
+    @Test
+    void redis_error_fails_fast_without_touching_db() {
+        TransactionRequest req = debit("wb3", 3L, "10.00");
+        when(accountRepository.findById(3L)).thenReturn(Optional.of(account(3L, "100.00")));
+        when(accountRepository.findById(6L)).thenReturn(Optional.of(account(6L, "0.00")));
+        when(balanceManager.applyDelta(any(), any(), any(), anyLong(), any(), any(), any()))
+                .thenReturn(new BalanceManager.AppliedDelta(BalanceManager.ReserveResult.ERROR, null, false));
+
+        TransactionResponse resp = svc.process(req);
+
+        assertThat(resp.getStatus()).isEqualTo("FAILED");
+        assertThat(resp.getError()).isEqualTo(TransactionService.CACHE_UNAVAILABLE);
+
+        TransactionRequest transfer = new TransactionRequest();
+        transfer.setTxId("wb3t");
+        transfer.setSourceAccountId(3L);
+        transfer.setDestinationAccountId(6L);
+        transfer.setAmount(new BigDecimal("1.00"));
+        transfer.setCurrency("USD");
+        assertThat(svc.process(transfer).getError()).isEqualTo(TransactionService.CACHE_UNAVAILABLE);
+
+        verify(accountRepository, never()).save(any());
+        verify(accountRepository, never()).debitIfAvailable(any(), any());
+        verify(accountRepository, never()).credit(any(), any());
+        verify(transactionRepository, never()).save(any());
+    }
+
+    @Test
+    void transfer_applies_both_legs_in_one_delta() {
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId("wb4");
+        req.setSourceAccountId(4L);
+        req.setDestinationAccountId(5L);
+        req.setAmount(new BigDecimal("3.00"));
+        req.setCurrency("USD");
+        when(accountRepository.findById(4L)).thenReturn(Optional.of(account(4L, "10.00")));
+        when(accountRepository.findById(5L)).thenReturn(Optional.of(account(5L, "0.00")));
+        when(balanceManager.applyDelta("TRANSFER", 4L, 5L, req.getAmountCents(), "wb4", "USD", null))
+                .thenReturn(new BalanceManager.AppliedDelta(BalanceManager.ReserveResult.OK, new BigDecimal("7.00"), false));
+
+        TransactionResponse resp = svc.process(req);
+
+        assertThat(resp.getStatus()).isEqualTo("COMMITTED");
+        assertThat(resp.getBalance()).isEqualByComparingTo("7.00");
+        verify(accountRepository, never()).credit(any(), any());
+    }
+
+    private static TransactionRequest debit(String txId, Long accountId, String amount) {
+        TransactionRequest req = new TransactionRequest();
+        req.setTxId(txId);
+        req.setAccountId(accountId);
+        req.setType("DEBIT");
+        req.setAmount(new BigDecimal(amount));
+        req.setCurrency("USD");
+        return req;
+    }
+
+    private static Account account(Long id, String balance) {
+        Account a = new Account();
+        a.setId(id);
+        a.setCurrency("USD");
+        a.setBalance(new BigDecimal(balance));
+        a.setAvailableBalance(new BigDecimal(balance));
+        return a;
+    }
+}
@@ -4,6 +4,7 @@ Convert the perf summary JSON (written by the Java perf test) to the XML report
 expected by the project: test/report/TransactionServicePilotPerftest_20260119.xml
 
 Usage: python tools/generate_perf_report_from_json.py --input target/perf-results/perf-summary-latest.json --output test/report/TransactionServicePilotPerftest_20260119.xml
+       (or --input target/perf-results/load-latest.json for an open-model load run)
 """
 import argparse
 import json
@@ -50,16 +51,19 @@ def generate_from_json(jpath, outpath):
 
     runs = ET.SubElement(root, 'Runs')
     run = ET.SubElement(runs, 'Run')
-    ET.SubElement(run, 'TargetTPS').text = str(int(data.get('throughput', 0)))
+    # open-model load runs (OpenModelLoadTest) carry their arrival rate; older summaries only the throughput
+    ET.SubElement(run, 'TargetTPS').text = str(int(data.get('targetTps', data.get('throughput', 0))))
     ET.SubElement(run, 'DurationSec').text = str(int(data.get('durationMs', 0)) // 1000)
     ET.SubElement(run, 'Samples').text = str(data.get('totalTx', 0))
     ET.SubElement(run, 'Successes').text = str(data.get('committed', 0))
     ET.SubElement(run, 'Failures').text = str(data.get('failed', 0))
-    ET.SubElement(run, 'AvgLatencyMs').text = "0.0"
+    ET.SubElement(run, 'AvgLatencyMs').text = f"{float(data.get('avgLatencyMs', 0.0)):.2f}"
 
+    # percentiles in ms when the summary has them (open-model load runs), 0.0 otherwise
+    percentiles = data.get('percentiles', {})
     pers = ET.SubElement(run, 'Percentiles')
     for p in [30,50,70,90,95,99]:
-        ET.SubElement(pers, f'p{p}').text = "0.0"
+        ET.SubElement(pers, f'p{p}').text = f"{float(percentiles.get(f'p{p}', 0.0)):.2f}"
 
     tree = ET.ElementTree(root)
     os.makedirs(os.path.dirname(outpath), exist_ok=True)